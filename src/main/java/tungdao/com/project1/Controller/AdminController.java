@@ -0,0 +1,304 @@
+package tungdao.com.project1.Controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import tungdao.com.project1.service.ActivityTelemetryService;
+import tungdao.com.project1.service.AudioPipelineService;
+import tungdao.com.project1.service.AutosaveService;
+import tungdao.com.project1.service.DashboardStatsService;
+import tungdao.com.project1.service.GradingQueueService;
+import tungdao.com.project1.service.IdempotencyService;
+import tungdao.com.project1.service.ItemAnalysisService;
+import tungdao.com.project1.service.LeaderboardService;
+import tungdao.com.project1.service.SubmissionIntakeService;
+import tungdao.com.project1.service.TestScoreMappingService;
+import tungdao.com.project1.service.TestStatsService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Các endpoint vận hành dành cho admin
+ */
+@RestController
+@RequestMapping("/api/admin")
+@PreAuthorize("hasRole('ADMIN')")
+public class AdminController {
+
+    private final AudioPipelineService audioPipelineService;
+    private final TestScoreMappingService testScoreMappingService;
+    private final SubmissionIntakeService submissionIntakeService;
+    private final IdempotencyService idempotencyService;
+    private final AutosaveService autosaveService;
+    private final GradingQueueService gradingQueueService;
+    private final TestStatsService testStatsService;
+    private final DashboardStatsService dashboardStatsService;
+    private final ActivityTelemetryService activityTelemetryService;
+    private final ItemAnalysisService itemAnalysisService;
+    private final LeaderboardService leaderboardService;
+
+    public AdminController(AudioPipelineService audioPipelineService,
+                           TestScoreMappingService testScoreMappingService,
+                           SubmissionIntakeService submissionIntakeService,
+                           IdempotencyService idempotencyService,
+                           AutosaveService autosaveService,
+                           GradingQueueService gradingQueueService,
+                           TestStatsService testStatsService,
+                           DashboardStatsService dashboardStatsService,
+                           ActivityTelemetryService activityTelemetryService,
+                           ItemAnalysisService itemAnalysisService,
+                           LeaderboardService leaderboardService) {
+        this.audioPipelineService = audioPipelineService;
+        this.testScoreMappingService = testScoreMappingService;
+        this.submissionIntakeService = submissionIntakeService;
+        this.idempotencyService = idempotencyService;
+        this.autosaveService = autosaveService;
+        this.gradingQueueService = gradingQueueService;
+        this.testStatsService = testStatsService;
+        this.dashboardStatsService = dashboardStatsService;
+        this.activityTelemetryService = activityTelemetryService;
+        this.itemAnalysisService = itemAnalysisService;
+        this.leaderboardService = leaderboardService;
+    }
+
+    /**
+     * Độ sâu hàng đợi và độ trễ của pipeline chuẩn hoá audio
+     */
+    @GetMapping("/audio-pipeline/stats")
+    public ResponseEntity<?> getAudioPipelineStats() {
+        try {
+            return ResponseEntity.ok(audioPipelineService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting audio pipeline stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê pipeline audio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Nạp lại bảng quy đổi band IELTS từ test_score_mapping
+     */
+    @PostMapping("/score-mappings/reload")
+    public ResponseEntity<?> reloadScoreMappings() {
+        try {
+            return ResponseEntity.ok(testScoreMappingService.reload());
+        } catch (Exception e) {
+            System.err.println("❌ Error reloading score mappings: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi nạp lại bảng quy đổi điểm: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hàng đợi chấm bài nộp bất đồng bộ: số bài đang chờ, độ trễ nhận bài và thời gian chấm,
+     * cùng số lần nộp lại được trả kết quả cũ theo Idempotency-Key
+     */
+    @GetMapping("/submissions/stats")
+    public ResponseEntity<?> getSubmissionStats() {
+        try {
+            Map<String, Object> stats = new HashMap<>(submissionIntakeService.getStats());
+            stats.put("idempotentReplaysSinceStartup", idempotencyService.getReplayedCount());
+            stats.put("idempotencyConflictsSinceStartup", idempotencyService.getConflictCount());
+            return ResponseEntity.ok(stats);
+        } catch (Exception e) {
+            System.err.println("❌ Error getting submission stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê hàng đợi nộp bài: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bộ đệm autosave: số bài làm/câu trả lời đang chờ ghi và độ trễ flush
+     */
+    @GetMapping("/autosave/stats")
+    public ResponseEntity<?> getAutosaveStats() {
+        try {
+            return ResponseEntity.ok(autosaveService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting autosave stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê autosave: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hàng đợi chấm tay: số bài chờ, số bài đang được giữ lease và số lần tranh chấp
+     */
+    @GetMapping("/grading-queue/stats")
+    public ResponseEntity<?> getGradingQueueStats() {
+        try {
+            return ResponseEntity.ok(gradingQueueService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting grading queue stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê hàng đợi chấm: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bảng thống kê theo đề: số dòng, độ sâu outbox, kết quả lần kiểm tra nhất quán gần nhất
+     */
+    @GetMapping("/test-stats/stats")
+    public ResponseEntity<?> getTestStatsStats() {
+        try {
+            return ResponseEntity.ok(testStatsService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting test stats status: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy trạng thái thống kê đề: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tính lại thống kê của mọi đề (chạy nền qua outbox)
+     */
+    @PostMapping("/test-stats/backfill")
+    public ResponseEntity<?> backfillTestStats() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("queuedTests", testStatsService.backfill());
+            return ResponseEntity.accepted().body(response);
+        } catch (Exception e) {
+            System.err.println("❌ Error backfilling test stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi tính lại thống kê đề: " + e.getMessage());
+        }
+    }
+
+    /**
+     * So sánh test_stats với test_attempts; repair = true thì đưa các đề lệch vào outbox
+     */
+    @PostMapping("/test-stats/check")
+    public ResponseEntity<?> checkTestStats(@RequestParam(defaultValue = "false") boolean repair) {
+        try {
+            return ResponseEntity.ok(testStatsService.checkConsistency(repair));
+        } catch (Exception e) {
+            System.err.println("❌ Error checking test stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi kiểm tra thống kê đề: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot dashboard: tuổi của snapshot, thời gian làm mới, số lần phục vụ bản mới / bản cũ
+     */
+    @GetMapping("/dashboard-snapshot/stats")
+    public ResponseEntity<?> getDashboardSnapshotStats() {
+        try {
+            return ResponseEntity.ok(dashboardStatsService.getMetrics());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting dashboard snapshot stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê snapshot dashboard: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hoạt động đo từ AuthTokenFilter: user online, DAU, số request mỗi phút
+     */
+    @GetMapping("/activity/stats")
+    public ResponseEntity<?> getActivityStats() {
+        try {
+            return ResponseEntity.ok(activityTelemetryService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting activity stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy thống kê hoạt động: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lịch sử hoạt động theo ngày (bảng daily_activity)
+     */
+    @GetMapping("/activity/daily")
+    public ResponseEntity<?> getDailyActivity(@RequestParam(defaultValue = "30") int days) {
+        try {
+            return ResponseEntity.ok(activityTelemetryService.getDailyHistory(Math.min(days, 366)));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting daily activity: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy lịch sử hoạt động: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Phân tích câu hỏi: lượt chạy gần nhất, mốc đã xử lý, số câu bị gắn cảnh báo
+     */
+    @GetMapping("/item-analysis/stats")
+    public ResponseEntity<?> getItemAnalysisStats() {
+        try {
+            return ResponseEntity.ok(itemAnalysisService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting item analysis stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy trạng thái phân tích câu hỏi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chạy phân tích câu hỏi ở nền (full=true: tính lại toàn bộ thay vì từ mốc lần trước)
+     */
+    @PostMapping("/item-analysis/run")
+    public ResponseEntity<?> runItemAnalysis(@RequestParam(defaultValue = "false") boolean full) {
+        try {
+            return ResponseEntity.accepted().body(itemAnalysisService.startRun(full));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error starting item analysis: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi chạy phân tích câu hỏi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Các câu hỏi bị gắn cảnh báo trong toàn ngân hàng đề (quá khó / quá dễ / phân biệt kém / nghi sai đáp án)
+     */
+    @GetMapping("/item-analysis/flagged")
+    public ResponseEntity<?> getFlaggedItems(@RequestParam(defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(itemAnalysisService.getFlaggedItems(limit));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting flagged items: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy danh sách câu hỏi cần xem lại: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bảng xếp hạng trong bộ nhớ: số bảng, số lần cập nhật / đọc, thời gian dựng lại
+     */
+    @GetMapping("/leaderboard/stats")
+    public ResponseEntity<?> getLeaderboardStats() {
+        try {
+            return ResponseEntity.ok(leaderboardService.getStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error getting leaderboard stats: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy trạng thái bảng xếp hạng: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dựng lại bảng xếp hạng từ DB (chạy nền ở lượt kiểm tra kế tiếp)
+     */
+    @PostMapping("/leaderboard/rebuild")
+    public ResponseEntity<?> rebuildLeaderboards() {
+        try {
+            leaderboardService.requestRebuild();
+            Map<String, Object> response = new HashMap<>();
+            response.put("rebuildRequested", true);
+            return ResponseEntity.accepted().body(response);
+        } catch (Exception e) {
+            System.err.println("❌ Error requesting leaderboard rebuild: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi dựng lại bảng xếp hạng: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package tungdao.com.project1.Controller;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import tungdao.com.project1.entity.AudioRendition;
+import tungdao.com.project1.entity.ListeningAudio;
+import tungdao.com.project1.entity.StudentResponse;
+import tungdao.com.project1.entity.Test;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.entity.UserRole;
+import tungdao.com.project1.login_register.UserDetailsImpl;
+import tungdao.com.project1.repository.StudentResponseRepository;
+import tungdao.com.project1.repository.UserRepository;
+import tungdao.com.project1.service.AudioPipelineService;
+import tungdao.com.project1.service.AudioStorageService;
+import tungdao.com.project1.service.ListeningAudioService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phát audio từ kho lưu trữ, hỗ trợ Range (206 Partial Content) và ETag để player có thể tua.
+ */
+@RestController
+@RequestMapping("/api/audio")
+public class AudioStreamController {
+
+    private final ListeningAudioService listeningAudioService;
+    private final AudioStorageService audioStorageService;
+    private final StudentResponseRepository studentResponseRepository;
+    private final UserRepository userRepository;
+    private final AudioPipelineService audioPipelineService;
+
+    public AudioStreamController(ListeningAudioService listeningAudioService,
+                                 AudioStorageService audioStorageService,
+                                 StudentResponseRepository studentResponseRepository,
+                                 UserRepository userRepository,
+                                 AudioPipelineService audioPipelineService) {
+        this.listeningAudioService = listeningAudioService;
+        this.audioStorageService = audioStorageService;
+        this.studentResponseRepository = studentResponseRepository;
+        this.userRepository = userRepository;
+        this.audioPipelineService = audioPipelineService;
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> streamListeningAudio(@PathVariable Integer id,
+                                                  @RequestParam(defaultValue = "false") boolean original,
+                                                  @RequestHeader HttpHeaders requestHeaders) {
+        try {
+            ListeningAudio audio = listeningAudioService.getAudioById(id);
+            if (audio == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy audio với ID: " + id);
+            }
+
+            audio = listeningAudioService.ensureStored(audio);
+            if (!audio.hasStoredAudio() || !audioStorageService.exists(audio.getAudioHash())) {
+                System.err.println("❌ Audio " + id + " has no stored data");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Audio " + id + " không có dữ liệu");
+            }
+
+            // ✅ Ưu tiên bản nhẹ do pipeline chuẩn hoá tạo ra, trừ khi client yêu cầu bản gốc
+            AudioRendition rendition = original ? null : audioPipelineService.findRendition(audio.getAudioHash());
+            if (rendition != null) {
+                return streamBlob(rendition.getRenditionHash(), rendition.getRenditionMimeType(),
+                        CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic(), requestHeaders);
+            }
+
+            return streamBlob(audio.getAudioHash(), audio.getEffectiveMimeType(),
+                    CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic(), requestHeaders);
+        } catch (Exception e) {
+            System.err.println("❌ Error streaming audio " + id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi phát audio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Thời lượng và peaks (waveform) của audio Listening - có sau khi pipeline chuẩn hoá chạy xong
+     */
+    @GetMapping("/{id}/peaks")
+    public ResponseEntity<?> getListeningAudioPeaks(@PathVariable Integer id) {
+        try {
+            ListeningAudio audio = listeningAudioService.getAudioById(id);
+            if (audio == null || !audio.hasStoredAudio()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy audio với ID: " + id);
+            }
+
+            AudioRendition summary = audioPipelineService.findSummary(audio.getAudioHash());
+            if (summary == null || summary.getPeaks() == null) {
+                // Job chưa chạy xong
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body("Audio " + id + " đang được xử lý");
+            }
+
+            List<Integer> peaks = new ArrayList<>();
+            for (String peak : summary.getPeaks().split(",")) {
+                peaks.add(Integer.parseInt(peak));
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("audioId", id);
+            response.put("durationSeconds", summary.getDurationSeconds());
+            response.put("peaks", peaks);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic())
+                    .body(response);
+        } catch (Exception e) {
+            System.err.println("❌ Error getting peaks for audio " + id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy waveform: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Phát bản ghi âm Speaking của học viên - chỉ chủ bài làm, giáo viên tạo đề hoặc admin được nghe
+     */
+    @GetMapping("/responses/{responseId}")
+    public ResponseEntity<?> streamResponseAudio(@PathVariable Integer responseId,
+                                                 @RequestParam(defaultValue = "false") boolean original,
+                                                 @RequestHeader HttpHeaders requestHeaders,
+                                                 @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            StudentResponse response = studentResponseRepository.findById(responseId).orElse(null);
+            if (response == null || !response.hasStoredAudio()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Không tìm thấy audio cho câu trả lời: " + responseId);
+            }
+
+            User currentUser = userRepository.findById(userDetails.getId()).orElse(null);
+            if (currentUser == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("User not found");
+            }
+
+            boolean isOwner = response.getStudent().getId().equals(currentUser.getId());
+            boolean isAdmin = currentUser.getRole() == UserRole.ADMIN;
+            Test test = response.getAttempt().getTest();
+            boolean isCreator = test.getCreator() != null && test.getCreator().getId().equals(currentUser.getId());
+
+            if (!isOwner && !isAdmin && !isCreator) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Bạn không có quyền nghe audio này");
+            }
+
+            if (!audioStorageService.exists(response.getAudioHash())) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Audio file missing for response " + responseId);
+            }
+
+            AudioRendition rendition = original ? null : audioPipelineService.findRendition(response.getAudioHash());
+            if (rendition != null) {
+                return streamBlob(rendition.getRenditionHash(), rendition.getRenditionMimeType(),
+                        CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate(), requestHeaders);
+            }
+
+            String mimeType = response.getAudioMimeType() != null ? response.getAudioMimeType() : "audio/webm";
+            return streamBlob(response.getAudioHash(), mimeType,
+                    CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate(), requestHeaders);
+        } catch (Exception e) {
+            System.err.println("❌ Error streaming response audio " + responseId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi phát audio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Trả về toàn bộ file, một đoạn (206) hoặc 304 nếu client đã có bản cùng ETag
+     */
+    private ResponseEntity<?> streamBlob(String hash, String mimeType, CacheControl cacheControl,
+                                         HttpHeaders requestHeaders) throws IOException {
+        String etag = "\"" + hash + "\"";
+        Resource resource = new FileSystemResource(audioStorageService.resolve(hash));
+        long contentLength = resource.contentLength();
+        MediaType mediaType = MediaType.parseMediaType(mimeType);
+
+        // ✅ Nội dung định danh theo hash nên ETag không bao giờ đổi
+        if (requestHeaders.getIfNoneMatch().contains(etag) || requestHeaders.getIfNoneMatch().contains("*")) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(contentLength);
+        }
+
+        // If-Range khác ETag hiện tại => trả về toàn bộ file
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        boolean rangeApplies = !ranges.isEmpty() && (ifRange == null || ifRange.equals(etag));
+
+        if (!rangeApplies) {
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentType(mediaType)
+                    .contentLength(contentLength)
+                    .body(resource);
+        }
+
+        // Player chỉ yêu cầu một đoạn mỗi lần - dùng đoạn đầu tiên
+        ResourceRegion region;
+        try {
+            region = ranges.get(0).toResourceRegion(resource);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(contentLength);
+        }
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(mediaType)
+                .body(region);
+    }
+
+    private ResponseEntity<?> rangeNotSatisfiable(long contentLength) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength)
+                .build();
+    }
+}
@@ -5,9 +5,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import tungdao.com.project1.service.AudioContainer;
+import tungdao.com.project1.service.AudioStorageService;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PushbackInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,6 +26,12 @@ public class AudioUploadController {
     @Value("${app.upload.dir:${user.home}/uploads/audio}")
     private String uploadDir;
 
+    private final AudioStorageService audioStorageService;
+
+    public AudioUploadController(AudioStorageService audioStorageService) {
+        this.audioStorageService = audioStorageService;
+    }
+
     // ✅ UPDATED: 100MB limit constant
     private static final long MAX_FILE_SIZE = 100 * 1024 * 1024; // 100MB
 
@@ -108,32 +117,37 @@ public class AudioUploadController {
                         .body("File rỗng. Vui lòng chọn file audio hợp lệ.");
             }
 
-            // ✅ CONVERT TO BASE64 and validate
-            System.out.println("Converting to Base64...");
-            byte[] audioBytes = file.getBytes();
-            String base64Data = java.util.Base64.getEncoder().encodeToString(audioBytes);
-            String dataUrl = "data:" + contentType + ";base64," + base64Data;
+            // ✅ STREAM INTO AUDIO STORE: nhận diện header, tính SHA-256 và ghi file theo từng đoạn
+            AudioContainer container;
+            AudioStorageService.StoredAudio stored;
+            try (PushbackInputStream in = new PushbackInputStream(file.getInputStream(), AudioContainer.HEADER_SIZE)) {
+                container = AudioContainer.sniff(in);
+                System.out.println("Detected container: " + container);
+
+                if (container == AudioContainer.UNKNOWN) {
+                    return ResponseEntity.badRequest()
+                            .body("Không nhận diện được định dạng audio. Content-Type: " + contentType);
+                }
 
-            System.out.println("✅ Conversion successful");
-            System.out.println("Base64 length: " + base64Data.length() + " characters");
+                stored = audioStorageService.store(in);
+            }
+
+            System.out.println("✅ Audio stored: " + stored);
 
             Map<String, Object> response = new HashMap<>();
             response.put("isValid", true);
             response.put("fileName", file.getOriginalFilename());
             response.put("contentType", contentType);
-            response.put("fileSize", file.getSize());
-            response.put("fileSizeFormatted", formatFileSize(file.getSize()));
-            response.put("base64Data", dataUrl);
-            response.put("base64Length", base64Data.length());
+            response.put("container", container.name());
+            response.put("mimeType", container.getMimeType());
+            response.put("fileSize", stored.size);
+            response.put("fileSizeFormatted", formatFileSize(stored.size));
+            response.put("audioHash", stored.hash);
             response.put("maxFileSize", MAX_FILE_SIZE);
             response.put("maxFileSizeFormatted", "100MB");
 
             return ResponseEntity.ok(response);
 
-        } catch (OutOfMemoryError e) {
-            System.err.println("❌ Out of memory error - file too large for Base64 conversion");
-            return ResponseEntity.status(HttpStatus.REQUEST_ENTITY_TOO_LARGE)
-                    .body("File quá lớn để convert sang Base64. Vui lòng sử dụng file upload thay vì Base64.");
         } catch (Exception e) {
             System.err.println("❌ Error validating audio: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,130 @@
+package tungdao.com.project1.Controller;
+
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import tungdao.com.project1.dto.AudioUploadInitRequest;
+import tungdao.com.project1.entity.AudioUpload;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.login_register.UserDetailsImpl;
+import tungdao.com.project1.repository.UserRepository;
+import tungdao.com.project1.service.AudioUploadService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upload bản ghi âm Speaking theo từng đoạn (resumable):
+ * POST /api/recordings/uploads -> PUT /{uploadId}/chunks/{index} -> POST /{uploadId}/complete.
+ * Bài nộp chỉ cần gửi audioUploadId thay vì base64.
+ */
+@RestController
+@RequestMapping("/api/recordings/uploads")
+public class AudioUploadSessionController {
+
+    private final AudioUploadService audioUploadService;
+    private final UserRepository userRepository;
+
+    public AudioUploadSessionController(AudioUploadService audioUploadService,
+                                        UserRepository userRepository) {
+        this.audioUploadService = audioUploadService;
+        this.userRepository = userRepository;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> initUpload(@RequestBody AudioUploadInitRequest request,
+                                        @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User user = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found with ID: " + userDetails.getId()));
+
+            AudioUpload upload = audioUploadService.initUpload(user, request);
+            return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(upload, new ArrayList<>()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error initializing audio upload: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi khởi tạo upload: " + e.getMessage());
+        }
+    }
+
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String uploadId,
+                                         @PathVariable int index,
+                                         HttpServletRequest request,
+                                         @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            audioUploadService.writeChunk(uploadId, userDetails.getId(), index, request.getInputStream());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("uploadId", uploadId);
+            response.put("index", index);
+            response.put("received", true);
+            return ResponseEntity.ok(response);
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error writing chunk " + index + " for upload " + uploadId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi upload chunk: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUploadStatus(@PathVariable String uploadId,
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            AudioUpload upload = audioUploadService.getUpload(uploadId, userDetails.getId());
+            return ResponseEntity.ok(toResponse(upload, audioUploadService.getReceivedChunks(upload)));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error reading upload " + uploadId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi đọc trạng thái upload: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId,
+                                            @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            AudioUpload upload = audioUploadService.completeUpload(uploadId, userDetails.getId());
+            return ResponseEntity.ok(toResponse(upload, new ArrayList<>()));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error completing upload " + uploadId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi hoàn tất upload: " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> toResponse(AudioUpload upload, List<Integer> receivedChunks) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploadId", upload.getId());
+        response.put("status", upload.getStatus());
+        response.put("totalSize", upload.getTotalSize());
+        response.put("chunkSize", upload.getChunkSize());
+        response.put("totalChunks", upload.getTotalChunks());
+        response.put("receivedChunks", receivedChunks);
+        response.put("audioHash", upload.getAudioHash());
+        return response;
+    }
+}
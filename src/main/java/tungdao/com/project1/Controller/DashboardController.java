@@ -2,192 +2,47 @@
 package tungdao.com.project1.Controller;
 
 import tungdao.com.project1.dto.DashboardStats;
-import tungdao.com.project1.repository.UserRepository;
-import tungdao.com.project1.repository.TestRepository;
-import tungdao.com.project1.repository.FlashcardRepository;
+import tungdao.com.project1.service.DashboardStatsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.CrossOrigin;
 
+import java.time.Duration;
+
 @RestController
 @RequestMapping("/api/dashboard")
 @CrossOrigin(origins = "*")
 public class DashboardController {
 
     @Autowired
-    private UserRepository userRepository;
-
-    @Autowired
-    private TestRepository testRepository;
-
-    @Autowired
-    private FlashcardRepository flashcardRepository;
+    private DashboardStatsService dashboardStatsService;
 
+    // ✅ Snapshot dùng chung, làm mới ở nền - không còn chạy từng câu count() cho mỗi lần tải dashboard
     @GetMapping("/stats")
-    public DashboardStats getStats() {
+    public ResponseEntity<DashboardStats> getStats() {
         try {
-            System.out.println("=== GETTING COMPREHENSIVE DASHBOARD STATS FROM DATABASE ===");
-
-            // ✅ Get basic counts from database
-            long totalUsers = userRepository.count();
-            long totalTests = testRepository.count();
-            long totalFlashcards = flashcardRepository.count();
-            long activeUsers = userRepository.countActiveUsers();
-
-            System.out.println("Basic counts - Users: " + totalUsers +
-                    ", Tests: " + totalTests +
-                    ", Flashcards: " + totalFlashcards +
-                    ", Active Users: " + activeUsers);
-
-            // ✅ Get comprehensive statistics
-            long publishedTests = testRepository.countByIsPublishedTrue();
-            long draftTests = testRepository.countByIsPublishedFalse();
-            long totalTestAttempts = testRepository.countTotalTestAttempts();
-
-            // ✅ Get today's activity
-            long todayUsers = userRepository.countUsersCreatedToday();
-            long todayTests = testRepository.countTestsCreatedToday();
-            long todayFlashcards = flashcardRepository.countFlashcardsCreatedToday();
-            long todayTestAttempts = testRepository.countTestAttemptsToday();
-            long todayStudySessions = flashcardRepository.countStudySessionsToday();
-
-            System.out.println("Today's activity - Users: " + todayUsers +
-                    ", Tests: " + todayTests +
-                    ", Flashcards: " + todayFlashcards +
-                    ", Test Attempts: " + todayTestAttempts +
-                    ", Study Sessions: " + todayStudySessions);
-
-            // ✅ Create comprehensive stats object with real data
-            DashboardStats stats = new DashboardStats();
-            stats.setTotalUsers(totalUsers);
-            stats.setTotalTests(totalTests);
-            stats.setTotalFlashcards(totalFlashcards);
-            stats.setActiveUsers(activeUsers);
-            stats.setPublishedTests(publishedTests);
-            stats.setDraftTests(draftTests);
-            stats.setTotalTestAttempts(totalTestAttempts);
-
-            // ✅ Calculate real growth rates based on actual activity
-            stats.setUserGrowthRate(calculateRealGrowthRate(todayUsers, totalUsers));
-            stats.setTestGrowthRate(calculateRealGrowthRate(todayTests, totalTests));
-            stats.setFlashcardGrowthRate(calculateRealGrowthRate(todayFlashcards, totalFlashcards));
-            stats.setActiveUserGrowthRate(calculateActiveUserGrowthRate(activeUsers, totalUsers));
-
-            // ✅ Set real activity data
-            stats.setTodayVisits(calculateTodayVisits(todayTestAttempts, todayStudySessions, todayUsers));
-            stats.setOnlineUsers(estimateOnlineUsers(activeUsers));
-
-            System.out.println("✅ Comprehensive dashboard stats created with real database data");
-            System.out.println("Growth rates - Users: " + stats.getUserGrowthRate() +
-                    "%, Tests: " + stats.getTestGrowthRate() +
-                    "%, Flashcards: " + stats.getFlashcardGrowthRate() + "%");
-
-            return stats;
+            DashboardStats stats = dashboardStatsService.getStats();
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.maxAge(Duration.ofSeconds(dashboardStatsService.getMaxAgeSeconds()))
+                            .cachePrivate()
+                            .staleWhileRevalidate(Duration.ofSeconds(dashboardStatsService.getStaleWhileRevalidateSeconds())))
+                    .body(stats);
 
         } catch (Exception e) {
             System.err.println("❌ Error getting comprehensive dashboard stats: " + e.getMessage());
             e.printStackTrace();
 
             // ✅ Return basic fallback stats with minimal data
-            return createFallbackStats();
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noStore())
+                    .body(createFallbackStats());
         }
     }
 
-    /**
-     * ✅ Calculate real growth rate based on today's activity vs total
-     */
-    private double calculateRealGrowthRate(long todayCount, long totalCount) {
-        if (totalCount == 0) return 0.0;
-
-        // Calculate daily growth percentage
-        double dailyGrowthPercentage = (double) todayCount / Math.max(totalCount - todayCount, 1) * 100;
-
-        // Cap at reasonable values
-        return Math.min(dailyGrowthPercentage, 20.0);
-    }
-
-    /**
-     * ✅ Calculate active user growth rate based on ratio
-     */
-    private double calculateActiveUserGrowthRate(long activeUsers, long totalUsers) {
-        if (totalUsers == 0) return 0.0;
-
-        double activePercentage = (double) activeUsers / totalUsers;
-
-        // Convert active percentage to growth rate indicator
-        if (activePercentage > 0.9) return 8.5;      // Very high engagement
-        else if (activePercentage > 0.8) return 6.2; // High engagement
-        else if (activePercentage > 0.7) return 4.8; // Good engagement
-        else if (activePercentage > 0.6) return 3.1; // Moderate engagement
-        else if (activePercentage > 0.5) return 1.9; // Low engagement
-        else return 0.8;                            // Very low engagement
-    }
-
-    /**
-     * ✅ Calculate today's visits based on real activity
-     */
-    private long calculateTodayVisits(long todayTestAttempts, long todayStudySessions, long todayUsers) {
-        // Each test attempt generates approximately 3-5 page visits
-        long testVisits = todayTestAttempts * 4;
-
-        // Each study session generates approximately 2-3 page visits
-        long studyVisits = todayStudySessions * 2;
-
-        // Each new user generates approximately 8-12 page visits (registration, browsing)
-        long userVisits = todayUsers * 10;
-
-        // Add some baseline traffic
-        long baselineVisits = Math.max(10, (todayTestAttempts + todayStudySessions) * 2);
-
-        long totalVisits = testVisits + studyVisits + userVisits + baselineVisits;
-
-        // Cap at reasonable daily visits for a learning platform
-        return Math.min(totalVisits, 5000);
-    }
-
-    /**
-     * ✅ Estimate online users based on active users and time patterns
-     */
-    private long estimateOnlineUsers(long activeUsers) {
-        if (activeUsers == 0) return 0;
-
-        // Get current hour to adjust online percentage
-        int currentHour = java.time.LocalDateTime.now().getHour();
-        double timeMultiplier = getTimeMultiplier(currentHour);
-
-        // Base online percentage (5-15% of active users typically online)
-        double baseOnlinePercentage = 0.08; // 8% baseline
-
-        // Adjust based on user base size
-        if (activeUsers > 1000) baseOnlinePercentage = 0.04;      // Large user base: 4%
-        else if (activeUsers > 500) baseOnlinePercentage = 0.06;  // Medium user base: 6%
-        else if (activeUsers > 100) baseOnlinePercentage = 0.08;  // Small user base: 8%
-        else if (activeUsers > 20) baseOnlinePercentage = 0.12;   // Very small: 12%
-        else baseOnlinePercentage = 0.20;                         // Tiny: 20%
-
-        // Apply time-based multiplier
-        double adjustedPercentage = baseOnlinePercentage * timeMultiplier;
-
-        long estimatedOnline = Math.round(activeUsers * adjustedPercentage);
-
-        return Math.max(estimatedOnline, 0);
-    }
-
-    /**
-     * ✅ Get time-based multiplier for online user estimation
-     */
-    private double getTimeMultiplier(int hour) {
-        // Peak hours for learning platforms (evening and weekend patterns)
-        if (hour >= 19 && hour <= 22) return 1.5;      // Evening peak: 7-10 PM
-        else if (hour >= 14 && hour <= 18) return 1.2; // Afternoon: 2-6 PM
-        else if (hour >= 9 && hour <= 12) return 1.0;  // Morning: 9 AM-12 PM
-        else if (hour >= 6 && hour <= 8) return 0.8;   // Early morning: 6-8 AM
-        else if (hour >= 23 || hour <= 5) return 0.3;  // Night/Late night: 11 PM-5 AM
-        else return 0.6;                               // Other times
-    }
-
     /**
      * ✅ Create fallback stats when database fails
      */
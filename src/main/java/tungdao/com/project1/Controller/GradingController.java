@@ -7,10 +7,15 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import tungdao.com.project1.dto.AnswerKeyUpdateRequest;
+import tungdao.com.project1.dto.BulkGradingRequest;
 import tungdao.com.project1.dto.GradingRequest;
 import tungdao.com.project1.entity.*;
 import tungdao.com.project1.login_register.UserDetailsImpl;
 import tungdao.com.project1.repository.*;
+import tungdao.com.project1.service.GradingQueueService;
+import tungdao.com.project1.service.GradingService;
+import tungdao.com.project1.service.RegradeService;
 import tungdao.com.project1.service.TestAttemptService;
 
 import java.math.BigDecimal;
@@ -31,6 +36,15 @@ public class GradingController {
     @Autowired
     private SpeakingWritingCriteriaScoreRepository criteriaScoreRepository;
 
+    @Autowired
+    private GradingService gradingService;
+
+    @Autowired
+    private GradingQueueService gradingQueueService;
+
+    @Autowired
+    private RegradeService regradeService;
+
     public GradingController(TestRepository testRepository,
                              TestAttemptRepository testAttemptRepository,
                              StudentResponseRepository studentResponseRepository,
@@ -258,6 +272,9 @@ public class GradingController {
                     respMap.put("questionText", response.getQuestion().getQuestionText());
                     respMap.put("responseText", response.getResponseText());
                     respMap.put("audioBase64", response.getAudioBase64());
+                    if (response.hasStoredAudio()) {
+                        respMap.put("audioUrl", "/api/audio/responses/" + response.getId());
+                    }
                     respMap.put("currentScore", response.getManualScore());
                     respMap.put("isCorrect", response.getIsCorrect());
 
@@ -335,121 +352,200 @@ public class GradingController {
                         .body("Access denied");
             }
 
-            // Get all responses for this attempt
-            List<StudentResponse> responses = studentResponseRepository.findByAttemptId(request.getAttemptId());
+            // Cùng đường ghi với chấm hàng loạt (nạp điểm tiêu chí bằng IN, ghi bằng saveAll)
+            Map<String, Object> bulkResult = gradingService.saveBulkCriteriaGrading(List.of(request), currentUser);
 
-            if (responses.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> results = (List<Map<String, Object>>) bulkResult.get("results");
+            if (results.isEmpty()) {
                 return ResponseEntity.badRequest()
                         .body("No responses found for attempt: " + request.getAttemptId());
             }
 
-            System.out.println("Found " + responses.size() + " responses to grade");
-
-            int savedCount = 0;
+            Map<String, Object> result = new HashMap<>(results.get(0));
+            result.put("success", true);
+            result.put("message", "Criteria grading saved successfully");
 
-            // Save criteria scores for each response
-            for (StudentResponse response : responses) {
-                try {
-                    // Check if criteria score already exists
-                    Optional<SpeakingWritingCriteriaScore> existingScore =
-                            criteriaScoreRepository.findByResponse(response);
-
-                    SpeakingWritingCriteriaScore criteriaScore;
-                    if (existingScore.isPresent()) {
-                        criteriaScore = existingScore.get();
-                        System.out.println("Updating existing criteria score for response: " + response.getId());
-                    } else {
-                        criteriaScore = new SpeakingWritingCriteriaScore();
-                        criteriaScore.setResponse(response);
-                        System.out.println("Creating new criteria score for response: " + response.getId());
-                    }
+            return ResponseEntity.ok(result);
 
-                    // Map criteria scores based on test type
-                    GradingRequest.CriteriaScores criteria = request.getCriteriaScores();
-
-                    if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
-                        // For speaking: map to speaking fields
-                        criteriaScore.setFluencyPronunciation(criteria.getFluency());
-                        criteriaScore.setLexicalResource(criteria.getLexical());
-                        criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
-
-                        // If pronunciation is separate, average with fluency
-                        if (criteria.getPronunciation() != null) {
-                            criteriaScore.setCoherenceCohesion(criteria.getPronunciation());
-                        }else {
-                            // Nếu không có pronunciation riêng, có thể lưu một tiêu chí khác
-                            // Ví dụ: Task Achievement cho Speaking (tương đương việc hoàn thành nhiệm vụ nói)
-                            criteriaScore.setCoherenceCohesion(criteria.getTask_achievement());
-                        }
-                    } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
-                        // For writing: map to writing fields
-                        criteriaScore.setTaskAchievement(criteria.getTask_achievement());
-                        criteriaScore.setCoherenceCohesion(criteria.getCoherence());
-                        criteriaScore.setLexicalResource(criteria.getLexical());
-                        criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
-                    }
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("❌ Error saving criteria grading: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 
-                    criteriaScore.setMarkerComments(request.getFeedback());
-                    criteriaScore.setGradedAt(LocalDateTime.now());
+    /**
+     * Chấm theo tiêu chí cho nhiều bài làm một lần (giáo viên chấm cả lớp)
+     */
+    @PostMapping("/criteria-grade/bulk")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> saveBulkCriteriaGrading(@RequestBody BulkGradingRequest request,
+                                                     @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            System.out.println("=== BULK CRITERIA GRADING REQUEST ===");
+            System.out.println("User: " + userDetails.getUsername());
+            System.out.println("Attempts: " + (request.getGrades() == null ? 0 : request.getGrades().size()));
 
-                    // Save criteria score
-                    criteriaScoreRepository.save(criteriaScore);
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
 
-                    // Update response with overall score
-                    response.setManualScore(request.getOverallScore());
-                    response.setFeedback(request.getFeedback());
-                    response.setGrader(currentUser);
-                    response.setFeedbackGivenAt(LocalDateTime.now());
+            return ResponseEntity.ok(gradingService.saveBulkCriteriaGrading(request.getGrades(), currentUser));
 
-                    // Set isCorrect based on score
-                    if (request.getOverallScore() != null) {
-                        response.setIsCorrect(request.getOverallScore().compareTo(BigDecimal.valueOf(5.0)) >= 0);
-                    }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("❌ Error saving bulk criteria grading: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 
-                    studentResponseRepository.save(response);
+    /**
+     * Hàng đợi chấm bài theo trang: truyền nextCursor của trang trước vào "after"
+     */
+    @GetMapping("/queue")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getGradingQueue(@RequestParam(required = false) Long after,
+                                             @RequestParam(required = false) Integer size,
+                                             @RequestParam(required = false) Integer testId,
+                                             @RequestParam(defaultValue = "false") boolean mine,
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(gradingQueueService.getQueue(currentUser, testId, after, size, mine));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting grading queue: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error getting grading queue: " + e.getMessage());
+        }
+    }
 
-                    savedCount++;
-                    System.out.println("✅ Saved criteria score for response: " + response.getId());
+    /**
+     * Nhận bài để chấm (lease có hạn). Gọi lại để gia hạn.
+     */
+    @PostMapping("/queue/{attemptId}/claim")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> claimGradingItem(@PathVariable Integer attemptId,
+                                              @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(gradingQueueService.claim(currentUser, attemptId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("❌ Error claiming attempt " + attemptId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 
-                } catch (Exception e) {
-                    System.err.println("❌ Error saving criteria for response " + response.getId() + ": " + e.getMessage());
-                    // Continue with other responses
-                }
+    /**
+     * Trả bài về hàng đợi khi không chấm nữa
+     */
+    @DeleteMapping("/queue/{attemptId}/claim")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> releaseGradingItem(@PathVariable Integer attemptId,
+                                                @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            if (!gradingQueueService.release(currentUser, attemptId)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "No lease held on attempt " + attemptId));
             }
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            System.err.println("❌ Error releasing attempt " + attemptId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 
-            // Update test attempt overall score
-            attempt.setGradingStatus(GradingStatus.COMPLETED);
-            attempt.setGrader(currentUser);
-            attempt.setGradedAt(LocalDateTime.now());
-            attempt.setOverallScore(request.getOverallScore());
-            attempt.setOverallFeedback(request.getFeedback());
-
-// Set individual skill scores based on test type
-            if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
-                attempt.setSpeakingScore(request.getOverallScore());
-            } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
-                attempt.setWritingScore(request.getOverallScore());
-            }
-            testAttemptRepository.save(attempt);
+    /**
+     * Sửa đáp án một câu hỏi và chấm lại các bài đã nộp (chạy nền, theo dõi qua /regrade/{jobId})
+     */
+    @PutMapping("/answer-key/{questionId}")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> updateAnswerKey(@PathVariable Integer questionId,
+                                             @RequestBody AnswerKeyUpdateRequest request,
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            return regradeAccepted(regradeService.updateAnswerKey(questionId, request, currentUser));
+        } catch (Exception e) {
+            return regradeError("updating answer key for question " + questionId, e);
+        }
+    }
+
+    /**
+     * Chấm lại mọi câu hỏi khách quan của một đề theo đáp án hiện tại
+     */
+    @PostMapping("/test/{testId}/regrade")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> regradeTest(@PathVariable Integer testId,
+                                         @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            User currentUser = userRepository.findById(userDetails.getId())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            return regradeAccepted(regradeService.regradeTest(testId, currentUser));
+        } catch (Exception e) {
+            return regradeError("regrading test " + testId, e);
+        }
+    }
 
-            System.out.println("✅ Criteria grading completed. Saved: " + savedCount + " responses");
+    @GetMapping("/regrade/{jobId}")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getRegradeJob(@PathVariable String jobId) {
+        Map<String, Object> job = regradeService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Regrade job not found"));
+        }
+        return ResponseEntity.ok(job);
+    }
 
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", true);
-            result.put("message", "Criteria grading saved successfully");
-            result.put("attemptId", request.getAttemptId());
-            result.put("overallScore", request.getOverallScore());
-            result.put("savedResponses", savedCount);
-            result.put("totalResponses", responses.size());
+    @GetMapping("/regrade")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getRecentRegradeJobs() {
+        return ResponseEntity.ok(regradeService.getRecentJobs());
+    }
 
-            return ResponseEntity.ok(result);
+    private ResponseEntity<?> regradeAccepted(Map<String, Object> job) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header("Location", "/api/grading/regrade/" + job.get("jobId"))
+                .body(job);
+    }
 
-        } catch (Exception e) {
-            System.err.println("❌ Error saving criteria grading: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+    private ResponseEntity<?> regradeError(String action, Exception e) {
+        if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        if (e instanceof SecurityException) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", e.getMessage()));
+        }
+        if (e instanceof IllegalStateException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "30")
                     .body(Map.of("error", e.getMessage()));
         }
+        System.err.println("❌ Error " + action + ": " + e.getMessage());
+        e.printStackTrace();
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
     }
 
     /**
@@ -469,40 +565,18 @@ public class GradingController {
                         .body("User not found");
             }
 
-            List<Test> userTests;
-
-            // Get user's tests
-            if (currentUser.getRole() == UserRole.ADMIN) {
-                userTests = testRepository.findAll();
-            } else {
-                userTests = testRepository.findByCreator(currentUser);
-            }
-
-            System.out.println("Found " + userTests.size() + " tests to check");
-
-            // Count pending grading
+            // Đếm trên hàng đợi chấm: một câu GROUP BY thay vì duyệt từng đề và từng bài làm
+            Map<Integer, Long> pendingByTest = gradingQueueService.countPendingByTest(currentUser);
             List<Map<String, Object>> testsWithPending = new ArrayList<>();
 
-            for (Test test : userTests) {
-                try {
-                    long pendingCount = getPendingGradingCountSafe(test.getId());
-
-                    if (pendingCount > 0) {
-                        Map<String, Object> testInfo = new HashMap<>();
-                        testInfo.put("id", test.getId());
-                        testInfo.put("testName", test.getTestName());
-                        testInfo.put("testType", test.getTestType().toString());
-                        testInfo.put("pendingCount", pendingCount);
-                        testInfo.put("createdAt", test.getCreatedAt());
-
-                        testsWithPending.add(testInfo);
-                        System.out.println("Test " + test.getId() + " has " + pendingCount + " pending submissions");
-                    }
-
-                } catch (Exception e) {
-                    System.err.println("⚠️ Error checking test " + test.getId() + ": " + e.getMessage());
-                    // Continue with other tests
-                }
+            for (Test test : testRepository.findAllById(pendingByTest.keySet())) {
+                Map<String, Object> testInfo = new HashMap<>();
+                testInfo.put("id", test.getId());
+                testInfo.put("testName", test.getTestName());
+                testInfo.put("testType", test.getTestType().toString());
+                testInfo.put("pendingCount", pendingByTest.get(test.getId()));
+                testInfo.put("createdAt", test.getCreatedAt());
+                testsWithPending.add(testInfo);
             }
 
             System.out.println("✅ Found " + testsWithPending.size() + " tests with pending grading");
@@ -522,47 +596,6 @@ public class GradingController {
         return testType == TestType.WRITING || testType == TestType.SPEAKING;
     }
 
-    private long getPendingGradingCountSafe(Integer testId) {
-        try {
-            // Count attempts that might need grading
-            List<TestAttempt> attempts = testAttemptRepository.findByTestIdOrderByStartTimeDesc(testId);
-
-            // For Writing/Speaking tests, count as pending if no criteria grading exists
-            Test test = testRepository.findById(testId).orElse(null);
-            if (test != null && isManualGradingTestType(test.getTestType())) {
-                return attempts.stream()
-                        .filter(attempt -> !checkHasCriteriaGrading(attempt.getId()))
-                        .count();
-            }
-
-            return 0; // No manual grading needed for other types
-
-        } catch (Exception e) {
-            System.err.println("⚠️ Error counting pending grading: " + e.getMessage());
-            return 0;
-        }
-    }
-
-    private boolean checkHasCriteriaGrading(Integer attemptId) {
-        try {
-            // Check if any response in this attempt has criteria grading
-            List<StudentResponse> responses = studentResponseRepository.findByAttemptId(attemptId);
-
-            for (StudentResponse response : responses) {
-                Optional<SpeakingWritingCriteriaScore> criteriaScore =
-                        criteriaScoreRepository.findByResponse(response);
-                if (criteriaScore.isPresent()) {
-                    return true; // Found at least one criteria score
-                }
-            }
-
-            return false; // No criteria scores found
-        } catch (Exception e) {
-            System.err.println("⚠️ Error checking criteria grading: " + e.getMessage());
-            return false;
-        }
-    }
-
     private Map<String, Object> getExistingCriteriaScores(Integer attemptId) {
         try {
             List<StudentResponse> responses = studentResponseRepository.findByAttemptId(attemptId);
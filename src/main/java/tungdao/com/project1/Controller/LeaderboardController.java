@@ -0,0 +1,60 @@
+package tungdao.com.project1.Controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import tungdao.com.project1.entity.TestType;
+import tungdao.com.project1.login_register.UserDetailsImpl;
+import tungdao.com.project1.service.LeaderboardService;
+
+import java.util.Map;
+
+/**
+ * Bảng xếp hạng theo đề và theo kỹ năng (đọc từ bộ nhớ), kèm hạng của người đang đăng nhập
+ */
+@RestController
+@RequestMapping("/api/leaderboard")
+public class LeaderboardController {
+
+    private final LeaderboardService leaderboardService;
+
+    public LeaderboardController(LeaderboardService leaderboardService) {
+        this.leaderboardService = leaderboardService;
+    }
+
+    @GetMapping("/test/{testId}")
+    public ResponseEntity<?> getTestLeaderboard(@PathVariable Integer testId,
+                                                @RequestParam(defaultValue = "10") int limit,
+                                                @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            return ResponseEntity.ok(leaderboardService.getTestLeaderboard(testId, limit, userDetails.getId()));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting leaderboard for test " + testId + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", true, "message", "Error getting leaderboard: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/skill/{skill}")
+    public ResponseEntity<?> getSkillLeaderboard(@PathVariable String skill,
+                                                 @RequestParam(defaultValue = "10") int limit,
+                                                 @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        TestType testType = TestType.fromString(skill);
+        if (testType == null) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", true, "message", "Unknown skill: " + skill));
+        }
+        try {
+            return ResponseEntity.ok(leaderboardService.getSkillLeaderboard(testType, limit, userDetails.getId()));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting " + testType + " leaderboard: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", true, "message", "Error getting leaderboard: " + e.getMessage()));
+        }
+    }
+}
@@ -3,11 +3,15 @@ package tungdao.com.project1.Controller;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import tungdao.com.project1.dto.TestDTO;
 import tungdao.com.project1.entity.*;
 import tungdao.com.project1.mapper.TestMapper;
 import tungdao.com.project1.repository.*;
+import tungdao.com.project1.service.TestPaperCache;
+import tungdao.com.project1.service.TestScoreMappingService;
+import tungdao.com.project1.service.TestStatsService;
 import tungdao.com.project1.service.UserService;
 
 import java.util.List;
@@ -70,6 +74,15 @@ public class MyController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private TestPaperCache testPaperCache;
+
+    @Autowired
+    private TestScoreMappingService testScoreMappingService;
+
+    @Autowired
+    private TestStatsService testStatsService;
+
     // Users
     @GetMapping("/users")
     public List<User> getAllUsers() {
@@ -92,7 +105,9 @@ public class MyController {
 
     @PostMapping("/tests")
     public Test createTest(@RequestBody Test test) {
-        return testRepository.save(test);
+        Test saved = testRepository.save(test);
+        testPaperCache.invalidate(saved.getId());
+        return saved;
     }
 
     // Flashcards
@@ -114,7 +129,11 @@ public class MyController {
 
     @PostMapping("/questions")
     public Question createQuestion(@RequestBody Question question) {
-        return questionRepository.save(question);
+        Question saved = questionRepository.save(question);
+        if (saved.getTest() != null) {
+            testPaperCache.invalidate(saved.getTest().getId());
+        }
+        return saved;
     }
 
     // Student Flashcard Progress
@@ -145,9 +164,14 @@ public class MyController {
         return testAttemptRepository.findAll();
     }
 
+    @Transactional
     @PostMapping("/test-attempts")
     public TestAttempt createTestAttempt(@RequestBody TestAttempt attempt) {
-        return testAttemptRepository.save(attempt);
+        TestAttempt saved = testAttemptRepository.save(attempt);
+        if (saved.getTest() != null) {
+            testStatsService.markDirty(saved.getTest().getId()); // ✅ Thống kê đề tính lại ở nền
+        }
+        return saved;
     }
 
     // Test Score Mappings
@@ -158,7 +182,9 @@ public class MyController {
 
     @PostMapping("/test-score-mappings")
     public TestScoreMapping createTestScoreMapping(@RequestBody TestScoreMapping mapping) {
-        return testScoreMappingRepository.save(mapping);
+        TestScoreMapping saved = testScoreMappingRepository.save(mapping);
+        testScoreMappingService.reload(); // ✅ Cập nhật bảng quy đổi trong bộ nhớ
+        return saved;
     }
 
     // Correct Answers
@@ -186,6 +186,9 @@ public class SpeakingWritingResultController {
             // Response content
             responseDTO.setResponseText(response.getResponseText());
             responseDTO.setAudioBase64(response.getAudioBase64());
+            if (response.hasStoredAudio()) {
+                responseDTO.setAudioUrl("/api/audio/responses/" + response.getId());
+            }
             responseDTO.setAudioDuration(response.getAudioDurationSeconds());
             responseDTO.setAudioFileType(response.getAudioFileType());
             responseDTO.setAudioFileSize(response.getAudioFileSize());
@@ -1,23 +1,29 @@
 package tungdao.com.project1.Controller;
 
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import tungdao.com.project1.dto.StudentResponseDTO;
+import tungdao.com.project1.dto.SubmissionStatusDTO;
 import tungdao.com.project1.dto.TestAttemptDTO;
 import tungdao.com.project1.dto.TestAttemptRequest;
 import tungdao.com.project1.entity.*;
 import tungdao.com.project1.login_register.UserDetailsImpl;
 import tungdao.com.project1.mapper.TestAttemptMapper;
-import tungdao.com.project1.repository.QuestionRepository;
-import tungdao.com.project1.repository.StudentResponseRepository;
-import tungdao.com.project1.service.CorrectAnswerService;
+import tungdao.com.project1.service.AnswerMatcherService;
+import tungdao.com.project1.service.AutosaveService;
+import tungdao.com.project1.service.IdempotencyService;
+import tungdao.com.project1.service.SubmissionIntakeService;
 import tungdao.com.project1.service.TestAttemptService;
+import tungdao.com.project1.service.TestPaperWriter;
 import tungdao.com.project1.service.TestSubmissionService;
 
-import java.util.ArrayList;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,29 +34,43 @@ public class TestAttemptController {
 
     private final TestAttemptService testAttemptService;
     private final TestSubmissionService testSubmissionService;
-    private final CorrectAnswerService correctAnswerService;
     private final TestAttemptMapper testAttemptMapper;
-    private final StudentResponseRepository studentResponseRepository;
-    private final QuestionRepository questionRepository;
+    private final TestPaperWriter testPaperWriter;
+    private final AnswerMatcherService answerMatcherService;
+    private final SubmissionIntakeService submissionIntakeService;
+    private final IdempotencyService idempotencyService;
+    private final AutosaveService autosaveService;
 
     public TestAttemptController(TestAttemptService testAttemptService,
                                  TestSubmissionService testSubmissionService,
-                                 CorrectAnswerService correctAnswerService,
                                  TestAttemptMapper testAttemptMapper,
-                                 StudentResponseRepository studentResponseRepository,
-                                 QuestionRepository questionRepository) {
+                                 TestPaperWriter testPaperWriter,
+                                 AnswerMatcherService answerMatcherService,
+                                 SubmissionIntakeService submissionIntakeService,
+                                 IdempotencyService idempotencyService,
+                                 AutosaveService autosaveService) {
         this.testAttemptService = testAttemptService;
         this.testSubmissionService = testSubmissionService;
-        this.correctAnswerService = correctAnswerService;
         this.testAttemptMapper = testAttemptMapper;
-        this.studentResponseRepository = studentResponseRepository;
-        this.questionRepository = questionRepository;
+        this.testPaperWriter = testPaperWriter;
+        this.answerMatcherService = answerMatcherService;
+        this.submissionIntakeService = submissionIntakeService;
+        this.idempotencyService = idempotencyService;
+        this.autosaveService = autosaveService;
     }
 
     // ✅ ENDPOINT MỚI: Submit bài thi
     @PostMapping("/submit/{userId}")
     public ResponseEntity<?> submitTest(@PathVariable Integer userId,
-                                        @RequestBody TestAttemptRequest request) {
+                                        @RequestBody TestAttemptRequest request,
+                                        @RequestHeader(value = "Prefer", required = false) String prefer,
+                                        @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Gửi lại cùng Idempotency-Key (mạng chập chờn) nhận lại kết quả cũ, không tạo bài làm mới
+        return idempotencyService.execute(userId, idempotencyKey, request,
+                () -> processSubmission(userId, request, prefer));
+    }
+
+    private ResponseEntity<?> processSubmission(Integer userId, TestAttemptRequest request, String prefer) {
         try {
             System.out.println("=== NHẬN YÊU CẦU NỘP BÀI ===");
             System.out.println("User ID: " + userId);
@@ -68,27 +88,19 @@ public class TestAttemptController {
                         .body("Danh sách câu trả lời không được để trống");
             }
 
+            // ✅ Nộp bất đồng bộ: chỉ ghi journal, chấm sau - client poll /{ticket}/status
+            if (submissionIntakeService.shouldQueue(prefer)) {
+                return queuedResponse(submissionIntakeService.accept(userId, request));
+            }
+
             // Submit test và tính điểm
             TestAttempt attempt = testSubmissionService.submitTest(userId, request);
 
-            // Convert to DTO
-            TestAttemptDTO attemptDTO = testAttemptMapper.toDTO(attempt);
-
-            // Thêm đáp án đúng cho từng câu trả lời
-            if (attemptDTO.getResponses() != null) {
-                attemptDTO.getResponses().forEach(responseDTO -> {
-                    CorrectAnswer correctAnswer = correctAnswerService.getByQuestionId(responseDTO.getQuestionId());
-                    if (correctAnswer != null) {
-                        responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
-                    }
-                });
-            }
-
             System.out.println("=== NỘP BÀI THÀNH CÔNG ===");
             System.out.println("Attempt ID: " + attempt.getId());
             System.out.println("Điểm số: " + attempt.getTotalScore());
 
-            return ResponseEntity.ok(attemptDTO);
+            return ResponseEntity.ok(toSubmissionResult(attempt));
 
         } catch (Exception e) {
             System.err.println("Lỗi khi nộp bài: " + e.getMessage());
@@ -98,9 +110,194 @@ public class TestAttemptController {
         }
     }
 
+    /**
+     * Mở bài làm để autosave (hoặc tiếp tục bài đang mở của đề này)
+     */
+    @PostMapping("/start")
+    public ResponseEntity<?> startAttempt(@RequestBody TestAttemptRequest request,
+                                          @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            if (userDetails == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Vui lòng đăng nhập");
+            }
+            if (request.getTestId() == null) {
+                return ResponseEntity.badRequest().body("Test ID không được để trống");
+            }
+
+            TestAttempt attempt = autosaveService.startAttempt(userDetails.getId(), request.getTestId());
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("attemptId", attempt.getId());
+            result.put("testId", request.getTestId());
+            result.put("startTime", attempt.getStartTime());
+            return ResponseEntity.ok(result);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Error starting attempt: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi bắt đầu bài làm: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Autosave câu trả lời đang làm - chỉ ghi vào bộ đệm, được ghi xuống DB theo lô
+     */
+    @PutMapping("/{attemptId}/draft")
+    public ResponseEntity<?> saveDraft(@PathVariable Integer attemptId,
+                                       @RequestBody TestAttemptRequest request,
+                                       @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            if (userDetails == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Vui lòng đăng nhập");
+            }
+            if (request.getResponses() == null || request.getResponses().isEmpty()) {
+                return ResponseEntity.badRequest().body("Danh sách câu trả lời không được để trống");
+            }
+
+            int pending = autosaveService.buffer(attemptId, userDetails.getId(), request.getResponses());
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("attemptId", attemptId);
+            result.put("pendingAnswers", pending);
+            return ResponseEntity.accepted().body(result);
+
+        } catch (Exception e) {
+            return draftError("Lỗi khi lưu nháp: ", e);
+        }
+    }
+
+    /**
+     * Câu trả lời nháp hiện tại - để khôi phục bài làm sau khi trình duyệt bị tắt
+     */
+    @GetMapping("/{attemptId}/draft")
+    public ResponseEntity<?> getDraft(@PathVariable Integer attemptId,
+                                      @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            if (userDetails == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Vui lòng đăng nhập");
+            }
+            List<TestAttemptRequest.ResponseData> answers = autosaveService.getDraftAnswers(attemptId, userDetails.getId());
+            return ResponseEntity.ok(answers);
+
+        } catch (Exception e) {
+            return draftError("Lỗi khi lấy bản nháp: ", e);
+        }
+    }
+
+    /**
+     * Nộp bài đã autosave: câu trả lời đã có trong DB nên body có thể rỗng
+     * (nếu gửi kèm responses thì chúng được lưu như lần autosave cuối)
+     */
+    @PostMapping("/{attemptId}/finalize")
+    public ResponseEntity<?> finalizeAttempt(@PathVariable Integer attemptId,
+                                             @RequestBody(required = false) TestAttemptRequest request,
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            if (userDetails == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Vui lòng đăng nhập");
+            }
+            if (request != null && request.getResponses() != null && !request.getResponses().isEmpty()) {
+                autosaveService.buffer(attemptId, userDetails.getId(), request.getResponses());
+            }
+
+            autosaveService.close(attemptId);
+            TestAttempt attempt = testSubmissionService.finalizeAttempt(userDetails.getId(), attemptId);
+
+            System.out.println("=== NỘP BÀI (AUTOSAVE) THÀNH CÔNG ===");
+            System.out.println("Attempt ID: " + attempt.getId());
+            System.out.println("Điểm số: " + attempt.getTotalScore());
+
+            return ResponseEntity.ok(toSubmissionResult(attempt));
+
+        } catch (Exception e) {
+            return draftError("Lỗi khi nộp bài: ", e);
+        }
+    }
+
+    private ResponseEntity<?> draftError(String message, Exception e) {
+        if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (e instanceof SecurityException) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        }
+        if (e instanceof IllegalStateException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+        System.err.println("❌ " + message + e.getMessage());
+        e.printStackTrace();
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(message + e.getMessage());
+    }
+
+    private TestAttemptDTO toSubmissionResult(TestAttempt attempt) {
+        // Convert to DTO
+        TestAttemptDTO attemptDTO = testAttemptMapper.toDTO(attempt);
+
+        // Thêm đáp án đúng cho từng câu trả lời - lấy từ câu hỏi đã nạp kèm đáp án khi chấm, không query từng câu
+        if (attemptDTO.getResponses() != null && attempt.getResponses() != null) {
+            Map<Integer, CorrectAnswer> answersByQuestion = new HashMap<>();
+            for (StudentResponse response : attempt.getResponses()) {
+                Question question = response.getQuestion();
+                if (question != null && question.getCorrectAnswer() != null) {
+                    answersByQuestion.put(question.getId(), question.getCorrectAnswer());
+                }
+            }
+            attemptDTO.getResponses().forEach(responseDTO -> {
+                CorrectAnswer correctAnswer = answersByQuestion.get(responseDTO.getQuestionId());
+                if (correctAnswer != null) {
+                    responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
+                }
+            });
+        }
+        return attemptDTO;
+    }
+
+    /**
+     * Trạng thái chấm của bài nộp bất đồng bộ - khi COMPLETED, attemptId dùng cho GET /api/test-attempts/{id}
+     */
+    @GetMapping("/{ticket}/status")
+    public ResponseEntity<?> getSubmissionStatus(@PathVariable String ticket,
+                                                 @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            if (userDetails == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Vui lòng đăng nhập");
+            }
+
+            SubmissionStatusDTO status = submissionIntakeService.getStatus(ticket);
+            boolean isStaff = userDetails.getAuthorities().stream()
+                    .anyMatch(a -> a.getAuthority().equals("ROLE_TEACHER") || a.getAuthority().equals("ROLE_ADMIN"));
+            if (status == null || (!isStaff && status.getUserId() != userDetails.getId())) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("Không tìm thấy bài nộp với ticket: " + ticket);
+            }
+
+            if (status.getStatus() == SubmissionStatus.QUEUED || status.getStatus() == SubmissionStatus.PROCESSING) {
+                return ResponseEntity.ok().header(HttpHeaders.RETRY_AFTER, "2").body(status);
+            }
+            return ResponseEntity.ok(status);
+
+        } catch (Exception e) {
+            System.err.println("❌ Error getting submission status: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Lỗi khi lấy trạng thái bài nộp: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 202 + ticket, Location trỏ tới endpoint trạng thái (dùng chung cho /api/test/attempts)
+     */
+    static ResponseEntity<SubmissionStatusDTO> queuedResponse(SubmissionStatusDTO queued) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/test-attempts/" + queued.getTicket() + "/status"))
+                .header(HttpHeaders.RETRY_AFTER, "2")
+                .body(queued);
+    }
+
     // ✅ ENHANCED getTestAttemptById in TestAttemptController.java
     @GetMapping("/{id}")
-    public ResponseEntity<?> getTestAttemptById(@PathVariable Integer id) {
+    public ResponseEntity<?> getTestAttemptById(@PathVariable Integer id, HttpServletResponse response) {
         try {
             System.out.println("=== GETTING COMPLETE TEST RESULT WITH ENHANCED GRADING INFO ===");
             System.out.println("Requested attempt ID: " + id);
@@ -119,21 +316,7 @@ public class TestAttemptController {
             boolean isSpeakingWritingTest = isSpeakingWritingTestType(attempt.getTest().getTestType());
             System.out.println("✅ Is Speaking/Writing test: " + isSpeakingWritingTest);
 
-            // ✅ STEP 1: Get ALL questions from the test
-            List<Question> allTestQuestions = questionRepository.findByTestIdOrderByOrderInTest(attempt.getTest().getId());
-            System.out.println("✅ Total questions in test: " + allTestQuestions.size());
-
-            // ✅ STEP 2: Get only ACTUAL responses from database
-            List<StudentResponse> actualResponses = studentResponseRepository.findByAttemptId(id);
-            System.out.println("✅ Actual responses from student: " + actualResponses.size());
-
-            // ✅ STEP 3: Create response lookup map
-            Map<Integer, StudentResponse> responseMap = new HashMap<>();
-            for (StudentResponse response : actualResponses) {
-                responseMap.put(response.getQuestion().getId(), response);
-            }
-
-            // ✅ STEP 4: Build enhanced DTO with FIXED grading info
+            // ✅ STEP 1: Build enhanced DTO with FIXED grading info
             TestAttemptDTO attemptDTO = new TestAttemptDTO();
             attemptDTO.setId(attempt.getId());
 
@@ -204,115 +387,14 @@ public class TestAttemptController {
                 System.out.println("✅ Using standard totalScore for Reading/Listening: " + attempt.getTotalScore());
             }
 
-            // ✅ STEP 5: Create response DTOs for ALL questions (existing logic unchanged)
-            List<StudentResponseDTO> completeResponseDTOs = new ArrayList<>();
-
-            for (Question question : allTestQuestions) {
-                StudentResponse actualResponse = responseMap.get(question.getId());
+            // ✅ STEP 2: Stream responses for ALL questions - mỗi lần chỉ giữ một câu hỏi trong bộ nhớ
+            Test test = attempt.getTest();
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
 
-                StudentResponseDTO responseDTO = new StudentResponseDTO();
-
-                // ✅ Always set question info (from questions table)
-                responseDTO.setQuestionId(question.getId());
-                responseDTO.setQuestionText(question.getQuestionText());
-
-                // ✅ ENHANCED: Map question type based on test type
-                String questionType = mapQuestionTypeForFrontend(question, attempt.getTest());
-                responseDTO.setQuestionType(questionType);
-
-                responseDTO.setOrderInTest(question.getOrderInTest());
-
-                // ✅ Always set passage/audio relationships
-                if (question.getPassage() != null) {
-                    responseDTO.setPassageId(question.getPassage().getId());
-                }
-                if (question.getAudio() != null) {
-                    responseDTO.setAudioId(question.getAudio().getId());
-                }
-
-                if (actualResponse != null) {
-                    // ✅ ANSWERED: Student provided an answer
-                    responseDTO.setId(actualResponse.getId());
-                    responseDTO.setSubmittedAt(actualResponse.getSubmittedAt());
-
-                    // ✅ HANDLE TEXT RESPONSES
-                    if (actualResponse.getResponseText() != null && !actualResponse.getResponseText().trim().isEmpty()) {
-                        responseDTO.setResponseText(actualResponse.getResponseText());
-                    }
-
-                    // ✅ ENHANCED: HANDLE AUDIO RESPONSES
-                    if (actualResponse.getAudioBase64() != null && !actualResponse.getAudioBase64().trim().isEmpty()) {
-                        responseDTO.setAudioResponse(actualResponse.getAudioBase64());
-                        responseDTO.setAudioBase64(actualResponse.getAudioBase64()); // For consistency
-                        responseDTO.setAudioDuration(actualResponse.getAudioDurationSeconds());
-                        responseDTO.setAudioFileType(actualResponse.getAudioFileType());
-                        responseDTO.setAudioFileSize(actualResponse.getAudioFileSize());
-                    }
-
-                    // ✅ ENHANCED: Include manual grading info for Speaking/Writing
-                    if (isSpeakingWritingTest) {
-                        responseDTO.setManualScore(actualResponse.getManualScore());
-                        responseDTO.setFeedback(actualResponse.getFeedback());
-                        responseDTO.setFeedbackGivenAt(actualResponse.getFeedbackGivenAt());
-
-                        if (actualResponse.getGrader() != null) {
-                            responseDTO.setGraderName(actualResponse.getGrader().getFullName());
-                        }
-                    }
-
-                    // ✅ Calculate correctness based on response type
-                    if (isSpeakingQuestion(question.getQuestionType())) {
-                        responseDTO.setIsCorrect(actualResponse.getIsCorrect());
-                        responseDTO.setCorrectAnswer("Requires manual grading");
-                    } else if (isWritingQuestion(question.getQuestionType())) {
-                        responseDTO.setIsCorrect(actualResponse.getIsCorrect());
-                        responseDTO.setCorrectAnswer("Requires manual grading");
-                    } else {
-                        // ✅ OBJECTIVE QUESTIONS: Auto-graded
-                        CorrectAnswer correctAnswer = correctAnswerService.getByQuestionId(question.getId());
-                        if (correctAnswer != null) {
-                            boolean isCorrect = checkAnswerOnTheFly(actualResponse.getResponseText(), correctAnswer);
-                            responseDTO.setIsCorrect(isCorrect);
-                            responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
-                        } else {
-                            responseDTO.setIsCorrect(false);
-                            responseDTO.setCorrectAnswer("No answer key available");
-                        }
-                    }
-
-                } else {
-                    // ✅ SKIPPED: No response in database (existing logic)
-                    responseDTO.setId(null);
-                    responseDTO.setResponseText(null);
-                    responseDTO.setAudioResponse(null);
-                    responseDTO.setIsCorrect(false);
-                    responseDTO.setSubmittedAt(null);
-
-                    if (isSpeakingQuestion(question.getQuestionType())) {
-                        responseDTO.setCorrectAnswer("Speaking task - not answered");
-                    } else if (isWritingQuestion(question.getQuestionType())) {
-                        responseDTO.setCorrectAnswer("Writing task - not answered");
-                    } else {
-                        CorrectAnswer correctAnswer = correctAnswerService.getByQuestionId(question.getId());
-                        if (correctAnswer != null) {
-                            responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
-                        } else {
-                            responseDTO.setCorrectAnswer("No answer key available");
-                        }
-                    }
-                }
-
-                completeResponseDTOs.add(responseDTO);
-            }
-
-            // ✅ Sort by orderInTest to ensure correct order
-            completeResponseDTOs.sort((a, b) -> {
-                Integer orderA = a.getOrderInTest() != null ? a.getOrderInTest() : a.getQuestionId();
-                Integer orderB = b.getOrderInTest() != null ? b.getOrderInTest() : b.getQuestionId();
-                return orderA.compareTo(orderB);
-            });
-
-            attemptDTO.setResponses(completeResponseDTOs);
+            int written = testPaperWriter.writeAttemptResult(attemptDTO, test.getId(), id,
+                    (question, actualResponse) -> toResponseDTO(question, actualResponse, test, isSpeakingWritingTest),
+                    response.getOutputStream());
 
             // ✅ ENHANCED FINAL SUMMARY
             System.out.println("=== ENHANCED RESULT SUMMARY ===");
@@ -321,18 +403,128 @@ public class TestAttemptController {
             System.out.println("Total Score (display): " + attemptDTO.getTotalScore());
             System.out.println("Overall Score: " + attemptDTO.getOverallScore());
             System.out.println("Grading Status: " + attemptDTO.getGradingStatus());
-            System.out.println("Complete DTOs returned: " + completeResponseDTOs.size());
+            System.out.println("Complete DTOs returned: " + written);
 
-            return ResponseEntity.ok(attemptDTO);
+            return null; // ✅ Body đã được ghi thẳng vào response
 
         } catch (Exception e) {
             System.err.println("❌ Error in enhanced getTestAttemptById: " + e.getMessage());
             e.printStackTrace();
+            if (response.isCommitted()) {
+                return null; // Đã gửi một phần JSON - không thể đổi status nữa
+            }
+            response.reset();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Lỗi khi lấy kết quả làm bài: " + e.getMessage());
         }
     }
 
+    // ✅ Response DTO cho một câu hỏi (actualResponse == null nếu học viên bỏ trống)
+    private StudentResponseDTO toResponseDTO(Question question, StudentResponse actualResponse,
+                                             Test test, boolean isSpeakingWritingTest) {
+        StudentResponseDTO responseDTO = new StudentResponseDTO();
+
+        // ✅ Always set question info (from questions table)
+        responseDTO.setQuestionId(question.getId());
+        responseDTO.setQuestionText(question.getQuestionText());
+
+        // ✅ ENHANCED: Map question type based on test type
+        String questionType = mapQuestionTypeForFrontend(question, test);
+        responseDTO.setQuestionType(questionType);
+
+        responseDTO.setOrderInTest(question.getOrderInTest());
+
+        // ✅ Always set passage/audio relationships
+        if (question.getPassage() != null) {
+            responseDTO.setPassageId(question.getPassage().getId());
+        }
+        if (question.getAudio() != null) {
+            responseDTO.setAudioId(question.getAudio().getId());
+        }
+
+        if (actualResponse != null) {
+            // ✅ ANSWERED: Student provided an answer
+            responseDTO.setId(actualResponse.getId());
+            responseDTO.setSubmittedAt(actualResponse.getSubmittedAt());
+
+            // ✅ HANDLE TEXT RESPONSES
+            if (actualResponse.getResponseText() != null && !actualResponse.getResponseText().trim().isEmpty()) {
+                responseDTO.setResponseText(actualResponse.getResponseText());
+            }
+
+            // ✅ AUDIO IN STORE: trả về URL thay vì base64
+            if (actualResponse.hasStoredAudio()) {
+                responseDTO.setAudioUrl("/api/audio/responses/" + actualResponse.getId());
+                responseDTO.setAudioDuration(actualResponse.getAudioDurationSeconds());
+                responseDTO.setAudioFileType(actualResponse.getAudioFileType());
+                responseDTO.setAudioFileSize(actualResponse.getAudioFileSize());
+            }
+
+            // ✅ ENHANCED: HANDLE AUDIO RESPONSES
+            if (actualResponse.getAudioBase64() != null && !actualResponse.getAudioBase64().trim().isEmpty()) {
+                responseDTO.setAudioResponse(actualResponse.getAudioBase64());
+                responseDTO.setAudioBase64(actualResponse.getAudioBase64()); // For consistency
+                responseDTO.setAudioDuration(actualResponse.getAudioDurationSeconds());
+                responseDTO.setAudioFileType(actualResponse.getAudioFileType());
+                responseDTO.setAudioFileSize(actualResponse.getAudioFileSize());
+            }
+
+            // ✅ ENHANCED: Include manual grading info for Speaking/Writing
+            if (isSpeakingWritingTest) {
+                responseDTO.setManualScore(actualResponse.getManualScore());
+                responseDTO.setFeedback(actualResponse.getFeedback());
+                responseDTO.setFeedbackGivenAt(actualResponse.getFeedbackGivenAt());
+
+                if (actualResponse.getGrader() != null) {
+                    responseDTO.setGraderName(actualResponse.getGrader().getFullName());
+                }
+            }
+
+            // ✅ Calculate correctness based on response type
+            if (isSpeakingQuestion(question.getQuestionType())) {
+                responseDTO.setIsCorrect(actualResponse.getIsCorrect());
+                responseDTO.setCorrectAnswer("Requires manual grading");
+            } else if (isWritingQuestion(question.getQuestionType())) {
+                responseDTO.setIsCorrect(actualResponse.getIsCorrect());
+                responseDTO.setCorrectAnswer("Requires manual grading");
+            } else {
+                // ✅ OBJECTIVE QUESTIONS: Auto-graded (đáp án đã được fetch-join cùng câu hỏi)
+                CorrectAnswer correctAnswer = question.getCorrectAnswer();
+                if (correctAnswer != null) {
+                    boolean isCorrect = answerMatcherService.matches(correctAnswer, actualResponse.getResponseText());
+                    responseDTO.setIsCorrect(isCorrect);
+                    responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
+                } else {
+                    responseDTO.setIsCorrect(false);
+                    responseDTO.setCorrectAnswer("No answer key available");
+                }
+            }
+
+        } else {
+            // ✅ SKIPPED: No response in database (existing logic)
+            responseDTO.setId(null);
+            responseDTO.setResponseText(null);
+            responseDTO.setAudioResponse(null);
+            responseDTO.setIsCorrect(false);
+            responseDTO.setSubmittedAt(null);
+
+            if (isSpeakingQuestion(question.getQuestionType())) {
+                responseDTO.setCorrectAnswer("Speaking task - not answered");
+            } else if (isWritingQuestion(question.getQuestionType())) {
+                responseDTO.setCorrectAnswer("Writing task - not answered");
+            } else {
+                CorrectAnswer correctAnswer = question.getCorrectAnswer();
+                if (correctAnswer != null) {
+                    responseDTO.setCorrectAnswer(correctAnswer.getCorrectAnswerText());
+                } else {
+                    responseDTO.setCorrectAnswer("No answer key available");
+                }
+            }
+        }
+
+        return responseDTO;
+    }
+
     private boolean isSpeakingWritingTestType(TestType testType) {
         return testType == TestType.SPEAKING || testType == TestType.WRITING;
     }
@@ -377,33 +569,6 @@ public class TestAttemptController {
         return baseType;
     }
 
-    // ✅ ADD: Helper method for on-the-fly answer checking
-    private boolean checkAnswerOnTheFly(String userResponse, CorrectAnswer correctAnswer) {
-        if (userResponse == null || userResponse.trim().isEmpty()) {
-            return false;
-        }
-
-        String normalizedUserResponse = userResponse.trim().toLowerCase();
-        String correctAnswerText = correctAnswer.getCorrectAnswerText().trim().toLowerCase();
-
-        // Check main answer
-        if (normalizedUserResponse.equals(correctAnswerText)) {
-            return true;
-        }
-
-        // Check alternative answers
-        if (correctAnswer.getAlternativeAnswers() != null) {
-            String[] alternatives = correctAnswer.getAlternativeAnswers().split(",");
-            for (String alt : alternatives) {
-                if (normalizedUserResponse.equals(alt.trim().toLowerCase())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
     @GetMapping("/user/{userId}")
     public ResponseEntity<?> getTestAttemptsByUserId(@PathVariable Integer userId) {
         try {
@@ -440,7 +605,7 @@ public class TestAttemptController {
         if (response == null) return "NO_RESPONSE";
 
         boolean hasText = response.getResponseText() != null && !response.getResponseText().trim().isEmpty();
-        boolean hasAudio = response.getAudioBase64() != null && !response.getAudioBase64().trim().isEmpty();
+        boolean hasAudio = response.hasAudioResponse();
 
         if (hasText && hasAudio) return "MIXED";
         if (hasAudio) return "AUDIO";
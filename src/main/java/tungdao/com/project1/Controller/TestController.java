@@ -2,13 +2,17 @@ package tungdao.com.project1.Controller;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.transaction.Transactional;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import tungdao.com.project1.dto.*;
 import tungdao.com.project1.entity.*;
 import tungdao.com.project1.login_register.UserDetailsImpl;
@@ -20,9 +24,11 @@ import tungdao.com.project1.repository.TestRepository;
 import tungdao.com.project1.repository.UserRepository;
 import tungdao.com.project1.service.*;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/test")
@@ -43,6 +49,17 @@ public class TestController {
     private final AudioProcessingService audioProcessingService;
     private final TestRepository testRepository;
     private final TestAttemptRepository testAttemptRepository;
+    private final AudioStorageService audioStorageService;
+    private final AudioUploadService audioUploadService;
+    private final TestPaperCache testPaperCache;
+    private final TestPaperWriter testPaperWriter;
+    private final AnswerMatcherService answerMatcherService;
+    private final SubmissionIntakeService submissionIntakeService;
+    private final IdempotencyService idempotencyService;
+    private final GradingQueueService gradingQueueService;
+    private final TestStatsService testStatsService;
+    private final ItemAnalysisService itemAnalysisService;
+    private final LeaderboardService leaderboardService;
 
     public TestController(TestService testService,
                           ReadingPassageService readingPassageService,
@@ -57,7 +74,18 @@ public class TestController {
                           ListeningAudioService listeningAudioService,
                           ListeningAudioRepository listeningAudioRepository,
                           WritingSpeakingService writingSpeakingService,
-                          AudioProcessingService audioProcessingService, TestRepository testRepository, TestAttemptRepository testAttemptRepository) {
+                          AudioProcessingService audioProcessingService, TestRepository testRepository, TestAttemptRepository testAttemptRepository,
+                          AudioStorageService audioStorageService,
+                          AudioUploadService audioUploadService,
+                          TestPaperCache testPaperCache,
+                          TestPaperWriter testPaperWriter,
+                          AnswerMatcherService answerMatcherService,
+                          SubmissionIntakeService submissionIntakeService,
+                          IdempotencyService idempotencyService,
+                          GradingQueueService gradingQueueService,
+                          TestStatsService testStatsService,
+                          ItemAnalysisService itemAnalysisService,
+                          LeaderboardService leaderboardService) {
         this.testService = testService;
         this.readingPassageService = readingPassageService;
         this.questionService = questionService;
@@ -74,25 +102,33 @@ public class TestController {
         this.audioProcessingService = audioProcessingService;
         this.testRepository = testRepository;
         this.testAttemptRepository = testAttemptRepository;
+        this.audioStorageService = audioStorageService;
+        this.audioUploadService = audioUploadService;
+        this.testPaperCache = testPaperCache;
+        this.testPaperWriter = testPaperWriter;
+        this.answerMatcherService = answerMatcherService;
+        this.submissionIntakeService = submissionIntakeService;
+        this.idempotencyService = idempotencyService;
+        this.gradingQueueService = gradingQueueService;
+        this.testStatsService = testStatsService;
+        this.itemAnalysisService = itemAnalysisService;
+        this.leaderboardService = leaderboardService;
     }
 
     // Lấy tất cả bài thi đã publish - Sử dụng DTO
+    // cursor/size (tùy chọn): trả một trang keyset {items, size, nextCursor, totalCount}
     @GetMapping
-    public ResponseEntity<List<TestDTO>> getAllPublishedTests() {
+    public ResponseEntity<?> getAllPublishedTests(@RequestParam(required = false) Integer cursor,
+                                                  @RequestParam(required = false) Integer size) {
         try {
             System.out.println("Đang lấy danh sách đề thi đã published...");
-            List<Test> tests = testService.getAllPublishedTests();
+            List<TestDTO> testDTOs = testService.listPublishedTests(cursor, size);
+            System.out.println("Found " + testDTOs.size() + " published tests");
 
-            // Log số lượng bài thi tìm được
-            System.out.println("Found " + tests.size() + " published tests");
-
-            // Chuyển đổi thành DTO
-            List<TestDTO> testDTOs = testMapper.toDTOList(tests);
-
-            for (TestDTO test : testDTOs) {
-                System.out.println("Test: ID=" + test.getId() + ", Name=" + test.getTestName());
+            if (TestService.isPaged(cursor, size)) {
+                return ResponseEntity.ok(testService.buildPage(testDTOs, testDTOs, cursor, size,
+                        testRepository::countByIsPublishedTrue));
             }
-
             return ResponseEntity.ok(testDTOs);
         } catch (Exception e) {
             System.err.println("Error getting all published tests: " + e.getMessage());
@@ -108,188 +144,35 @@ public class TestController {
     @GetMapping("/{id}")
     public ResponseEntity<?> getTestById(@PathVariable Integer id, HttpServletRequest request) {
         try {
-            System.out.println("=== ENHANCED GET TEST BY ID ===");
-            System.out.println("Đang lấy thông tin đề thi với ID: " + id);
-            Test test = testService.getTestById(id);
-            if (test == null) {
+            // ✅ Đề thi giống nhau với mọi học viên - phục vụ từ snapshot đã serialize sẵn
+            String baseUrl = ServletUriComponentsBuilder.fromContextPath(request).toUriString();
+            TestPaperCache.PaperSnapshot snapshot = testPaperCache.get(id, baseUrl,
+                    out -> testPaperWriter.writeTestPaper(id, baseUrl, out));
+            if (snapshot == null) {
                 System.out.println("Không tìm thấy bài thi với ID: " + id);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body("Không tìm thấy bài thi với ID: " + id);
             }
 
-            System.out.println("Đã tìm thấy bài thi: " + test.getTestName());
-            System.out.println("Test Type: " + test.getTestType());
-
-            Map<String, Object> response = new HashMap<>();
+            boolean gzip = TestPaperCache.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            String etag = gzip ? snapshot.gzipEtag : snapshot.etag;
 
-            // ✅ ENHANCED: Include test type in basic info
-            Map<String, Object> testInfo = new HashMap<>();
-            testInfo.put("id", test.getId());
-            testInfo.put("testName", test.getTestName());
-            testInfo.put("testType", test.getTestType() != null ? test.getTestType().toString() : "READING");
-            testInfo.put("description", test.getDescription());
-            testInfo.put("instructions", test.getInstructions());
-            testInfo.put("durationMinutes", test.getDurationMinutes());
-            testInfo.put("passingScore", test.getPassingScore());
-            testInfo.put("isPractice", test.getIsPractice());
-            testInfo.put("isPublished", test.getIsPublished());
-
-            response.put("test", testInfo);
-            System.out.println("✅ Added enhanced test info with type: " + test.getTestType());
-
-            // ===== XỬ LÝ READING PASSAGES =====
-            System.out.println("Lấy thông tin passages cho xem kết quả...");
-            List<ReadingPassage> passages = readingPassageService.getPassagesByTestId(id);
-            System.out.println("Số lượng passages: " + passages.size());
-
-            if (passages.size() > 0) {
-                List<Map<String, Object>> passageMaps = new ArrayList<>();
-                for (ReadingPassage passage : passages) {
-                    Map<String, Object> passageMap = new HashMap<>();
-                    passageMap.put("id", passage.getId());
-                    passageMap.put("title", passage.getTitle());
-                    passageMap.put("content", passage.getContent());
-                    passageMap.put("orderInTest", passage.getOrderInTest());
-
-                    passageMaps.add(passageMap);
-
-                    System.out.println("✅ Added passage: " + passage.getId() + " - " + passage.getTitle());
-                }
-                response.put("passages", passageMaps);
-                System.out.println("✅ Added " + passageMaps.size() + " passages to response");
-            } else {
-                response.put("passages", new ArrayList<>());
-                System.out.println("⚠️ No passages found, setting empty array");
+            if (snapshot.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .cacheControl(CacheControl.noCache())
+                        .build();
             }
 
-            // ===== XỬ LÝ LISTENING AUDIO ✅ ALWAYS INCLUDE =====
-            System.out.println("=== PROCESSING LISTENING AUDIO (ALWAYS) ===");
-            List<ListeningAudio> audioList = listeningAudioService.getAudiosByTestId(id);
-            System.out.println("Audio files found: " + audioList.size());
-
-            List<Map<String, Object>> audioMaps = new ArrayList<>();
-
-            if (audioList.size() > 0) {
-                for (ListeningAudio audio : audioList) {
-                    System.out.println("--- Processing Audio: " + audio.getId() + " ---");
-
-                    Map<String, Object> audioMap = new HashMap<>();
-                    audioMap.put("id", audio.getId());
-                    audioMap.put("title", audio.getTitle());
-                    audioMap.put("section", audio.getSection());
-                    audioMap.put("orderInTest", audio.getOrderInTest());
-                    audioMap.put("transcript", audio.getTranscript() != null ? audio.getTranscript() : "");
-                    audioMap.put("durationSeconds", audio.getDurationSeconds());
-                    audioMap.put("fileType", audio.getFileType());
-
-                    // ✅ ENHANCED: Better audio data handling
-                    boolean hasBase64 = audio.hasBase64Data();
-
-                    System.out.println("Audio " + audio.getId() + " - hasBase64: " + hasBase64);
-
-                    if (hasBase64) {
-                        // ✅ Base64 data available
-                        String base64Data = audio.getAudioBase64();
-                        String mimeType = audio.getEffectiveMimeType();
-
-                        String dataUrl;
-                        if (base64Data.startsWith("data:")) {
-                            dataUrl = base64Data;
-                        } else {
-                            dataUrl = "data:" + mimeType + ";base64," + base64Data;
-                        }
-
-                        audioMap.put("audioBase64", dataUrl);
-                        audioMap.put("fileUrl", dataUrl); // ✅ Frontend compatibility
-                        audioMap.put("mimeType", mimeType);
-                        audioMap.put("fileSize", audio.getFileSize());
-                        audioMap.put("originalFileName", audio.getOriginalFileName());
-                        audioMap.put("storageType", "base64");
-
-                        System.out.println("✅ Audio " + audio.getId() + " mapped with BASE64 data");
-
-                    }
-                     else {
-                        // ✅ No audio data
-                        System.err.println("❌ Audio " + audio.getId() + " has NO AUDIO DATA!");
-                        audioMap.put("storageType", "none");
-                        audioMap.put("error", "No audio data available");
-                        audioMap.put("fileUrl", null);
-                        audioMap.put("audioUrl", null);
-                    }
-
-                    audioMaps.add(audioMap);
-                }
-            }
-
-            // ✅ ALWAYS include audio array (even if empty)
-            response.put("audio", audioMaps);
-            System.out.println("✅ Added " + audioMaps.size() + " audio items to response");
-
-            // ===== XỬ LÝ QUESTIONS WITH ENHANCED MAPPING =====
-            System.out.println("Lấy danh sách câu hỏi của bài thi...");
-            List<Question> questions = questionService.getQuestionsByTestId(id);
-            System.out.println("Số lượng câu hỏi: " + questions.size());
-
-            List<Map<String, Object>> questionMaps = new ArrayList<>();
-            for (Question question : questions) {
-                Map<String, Object> questionMap = new HashMap<>();
-                questionMap.put("id", question.getId());
-                questionMap.put("questionText", question.getQuestionText());
-
-                // ✅ ENHANCED: Use same question type mapping as in TestAttemptController
-                String questionType = question.getQuestionType() != null ?
-                        question.getQuestionType().toString() : "MCQ";
-
-                // Map for frontend consistency
-                if (test.getTestType() != null && "LISTENING".equals(test.getTestType().toString())) {
-                    switch (questionType) {
-                        case "FILL_IN_THE_BLANK":
-                            questionType = "LISTENING_FILL_IN_THE_BLANK";
-                            break;
-                        case "MCQ":
-                            questionType = "LISTENING_MCQ";
-                            break;
-                        case "SHORT_ANSWER":
-                            questionType = "LISTENING_SHORT_ANSWER";
-                            break;
-                        default:
-                            questionType = "NOTE_COMPLETION";
-                    }
-                } else if (question.getAudio() != null) {
-                    // Has audio relationship - make it listening type
-                    questionType = "NOTE_COMPLETION";
-                }
-
-                questionMap.put("questionType", questionType);
-                questionMap.put("question_type", questionType); // ✅ Backward compatibility
-                questionMap.put("section", question.getSection());
-                questionMap.put("orderInTest", question.getOrderInTest());
-                questionMap.put("order_in_test", question.getOrderInTest()); // ✅ Backward compatibility
-                questionMap.put("options", question.getOptions());
-                questionMap.put("questionSetInstructions", question.getQuestionSetInstructions());
-                questionMap.put("context", question.getContext());
-
-                if (question.getPassage() != null) {
-                    questionMap.put("passageId", question.getPassage().getId());
-                }
-
-                if (question.getAudio() != null) {
-                    questionMap.put("audioId", question.getAudio().getId());
-                }
-
-                questionMaps.add(questionMap);
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .contentType(MediaType.APPLICATION_JSON);
+            if (gzip) {
+                return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.gzip);
             }
-            response.put("questions", questionMaps);
-
-            System.out.println("=== RESPONSE SUMMARY ===");
-            System.out.println("Test Type: " + test.getTestType());
-            System.out.println("Passages: " + passages.size());
-            System.out.println("Audio: " + audioList.size());
-            System.out.println("Questions: " + questions.size());
-            System.out.println("Trả về thông tin đề thi thành công");
-
-            return ResponseEntity.ok(response);
+            return builder.body(snapshot.json);
         } catch (Exception e) {
             System.err.println("Lỗi khi lấy thông tin đề thi: " + e.getMessage());
             e.printStackTrace();
@@ -299,10 +182,25 @@ public class TestController {
     }
 
     // Cập nhật phương thức saveTestAttempt để xử lý khi userDetails là null
-    @Transactional
+    // Không mở transaction ở đây: IdempotencyService giữ key trước rồi mới mở transaction cho bài nộp
     @PostMapping("/attempts")
     public ResponseEntity<?> saveTestAttempt(@RequestBody TestAttemptRequest request,
-                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails,
+                                             @RequestHeader(value = "Prefer", required = false) String prefer,
+                                             @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Gửi lại cùng Idempotency-Key (mạng chập chờn) nhận lại kết quả cũ, không tạo bài làm mới
+        Integer keyOwner = userDetails != null ? Integer.valueOf(userDetails.getId()) : null;
+        if (keyOwner == null) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl) {
+                keyOwner = ((UserDetailsImpl) authentication.getPrincipal()).getId();
+            }
+        }
+        return idempotencyService.execute(keyOwner, idempotencyKey, request,
+                () -> processTestAttempt(request, userDetails, prefer));
+    }
+
+    private ResponseEntity<?> processTestAttempt(TestAttemptRequest request, UserDetailsImpl userDetails, String prefer) {
         try {
             System.out.println("=== ENHANCED TEST ATTEMPT SUBMISSION WITH AUDIO SUPPORT ===");
             System.out.println("Test ID: " + request.getTestId());
@@ -315,12 +213,12 @@ public class TestController {
 
                 for (int i = 0; i < Math.min(3, request.getResponses().size()); i++) {
                     TestAttemptRequest.ResponseData resp = request.getResponses().get(i);
-                    boolean hasAudio = resp.getAudioResponse() != null && !resp.getAudioResponse().trim().isEmpty();
+                    boolean hasAudio = "AUDIO".equals(resp.getResponseType());
                     boolean hasText = resp.getResponseText() != null && !resp.getResponseText().trim().isEmpty();
 
                     System.out.println("Sample Response " + (i+1) + ": Q" + resp.getQuestionId() +
                             " - Text: " + (hasText ? "YES" : "NO") +
-                            " - Audio: " + (hasAudio ? "YES (" + resp.getAudioResponse().length() + " chars)" : "NO"));
+                            " - Audio: " + (hasAudio ? "YES (" + resp.getAudioFileSize() + " bytes)" : "NO"));
 
                     if (hasAudio) audioCount++;
                     if (hasText) textCount++;
@@ -349,6 +247,15 @@ public class TestController {
                 System.out.println("User ID từ tham số: " + studentId);
             }
 
+            // ✅ Nộp bất đồng bộ: chỉ ghi journal rồi trả 202 + ticket, worker chấm sau
+            if (submissionIntakeService.shouldQueue(prefer)) {
+                try {
+                    return TestAttemptController.queuedResponse(submissionIntakeService.accept(studentId, request));
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.badRequest().body(e.getMessage());
+                }
+            }
+
             User student = userRepository.findById(studentId)
                     .orElseThrow(() -> {
                         System.err.println("Không tìm thấy người dùng với ID: " + studentId);
@@ -379,6 +286,7 @@ public class TestController {
             System.out.println("=== ENHANCED RESPONSE PROCESSING WITH AUDIO SUPPORT ===");
             Map<String, Integer> scores = new HashMap<>();
             List<StudentResponse> savedResponses = new ArrayList<>();
+            List<StudentResponse> pendingResponses = new ArrayList<>();
 
             int totalProcessed = 0;
             int totalCorrect = 0;
@@ -389,13 +297,19 @@ public class TestController {
 
             // ✅ FIXED VERSION: Replace the problematic section in TestController.java
 
+            // ✅ Một query cho cả đề (kèm đáp án) thay vì tra từng câu hỏi và đáp án
+            Map<Integer, Question> questionsById = questionService.getQuestionsWithAnswers(test.getId());
+
             for (TestAttemptRequest.ResponseData responseData : request.getResponses()) {
                 totalProcessed++;
 
                 System.out.println("--- Processing Response " + totalProcessed + " ---");
                 System.out.println("Question ID: " + responseData.getQuestionId());
 
-                Question question = questionService.getQuestionById(responseData.getQuestionId());
+                Question question = questionsById.get(responseData.getQuestionId());
+                if (question == null) {
+                    question = questionService.getQuestionById(responseData.getQuestionId()); // câu hỏi ngoài đề
+                }
                 if (question == null) {
                     System.out.println("❌ Question not found: " + responseData.getQuestionId());
                     totalSkipped++;
@@ -415,11 +329,13 @@ public class TestController {
                 // ✅ CHECK RESPONSE TYPE - Support both text and audio
                 boolean hasTextResponse = responseData.getResponseText() != null &&
                         !responseData.getResponseText().trim().isEmpty();
-                boolean hasAudioResponse = responseData.getAudioResponse() != null &&
-                        !responseData.getAudioResponse().trim().isEmpty();
+                boolean hasAudioUpload = responseData.hasAudioUpload();
+                boolean hasStoredAudio = responseData.hasStoredAudio();
+                boolean hasAudioResponse = hasAudioUpload || hasStoredAudio || (responseData.getAudioResponse() != null &&
+                        !responseData.getAudioResponse().trim().isEmpty());
 
                 System.out.println("Has text response: " + hasTextResponse);
-                System.out.println("Has audio response: " + hasAudioResponse);
+                System.out.println("Has audio response: " + hasAudioResponse + (hasAudioUpload ? " (upload)" : ""));
 
                 if (hasTextResponse) {
                     System.out.println("Response Text: '" + responseData.getResponseText() + "'");
@@ -440,11 +356,11 @@ public class TestController {
                     // ✅ CHECK IF OBJECTIVE QUESTION (auto-gradable)
                     if (isObjectiveQuestion(question.getQuestionType())) {
                         // Check answer for objective questions
-                        CorrectAnswer correctAnswer = correctAnswerService.getByQuestionId(question.getId());
+                        CorrectAnswer correctAnswer = question.getCorrectAnswer();
                         if (correctAnswer != null) {
                             System.out.println("Correct Answer: '" + correctAnswer.getCorrectAnswerText() + "'");
 
-                            boolean isCorrect = checkAnswer(responseData.getResponseText(), correctAnswer);
+                            boolean isCorrect = answerMatcherService.matches(correctAnswer, responseData.getResponseText());
                             response.setIsCorrect(isCorrect);
 
                             System.out.println("Check Result: " + (isCorrect ? "✅ CORRECT" : "❌ INCORRECT"));
@@ -472,18 +388,46 @@ public class TestController {
                     }
                 }
 
+                // ✅ AUDIO UPLOADED BY CHUNKS: chỉ gắn hash từ kho audio
+                if (hasAudioUpload) {
+                    try {
+                        audioUploadService.attachToResponse(response, responseData.getAudioUploadId(),
+                                studentId, responseData.getAudioDuration());
+                        response.setIsCorrect(null); // Will be graded manually
+                        System.out.println("🎤 Uploaded audio attached: " + response.getAudioHash());
+
+                        totalAudioResponses++;
+                    } catch (Exception audioError) {
+                        System.err.println("❌ Error attaching uploaded audio for Q" + question.getId() + ": " + audioError.getMessage());
+                        throw new RuntimeException("Failed to attach audio upload for question " + question.getId() +
+                                ": " + audioError.getMessage(), audioError);
+                    }
+                }
+
                 // ✅ ENHANCED AUDIO HANDLING for Speaking Tests
-                if (hasAudioResponse) {
+                else if (hasAudioResponse) {
                     try {
                         System.out.println("=== PROCESSING AUDIO RESPONSE ===");
-                        System.out.println("Audio Response: " + responseData.getAudioResponse().length() + " characters");
                         System.out.println("Audio Duration: " + responseData.getAudioDuration() + " seconds");
                         System.out.println("Audio File Type: " + responseData.getAudioFileType());
 
                         // ✅ USE AudioProcessingService for validation and processing
-                        StudentResponseDTO audioDTO = convertToStudentResponseDTO(responseData);
-                        AudioProcessingService.AudioProcessingResult audioResult =
-                                audioProcessingService.processAudioResponse(audioDTO);
+                        AudioProcessingService.AudioProcessingResult audioResult;
+                        if (hasStoredAudio) {
+                            // audioResponse đã được spool vào kho audio khi deserialize
+                            System.out.println("Audio Hash: " + responseData.getAudioHash());
+                            if (!audioStorageService.isOwnedBy(responseData.getAudioHash(), student.getId())) {
+                                throw new SecurityException("Audio " + responseData.getAudioHash() +
+                                        " does not belong to current user");
+                            }
+                            audioResult = audioProcessingService.processStoredAudio(responseData.getAudioHash(),
+                                    responseData.getAudioFileSize(), responseData.getAudioDuration(),
+                                    responseData.getAudioFileType());
+                        } else {
+                            System.out.println("Audio Response: " + responseData.getAudioResponse().length() + " characters");
+                            StudentResponseDTO audioDTO = convertToStudentResponseDTO(responseData);
+                            audioResult = audioProcessingService.processAudioResponse(audioDTO);
+                        }
 
                         if (!audioResult.success) {
                             System.err.println("❌ Audio processing failed: " + audioResult.error);
@@ -526,23 +470,18 @@ public class TestController {
                     continue;
                 }
 
-                // ✅ SAVE RESPONSE with enhanced error handling
-                try {
-                    StudentResponse savedResponse = studentResponseService.saveStudentResponse(response);
-                    savedResponses.add(savedResponse);
-                    System.out.println("✅ Saved response ID: " + savedResponse.getId());
-
-                    // ✅ VERIFY AUDIO SAVE for debugging
-                    if (hasAudioResponse && savedResponse.getAudioBase64() != null) {
-                        System.out.println("✅ Audio verified in database: " +
-                                savedResponse.getAudioBase64().length() + " chars");
-                    }
+                // ✅ Gom lại, lưu một lần sau vòng lặp (batch insert)
+                pendingResponses.add(response);
+            }
 
-                } catch (Exception e) {
-                    System.err.println("❌ Error saving response for Q" + question.getId() + ": " + e.getMessage());
-                    e.printStackTrace();
-                    throw new RuntimeException("Error saving response: " + e.getMessage(), e);
-                }
+            // ✅ SAVE RESPONSES with enhanced error handling
+            try {
+                savedResponses.addAll(studentResponseService.saveStudentResponses(pendingResponses));
+                System.out.println("✅ Saved " + savedResponses.size() + " responses");
+            } catch (Exception e) {
+                System.err.println("❌ Error saving responses for attempt " + attempt.getId() + ": " + e.getMessage());
+                e.printStackTrace();
+                throw new RuntimeException("Error saving response: " + e.getMessage(), e);
             }
 
 // ✅ ADD AUDIO PROCESSING SUMMARY after the loop
@@ -590,6 +529,9 @@ public class TestController {
 
             // ✅ UPDATE ATTEMPT SCORES
             updateTestAttemptScores(attempt, ieltsScores);
+            gradingQueueService.enqueue(attempt); // Writing/Speaking: vào hàng đợi chấm tay
+            testStatsService.markDirty(test.getId());
+            leaderboardService.recordAttempt(attempt);
 
             // ✅ VERIFICATION
             TestAttempt finalAttempt = testAttemptService.getTestAttemptById(attempt.getId());
@@ -602,7 +544,7 @@ public class TestController {
                 System.out.println("Sample saved response: Q" +
                         firstResponse.getQuestion().getId() +
                         " - Text: '" + firstResponse.getResponseText() + "'" +
-                        " - Audio: " + (firstResponse.getAudioBase64() != null ? "YES" : "NO") +
+                        " - Audio: " + (firstResponse.hasAudioResponse() ? "YES" : "NO") +
                         " - Correct: " + firstResponse.getIsCorrect());
             }
 
@@ -683,15 +625,18 @@ public class TestController {
 
     // Tìm kiếm bài thi theo tên
     @GetMapping("/search")
-    public ResponseEntity<List<TestDTO>> searchTests(@RequestParam String query) {
+    public ResponseEntity<?> searchTests(@RequestParam String query,
+                                         @RequestParam(required = false) Integer cursor,
+                                         @RequestParam(required = false) Integer size) {
         try {
             System.out.println("Đang tìm kiếm bài thi với từ khóa: " + query);
-            List<Test> tests = testService.searchTests(query);
-            System.out.println("Tìm thấy " + tests.size() + " kết quả");
-
-            // Chuyển đổi sang DTO
-            List<TestDTO> testDTOs = testMapper.toDTOList(tests);
+            List<TestDTO> testDTOs = testService.searchPublishedTests(query, cursor, size);
+            System.out.println("Tìm thấy " + testDTOs.size() + " kết quả");
 
+            if (TestService.isPaged(cursor, size)) {
+                return ResponseEntity.ok(testService.buildPage(testDTOs, testDTOs, cursor, size,
+                        () -> testService.countPublishedTests(query)));
+            }
             return ResponseEntity.ok(testDTOs);
         } catch (Exception e) {
             System.err.println("Lỗi khi tìm kiếm bài thi: " + e.getMessage());
@@ -701,34 +646,6 @@ public class TestController {
     }
 
     // Các phương thức hỗ trợ
-    private boolean checkAnswer(String userResponse, CorrectAnswer correctAnswer) {
-        // Kiểm tra câu trả lời của người dùng với đáp án đúng
-        if (userResponse == null || userResponse.trim().isEmpty()) {
-            return false;
-        }
-
-        // Chuyển đổi về chữ thường và loại bỏ khoảng trắng thừa
-        String normalizedUserResponse = userResponse.trim().toLowerCase();
-        String correctAnswerText = correctAnswer.getCorrectAnswerText().trim().toLowerCase();
-
-        // Kiểm tra câu trả lời chính xác
-        if (normalizedUserResponse.equals(correctAnswerText)) {
-            return true;
-        }
-
-        // Kiểm tra câu trả lời thay thế (nếu có)
-        if (correctAnswer.getAlternativeAnswers() != null) {
-            String[] alternatives = correctAnswer.getAlternativeAnswers().split(",");
-            for (String alt : alternatives) {
-                if (normalizedUserResponse.equals(alt.trim().toLowerCase())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
     private Map<String, BigDecimal> calculateIELTSScores(Map<String, Integer> correctAnswerCounts) {
         System.out.println("=== CALCULATE IELTS SCORES DEBUG ===");
         System.out.println("Input: " + correctAnswerCounts);
@@ -904,6 +821,8 @@ public class TestController {
                 processListeningQuestions(test, request.getQuestions(), createdAudios);
             }
 
+            testPaperCache.invalidate(test.getId());
+
             Map<String, Object> response = new HashMap<>();
             response.put("id", test.getId());
             response.put("testName", test.getTestName());
@@ -964,6 +883,7 @@ public class TestController {
 
             // Xóa bài thi
             testService.deleteTest(id);
+            testPaperCache.invalidate(id);
             System.out.println("Đã xóa bài thi thành công");
 
             Map<String, Object> response = new HashMap<>();
@@ -985,11 +905,12 @@ public class TestController {
 
     @GetMapping("/my-tests")
     @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
-    public ResponseEntity<?> getMyTests(@AuthenticationPrincipal UserDetailsImpl userDetails) {
+    public ResponseEntity<?> getMyTests(@AuthenticationPrincipal UserDetailsImpl userDetails,
+                                        @RequestParam(required = false) Integer cursor,
+                                        @RequestParam(required = false) Integer size) {
         try {
-            System.out.println("=== GETTING MY TESTS (SIMPLE & WORKING) ===");
+            System.out.println("=== GETTING MY TESTS ===");
             System.out.println("User ID: " + userDetails.getId());
-            System.out.println("Username: " + userDetails.getUsername());
 
             User currentUser = userRepository.findById(userDetails.getId()).orElse(null);
             if (currentUser == null) {
@@ -998,97 +919,60 @@ public class TestController {
                         .body(Map.of("error", true, "message", "User not found"));
             }
 
-            System.out.println("✅ Found user: " + currentUser.getEmail() + " (Role: " + currentUser.getRole() + ")");
-
-            List<Test> userTests = new ArrayList<>();
+            List<TestDTO> userTests;
+            boolean isAdmin = currentUser.getRole() == UserRole.ADMIN;
 
-            // ✅ SIMPLE: Use working repository methods only
-            if (currentUser.getRole() == UserRole.ADMIN) {
+            // ✅ Projection + keyset: chỉ đọc các cột cần hiển thị, mới nhất trước
+            if (isAdmin) {
                 System.out.println("🔑 Admin access - getting all tests");
-                userTests = testRepository.findAll();
-
+                userTests = testService.listAllTests(cursor, size);
             } else if (currentUser.getRole() == UserRole.TEACHER) {
                 System.out.println("👨‍🏫 Teacher access - getting own tests");
-
-                // ✅ USE ONLY WORKING METHODS
-                userTests = testRepository.findByCreator(currentUser);
-                System.out.println("📝 Found " + userTests.size() + " tests by creator");
-
-                // ✅ FALLBACK: Try by creator ID if empty
-                if (userTests.isEmpty()) {
-                    userTests = testRepository.findByCreatorId(currentUser.getId());
-                    System.out.println("📝 Fallback: Found " + userTests.size() + " tests by creator ID");
-                }
-
+                userTests = testService.listTestsByCreatorId(currentUser.getId(), cursor, size);
             } else {
                 System.err.println("❌ Invalid role: " + currentUser.getRole());
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body(Map.of("error", true, "message", "Access denied: Invalid role"));
             }
 
-            System.out.println("✅ Total tests found: " + userTests.size());
+            // ✅ Số bài nộp / chờ chấm của cả trang: mỗi loại một câu GROUP BY
+            List<Integer> testIds = userTests.stream().map(TestDTO::getId).collect(Collectors.toList());
+            Map<Integer, Long> submissions = testService.countAttemptsByTest(testIds);
+            Map<Integer, Long> pending = gradingQueueService.countPendingByTestIds(testIds);
 
-            // ✅ SIMPLE DTO CONVERSION (no complex grading info for now)
             List<Map<String, Object>> testDTOs = new ArrayList<>();
-
-            for (Test test : userTests) {
-                try {
-                    Map<String, Object> dto = new HashMap<>();
-
-                    // Basic test info
-                    dto.put("id", test.getId());
-                    dto.put("testName", test.getTestName() != null ? test.getTestName() : "Unnamed Test");
-                    dto.put("testType", test.getTestType() != null ? test.getTestType().toString() : "READING");
-                    dto.put("description", test.getDescription() != null ? test.getDescription() : "");
-                    dto.put("durationMinutes", test.getDurationMinutes() != null ? test.getDurationMinutes() : 60);
-                    dto.put("passingScore", test.getPassingScore() != null ? test.getPassingScore() : BigDecimal.valueOf(5.0));
-                    dto.put("isPublished", test.getIsPublished() != null ? test.getIsPublished() : false);
-                    dto.put("createdAt", test.getCreatedAt());
-                    dto.put("updatedAt", test.getUpdatedAt());
-
-                    // Creator info
-                    if (test.getCreator() != null) {
-                        dto.put("creatorName", test.getCreator().getFullName());
-                        dto.put("creatorEmail", test.getCreator().getEmail());
-                    }
-
-                    // ✅ SIMPLE: Basic submission count (no complex grading stats)
-                    int totalSubmissions = 0;
-                    try {
-                        List<TestAttempt> attempts = testAttemptRepository.findByTestIdOrderByEndTimeDesc(test.getId());
-                        totalSubmissions = attempts.size();
-                    } catch (Exception e) {
-                        System.err.println("⚠️ Could not get attempts for test " + test.getId() + ": " + e.getMessage());
-                    }
-
-                    dto.put("totalSubmissions", totalSubmissions);
-                    dto.put("pendingSubmissions", 0); // Will be calculated later if needed
-
-                    testDTOs.add(dto);
-
-                    System.out.println("✅ Processed test: " + test.getId() + " - " + test.getTestName());
-
-                } catch (Exception testError) {
-                    System.err.println("❌ Error processing test " + test.getId() + ": " + testError.getMessage());
-                    // Continue with next test
+            for (TestDTO test : userTests) {
+                Map<String, Object> dto = new HashMap<>();
+
+                // Basic test info
+                dto.put("id", test.getId());
+                dto.put("testName", test.getTestName() != null ? test.getTestName() : "Unnamed Test");
+                dto.put("testType", test.getTestType() != null ? test.getTestType().toString() : "READING");
+                dto.put("description", test.getDescription() != null ? test.getDescription() : "");
+                dto.put("durationMinutes", test.getDurationMinutes() != null ? test.getDurationMinutes() : 60);
+                dto.put("passingScore", test.getPassingScore() != null ? test.getPassingScore() : BigDecimal.valueOf(5.0));
+                dto.put("isPublished", test.getIsPublished() != null ? test.getIsPublished() : false);
+                dto.put("createdAt", test.getCreatedAt());
+                dto.put("updatedAt", test.getUpdatedAt());
+
+                // Creator info
+                if (test.getCreatorId() != null) {
+                    dto.put("creatorName", test.getCreatorName());
+                    dto.put("creatorEmail", test.getCreatorEmail());
                 }
-            }
 
-            // ✅ SORT BY CREATION DATE (newest first)
-            testDTOs.sort((a, b) -> {
-                LocalDateTime dateA = (LocalDateTime) a.get("createdAt");
-                LocalDateTime dateB = (LocalDateTime) b.get("createdAt");
-
-                if (dateA == null && dateB == null) return 0;
-                if (dateA == null) return 1;
-                if (dateB == null) return -1;
-                return dateB.compareTo(dateA);
-            });
+                dto.put("totalSubmissions", submissions.getOrDefault(test.getId(), 0L).intValue());
+                dto.put("pendingSubmissions", pending.getOrDefault(test.getId(), 0L).intValue());
+                testDTOs.add(dto);
+            }
 
-            System.out.println("=== SUCCESS RESPONSE ===");
-            System.out.println("✅ Returning " + testDTOs.size() + " tests");
-            System.out.println("User role: " + currentUser.getRole());
+            System.out.println("✅ Returning " + testDTOs.size() + " tests (role: " + currentUser.getRole() + ")");
 
+            if (TestService.isPaged(cursor, size)) {
+                return ResponseEntity.ok(testService.buildPage(testDTOs, userTests, cursor, size,
+                        isAdmin ? testRepository::getTotalTests
+                                : () -> testRepository.countByCreatorId(currentUser.getId())));
+            }
             return ResponseEntity.ok(testDTOs);
 
         } catch (Exception e) {
@@ -1109,29 +993,21 @@ public class TestController {
     // ✅ ADD new endpoint for admin to manage all tests
     @GetMapping("/admin/all-tests")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> getAllTestsForAdmin(@AuthenticationPrincipal UserDetailsImpl userDetails) {
+    public ResponseEntity<?> getAllTestsForAdmin(@AuthenticationPrincipal UserDetailsImpl userDetails,
+                                                 @RequestParam(required = false) Integer cursor,
+                                                 @RequestParam(required = false) Integer size) {
         try {
             System.out.println("=== ADMIN: GET ALL TESTS ===");
             System.out.println("Requested by admin: " + userDetails.getUsername());
 
-            List<Test> allTests = testService.getAllTests();
-            List<TestDTO> testDTOs = testMapper.toDTOList(allTests);
-
-            // ✅ Add detailed creator info for admin
-            for (TestDTO testDTO : testDTOs) {
-                Test originalTest = allTests.stream()
-                        .filter(t -> t.getId().equals(testDTO.getId()))
-                        .findFirst()
-                        .orElse(null);
-
-                if (originalTest != null && originalTest.getCreator() != null) {
-                    testDTO.setCreatorName(originalTest.getCreator().getFullName());
-                    testDTO.setCreatorEmail(originalTest.getCreator().getEmail());
-                    testDTO.setCreatorRole(originalTest.getCreator().getRole().toString());
-                }
-            }
+            // ✅ Projection đã kèm creatorName/creatorEmail/creatorRole - không cần ghép lại với entity
+            List<TestDTO> testDTOs = testService.listAllTests(cursor, size);
 
             System.out.println("✅ Admin retrieved " + testDTOs.size() + " tests");
+            if (TestService.isPaged(cursor, size)) {
+                return ResponseEntity.ok(testService.buildPage(testDTOs, testDTOs, cursor, size,
+                        testRepository::getTotalTests));
+            }
             return ResponseEntity.ok(testDTOs);
         } catch (Exception e) {
             System.err.println("Error getting all tests for admin: " + e.getMessage());
@@ -1141,6 +1017,52 @@ public class TestController {
         }
     }
 
+    // Thống kê của một đề (đọc từ test_stats): số lượt làm, điểm trung bình, độ lệch chuẩn, phân bố band
+    @GetMapping("/{id}/stats")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getTestStats(@PathVariable Integer id,
+                                          @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            boolean isAdmin = userDetails.getAuthorities().stream()
+                    .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
+            if (!isAdmin && !testService.isTestOwner(id, userDetails.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", true, "message", "Access denied"));
+            }
+
+            Map<String, Object> stats = testStatsService.getTestStats(id);
+            if (stats == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", true, "message", "Test not found: " + id));
+            }
+            return ResponseEntity.ok(stats);
+        } catch (Exception e) {
+            System.err.println("❌ Error getting stats for test " + id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", true, "message", "Error getting test stats: " + e.getMessage()));
+        }
+    }
+
+    // Phân tích câu hỏi của một đề (đọc từ question_item_stats): độ khó, chỉ số phân biệt, đáp án sai hay gặp
+    @GetMapping("/{id}/item-analysis")
+    @PreAuthorize("hasRole('TEACHER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getItemAnalysis(@PathVariable Integer id,
+                                             @AuthenticationPrincipal UserDetailsImpl userDetails) {
+        try {
+            boolean isAdmin = userDetails.getAuthorities().stream()
+                    .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
+            if (!isAdmin && !testService.isTestOwner(id, userDetails.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", true, "message", "Access denied"));
+            }
+            return ResponseEntity.ok(itemAnalysisService.getTestItemAnalysis(id));
+        } catch (Exception e) {
+            System.err.println("❌ Error getting item analysis for test " + id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", true, "message", "Error getting item analysis: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/correct-answer/{questionId}")
     public ResponseEntity<?> getCorrectAnswerByQuestionId(@PathVariable Integer questionId) {
         try {
@@ -1252,6 +1174,8 @@ public class TestController {
                 processListeningQuestions(updatedTest, request.getQuestions(), createdAudios);
             }
 
+            testPaperCache.invalidate(id);
+
             Map<String, Object> response = new HashMap<>();
             response.put("id", updatedTest.getId());
             response.put("testName", updatedTest.getTestName());
@@ -1439,22 +1363,39 @@ public class TestController {
                     audio.setDurationSeconds(audioDTO.getDurationSeconds());
                 }
 
-                // Handle Base64 vs File Path (same logic as original)
+                // Handle stored hash vs Base64 vs File Path - dữ liệu luôn được đưa vào kho audio
+                boolean hasAudioHash = audioDTO.getAudioHash() != null && !audioDTO.getAudioHash().trim().isEmpty();
                 boolean hasBase64 = audioDTO.getAudioBase64() != null && !audioDTO.getAudioBase64().trim().isEmpty();
                 boolean hasFilePath = audioDTO.getFilePath() != null && !audioDTO.getFilePath().trim().isEmpty();
 
-                if (hasBase64) {
-                    audio.setAudioBase64(audioDTO.getAudioBase64());
-                    audio.setOriginalFileName(audioDTO.getOriginalFileName());
-                    audio.setFileSize(audioDTO.getFileSize());
-                    audio.setMimeType(audioDTO.getMimeType());
-                } else if (hasFilePath) {
-                    audio.setAudioBase64(null);
-                    audio.setOriginalFileName(audioDTO.getOriginalFileName());
-                    audio.setFileSize(audioDTO.getFileSize());
-                    audio.setMimeType(audioDTO.getMimeType());
-                } else {
-                    throw new RuntimeException("Audio " + audioIndex + " không có dữ liệu Base64 hoặc file path");
+                audio.setOriginalFileName(audioDTO.getOriginalFileName());
+                audio.setFileSize(audioDTO.getFileSize());
+                audio.setMimeType(audioDTO.getMimeType());
+
+                try {
+                    if (hasAudioHash) {
+                        String audioHash = audioDTO.getAudioHash().trim();
+                        if (!audioStorageService.exists(audioHash)) {
+                            throw new RuntimeException("Audio " + audioIndex + " không tồn tại trong kho: " + audioHash);
+                        }
+                        audio.setAudioHash(audioHash);
+                    } else if (hasBase64) {
+                        listeningAudioService.storeBase64Audio(audio, audioDTO.getAudioBase64());
+                    } else if (hasFilePath) {
+                        AudioStorageService.StoredAudio stored = audioStorageService.storeUploadedFile(audioDTO.getFilePath());
+                        audio.setAudioHash(stored.hash);
+                        audio.setFileSize(stored.size);
+                    } else {
+                        throw new RuntimeException("Audio " + audioIndex + " không có dữ liệu Base64 hoặc file path");
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Lỗi khi lưu dữ liệu audio " + audioIndex + ": " + e.getMessage(), e);
+                }
+
+                // Thời lượng thật lấy từ header file, không tin giá trị client gửi lên
+                Integer headerDuration = audioStorageService.readDurationSeconds(audio.getAudioHash());
+                if (headerDuration != null) {
+                    audio.setDurationSeconds(headerDuration);
                 }
 
                 try {
@@ -1685,6 +1626,7 @@ public class TestController {
             }
 
             questionService.saveQuestionsWithContext(questionDTOs, testId);
+            testPaperCache.invalidate(testId);
 
             return ResponseEntity.ok().body(Map.of(
                     "success", true,
@@ -1794,7 +1736,7 @@ public class TestController {
 
             // Process audio to validate
             AudioProcessingService.AudioProcessingResult result =
-                    audioProcessingService.processAudioResponse(responseDTO);
+                    audioProcessingService.validateAudioResponse(responseDTO);
 
             Map<String, Object> validation = new HashMap<>();
             validation.put("valid", result.success);
@@ -1807,6 +1749,7 @@ public class TestController {
                 validation.put("fileSizeFormatted", formatFileSize(result.actualFileSize));
                 validation.put("fileType", result.fileType);
                 validation.put("mimeType", result.mimeType);
+                validation.put("checksum", result.checksum);
                 validation.put("message", "Audio data is valid and ready for submission");
 
                 // ✅ ADDITIONAL: Check if file size is within limits
@@ -0,0 +1,40 @@
+package tungdao.com.project1.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool có giới hạn cho việc chuẩn hoá audio - không bao giờ chạy trên request thread.
+ * Khi hàng đợi đầy, job vẫn nằm PENDING trong bảng audio_jobs và được bộ quét lấy lại sau.
+ */
+@Configuration
+public class AudioPipelineConfig {
+
+    @Value("${app.audio.pipeline.workers:2}")
+    private int workers;
+
+    @Value("${app.audio.pipeline.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Bean(name = "audioPipelineExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor audioPipelineExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "audio-pipeline-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY); // nhường CPU cho request thread
+            return thread;
+        };
+
+        System.out.println("✅ Audio pipeline executor: " + workers + " workers, queue " + queueCapacity);
+        return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,26 @@
+package tungdao.com.project1.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread làm mới snapshot dashboard khi request gặp snapshot cũ (stale-while-revalidate).
+ * Chỉ một lần làm mới tại một thời điểm; yêu cầu thừa bị bỏ vì snapshot mới sẽ phục vụ tất cả.
+ */
+@Configuration
+public class DashboardConfig {
+
+    @Bean(name = "dashboardRefreshExecutor", destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor dashboardRefreshExecutor() {
+        return new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1), runnable -> {
+                    Thread thread = new Thread(runnable, "dashboard-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+}
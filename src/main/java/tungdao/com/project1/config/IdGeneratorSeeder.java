@@ -0,0 +1,74 @@
+package tungdao.com.project1.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import tungdao.com.project1.entity.IdGenerators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Đưa giá trị trong id_generators lên trên MAX(id) hiện có của từng bảng.
+ * Các bảng này trước đây dùng AUTO_INCREMENT nên đã có dữ liệu; nếu để table generator bắt đầu từ 1
+ * thì ID mới sẽ trùng ID cũ. Chạy khi khởi động, trước khi nhận request (sau khi Hibernate cập nhật schema).
+ */
+@Component
+public class IdGeneratorSeeder {
+
+    // segment -> "bảng.cột id"
+    private static final Map<String, String[]> SEGMENTS = new LinkedHashMap<>();
+
+    static {
+        SEGMENTS.put("questions", new String[]{"questions", "question_id"});
+        SEGMENTS.put("student_responses", new String[]{"student_responses", "response_id"});
+        SEGMENTS.put("correct_answers", new String[]{"correct_answers", "answer_id"});
+        SEGMENTS.put("speaking_writing_criteria_scores", new String[]{"speaking_writing_criteria_scores", "criteria_score_id"});
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // EntityManagerFactory: đảm bảo ddl-auto đã tạo bảng id_generators trước khi seed
+    public IdGeneratorSeeder(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void seed() {
+        for (Map.Entry<String, String[]> segment : SEGMENTS.entrySet()) {
+            try {
+                seed(segment.getKey(), segment.getValue()[0], segment.getValue()[1]);
+            } catch (Exception e) {
+                System.err.println("⚠️ Could not seed id generator '" + segment.getKey() + "': " + e.getMessage());
+            }
+        }
+    }
+
+    private void seed(String segment, String table, String idColumn) {
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(" + idColumn + "), 0) FROM " + table, Long.class);
+
+        // Pooled optimizer cấp các ID trong (giá trị - ALLOCATION_SIZE, giá trị] nên phải cộng thêm một block
+        long floor = (maxId != null ? maxId : 0) + IdGenerators.ALLOCATION_SIZE + 1;
+
+        int updated = jdbcTemplate.update(
+                "UPDATE " + IdGenerators.TABLE + " SET " + IdGenerators.VALUE_COLUMN + " = ? " +
+                        "WHERE " + IdGenerators.NAME_COLUMN + " = ? AND " + IdGenerators.VALUE_COLUMN + " < ?",
+                floor, segment, floor);
+
+        if (updated == 0) {
+            Integer rows = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM " + IdGenerators.TABLE + " WHERE " + IdGenerators.NAME_COLUMN + " = ?",
+                    Integer.class, segment);
+            if (rows == null || rows == 0) {
+                jdbcTemplate.update("INSERT INTO " + IdGenerators.TABLE + " (" + IdGenerators.NAME_COLUMN + ", " +
+                        IdGenerators.VALUE_COLUMN + ") VALUES (?, ?)", segment, floor);
+                updated = 1;
+            }
+        }
+
+        if (updated > 0) {
+            System.out.println("✅ Seeded id generator '" + segment + "' at " + floor + " (max id " + maxId + ")");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tungdao.com.project1.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phân tích câu hỏi: một thread chạy lượt phân tích (đọc stream từ DB, mỗi lúc chỉ một lượt)
+ * và một ForkJoinPool riêng để cộng dồn từng khối dòng song song theo đề.
+ */
+@Configuration
+public class ItemAnalysisConfig {
+
+    @Value("${app.item-analysis.parallelism:4}")
+    private int parallelism;
+
+    @Bean(name = "itemAnalysisExecutor", destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor itemAnalysisExecutor() {
+        return new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1), runnable -> {
+                    Thread thread = new Thread(runnable, "item-analysis");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean(name = "itemAnalysisPool", destroyMethod = "shutdownNow")
+    public ForkJoinPool itemAnalysisPool() {
+        System.out.println("✅ Item analysis pool: parallelism " + parallelism);
+        return new ForkJoinPool(parallelism);
+    }
+}
@@ -0,0 +1,40 @@
+package tungdao.com.project1.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chấm lại khi đáp án đổi: một thread điều phối (các job chạy lần lượt, không tranh DB với nhau)
+ * và một ForkJoinPool riêng để chấm song song từng batch - không dùng common pool của cả ứng dụng.
+ */
+@Configuration
+public class RegradeConfig {
+
+    @Value("${app.regrade.parallelism:4}")
+    private int parallelism;
+
+    @Value("${app.regrade.queue-capacity:20}")
+    private int queueCapacity;
+
+    @Bean(name = "regradeExecutor", destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor regradeExecutor() {
+        return new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "regrade-coordinator");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean(name = "regradePool", destroyMethod = "shutdownNow")
+    public ForkJoinPool regradePool() {
+        System.out.println("✅ Regrade pool: parallelism " + parallelism);
+        return new ForkJoinPool(parallelism);
+    }
+}
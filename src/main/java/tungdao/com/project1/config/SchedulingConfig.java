@@ -0,0 +1,12 @@
+package tungdao.com.project1.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Bật @Scheduled cho các tác vụ nền (quét hàng đợi job audio, dọn dẹp...)
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -17,6 +17,7 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 import tungdao.com.project1.login_register.AuthEntryPointJwt;
 import tungdao.com.project1.login_register.AuthTokenFilter;
 import tungdao.com.project1.login_register.JwtUtils;
+import tungdao.com.project1.service.ActivityTelemetryService;
 import tungdao.com.project1.service.UserDetailsServiceImpl;
 
 import static org.springframework.security.config.Customizer.withDefaults;
@@ -28,18 +29,21 @@ public class SecurityConfig {
     private final AuthEntryPointJwt unauthorizedHandler;
     private final JwtUtils jwtUtils;
     private final UserDetailsServiceImpl userDetailsService;
+    private final ActivityTelemetryService activityTelemetryService;
 
     public SecurityConfig(AuthEntryPointJwt unauthorizedHandler,
                           JwtUtils jwtUtils,
-                          UserDetailsServiceImpl userDetailsService) {
+                          UserDetailsServiceImpl userDetailsService,
+                          ActivityTelemetryService activityTelemetryService) {
         this.unauthorizedHandler = unauthorizedHandler;
         this.jwtUtils = jwtUtils;
         this.userDetailsService = userDetailsService;
+        this.activityTelemetryService = activityTelemetryService;
     }
 
     @Bean
     public AuthTokenFilter authenticationJwtTokenFilter() {
-        return new AuthTokenFilter(jwtUtils, userDetailsService);
+        return new AuthTokenFilter(jwtUtils, userDetailsService, activityTelemetryService);
     }
 
     @Bean
@@ -95,6 +99,14 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.GET, "/api/test/{id}").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/test/correct-answer/{questionId}").permitAll()
 
+                        // ✅ PUBLIC: Listening audio stream (thẻ <audio> không gửi được Authorization header)
+                        .requestMatchers(HttpMethod.GET, "/api/audio/{id}").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/audio/{id}/peaks").permitAll()
+
+                        // ✅ AUTHENTICATED: Speaking recordings (chunked upload + playback for graders)
+                        .requestMatchers("/api/recordings/**").authenticated()
+                        .requestMatchers(HttpMethod.GET, "/api/audio/responses/**").authenticated()
+
                         // ✅ AUTHENTICATED: Taking tests (any logged-in user can take tests)
                         .requestMatchers(HttpMethod.POST, "/api/test/attempts").authenticated()
                         .requestMatchers(HttpMethod.POST, "/api/test/validate-audio-response").authenticated()
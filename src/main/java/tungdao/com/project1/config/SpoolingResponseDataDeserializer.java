@@ -0,0 +1,131 @@
+package tungdao.com.project1.config;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import tungdao.com.project1.dto.TestAttemptRequest;
+import tungdao.com.project1.login_register.UserDetailsImpl;
+import tungdao.com.project1.service.AudioStorageService;
+
+import java.io.IOException;
+
+/**
+ * Deserializer cho TestAttemptRequest.ResponseData: trường audioResponse (base64) được giải mã
+ * từng đoạn thẳng vào kho audio thay vì tạo một String hàng chục MB trên heap.
+ * Sau khi đọc xong, ResponseData chỉ giữ audioHash và audioFileSize thực tế. Hai trường này chỉ được đặt
+ * bởi bước spool (kèm ghi nhận người gửi), giá trị client gửi lên bị bỏ qua.
+ */
+public class SpoolingResponseDataDeserializer extends StdDeserializer<TestAttemptRequest.ResponseData> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MAX_AUDIO_SIZE = 50L * 1024 * 1024; // 50MB - cùng giới hạn với AudioProcessingService
+
+    // Base64 chuẩn, cho phép thiếu padding '='
+    private static final Base64Variant BASE64 = Base64Variants.MIME_NO_LINEFEEDS
+            .withReadPadding(Base64Variant.PaddingReadBehaviour.PADDING_ALLOWED);
+
+    private final transient AudioStorageService audioStorageService;
+
+    public SpoolingResponseDataDeserializer(AudioStorageService audioStorageService) {
+        super(TestAttemptRequest.ResponseData.class);
+        this.audioStorageService = audioStorageService;
+    }
+
+    @Override
+    public TestAttemptRequest.ResponseData deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            return (TestAttemptRequest.ResponseData) ctxt.handleUnexpectedToken(TestAttemptRequest.ResponseData.class, p);
+        }
+
+        TestAttemptRequest.ResponseData data = new TestAttemptRequest.ResponseData();
+
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+
+            switch (field) {
+                case "questionId":
+                    data.setQuestionId(readInteger(p, value));
+                    break;
+                case "responseText":
+                    data.setResponseText(p.getValueAsString());
+                    break;
+                case "audioResponse":
+                    spoolAudio(p, value, data);
+                    break;
+                case "audioUploadId":
+                    data.setAudioUploadId(p.getValueAsString());
+                    break;
+                case "audioDuration":
+                    data.setAudioDuration(readInteger(p, value));
+                    break;
+                case "audioFileType":
+                    data.setAudioFileType(p.getValueAsString());
+                    break;
+                case "audioMimeType":
+                    data.setAudioMimeType(p.getValueAsString());
+                    break;
+                default:
+                    p.skipChildren(); // kể cả audioHash/audioFileSize: chỉ bước spool được đặt
+            }
+        }
+
+        return data;
+    }
+
+    private void spoolAudio(JsonParser p, JsonToken value, TestAttemptRequest.ResponseData data) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            throw JsonMappingException.from(p, "audioResponse must be a base64 string");
+        }
+        Integer userId = currentUserId();
+        if (userId == null) {
+            throw JsonMappingException.from(p, "audioResponse requires an authenticated user");
+        }
+
+        AudioStorageService.PendingAudio pending = audioStorageService.newPendingAudio(MAX_AUDIO_SIZE);
+        try {
+            int decodedBytes = p.readBinaryValue(BASE64, pending);
+            if (decodedBytes == 0) {
+                pending.abort();
+                return;
+            }
+
+            AudioStorageService.StoredAudio stored = pending.commit();
+            audioStorageService.recordOwner(stored.hash, userId);
+            data.setAudioHash(stored.hash);
+            data.setAudioFileSize(stored.size);
+            data.setAudioResponse(null);
+        } catch (IOException | RuntimeException e) {
+            pending.abort();
+            if (e instanceof JsonMappingException) {
+                throw (JsonMappingException) e;
+            }
+            throw JsonMappingException.from(p, "Invalid audioResponse: " + e.getMessage(), e);
+        }
+    }
+
+    private Integer currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl userDetails) {
+            return userDetails.getId();
+        }
+        return null;
+    }
+
+    private Integer readInteger(JsonParser p, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+    }
+}
@@ -0,0 +1,40 @@
+package tungdao.com.project1.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool có giới hạn để chấm các bài nộp bất đồng bộ.
+ * Số worker nhỏ hơn pool kết nối DB để request thường vẫn còn kết nối khi cả lớp nộp bài cùng lúc;
+ * bài nộp không vào được hàng đợi vẫn nằm QUEUED trong submission_journal và được bộ quét lấy lại.
+ */
+@Configuration
+public class SubmissionIntakeConfig {
+
+    @Value("${app.submission.workers:4}")
+    private int workers;
+
+    @Value("${app.submission.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Bean(name = "submissionExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor submissionExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "submission-grader-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        System.out.println("✅ Submission executor: " + workers + " workers, queue " + queueCapacity);
+        return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.StreamReadConstraints;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -13,10 +14,18 @@ import org.springframework.http.converter.json.MappingJackson2HttpMessageConvert
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import tungdao.com.project1.dto.TestAttemptRequest;
+import tungdao.com.project1.service.AudioStorageService;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    private final AudioStorageService audioStorageService;
+
+    public WebConfig(AudioStorageService audioStorageService) {
+        this.audioStorageService = audioStorageService;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -24,7 +33,7 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS", "HEAD", "PATCH")
                 .allowedHeaders("*")
                 .allowCredentials(false)  // Temporarily disable
-                .exposedHeaders("Authorization", "Content-Type", "Accept")
+                .exposedHeaders("Authorization", "Content-Type", "Accept", "Location", "Retry-After", "Idempotent-Replayed")
                 .maxAge(86400);
     }
 
@@ -42,8 +51,13 @@ public class WebConfig implements WebMvcConfigurer {
     @Bean
     @Primary
     public ObjectMapper objectMapper() {
+        // ✅ audioResponse trong bài nộp được giải mã thẳng vào kho audio, không tạo String lớn
+        SimpleModule audioSpoolingModule = new SimpleModule("AudioSpoolingModule");
+        audioSpoolingModule.addDeserializer(TestAttemptRequest.ResponseData.class,
+                new SpoolingResponseDataDeserializer(audioStorageService));
+
         ObjectMapper mapper = new Jackson2ObjectMapperBuilder()
-                .modules(new JavaTimeModule())
+                .modules(new JavaTimeModule(), audioSpoolingModule)
                 .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
                 .build();
 
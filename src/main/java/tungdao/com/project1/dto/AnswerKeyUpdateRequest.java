@@ -0,0 +1,10 @@
+package tungdao.com.project1.dto;
+
+import lombok.Data;
+
+@Data
+public class AnswerKeyUpdateRequest {
+    private String correctAnswer;       // Đáp án chính
+    private String alternativeAnswers;  // Các đáp án thay thế (cùng định dạng với QuestionCreateDTO)
+    private String explanation;
+}
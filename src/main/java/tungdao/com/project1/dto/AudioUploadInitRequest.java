@@ -0,0 +1,11 @@
+package tungdao.com.project1.dto;
+
+import lombok.Data;
+
+@Data
+public class AudioUploadInitRequest {
+    private Long totalSize;      // Kích thước file (bytes)
+    private String mimeType;     // audio/webm, audio/ogg, ...
+    private String fileType;     // webm, mp3, wav
+    private Integer questionId;  // Câu hỏi Speaking tương ứng (optional)
+}
@@ -0,0 +1,15 @@
+package tungdao.com.project1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkGradingRequest {
+    private List<GradingRequest> grades = new ArrayList<>(); // Mỗi phần tử là điểm của một bài làm
+}
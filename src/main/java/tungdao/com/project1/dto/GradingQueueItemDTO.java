@@ -0,0 +1,29 @@
+package tungdao.com.project1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import tungdao.com.project1.entity.GradingQueueStatus;
+import tungdao.com.project1.entity.TestType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng trong hàng đợi chấm bài (projection, không nạp entity)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GradingQueueItemDTO {
+    private Long queueId;            // con trỏ cho trang tiếp theo
+    private Integer attemptId;
+    private Integer testId;
+    private String testName;
+    private TestType testType;
+    private Integer studentId;
+    private String studentName;
+    private LocalDateTime submittedAt;
+    private GradingQueueStatus status;
+    private Integer claimedBy;       // có khi status = CLAIMED
+    private LocalDateTime leaseExpiresAt;
+}
@@ -13,6 +13,9 @@ public class ListeningAudioCreateDTO {
     // Traditional file path (optional, for backward compatibility)
     private String filePath;
 
+    // SHA-256 của audio đã có trong kho (khi sửa đề thi không cần gửi lại dữ liệu)
+    private String audioHash;
+
     // Base64 data (new approach)
     private String audioBase64;
     private String originalFileName;
@@ -0,0 +1,18 @@
+package tungdao.com.project1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Câu trả lời cần chấm lại khi đáp án đổi - chỉ các cột cần cho việc chấm, không nạp entity/audio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegradeRow {
+    private Integer responseId;
+    private Integer attemptId;
+    private String responseText;
+    private Boolean isCorrect;
+}
@@ -47,6 +47,7 @@ public class SpeakingWritingResultDTO {
         // Response content
         private String responseText;
         private String audioBase64;
+        private String audioUrl; // /api/audio/responses/{id} when stored in the audio store
         private Integer audioDuration; // in seconds
         private String audioFileType;
         private Long audioFileSize;
@@ -63,7 +64,7 @@ public class SpeakingWritingResultDTO {
         }
 
         public boolean hasAudioResponse() {
-            return audioBase64 != null && !audioBase64.trim().isEmpty();
+            return (audioBase64 != null && !audioBase64.trim().isEmpty()) || audioUrl != null;
         }
 
         public String getResponseType() {
@@ -32,6 +32,7 @@ public class StudentResponseDTO {
     private Boolean requiresManualGrading;
 
     private String audioBase64;
+    private String audioUrl;           // /api/audio/responses/{id} khi audio nằm trong kho
 
     // Constructors
     public StudentResponseDTO() {
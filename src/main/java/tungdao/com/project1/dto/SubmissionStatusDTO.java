@@ -0,0 +1,26 @@
+package tungdao.com.project1.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import tungdao.com.project1.entity.SubmissionStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Trạng thái chấm của một bài nộp bất đồng bộ (không kèm payload)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SubmissionStatusDTO {
+    private String ticket;
+    private Integer userId;
+    private Integer testId;
+    private SubmissionStatus status;
+    private Integer attemptId;       // có khi status = COMPLETED
+    private String errorMessage;     // có khi status = FAILED
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+}
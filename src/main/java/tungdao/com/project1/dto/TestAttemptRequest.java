@@ -15,6 +15,8 @@ public class TestAttemptRequest {
         private Integer questionId;
         private String responseText;     // For text answers
         private String audioResponse;    // For audio (base64)
+        private String audioUploadId;    // For audio uploaded via /api/recordings/uploads
+        private String audioHash;        // Set when audioResponse was spooled into the audio store
         private Integer audioDuration;   // Duration in seconds
         private String audioFileType;    // File type (webm, mp3, etc.)
         private Long audioFileSize;      // File size in bytes
@@ -48,8 +50,16 @@ public class TestAttemptRequest {
             return audioResponse != null && !audioResponse.trim().isEmpty();
         }
 
+        public boolean hasAudioUpload() {
+            return audioUploadId != null && !audioUploadId.trim().isEmpty();
+        }
+
+        public boolean hasStoredAudio() {
+            return audioHash != null && !audioHash.isEmpty();
+        }
+
         public String getResponseType() {
-            if (hasAudioResponse()) return "AUDIO";
+            if (hasAudioResponse() || hasAudioUpload() || hasStoredAudio()) return "AUDIO";
             if (hasTextResponse()) return "TEXT";
             return "NONE";
         }
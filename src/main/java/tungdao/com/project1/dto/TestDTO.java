@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import tungdao.com.project1.entity.TestType;
+import tungdao.com.project1.entity.UserRole;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -35,4 +36,17 @@ public class TestDTO {
 
     // Không bao gồm danh sách questions, readingPassages, listeningAudios, attempts
     // để tránh vòng lặp vô tận
+
+    /**
+     * Dùng cho projection trong TestRepository (SELECT new ...): role và COUNT lấy thẳng từ câu query
+     */
+    public TestDTO(Integer id, Integer creatorId, String creatorName, String creatorEmail, String testName,
+                   TestType testType, String description, String instructions, Integer durationMinutes,
+                   BigDecimal passingScore, Boolean isPractice, Boolean isPublished, LocalDateTime createdAt,
+                   LocalDateTime updatedAt, UserRole creatorRole, Long questionCount) {
+        this(id, creatorId, creatorName, creatorEmail, testName, testType, description, instructions,
+                durationMinutes, passingScore, isPractice, isPublished, createdAt, updatedAt,
+                creatorRole != null ? creatorRole.toString() : null,
+                questionCount != null ? questionCount.intValue() : 0);
+    }
 }
\ No newline at end of file
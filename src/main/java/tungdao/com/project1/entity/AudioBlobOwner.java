@@ -0,0 +1,42 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Người dùng đã gửi lên một file audio trong kho (theo hash) - chỉ người này được gắn file vào câu trả lời
+ */
+@Entity
+@Table(name = "audio_blob_owners")
+@IdClass(AudioBlobOwner.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AudioBlobOwner {
+
+    @Id
+    @Column(name = "audio_hash", length = 64)
+    private String audioHash;
+
+    @Id
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String audioHash;
+        private Integer userId;
+    }
+}
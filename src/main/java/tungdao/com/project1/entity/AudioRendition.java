@@ -0,0 +1,53 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Kết quả chuẩn hoá của một file audio gốc (theo hash) - dùng chung cho mọi dòng trỏ tới cùng file
+ */
+@Entity
+@Table(name = "audio_renditions")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AudioRendition {
+
+    @Id
+    @Column(name = "source_hash", length = 64)
+    private String sourceHash;
+
+    // null nếu không tạo được bản nhẹ hơn (không có ffmpeg hoặc bản gốc đã đủ nhỏ)
+    @Column(name = "rendition_hash", length = 64)
+    private String renditionHash;
+
+    @Column(name = "rendition_mime_type", length = 50)
+    private String renditionMimeType;
+
+    @Column(name = "rendition_size")
+    private Long renditionSize;
+
+    @Column(name = "duration_seconds")
+    private Integer durationSeconds;
+
+    // Biên độ đỉnh 0-100 của từng đoạn, phân tách bằng dấu phẩy
+    @Lob
+    @Column(name = "peaks", columnDefinition = "TEXT")
+    private String peaks;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+
+    public boolean hasRendition() {
+        return renditionHash != null;
+    }
+}
@@ -0,0 +1,70 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Phiên upload bản ghi âm theo từng đoạn (chunk) - client có thể tiếp tục khi mất kết nối
+ */
+@Entity
+@Table(name = "audio_uploads")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AudioUpload {
+
+    @Id
+    @Column(name = "upload_id", length = 36)
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(name = "question_id")
+    private Integer questionId;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "chunk_size", nullable = false)
+    private Integer chunkSize;
+
+    @Column(name = "total_chunks", nullable = false)
+    private Integer totalChunks;
+
+    @Column(name = "mime_type", length = 50)
+    private String mimeType;
+
+    @Column(name = "file_type", length = 10)
+    private String fileType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private AudioUploadStatus status = AudioUploadStatus.UPLOADING;
+
+    @Column(name = "audio_hash", length = 64)
+    private String audioHash;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (status == null) {
+            status = AudioUploadStatus.UPLOADING;
+        }
+    }
+
+    public boolean isCompleted() {
+        return status == AudioUploadStatus.COMPLETED && audioHash != null;
+    }
+}
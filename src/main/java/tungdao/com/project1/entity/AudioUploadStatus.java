@@ -0,0 +1,7 @@
+package tungdao.com.project1.entity;
+
+public enum AudioUploadStatus {
+        UPLOADING,
+        COMPLETED,
+        EXPIRED
+}
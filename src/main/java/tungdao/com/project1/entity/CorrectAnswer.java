@@ -15,7 +15,10 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class CorrectAnswer {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "correct_answer_id_gen")
+    @TableGenerator(name = "correct_answer_id_gen", table = IdGenerators.TABLE, pkColumnName = IdGenerators.NAME_COLUMN,
+            valueColumnName = IdGenerators.VALUE_COLUMN, pkColumnValue = "correct_answers",
+            allocationSize = IdGenerators.ALLOCATION_SIZE)
     @Column(name = "answer_id")
     private Integer id;
 
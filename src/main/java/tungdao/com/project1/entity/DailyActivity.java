@@ -0,0 +1,47 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Số liệu hoạt động theo ngày, tổng hợp từ bộ đếm trong bộ nhớ của ActivityTelemetryService.
+ * user_sketch là HyperLogLog của các user trong ngày - gộp lại được khi khởi động lại giữa ngày.
+ */
+@Entity
+@Table(name = "daily_activity")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyActivity {
+
+    @Id
+    @Column(name = "activity_date")
+    private LocalDate activityDate;
+
+    // Số user khác nhau trong ngày (ước lượng HyperLogLog)
+    @Column(name = "active_users", nullable = false)
+    private Long activeUsers = 0L;
+
+    @Column(name = "requests", nullable = false)
+    private Long requests = 0L;
+
+    @Column(name = "authenticated_requests", nullable = false)
+    private Long authenticatedRequests = 0L;
+
+    @Column(name = "peak_online_users", nullable = false)
+    private Long peakOnlineUsers = 0L;
+
+    @Column(name = "peak_requests_per_minute", nullable = false)
+    private Long peakRequestsPerMinute = 0L;
+
+    @Column(name = "user_sketch", columnDefinition = "VARBINARY(4096)")
+    private byte[] userSketch;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
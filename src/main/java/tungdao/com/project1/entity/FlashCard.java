@@ -9,7 +9,9 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "flashcards")
+@Table(name = "flashcards", indexes = {
+        @Index(name = "idx_flashcards_created_at", columnList = "created_at")
+})
 @Data
 public class FlashCard {
     @Id
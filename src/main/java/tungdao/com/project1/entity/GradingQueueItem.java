@@ -0,0 +1,65 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bài làm Writing/Speaking đang chờ chấm tay. Thêm vào khi học viên nộp bài, xoá khi đã chấm xong.
+ * Giáo viên nhận (claim) một bài với lease có hạn để nhiều người chấm cùng lúc mà không chấm trùng.
+ */
+@Entity
+@Table(name = "grading_queue", indexes = {
+        @Index(name = "idx_grading_queue_attempt", columnList = "attempt_id", unique = true),
+        @Index(name = "idx_grading_queue_creator_status", columnList = "creator_id, status, queue_id"),
+        @Index(name = "idx_grading_queue_test_status", columnList = "test_id, status, queue_id"),
+        @Index(name = "idx_grading_queue_status", columnList = "status, queue_id"),
+        @Index(name = "idx_grading_queue_lease", columnList = "status, lease_expires_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GradingQueueItem {
+
+    // Tăng dần theo thứ tự vào hàng đợi - dùng làm con trỏ phân trang (keyset)
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "queue_id")
+    private Long id;
+
+    @Column(name = "attempt_id", nullable = false)
+    private Integer attemptId;
+
+    @Column(name = "test_id", nullable = false)
+    private Integer testId;
+
+    // Người tạo đề - giáo viên được chấm bài này
+    @Column(name = "creator_id")
+    private Integer creatorId;
+
+    @Column(name = "student_id", nullable = false)
+    private Integer studentId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "test_type", nullable = false, length = 20)
+    private TestType testType;
+
+    @Column(name = "submitted_at")
+    private LocalDateTime submittedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private GradingQueueStatus status = GradingQueueStatus.PENDING;
+
+    @Column(name = "claimed_by")
+    private Integer claimedBy;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
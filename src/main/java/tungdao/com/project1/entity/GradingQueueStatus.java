@@ -0,0 +1,6 @@
+package tungdao.com.project1.entity;
+
+public enum GradingQueueStatus {
+        PENDING,
+        CLAIMED
+}
@@ -0,0 +1,17 @@
+package tungdao.com.project1.entity;
+
+/**
+ * Cấu hình chung cho các entity sinh ID theo bảng id_generators (pooled) thay vì AUTO_INCREMENT.
+ * IDENTITY buộc Hibernate INSERT từng dòng ngay khi persist nên không batch được;
+ * với table generator mỗi lần lấy ALLOCATION_SIZE ID, các INSERT được gộp khi flush.
+ */
+public final class IdGenerators {
+
+    public static final String TABLE = "id_generators";
+    public static final String NAME_COLUMN = "gen_name";
+    public static final String VALUE_COLUMN = "gen_value";
+    public static final int ALLOCATION_SIZE = 50;
+
+    private IdGenerators() {
+    }
+}
@@ -0,0 +1,41 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Mốc (watermark) của lượt phân tích câu hỏi gần nhất: bài làm đã hoàn thành cuối cùng đã được cộng vào
+ * question_item_stats, theo thứ tự (end_time, attempt_id). Chỉ có một dòng, id = 1.
+ */
+@Entity
+@Table(name = "item_analysis_state")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ItemAnalysisState {
+
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    @Column(name = "id")
+    private Integer id = SINGLETON_ID;
+
+    @Column(name = "last_end_time")
+    private LocalDateTime lastEndTime;
+
+    @Column(name = "last_attempt_id")
+    private Integer lastAttemptId;
+
+    @Column(name = "last_run_at")
+    private LocalDateTime lastRunAt;
+
+    @Column(name = "last_run_rows")
+    private Long lastRunRows;
+
+    @Column(name = "last_run_millis")
+    private Long lastRunMillis;
+}
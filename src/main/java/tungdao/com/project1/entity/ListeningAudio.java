@@ -50,6 +50,10 @@ public class ListeningAudio {
     @Column(name = "audio_base64", columnDefinition = "LONGTEXT")
     private String audioBase64;
 
+    // SHA-256 của file audio trong AudioStorageService (thay cho audioBase64)
+    @Column(name = "audio_hash", length = 64)
+    private String audioHash;
+
     @Column(name = "file_size")
     private Long fileSize;
 
@@ -93,6 +97,11 @@ public class ListeningAudio {
         return this.audioBase64 != null && !this.audioBase64.trim().isEmpty();
     }
 
+    // Method để kiểm tra audio đã nằm trong kho lưu trữ chưa
+    public boolean hasStoredAudio() {
+        return this.audioHash != null && !this.audioHash.isEmpty();
+    }
+
     // Method để lấy MIME type hiệu quả
     public String getEffectiveMimeType() {
         if (this.mimeType != null && !this.mimeType.trim().isEmpty()) {
@@ -184,6 +193,7 @@ public class ListeningAudio {
         }
 
         // File metadata
+        System.out.println("Audio hash: " + this.audioHash);
         System.out.println("Original filename: " + this.originalFileName);
         System.out.println("File size: " + this.fileSize + " bytes");
         System.out.println("MIME type: " + this.mimeType);
@@ -18,7 +18,10 @@ import java.util.Set;
 @AllArgsConstructor
 public class Question {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "question_id_gen")
+    @TableGenerator(name = "question_id_gen", table = IdGenerators.TABLE, pkColumnName = IdGenerators.NAME_COLUMN,
+            valueColumnName = IdGenerators.VALUE_COLUMN, pkColumnValue = "questions",
+            allocationSize = IdGenerators.ALLOCATION_SIZE)
     @Column(name = "question_id")
     private Integer id;
 
@@ -0,0 +1,77 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Phân tích câu hỏi (item analysis) của một câu khách quan, tính bởi ItemAnalysisService.
+ * Lưu các tổng cộng dồn được (số lượt trả lời, số đúng, tổng / tổng bình phương band, tổng band của người đúng)
+ * nên lượt chạy tăng dần chỉ cần cộng thêm bài làm mới; p_value và discrimination được tính lại từ các tổng đó.
+ */
+@Entity
+@Table(name = "question_item_stats", indexes = {
+        @Index(name = "idx_item_stats_test", columnList = "test_id"),
+        @Index(name = "idx_item_stats_rebuild", columnList = "rebuild_requested_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuestionItemStats {
+
+    @Id
+    @Column(name = "question_id")
+    private Integer questionId;
+
+    @Column(name = "test_id", nullable = false)
+    private Integer testId;
+
+    @Column(name = "response_count", nullable = false)
+    private Long responseCount = 0L;
+
+    @Column(name = "correct_count", nullable = false)
+    private Long correctCount = 0L;
+
+    // Các lượt trả lời thuộc bài làm đã có band - dùng cho chỉ số phân biệt
+    @Column(name = "scored_count", nullable = false)
+    private Long scoredCount = 0L;
+
+    @Column(name = "scored_correct_count", nullable = false)
+    private Long scoredCorrectCount = 0L;
+
+    @Column(name = "score_sum", nullable = false)
+    private Double scoreSum = 0.0;
+
+    @Column(name = "score_square_sum", nullable = false)
+    private Double scoreSquareSum = 0.0;
+
+    // Tổng band của các bài làm trả lời đúng câu này
+    @Column(name = "correct_score_sum", nullable = false)
+    private Double correctScoreSum = 0.0;
+
+    // Độ khó: tỉ lệ trả lời đúng
+    @Column(name = "p_value")
+    private Double pValue;
+
+    // Chỉ số phân biệt: tương quan point-biserial giữa đúng/sai và band của bài làm
+    @Column(name = "discrimination")
+    private Double discrimination;
+
+    // JSON: các đáp án sai hay gặp [{answer, count, scored, scoreSum}]
+    @Column(name = "distractors", columnDefinition = "TEXT")
+    private String distractors;
+
+    // Cảnh báo, phân cách bằng dấu phẩy: TOO_HARD, TOO_EASY, LOW_DISCRIMINATION, NEGATIVE_DISCRIMINATION, DISTRACTOR_ABOVE_KEY
+    @Column(name = "flags", length = 200)
+    private String flags;
+
+    // Đáp án của đề bị sửa sau khi đã phân tích: lượt chạy sau tính lại câu này từ đầu
+    @Column(name = "rebuild_requested_at")
+    private LocalDateTime rebuildRequestedAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
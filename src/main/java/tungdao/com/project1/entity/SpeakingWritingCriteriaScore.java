@@ -16,7 +16,10 @@ import java.time.LocalDateTime;
 public class SpeakingWritingCriteriaScore {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "criteria_score_id_gen")
+    @TableGenerator(name = "criteria_score_id_gen", table = IdGenerators.TABLE, pkColumnName = IdGenerators.NAME_COLUMN,
+            valueColumnName = IdGenerators.VALUE_COLUMN, pkColumnValue = "speaking_writing_criteria_scores",
+            allocationSize = IdGenerators.ALLOCATION_SIZE)
     @Column(name = "criteria_score_id")
     private Integer id;
 
@@ -17,7 +17,10 @@ import java.time.LocalDateTime;
 public class StudentResponse {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "student_response_id_gen")
+    @TableGenerator(name = "student_response_id_gen", table = IdGenerators.TABLE, pkColumnName = IdGenerators.NAME_COLUMN,
+            valueColumnName = IdGenerators.VALUE_COLUMN, pkColumnValue = "student_responses",
+            allocationSize = IdGenerators.ALLOCATION_SIZE)
     @Column(name = "response_id")
     private Integer id;
 
@@ -75,6 +78,10 @@ public class StudentResponse {
     @Column(name = "audio_base64", columnDefinition = "LONGTEXT")
     private String audioBase64;
 
+    // SHA-256 của bản ghi âm trong kho audio (thay cho audioBase64)
+    @Column(name = "audio_hash", length = 64)
+    private String audioHash;
+
     @Column(name = "audio_duration_seconds")
     private Integer audioDurationSeconds;
 
@@ -100,7 +107,11 @@ public class StudentResponse {
     }
 
     public boolean hasAudioResponse() {
-        return audioBase64 != null && !audioBase64.trim().isEmpty();
+        return hasStoredAudio() || (audioBase64 != null && !audioBase64.trim().isEmpty());
+    }
+
+    public boolean hasStoredAudio() {
+        return audioHash != null && !audioHash.isEmpty();
     }
 
     public String getResponseType() {
@@ -130,7 +141,7 @@ public class StudentResponse {
         }
 
         // Audio responses require manual grading
-        if (this.audioBase64 != null && !this.audioBase64.trim().isEmpty()) {
+        if (hasAudioResponse()) {
             return true;
         }
 
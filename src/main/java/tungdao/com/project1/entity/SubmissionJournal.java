@@ -0,0 +1,74 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bài nộp đã nhận nhưng chưa chấm: lưu nguyên payload để worker chấm và lưu sau, kể cả khi server khởi động lại
+ */
+@Entity
+@Table(name = "submission_journal", indexes = {
+        @Index(name = "idx_submission_journal_ticket", columnList = "ticket", unique = true),
+        @Index(name = "idx_submission_journal_status_created", columnList = "status, created_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SubmissionJournal {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "journal_id")
+    private Integer id;
+
+    @Column(name = "ticket", nullable = false, length = 36)
+    private String ticket;
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "test_id", nullable = false)
+    private Integer testId;
+
+    // TestAttemptRequest dạng JSON (audio đã nằm trong kho audio, chỉ còn audioHash)
+    @Lob
+    @Column(name = "payload", nullable = false, columnDefinition = "LONGTEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private SubmissionStatus status = SubmissionStatus.QUEUED;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "attempt_id")
+    private Integer attemptId;
+
+    @Column(name = "error_message", length = 500)
+    private String errorMessage;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (status == null) {
+            status = SubmissionStatus.QUEUED;
+        }
+        if (attempts == null) {
+            attempts = 0;
+        }
+    }
+}
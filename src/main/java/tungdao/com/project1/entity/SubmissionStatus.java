@@ -0,0 +1,8 @@
+package tungdao.com.project1.entity;
+
+public enum SubmissionStatus {
+        QUEUED,
+        PROCESSING,
+        COMPLETED,
+        FAILED
+}
@@ -11,7 +11,9 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "tests")
+@Table(name = "tests", indexes = {
+        @Index(name = "idx_tests_created_at", columnList = "created_at")
+})
 @Getter
 @Setter
 @Data
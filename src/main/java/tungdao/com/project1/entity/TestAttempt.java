@@ -13,7 +13,9 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "test_attempts")
+@Table(name = "test_attempts", indexes = {
+        @Index(name = "idx_attempt_end_time", columnList = "end_time, attempt_id")
+})
 @Data
 public class TestAttempt {
     @Id
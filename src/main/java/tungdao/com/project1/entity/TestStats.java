@@ -0,0 +1,53 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Thống kê tổng hợp của một đề, tính sẵn từ test_attempts để dashboard đọc theo khoá chính
+ * thay vì chạy COUNT/AVG trên toàn bảng mỗi lần xem. Cập nhật qua test_stats_outbox.
+ */
+@Entity
+@Table(name = "test_stats", indexes = {
+        @Index(name = "idx_test_stats_creator", columnList = "creator_id")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TestStats {
+
+    @Id
+    @Column(name = "test_id")
+    private Integer testId;
+
+    @Column(name = "creator_id")
+    private Integer creatorId;
+
+    @Column(name = "attempt_count", nullable = false)
+    private Long attemptCount = 0L;
+
+    @Column(name = "completed_count", nullable = false)
+    private Long completedCount = 0L;
+
+    // Số bài đã hoàn thành và có band (overall_score hoặc total_score)
+    @Column(name = "scored_count", nullable = false)
+    private Long scoredCount = 0L;
+
+    @Column(name = "score_sum", nullable = false, precision = 14, scale = 1)
+    private BigDecimal scoreSum = BigDecimal.ZERO;
+
+    // Tổng bình phương band - cùng với score_sum cho ra độ lệch chuẩn mà không cần quét lại
+    @Column(name = "score_square_sum", nullable = false, precision = 16, scale = 2)
+    private BigDecimal scoreSquareSum = BigDecimal.ZERO;
+
+    @Column(name = "last_attempt_at")
+    private LocalDateTime lastAttemptAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
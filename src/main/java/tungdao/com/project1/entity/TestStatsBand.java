@@ -0,0 +1,42 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Một cột của biểu đồ phân bố band cho một đề (số bài đạt đúng band này)
+ */
+@Entity
+@Table(name = "test_stats_bands")
+@IdClass(TestStatsBand.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TestStatsBand {
+
+    @Id
+    @Column(name = "test_id")
+    private Integer testId;
+
+    @Id
+    @Column(name = "band", precision = 3, scale = 1)
+    private BigDecimal band;
+
+    @Column(name = "attempt_count", nullable = false)
+    private Long attemptCount;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Integer testId;
+        private BigDecimal band;
+    }
+}
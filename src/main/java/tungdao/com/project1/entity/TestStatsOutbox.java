@@ -0,0 +1,33 @@
+package tungdao.com.project1.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Đề có thống kê cần tính lại. Ghi cùng transaction với thay đổi của bài làm; nhiều thay đổi
+ * của cùng một đề gộp vào một dòng (revision tăng dần) nên cả lớp nộp bài chỉ tốn một lần tính lại.
+ */
+@Entity
+@Table(name = "test_stats_outbox", indexes = {
+        @Index(name = "idx_test_stats_outbox_enqueued", columnList = "enqueued_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TestStatsOutbox {
+
+    @Id
+    @Column(name = "test_id")
+    private Integer testId;
+
+    // Tăng mỗi lần đánh dấu - chỉ xoá dòng khi revision chưa đổi kể từ lúc đọc
+    @Column(name = "revision", nullable = false)
+    private Long revision;
+
+    @Column(name = "enqueued_at", nullable = false)
+    private LocalDateTime enqueuedAt;
+}
@@ -15,6 +15,7 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
+import tungdao.com.project1.service.ActivityTelemetryService;
 import tungdao.com.project1.service.UserDetailsServiceImpl;
 
 import java.io.IOException;
@@ -26,16 +27,20 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
     private final JwtUtils jwtUtils;
     private final UserDetailsServiceImpl userDetailsService;
+    private final ActivityTelemetryService activityTelemetryService;
 
-    public AuthTokenFilter(JwtUtils jwtUtils, UserDetailsServiceImpl uds) {
+    public AuthTokenFilter(JwtUtils jwtUtils, UserDetailsServiceImpl uds,
+                           ActivityTelemetryService activityTelemetryService) {
         this.jwtUtils = jwtUtils;
         this.userDetailsService = uds;
+        this.activityTelemetryService = activityTelemetryService;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
                                     HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
+        Integer activeUserId = null; // user đã xác thực - dùng cho bộ đếm hoạt động
         try {
             String uri = request.getRequestURI();
             String method = request.getMethod();
@@ -64,6 +69,9 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
                             authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                             SecurityContextHolder.getContext().setAuthentication(authentication);
+                            if (userDetails instanceof UserDetailsImpl) {
+                                activeUserId = ((UserDetailsImpl) userDetails).getId();
+                            }
 
                             logger.info("🔐 Authentication set for '{}' with authorities: {}",
                                     username, userDetails.getAuthorities());
@@ -109,6 +117,11 @@ public class AuthTokenFilter extends OncePerRequestFilter {
             e.printStackTrace();
         }
 
+        // ✅ Activity telemetry: chỉ tăng bộ đếm trong bộ nhớ, không ghi DB
+        if (!"OPTIONS".equals(request.getMethod())) {
+            activityTelemetryService.record(activeUserId);
+        }
+
         // ✅ Continue with the filter chain
         filterChain.doFilter(request, response);
     }
@@ -153,6 +166,12 @@ public class AuthTokenFilter extends OncePerRequestFilter {
             }
         }
 
+        // ✅ PUBLIC listening audio stream
+        if ("GET".equals(method) && uri.matches("/api/audio/\\d+(/peaks)?")) {
+            logger.debug("✅ Listening audio stream - public");
+            return false;
+        }
+
         // ✅ TEST authenticated endpoints (keep existing logic for backward compatibility)
         if (uri.startsWith("/api/test/")) {
             if (("POST".equals(method) && (uri.equals("/api/test/attempts") ||
@@ -0,0 +1,27 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.AudioBlobOwner;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface AudioBlobOwnerRepository extends JpaRepository<AudioBlobOwner, AudioBlobOwner.Key> {
+
+    boolean existsByAudioHashAndUserId(String audioHash, Integer userId);
+
+    /**
+     * Ghi nhận người gửi file - cùng một người gửi lại cùng nội dung thì bỏ qua
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO audio_blob_owners (audio_hash, user_id, created_at) " +
+            "VALUES (:audioHash, :userId, :now)", nativeQuery = true)
+    int insertIfAbsent(@Param("audioHash") String audioHash, @Param("userId") Integer userId,
+                       @Param("now") LocalDateTime now);
+}
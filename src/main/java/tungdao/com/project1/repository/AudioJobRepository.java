@@ -0,0 +1,45 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.AudioJob;
+import tungdao.com.project1.entity.AudioJobSource;
+import tungdao.com.project1.entity.AudioJobStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface AudioJobRepository extends JpaRepository<AudioJob, Integer> {
+
+    @Query("SELECT j.id FROM AudioJob j WHERE j.status = :status ORDER BY j.createdAt ASC, j.id ASC")
+    List<Integer> findIdsByStatus(@Param("status") AudioJobStatus status, Pageable pageable);
+
+    long countByStatus(AudioJobStatus status);
+
+    boolean existsBySourceTypeAndSourceIdAndAudioHash(AudioJobSource sourceType, Integer sourceId, String audioHash);
+
+    /**
+     * Nhận job - chỉ một worker thắng nếu nhiều worker cùng nhận một job
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE AudioJob j SET j.status = tungdao.com.project1.entity.AudioJobStatus.PROCESSING, " +
+            "j.startedAt = :now, j.attempts = j.attempts + 1 " +
+            "WHERE j.id = :id AND j.status = tungdao.com.project1.entity.AudioJobStatus.PENDING")
+    int claim(@Param("id") Integer id, @Param("now") LocalDateTime now);
+
+    /**
+     * Trả lại hàng đợi các job bị treo (server tắt giữa chừng)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE AudioJob j SET j.status = tungdao.com.project1.entity.AudioJobStatus.PENDING " +
+            "WHERE j.status = tungdao.com.project1.entity.AudioJobStatus.PROCESSING AND j.startedAt < :cutoff")
+    int releaseStale(@Param("cutoff") LocalDateTime cutoff);
+}
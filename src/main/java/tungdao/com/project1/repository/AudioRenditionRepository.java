@@ -0,0 +1,9 @@
+package tungdao.com.project1.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.AudioRendition;
+
+@Repository
+public interface AudioRenditionRepository extends JpaRepository<AudioRendition, String> {
+}
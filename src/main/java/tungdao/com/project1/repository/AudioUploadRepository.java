@@ -0,0 +1,33 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.AudioUpload;
+import tungdao.com.project1.entity.AudioUploadStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface AudioUploadRepository extends JpaRepository<AudioUpload, String> {
+
+    boolean existsByAudioHashAndUserIdAndStatus(String audioHash, Integer userId, AudioUploadStatus status);
+
+    @Query("SELECT u.id FROM AudioUpload u WHERE u.status = tungdao.com.project1.entity.AudioUploadStatus.UPLOADING " +
+            "AND u.createdAt < :cutoff ORDER BY u.createdAt ASC")
+    List<String> findStaleUploadIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    /**
+     * Đánh dấu phiên upload hết hạn - trả về 0 nếu phiên vừa được complete trong lúc quét
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE AudioUpload u SET u.status = tungdao.com.project1.entity.AudioUploadStatus.EXPIRED " +
+            "WHERE u.id = :id AND u.status = tungdao.com.project1.entity.AudioUploadStatus.UPLOADING")
+    int markExpired(@Param("id") String id);
+}
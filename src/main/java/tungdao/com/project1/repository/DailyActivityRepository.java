@@ -0,0 +1,14 @@
+package tungdao.com.project1.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.DailyActivity;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface DailyActivityRepository extends JpaRepository<DailyActivity, LocalDate> {
+
+    List<DailyActivity> findByActivityDateBetweenOrderByActivityDateAsc(LocalDate from, LocalDate to);
+}
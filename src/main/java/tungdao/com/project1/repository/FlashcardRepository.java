@@ -57,6 +57,12 @@ public interface FlashcardRepository extends JpaRepository<FlashCard, Integer> {
     @Query("SELECT COUNT(f) FROM FlashCard f WHERE DATE(f.createdAt) = CURRENT_DATE AND f.isActive = true")
     long countFlashcardsCreatedToday();
 
+    /**
+     * Số flashcard active tạo trong [from, to) - quét theo khoảng trên idx_flashcards_created_at
+     */
+    @Query("SELECT COUNT(f) FROM FlashCard f WHERE f.createdAt >= :from AND f.createdAt < :to AND f.isActive = true")
+    long countActiveCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
     @Query("SELECT COUNT(f) FROM FlashCard f WHERE f.createdAt >= :since AND f.isActive = true")
     long countFlashcardsCreatedSince(@Param("since") LocalDateTime since);
 
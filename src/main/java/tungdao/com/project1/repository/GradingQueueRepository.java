@@ -0,0 +1,161 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.dto.GradingQueueItemDTO;
+import tungdao.com.project1.entity.GradingQueueItem;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface GradingQueueRepository extends JpaRepository<GradingQueueItem, Long> {
+
+    Optional<GradingQueueItem> findByAttemptId(Integer attemptId);
+
+    /**
+     * Một trang bài chờ chấm sau con trỏ afterId (keyset - không OFFSET, chi phí theo kích thước trang).
+     * Mỗi kiểu lọc một query riêng để luôn đi đúng index: (status, queue_id), (creator_id, status, queue_id)
+     * hoặc (test_id, status, queue_id)
+     */
+    @Query("SELECT new tungdao.com.project1.dto.GradingQueueItemDTO(q.id, q.attemptId, q.testId, t.testName, " +
+            "q.testType, q.studentId, s.fullName, q.submittedAt, q.status, q.claimedBy, q.leaseExpiresAt) " +
+            "FROM GradingQueueItem q JOIN Test t ON t.id = q.testId JOIN User s ON s.id = q.studentId " +
+            "WHERE q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING AND q.id > :afterId " +
+            "ORDER BY q.id ASC")
+    List<GradingQueueItemDTO> findPendingPage(@Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("SELECT new tungdao.com.project1.dto.GradingQueueItemDTO(q.id, q.attemptId, q.testId, t.testName, " +
+            "q.testType, q.studentId, s.fullName, q.submittedAt, q.status, q.claimedBy, q.leaseExpiresAt) " +
+            "FROM GradingQueueItem q JOIN Test t ON t.id = q.testId JOIN User s ON s.id = q.studentId " +
+            "WHERE q.creatorId = :creatorId " +
+            "AND q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING AND q.id > :afterId " +
+            "ORDER BY q.id ASC")
+    List<GradingQueueItemDTO> findPendingPageByCreator(@Param("creatorId") Integer creatorId,
+                                                       @Param("afterId") Long afterId,
+                                                       Pageable pageable);
+
+    /**
+     * Lọc theo đề; creatorId = null: không giới hạn người tạo (admin)
+     */
+    @Query("SELECT new tungdao.com.project1.dto.GradingQueueItemDTO(q.id, q.attemptId, q.testId, t.testName, " +
+            "q.testType, q.studentId, s.fullName, q.submittedAt, q.status, q.claimedBy, q.leaseExpiresAt) " +
+            "FROM GradingQueueItem q JOIN Test t ON t.id = q.testId JOIN User s ON s.id = q.studentId " +
+            "WHERE q.testId = :testId " +
+            "AND q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING AND q.id > :afterId " +
+            "AND (:creatorId IS NULL OR q.creatorId = :creatorId) " +
+            "ORDER BY q.id ASC")
+    List<GradingQueueItemDTO> findPendingPageByTest(@Param("testId") Integer testId,
+                                                    @Param("creatorId") Integer creatorId,
+                                                    @Param("afterId") Long afterId,
+                                                    Pageable pageable);
+
+    /**
+     * Các bài người chấm đang giữ lease
+     */
+    @Query("SELECT new tungdao.com.project1.dto.GradingQueueItemDTO(q.id, q.attemptId, q.testId, t.testName, " +
+            "q.testType, q.studentId, s.fullName, q.submittedAt, q.status, q.claimedBy, q.leaseExpiresAt) " +
+            "FROM GradingQueueItem q JOIN Test t ON t.id = q.testId JOIN User s ON s.id = q.studentId " +
+            "WHERE q.status = tungdao.com.project1.entity.GradingQueueStatus.CLAIMED " +
+            "AND q.claimedBy = :graderId AND q.id > :afterId " +
+            "ORDER BY q.id ASC")
+    List<GradingQueueItemDTO> findClaimedPage(@Param("graderId") Integer graderId,
+                                              @Param("afterId") Long afterId,
+                                              Pageable pageable);
+
+    /**
+     * Số bài chờ chấm theo đề (kể cả bài đang được chấm)
+     */
+    @Query("SELECT q.testId, COUNT(q) FROM GradingQueueItem q " +
+            "WHERE (:creatorId IS NULL OR q.creatorId = :creatorId) GROUP BY q.testId")
+    List<Object[]> countByTest(@Param("creatorId") Integer creatorId);
+
+    @Query("SELECT q.testId, COUNT(q) FROM GradingQueueItem q WHERE q.testId IN :testIds GROUP BY q.testId")
+    List<Object[]> countByTestIdIn(@Param("testIds") Collection<Integer> testIds);
+
+    @Query("SELECT COUNT(q) FROM GradingQueueItem q WHERE q.status = tungdao.com.project1.entity.GradingQueueStatus.CLAIMED")
+    long countClaimed();
+
+    /**
+     * Thêm bài vào hàng đợi - bỏ qua nếu bài làm đã có trong hàng đợi
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO grading_queue (attempt_id, test_id, creator_id, student_id, test_type, " +
+            "submitted_at, status, created_at) " +
+            "VALUES (:attemptId, :testId, :creatorId, :studentId, :testType, :submittedAt, 'PENDING', :now)",
+            nativeQuery = true)
+    int insertIfAbsent(@Param("attemptId") Integer attemptId, @Param("testId") Integer testId,
+                       @Param("creatorId") Integer creatorId, @Param("studentId") Integer studentId,
+                       @Param("testType") String testType, @Param("submittedAt") LocalDateTime submittedAt,
+                       @Param("now") LocalDateTime now);
+
+    /**
+     * Đưa các bài Writing/Speaking đã nộp nhưng chưa chấm (từ trước khi có hàng đợi) vào hàng đợi
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO grading_queue (attempt_id, test_id, creator_id, student_id, test_type, " +
+            "submitted_at, status, created_at) " +
+            "SELECT a.attempt_id, a.test_id, t.creator_id, a.student_id, t.test_type, " +
+            "COALESCE(a.end_time, a.start_time), 'PENDING', :now " +
+            "FROM test_attempts a JOIN tests t ON t.test_id = a.test_id " +
+            "WHERE a.is_completed = TRUE AND (a.grading_status IS NULL OR a.grading_status = 'PENDING') " +
+            "AND t.test_type IN ('WRITING', 'SPEAKING') " +
+            "AND NOT EXISTS (SELECT 1 FROM speaking_writing_criteria_scores cs " +
+            "JOIN student_responses sr ON sr.response_id = cs.response_id WHERE sr.attempt_id = a.attempt_id) " +
+            "ORDER BY a.attempt_id",
+            nativeQuery = true)
+    int backfillPending(@Param("now") LocalDateTime now);
+
+    /**
+     * Nhận bài: thành công nếu bài còn trống, lease cũ đã hết hạn, hoặc chính người này đang giữ (gia hạn)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE GradingQueueItem q SET q.status = tungdao.com.project1.entity.GradingQueueStatus.CLAIMED, " +
+            "q.claimedBy = :graderId, q.leaseExpiresAt = :leaseExpiresAt " +
+            "WHERE q.attemptId = :attemptId AND (q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING " +
+            "OR q.leaseExpiresAt < :now OR q.claimedBy = :graderId)")
+    int claim(@Param("attemptId") Integer attemptId, @Param("graderId") Integer graderId,
+              @Param("now") LocalDateTime now, @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE GradingQueueItem q SET q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING, " +
+            "q.claimedBy = null, q.leaseExpiresAt = null " +
+            "WHERE q.attemptId = :attemptId AND q.claimedBy = :graderId")
+    int release(@Param("attemptId") Integer attemptId, @Param("graderId") Integer graderId);
+
+    /**
+     * Trả lại hàng đợi các bài có lease đã hết hạn
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE GradingQueueItem q SET q.status = tungdao.com.project1.entity.GradingQueueStatus.PENDING, " +
+            "q.claimedBy = null, q.leaseExpiresAt = null " +
+            "WHERE q.status = tungdao.com.project1.entity.GradingQueueStatus.CLAIMED AND q.leaseExpiresAt < :now")
+    int releaseExpired(@Param("now") LocalDateTime now);
+
+    /**
+     * Bài trong danh sách đang bị người khác giữ lease còn hạn
+     */
+    @Query("SELECT q.attemptId FROM GradingQueueItem q WHERE q.attemptId IN :attemptIds " +
+            "AND q.status = tungdao.com.project1.entity.GradingQueueStatus.CLAIMED " +
+            "AND q.claimedBy <> :graderId AND q.leaseExpiresAt >= :now")
+    List<Integer> findLeasedByOthers(@Param("attemptIds") Collection<Integer> attemptIds,
+                                     @Param("graderId") Integer graderId,
+                                     @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GradingQueueItem q WHERE q.attemptId IN :attemptIds")
+    int deleteByAttemptIdIn(@Param("attemptIds") Collection<Integer> attemptIds);
+}
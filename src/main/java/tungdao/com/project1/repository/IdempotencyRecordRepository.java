@@ -0,0 +1,65 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.IdempotencyRecord;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, Long> {
+
+    Optional<IdempotencyRecord> findByUserIdAndIdempotencyKey(Integer userId, String idempotencyKey);
+
+    /**
+     * Giữ key cho request đầu tiên - unique (user_id, idempotency_key) đảm bảo chỉ một request thắng,
+     * các request trùng đồng thời nhận 0 thay vì lỗi
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO idempotency_keys " +
+            "(user_id, idempotency_key, request_hash, status, updated_at, expires_at) " +
+            "VALUES (:userId, :key, :requestHash, 'IN_PROGRESS', :now, :expiresAt)", nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Integer userId, @Param("key") String key,
+                       @Param("requestHash") String requestHash, @Param("now") LocalDateTime now,
+                       @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * Nhận lại key đã hết hạn hoặc bị bỏ dở - chỉ thành công nếu chưa ai khác nhận trước (so updatedAt)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE IdempotencyRecord r SET r.status = tungdao.com.project1.entity.IdempotencyStatus.IN_PROGRESS, " +
+            "r.requestHash = :requestHash, r.responseStatus = null, r.responseBody = null, " +
+            "r.updatedAt = :now, r.expiresAt = :expiresAt " +
+            "WHERE r.id = :id AND r.updatedAt = :previousUpdatedAt")
+    int takeOver(@Param("id") Long id, @Param("previousUpdatedAt") LocalDateTime previousUpdatedAt,
+                 @Param("requestHash") String requestHash, @Param("now") LocalDateTime now,
+                 @Param("expiresAt") LocalDateTime expiresAt);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE IdempotencyRecord r SET r.status = tungdao.com.project1.entity.IdempotencyStatus.COMPLETED, " +
+            "r.responseStatus = :responseStatus, r.responseBody = :responseBody, r.updatedAt = :now " +
+            "WHERE r.userId = :userId AND r.idempotencyKey = :key " +
+            "AND r.status = tungdao.com.project1.entity.IdempotencyStatus.IN_PROGRESS")
+    int complete(@Param("userId") Integer userId, @Param("key") String key,
+                 @Param("responseStatus") Integer responseStatus, @Param("responseBody") String responseBody,
+                 @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.userId = :userId AND r.idempotencyKey = :key " +
+            "AND r.status = tungdao.com.project1.entity.IdempotencyStatus.IN_PROGRESS")
+    int release(@Param("userId") Integer userId, @Param("key") String key);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,9 @@
+package tungdao.com.project1.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.ItemAnalysisState;
+
+@Repository
+public interface ItemAnalysisStateRepository extends JpaRepository<ItemAnalysisState, Integer> {
+}
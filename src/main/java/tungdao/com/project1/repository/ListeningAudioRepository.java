@@ -21,6 +21,18 @@ public interface ListeningAudioRepository extends JpaRepository<ListeningAudio,
 
     List<ListeningAudio> findBySection(ListeningSection section);
 
+    @Query("SELECT a.test.id FROM ListeningAudio a WHERE a.id = :id")
+    Integer findTestIdById(@Param("id") Integer id);
+
+    /**
+     * Cập nhật thời lượng từ job chuẩn hoá audio - chỉ khi audio vẫn trỏ tới cùng file
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ListeningAudio a SET a.durationSeconds = :duration WHERE a.id = :id AND a.audioHash = :audioHash")
+    int updateDuration(@Param("id") Integer id, @Param("audioHash") String audioHash,
+                       @Param("duration") Integer duration);
+
     @Modifying
     @Transactional
     @Query("DELETE FROM ListeningAudio a WHERE a.test.id = :testId")
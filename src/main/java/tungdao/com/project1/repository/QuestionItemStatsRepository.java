@@ -0,0 +1,59 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.QuestionItemStats;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface QuestionItemStatsRepository extends JpaRepository<QuestionItemStats, Integer> {
+
+    /**
+     * Thống kê các câu của một đề kèm thứ tự và loại câu hỏi: [QuestionItemStats, orderInTest, questionType]
+     */
+    @Query("SELECT s, q.orderInTest, q.questionType FROM QuestionItemStats s, Question q " +
+            "WHERE q.id = s.questionId AND s.testId = :testId ORDER BY q.orderInTest ASC, s.questionId ASC")
+    List<Object[]> findWithQuestionByTestId(@Param("testId") Integer testId);
+
+    /**
+     * Các câu bị gắn cảnh báo và đủ số lượt trả lời - câu phân biệt kém nhất lên trước
+     */
+    @Query("SELECT s FROM QuestionItemStats s WHERE s.flags IS NOT NULL AND s.responseCount >= :minResponses " +
+            "ORDER BY s.discrimination ASC, s.questionId ASC")
+    List<QuestionItemStats> findFlagged(@Param("minResponses") Long minResponses, Pageable pageable);
+
+    @Query("SELECT s.questionId FROM QuestionItemStats s WHERE s.rebuildRequestedAt IS NOT NULL")
+    List<Integer> findQuestionIdsNeedingRebuild();
+
+    @Query("SELECT COUNT(s), COALESCE(SUM(s.responseCount), 0), " +
+            "COALESCE(SUM(CASE WHEN s.flags IS NOT NULL THEN 1 ELSE 0 END), 0), " +
+            "COALESCE(SUM(CASE WHEN s.rebuildRequestedAt IS NOT NULL THEN 1 ELSE 0 END), 0) " +
+            "FROM QuestionItemStats s")
+    List<Object[]> summarize();
+
+    /**
+     * Đáp án của đề đổi làm band của mọi bài làm đổi theo, nên cả đề cần tính lại chỉ số phân biệt
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE QuestionItemStats s SET s.rebuildRequestedAt = :now WHERE s.testId IN :testIds")
+    int requestRebuildByTestIds(@Param("testIds") Collection<Integer> testIds, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM QuestionItemStats s WHERE s.testId = :testId")
+    int deleteByTestId(@Param("testId") Integer testId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM QuestionItemStats s")
+    int deleteAllStats();
+}
@@ -1,14 +1,20 @@
 package tungdao.com.project1.repository;
 
+import jakarta.persistence.QueryHint;
 import jakarta.transaction.Transactional;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import tungdao.com.project1.dto.QuestionDTO;
 import tungdao.com.project1.entity.*;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface QuestionRepository extends JpaRepository<Question, Integer> {
@@ -34,4 +40,27 @@ public interface QuestionRepository extends JpaRepository<Question, Integer> {
     // ✅ ADD: Get questions with specific answer status
     @Query("SELECT q FROM Question q WHERE q.test.id = :testId AND q.id IN :answeredQuestionIds ORDER BY q.orderInTest ASC")
     List<Question> findAnsweredQuestionsByTestId(@Param("testId") Integer testId, @Param("answeredQuestionIds") List<Integer> answeredQuestionIds);
-}
\ No newline at end of file
+
+    // ✅ Câu hỏi của đề kèm đáp án trong một query - dùng khi chấm bài
+    @Query("SELECT q FROM Question q LEFT JOIN FETCH q.correctAnswer WHERE q.test.id = :testId")
+    List<Question> findWithCorrectAnswerByTestId(@Param("testId") Integer testId);
+
+    @Query("SELECT q FROM Question q JOIN FETCH q.test LEFT JOIN FETCH q.correctAnswer WHERE q.id IN :ids")
+    List<Question> findWithCorrectAnswerByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // ✅ Đọc theo con trỏ cho writer streaming - phải dùng trong transaction và đóng Stream sau khi đọc.
+    // Chỉ các cột của đề thi: không nạp entity nên đáp án (OneToOne phía mappedBy, luôn nạp kèm) không bị đọc
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "50"))
+    @Query("SELECT new tungdao.com.project1.dto.QuestionDTO(q.id, q.questionText, CAST(q.questionType AS String), " +
+            "q.options, q.section, q.questionSetInstructions, q.orderInTest, p.id, a.id, q.context) " +
+            "FROM Question q LEFT JOIN q.passage p LEFT JOIN q.audio a " +
+            "WHERE q.test.id = :testId ORDER BY q.orderInTest ASC, q.id ASC")
+    Stream<QuestionDTO> streamByTestId(@Param("testId") Integer testId);
+
+    // ✅ Mọi câu hỏi của đề kèm câu trả lời của lượt làm bài (null nếu bỏ trống), theo thứ tự orderInTest
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "50"))
+    @Query("SELECT q, r FROM Question q LEFT JOIN FETCH q.correctAnswer " +
+            "LEFT JOIN StudentResponse r ON r.question = q AND r.attempt.id = :attemptId " +
+            "WHERE q.test.id = :testId ORDER BY COALESCE(q.orderInTest, q.id) ASC, q.id ASC, r.id ASC")
+    Stream<Object[]> streamWithResponses(@Param("testId") Integer testId, @Param("attemptId") Integer attemptId);
+}
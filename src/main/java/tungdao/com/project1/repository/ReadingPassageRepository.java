@@ -1,14 +1,18 @@
 package tungdao.com.project1.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import tungdao.com.project1.entity.ReadingPassage;
 import tungdao.com.project1.entity.Test;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ReadingPassageRepository extends JpaRepository<ReadingPassage, Integer> {
@@ -17,6 +21,11 @@ public interface ReadingPassageRepository extends JpaRepository<ReadingPassage,
 
     List<ReadingPassage> findByTestIdOrderByOrderInTest(Integer testId);
 
+    // ✅ Đọc theo con trỏ cho writer streaming - phải dùng trong transaction và đóng Stream sau khi đọc
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "50"))
+    @Query("SELECT p FROM ReadingPassage p WHERE p.test.id = :testId ORDER BY p.orderInTest ASC, p.id ASC")
+    Stream<ReadingPassage> streamByTestId(@Param("testId") Integer testId);
+
     @Modifying
     @Query("DELETE FROM ReadingPassage p WHERE p.test.id = :testId")
     void deleteByTestId(@Param("testId") Integer testId);
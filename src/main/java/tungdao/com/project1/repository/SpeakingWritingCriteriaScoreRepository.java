@@ -8,6 +8,7 @@ import tungdao.com.project1.entity.SpeakingWritingCriteriaScore;
 import tungdao.com.project1.entity.StudentResponse;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,6 +17,9 @@ public interface SpeakingWritingCriteriaScoreRepository extends JpaRepository<Sp
 
     Optional<SpeakingWritingCriteriaScore> findByResponse(StudentResponse response);
 
+    @Query("SELECT cs FROM SpeakingWritingCriteriaScore cs WHERE cs.response.id IN :responseIds")
+    List<SpeakingWritingCriteriaScore> findByResponseIdIn(@Param("responseIds") Collection<Integer> responseIds);
+
     @Query("SELECT AVG(swcs.taskAchievement) FROM SpeakingWritingCriteriaScore swcs JOIN swcs.response sr JOIN sr.attempt a WHERE a.id = :attemptId")
     Optional<BigDecimal> calculateAverageTaskAchievement(Integer attemptId);
 
@@ -1,15 +1,19 @@
 package tungdao.com.project1.repository;
 
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import tungdao.com.project1.dto.RegradeRow;
 import tungdao.com.project1.entity.Question;
 import tungdao.com.project1.entity.StudentResponse;
 import tungdao.com.project1.entity.TestAttempt;
 import tungdao.com.project1.entity.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,12 +24,62 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     // ✅ EXISTING METHODS (keep as is)
     List<StudentResponse> findByAttemptId(Integer attemptId);
 
+    /**
+     * Câu trả lời nháp đã lưu của bài làm (kèm câu hỏi) - dùng khi ghi autosave và khi nộp bài
+     */
+    @Query("SELECT sr FROM StudentResponse sr JOIN FETCH sr.question WHERE sr.attempt.id = :attemptId")
+    List<StudentResponse> findWithQuestionByAttemptId(@Param("attemptId") Integer attemptId);
+
+    /**
+     * Câu trả lời của nhiều bài làm trong một truy vấn - dùng khi chấm hàng loạt
+     */
+    @Query("SELECT sr FROM StudentResponse sr WHERE sr.attempt.id IN :attemptIds")
+    List<StudentResponse> findByAttemptIdIn(@Param("attemptIds") Collection<Integer> attemptIds);
+
+    /**
+     * Một trang câu trả lời dạng text (bài đã nộp) của một câu hỏi, sau con trỏ afterId.
+     * Lọc theo một question_id để index (question_id, response_id) cho ra đúng thứ tự - mỗi trang là một range scan
+     */
+    @Query("SELECT new tungdao.com.project1.dto.RegradeRow(sr.id, a.id, sr.responseText, sr.isCorrect) " +
+            "FROM StudentResponse sr JOIN sr.attempt a " +
+            "WHERE sr.question.id = :questionId AND sr.id > :afterId AND a.isCompleted = true " +
+            "AND sr.responseText IS NOT NULL AND sr.audioHash IS NULL AND sr.audioBase64 IS NULL " +
+            "ORDER BY sr.id ASC")
+    List<RegradeRow> findRegradeRows(@Param("questionId") Integer questionId,
+                                     @Param("afterId") Integer afterId,
+                                     Pageable pageable);
+
+    @Query("SELECT COUNT(sr) FROM StudentResponse sr JOIN sr.attempt a " +
+            "WHERE sr.question.id IN :questionIds AND a.isCompleted = true " +
+            "AND sr.responseText IS NOT NULL AND sr.audioHash IS NULL AND sr.audioBase64 IS NULL")
+    long countRegradable(@Param("questionIds") Collection<Integer> questionIds);
+
+    /**
+     * Theo từng bài làm: loại đề, số câu đúng, số câu chờ chấm tay - để tính lại band
+     */
+    @Query("SELECT a.id, t.testType, " +
+            "SUM(CASE WHEN sr.isCorrect = true THEN 1 ELSE 0 END), " +
+            "SUM(CASE WHEN sr.isCorrect IS NULL THEN 1 ELSE 0 END) " +
+            "FROM StudentResponse sr JOIN sr.attempt a JOIN a.test t " +
+            "WHERE a.id IN :attemptIds AND a.isCompleted = true GROUP BY a.id, t.testType")
+    List<Object[]> summarizeAttempts(@Param("attemptIds") Collection<Integer> attemptIds);
+
     List<StudentResponse> findByStudentIdAndQuestionId(Integer studentId, Integer questionId);
 
     @Modifying
     @Query("DELETE FROM StudentResponse sr WHERE sr.question.id IN :questionIds")
     void deleteByQuestionIdIn(@Param("questionIds") List<Integer> questionIds);
 
+    /**
+     * Cập nhật thời lượng từ job chuẩn hoá audio - chỉ khi response vẫn trỏ tới cùng file
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE StudentResponse sr SET sr.audioDurationSeconds = :duration " +
+            "WHERE sr.id = :id AND sr.audioHash = :audioHash")
+    int updateAudioDuration(@Param("id") Integer id, @Param("audioHash") String audioHash,
+                            @Param("duration") Integer duration);
+
     // ✅ NEW METHODS FOR GRADING SYSTEM
 
     /**
@@ -53,7 +107,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     @Query("SELECT sr FROM StudentResponse sr " +
             "WHERE sr.manualScore IS NULL " +
             "AND sr.attempt.test.creator.id = :teacherId " +
-            "AND (sr.audioBase64 IS NOT NULL OR " +
+            "AND (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL OR " +
             "(sr.responseText IS NOT NULL AND sr.question.questionType IN " +
             "('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
             "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')))")
@@ -65,7 +119,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     @Query("SELECT sr FROM StudentResponse sr " +
             "WHERE sr.manualScore IS NULL " +
             "AND sr.attempt.test.id = :testId " +
-            "AND (sr.audioBase64 IS NOT NULL OR " +
+            "AND (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL OR " +
             "(sr.responseText IS NOT NULL AND sr.question.questionType IN " +
             "('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
             "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')))")
@@ -77,7 +131,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     @Query("SELECT COUNT(sr) FROM StudentResponse sr " +
             "WHERE sr.manualScore IS NULL " +
             "AND sr.attempt.test.creator.id = :teacherId " +
-            "AND (sr.audioBase64 IS NOT NULL OR " +
+            "AND (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL OR " +
             "(sr.responseText IS NOT NULL AND sr.question.questionType IN " +
             "('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
             "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')))")
@@ -97,7 +151,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     /**
      * Find responses with audio data
      */
-    @Query("SELECT sr FROM StudentResponse sr WHERE sr.audioBase64 IS NOT NULL AND LENGTH(sr.audioBase64) > 0")
+    @Query("SELECT sr FROM StudentResponse sr WHERE sr.audioHash IS NOT NULL OR (sr.audioBase64 IS NOT NULL AND LENGTH(sr.audioBase64) > 0)")
     List<StudentResponse> findResponsesWithAudio();
 
     /**
@@ -135,7 +189,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
      */
     @Query("SELECT sr FROM StudentResponse sr " +
             "JOIN sr.question q " +
-            "WHERE (sr.audioBase64 IS NOT NULL " +
+            "WHERE (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL " +
             "OR q.questionType IN ('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
             "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')) " +
             "AND sr.manualScore IS NULL " +
@@ -148,7 +202,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     @Query("SELECT COUNT(sr) FROM StudentResponse sr " +
             "JOIN sr.question q " +
             "WHERE sr.attempt.id = :attemptId " +
-            "AND (sr.audioBase64 IS NOT NULL " +
+            "AND (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL " +
             "OR q.questionType IN ('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
             "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')) " +
             "AND sr.manualScore IS NULL")
@@ -173,7 +227,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
             "WHERE sr.attempt.id = :attemptId " +
             "AND (q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
             "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') " +
-            "OR sr.audioBase64 IS NOT NULL)")
+            "OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL)")
     int countManualGradingRequiredByAttemptId(@Param("attemptId") Integer attemptId);
 
     /**
@@ -184,7 +238,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
             "WHERE sr.attempt.id = :attemptId " +
             "AND (q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
             "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') " +
-            "OR sr.audioBase64 IS NOT NULL) " +
+            "OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL) " +
             "AND sr.manualScore IS NOT NULL")
     int countGradedManualResponsesByAttemptId(@Param("attemptId") Integer attemptId);
 
@@ -197,7 +251,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
             "WHERE sr.id = :responseId " +
             "AND (q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
             "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') " +
-            "OR sr.audioBase64 IS NOT NULL)")
+            "OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL)")
     boolean requiresManualGrading(@Param("responseId") Integer responseId);
 
     /**
@@ -209,7 +263,7 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
             "WHERE ta.test.id = :testId " +
             "AND (q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
             "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') " +
-            "OR sr.audioBase64 IS NOT NULL) " +
+            "OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL) " +
             "AND sr.manualScore IS NULL " +
             "ORDER BY ta.endTime DESC, sr.id ASC")
     List<StudentResponse> findPendingManualGradingByTestId(@Param("testId") Integer testId);
@@ -220,9 +274,9 @@ public interface StudentResponseRepository extends JpaRepository<StudentResponse
     @Query("SELECT new map(" +
             "COUNT(sr) as totalResponses, " +
             "COUNT(CASE WHEN q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
-            "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') OR sr.audioBase64 IS NOT NULL THEN 1 END) as manualRequired, " +
+            "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL THEN 1 END) as manualRequired, " +
             "COUNT(CASE WHEN (q.questionType IN ('WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'ESSAY', " +
-            "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') OR sr.audioBase64 IS NOT NULL) " +
+            "'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3', 'SPEAKING_TASK') OR sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL) " +
             "AND sr.manualScore IS NOT NULL THEN 1 END) as manualGraded" +
             ") " +
             "FROM StudentResponse sr " +
@@ -0,0 +1,76 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.dto.SubmissionStatusDTO;
+import tungdao.com.project1.entity.SubmissionJournal;
+import tungdao.com.project1.entity.SubmissionStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SubmissionJournalRepository extends JpaRepository<SubmissionJournal, Integer> {
+
+    // Không đọc cột payload - endpoint trạng thái bị poll liên tục
+    @Query("SELECT new tungdao.com.project1.dto.SubmissionStatusDTO(j.ticket, j.userId, j.testId, j.status, " +
+            "j.attemptId, j.errorMessage, j.createdAt, j.startedAt, j.completedAt) " +
+            "FROM SubmissionJournal j WHERE j.ticket = :ticket")
+    Optional<SubmissionStatusDTO> findStatusByTicket(@Param("ticket") String ticket);
+
+    @Query("SELECT j.id FROM SubmissionJournal j WHERE j.status = :status ORDER BY j.createdAt ASC, j.id ASC")
+    List<Integer> findIdsByStatus(@Param("status") SubmissionStatus status, Pageable pageable);
+
+    long countByStatus(SubmissionStatus status);
+
+    /**
+     * Nhận bài nộp - chỉ một worker thắng nếu nhiều worker cùng nhận
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE SubmissionJournal j SET j.status = tungdao.com.project1.entity.SubmissionStatus.PROCESSING, " +
+            "j.startedAt = :now, j.attempts = j.attempts + 1 " +
+            "WHERE j.id = :id AND j.status = tungdao.com.project1.entity.SubmissionStatus.QUEUED")
+    int claim(@Param("id") Integer id, @Param("now") LocalDateTime now);
+
+    /**
+     * Đánh dấu đã chấm xong - chạy trong cùng transaction với việc lưu TestAttempt.
+     * Trả về 0 nếu lượt nhận này đã bị bộ quét trả lại hàng đợi (khi đó phải rollback để không lưu trùng)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE SubmissionJournal j SET j.status = tungdao.com.project1.entity.SubmissionStatus.COMPLETED, " +
+            "j.attemptId = :attemptId, j.completedAt = :now, j.errorMessage = null " +
+            "WHERE j.id = :id AND j.status = tungdao.com.project1.entity.SubmissionStatus.PROCESSING " +
+            "AND j.startedAt = :startedAt")
+    int markCompleted(@Param("id") Integer id, @Param("startedAt") LocalDateTime startedAt,
+                      @Param("attemptId") Integer attemptId, @Param("now") LocalDateTime now);
+
+    /**
+     * Ghi lỗi của một lượt chấm - cùng điều kiện với markCompleted: trả về 0 nếu lượt nhận này đã bị
+     * trả lại hàng đợi hoặc có worker khác nhận, để worker cũ không đưa lại bài đã chấm vào hàng đợi
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE SubmissionJournal j SET j.status = :status, j.errorMessage = :errorMessage, " +
+            "j.completedAt = :completedAt WHERE j.id = :id " +
+            "AND j.status = tungdao.com.project1.entity.SubmissionStatus.PROCESSING AND j.startedAt = :startedAt")
+    int markFailedAttempt(@Param("id") Integer id, @Param("startedAt") LocalDateTime startedAt,
+                          @Param("status") SubmissionStatus status, @Param("errorMessage") String errorMessage,
+                          @Param("completedAt") LocalDateTime completedAt);
+
+    /**
+     * Trả lại hàng đợi các bài nộp bị treo (server tắt giữa chừng)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE SubmissionJournal j SET j.status = tungdao.com.project1.entity.SubmissionStatus.QUEUED " +
+            "WHERE j.status = tungdao.com.project1.entity.SubmissionStatus.PROCESSING AND j.startedAt < :cutoff")
+    int releaseStale(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -1,5 +1,6 @@
 package tungdao.com.project1.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,7 +12,9 @@ import tungdao.com.project1.entity.TestAttempt;
 import tungdao.com.project1.entity.User;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TestAttemptRepository extends JpaRepository<TestAttempt, Integer> {
@@ -24,6 +27,26 @@ public interface TestAttemptRepository extends JpaRepository<TestAttempt, Intege
     @Query("SELECT ta FROM TestAttempt ta LEFT JOIN FETCH ta.responses WHERE ta.id = :id")
     TestAttempt findByIdWithResponses(@Param("id") Integer id);
 
+    /**
+     * Nhiều bài làm kèm đề và người tạo đề (để kiểm tra quyền chấm) trong một truy vấn
+     */
+    @Query("SELECT ta FROM TestAttempt ta JOIN FETCH ta.test t LEFT JOIN FETCH t.creator WHERE ta.id IN :ids")
+    List<TestAttempt> findWithTestByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Số lượt làm bài theo đề cho một trang danh sách đề
+     */
+    @Query("SELECT ta.test.id, COUNT(ta) FROM TestAttempt ta WHERE ta.test.id IN :testIds GROUP BY ta.test.id")
+    List<Object[]> countByTestIdIn(@Param("testIds") Collection<Integer> testIds);
+
+    /**
+     * Bài làm đang mở (chưa nộp) gần nhất của học viên cho một đề - để tiếp tục sau khi trình duyệt bị tắt
+     */
+    Optional<TestAttempt> findFirstByStudentIdAndTestIdAndIsCompletedFalseOrderByIdDesc(Integer studentId, Integer testId);
+
+    @Query("SELECT ta.isCompleted FROM TestAttempt ta WHERE ta.id = :id")
+    Boolean findIsCompletedById(@Param("id") Integer id);
+
     @Modifying
     @Query("DELETE FROM TestAttempt a WHERE a.test.id = :testId")
     void deleteByTestId(@Param("testId") Integer testId);
@@ -130,10 +153,13 @@ public interface TestAttemptRepository extends JpaRepository<TestAttempt, Intege
     List<TestAttempt> findLatestAttemptsByStudent(@Param("studentId") Integer studentId);
 
     /**
-     * Find high scoring attempts (for achievements/leaderboard)
+     * Dựng bảng xếp hạng trong bộ nhớ (LeaderboardService) - đọc theo trang, keyset trên attempt_id:
+     * [attemptId, testId, studentId, fullName, band, listening, reading, writing, speaking]
      */
-    @Query("SELECT ta FROM TestAttempt ta WHERE ta.totalScore >= :minScore ORDER BY ta.totalScore DESC, ta.startTime DESC")
-    List<TestAttempt> findHighScoringAttempts(@Param("minScore") Double minScore);
+    @Query("SELECT ta.id, ta.test.id, ta.student.id, ta.student.fullName, COALESCE(ta.overallScore, ta.totalScore), " +
+            "ta.listeningScore, ta.readingScore, ta.writingScore, ta.speakingScore FROM TestAttempt ta " +
+            "WHERE ta.isCompleted = true AND ta.id > :afterId ORDER BY ta.id ASC")
+    List<Object[]> findLeaderboardRows(@Param("afterId") Integer afterId, Pageable pageable);
 
     /**
      * Average score for a test
@@ -157,7 +183,7 @@ public interface TestAttemptRepository extends JpaRepository<TestAttempt, Intege
     @Query("SELECT sr FROM StudentResponse sr WHERE sr.attempt.id = :attemptId ORDER BY sr.question.orderInTest")
     List<StudentResponse> findByAttemptIdOrderByQuestionOrder(@Param("attemptId") Integer attemptId);
 
-    @Query("SELECT sr FROM StudentResponse sr WHERE sr.manualScore IS NULL AND sr.attempt.test.creator.id = :teacherId AND (sr.audioBase64 IS NOT NULL OR (sr.responseText IS NOT NULL AND sr.question.questionType IN ('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')))")
+    @Query("SELECT sr FROM StudentResponse sr WHERE sr.manualScore IS NULL AND sr.attempt.test.creator.id = :teacherId AND (sr.audioBase64 IS NOT NULL OR sr.audioHash IS NOT NULL OR (sr.responseText IS NOT NULL AND sr.question.questionType IN ('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', 'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')))")
     List<StudentResponse> findPendingGradingByTeacher(@Param("teacherId") Integer teacherId);
 
     List<TestAttempt> findByTestIdOrderByEndTimeDesc(Integer testId);
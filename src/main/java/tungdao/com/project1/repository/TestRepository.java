@@ -1,9 +1,11 @@
 package tungdao.com.project1.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import tungdao.com.project1.dto.TestDTO;
 import tungdao.com.project1.entity.Test;
 import tungdao.com.project1.entity.TestType;
 import tungdao.com.project1.entity.User;
@@ -14,6 +16,38 @@ import java.util.List;
 @Repository
 public interface TestRepository extends JpaRepository<Test, Integer> {
 
+    // Projection cho các trang danh sách: chỉ các cột của TestDTO, creator lấy bằng join, không nạp questions
+    String TEST_DTO_SELECT = "SELECT new tungdao.com.project1.dto.TestDTO(t.id, c.id, c.fullName, c.email, " +
+            "t.testName, t.testType, t.description, t.instructions, t.durationMinutes, t.passingScore, " +
+            "t.isPractice, t.isPublished, t.createdAt, t.updatedAt, c.role, " +
+            "(SELECT COUNT(q) FROM Question q WHERE q.test = t)) " +
+            "FROM Test t LEFT JOIN t.creator c ";
+
+    // ✅ KEYSET PAGINATION: sắp theo id giảm dần (mới nhất trước), trang sau lấy id < cursor
+    @Query(TEST_DTO_SELECT + "WHERE t.isPublished = true AND t.id < :cursor ORDER BY t.id DESC")
+    List<TestDTO> findPublishedPage(@Param("cursor") Integer cursor, Pageable pageable);
+
+    // query đã được escape (TestService.escapeLike) - '%' và '_' của người dùng là ký tự thường
+    @Query(TEST_DTO_SELECT + "WHERE t.isPublished = true AND t.testName LIKE CONCAT('%', :query, '%') ESCAPE '!' " +
+            "AND t.id < :cursor ORDER BY t.id DESC")
+    List<TestDTO> searchPublishedPage(@Param("query") String query, @Param("cursor") Integer cursor, Pageable pageable);
+
+    @Query(TEST_DTO_SELECT + "WHERE c.id = :creatorId AND t.id < :cursor ORDER BY t.id DESC")
+    List<TestDTO> findPageByCreatorId(@Param("creatorId") Integer creatorId, @Param("cursor") Integer cursor,
+                                      Pageable pageable);
+
+    @Query(TEST_DTO_SELECT + "WHERE t.id < :cursor ORDER BY t.id DESC")
+    List<TestDTO> findAllPage(@Param("cursor") Integer cursor, Pageable pageable);
+
+    @Query("SELECT COUNT(t) FROM Test t WHERE t.isPublished = true AND t.testName LIKE CONCAT('%', :query, '%') ESCAPE '!'")
+    long countPublishedByTestName(@Param("query") String query);
+
+    @Query("SELECT COUNT(t) FROM Test t WHERE t.creator.id = :creatorId")
+    long countByCreatorId(@Param("creatorId") Integer creatorId);
+
+    @Query("SELECT t.id, c.id FROM Test t LEFT JOIN t.creator c WHERE t.id = :testId")
+    List<Object[]> findIdAndCreatorIdById(@Param("testId") Integer testId);
+
     // ✅ EXISTING SAFE METHODS (keep as is)
     @Query("SELECT t FROM Test t JOIN FETCH t.creator WHERE t.isPublished = true")
     List<Test> findByIsPublishedTrue();
@@ -56,6 +90,19 @@ public interface TestRepository extends JpaRepository<Test, Integer> {
     @Query("SELECT COUNT(t) FROM Test t WHERE DATE(t.createdAt) = CURRENT_DATE")
     long countTestsCreatedToday();
 
+    /**
+     * Dashboard: tổng số đề, đã publish, bản nháp - một lần quét bảng tests
+     */
+    @Query("SELECT COUNT(t), COALESCE(SUM(CASE WHEN t.isPublished = true THEN 1 ELSE 0 END), 0), " +
+            "COALESCE(SUM(CASE WHEN t.isPublished = false THEN 1 ELSE 0 END), 0) FROM Test t")
+    List<Object[]> getDashboardCounts();
+
+    /**
+     * Số đề tạo trong [from, to) - quét theo khoảng trên idx_tests_created_at
+     */
+    @Query("SELECT COUNT(t) FROM Test t WHERE t.createdAt >= :from AND t.createdAt < :to")
+    long countCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
     @Query("SELECT COUNT(t) FROM Test t WHERE t.createdAt >= :since")
     long countTestsCreatedSince(@Param("since") LocalDateTime since);
 
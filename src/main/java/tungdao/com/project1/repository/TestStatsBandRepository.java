@@ -0,0 +1,22 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.TestStatsBand;
+
+import java.util.List;
+
+@Repository
+public interface TestStatsBandRepository extends JpaRepository<TestStatsBand, TestStatsBand.Key> {
+
+    List<TestStatsBand> findByTestIdOrderByBandAsc(Integer testId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TestStatsBand b WHERE b.testId = :testId")
+    int deleteByTestId(@Param("testId") Integer testId);
+}
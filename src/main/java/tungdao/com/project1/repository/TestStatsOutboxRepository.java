@@ -0,0 +1,58 @@
+package tungdao.com.project1.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.TestStatsOutbox;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TestStatsOutboxRepository extends JpaRepository<TestStatsOutbox, Integer> {
+
+    /**
+     * Đánh dấu đề cần tính lại thống kê - đã có dòng thì tăng revision và xếp lại cuối hàng
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO test_stats_outbox (test_id, revision, enqueued_at) VALUES (:testId, 1, :now) " +
+            "ON DUPLICATE KEY UPDATE revision = revision + 1, enqueued_at = VALUES(enqueued_at)",
+            nativeQuery = true)
+    int markDirty(@Param("testId") Integer testId, @Param("now") LocalDateTime now);
+
+    /**
+     * Đánh dấu mọi đề - dùng cho backfill
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO test_stats_outbox (test_id, revision, enqueued_at) " +
+            "SELECT t.test_id, 1, :now FROM tests t " +
+            "ON DUPLICATE KEY UPDATE revision = test_stats_outbox.revision + 1, enqueued_at = VALUES(enqueued_at)",
+            nativeQuery = true)
+    int markAllDirty(@Param("now") LocalDateTime now);
+
+    /**
+     * Trang kế tiếp (keyset theo enqueuedAt, testId) trong số các dòng đã có trước cutoff - mỗi lượt quét
+     * chỉ đi qua mỗi dòng một lần, dòng bị đánh dấu lại trong lúc quét chuyển sang lượt sau
+     */
+    @Query("SELECT o FROM TestStatsOutbox o WHERE o.enqueuedAt <= :cutoff " +
+            "AND (o.enqueuedAt > :afterAt OR (o.enqueuedAt = :afterAt AND o.testId > :afterTestId)) " +
+            "ORDER BY o.enqueuedAt ASC, o.testId ASC")
+    List<TestStatsOutbox> findPageBefore(@Param("cutoff") LocalDateTime cutoff,
+                                         @Param("afterAt") LocalDateTime afterAt,
+                                         @Param("afterTestId") Integer afterTestId,
+                                         Pageable pageable);
+
+    /**
+     * Xoá dòng sau khi tính lại - nếu trong lúc đó đề bị đánh dấu tiếp (revision đổi) thì giữ lại cho lượt sau
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TestStatsOutbox o WHERE o.testId = :testId AND o.revision = :revision")
+    int deleteIfUnchanged(@Param("testId") Integer testId, @Param("revision") Long revision);
+}
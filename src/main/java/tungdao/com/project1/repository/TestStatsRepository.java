@@ -0,0 +1,53 @@
+package tungdao.com.project1.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import tungdao.com.project1.entity.TestStats;
+
+import java.util.List;
+
+@Repository
+public interface TestStatsRepository extends JpaRepository<TestStats, Integer> {
+
+    /**
+     * Tổng hợp lại một đề từ test_attempts (quét theo test_id): attempt, completed, scored, sum, sum bình phương, lần làm cuối
+     */
+    @Query(value = "SELECT COUNT(*), " +
+            "COALESCE(SUM(CASE WHEN a.is_completed = TRUE THEN 1 ELSE 0 END), 0), " +
+            "COUNT(CASE WHEN a.is_completed = TRUE THEN COALESCE(a.overall_score, a.total_score) END), " +
+            "COALESCE(SUM(CASE WHEN a.is_completed = TRUE THEN COALESCE(a.overall_score, a.total_score) END), 0), " +
+            "COALESCE(SUM(CASE WHEN a.is_completed = TRUE THEN COALESCE(a.overall_score, a.total_score) " +
+            "* COALESCE(a.overall_score, a.total_score) END), 0), " +
+            "MAX(COALESCE(a.end_time, a.start_time)) " +
+            "FROM test_attempts a WHERE a.test_id = :testId",
+            nativeQuery = true)
+    List<Object[]> aggregateAttempts(@Param("testId") Integer testId);
+
+    @Query(value = "SELECT COALESCE(a.overall_score, a.total_score) AS band, COUNT(*) " +
+            "FROM test_attempts a WHERE a.test_id = :testId AND a.is_completed = TRUE " +
+            "AND COALESCE(a.overall_score, a.total_score) IS NOT NULL " +
+            "GROUP BY band",
+            nativeQuery = true)
+    List<Object[]> aggregateBands(@Param("testId") Integer testId);
+
+    /**
+     * Tổng hợp mọi đề trong một lần quét - chỉ dùng cho bộ kiểm tra nhất quán
+     */
+    @Query(value = "SELECT a.test_id, COUNT(*), " +
+            "COALESCE(SUM(CASE WHEN a.is_completed = TRUE THEN 1 ELSE 0 END), 0), " +
+            "COUNT(CASE WHEN a.is_completed = TRUE THEN COALESCE(a.overall_score, a.total_score) END), " +
+            "COALESCE(SUM(CASE WHEN a.is_completed = TRUE THEN COALESCE(a.overall_score, a.total_score) END), 0) " +
+            "FROM test_attempts a GROUP BY a.test_id",
+            nativeQuery = true)
+    List<Object[]> aggregateAllAttempts();
+
+    /**
+     * Cộng dồn thống kê các đề của một giáo viên: attempt, completed, scored, sum
+     */
+    @Query("SELECT COALESCE(SUM(s.attemptCount), 0), COALESCE(SUM(s.completedCount), 0), " +
+            "COALESCE(SUM(s.scoredCount), 0), COALESCE(SUM(s.scoreSum), 0) " +
+            "FROM TestStats s WHERE s.creatorId = :creatorId")
+    List<Object[]> sumByCreator(@Param("creatorId") Integer creatorId);
+}
@@ -38,6 +38,18 @@ public interface UserRepository extends JpaRepository<User, Integer> {
     @Query("SELECT COUNT(u) FROM User u WHERE u.lastLogin >= :since AND u.isActive = true")
     long countRecentlyActiveUsers(@Param("since") LocalDateTime since);
 
+    /**
+     * Dashboard: tổng số user và số user active - một lần quét bảng users
+     */
+    @Query("SELECT COUNT(u), COALESCE(SUM(CASE WHEN u.isActive = true THEN 1 ELSE 0 END), 0) FROM User u")
+    List<Object[]> getDashboardCounts();
+
+    /**
+     * Số user tạo trong [from, to) - quét theo khoảng trên idx_users_created_at
+     */
+    @Query("SELECT COUNT(u) FROM User u WHERE u.createdAt >= :from AND u.createdAt < :to")
+    long countCreatedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
     // ✅ NEW: Count users created today
     @Query("SELECT COUNT(u) FROM User u WHERE DATE(u.createdAt) = CURRENT_DATE")
     long countUsersCreatedToday();
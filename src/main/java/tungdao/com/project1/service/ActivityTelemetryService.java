@@ -0,0 +1,251 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.entity.DailyActivity;
+import tungdao.com.project1.repository.DailyActivityRepository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Đo hoạt động thật từ AuthTokenFilter: số user online, DAU và số request mỗi phút.
+ * Mỗi request chỉ tăng vài bộ đếm trong bộ nhớ (LongAdder + HyperLogLog theo phút và theo ngày), không khoá,
+ * không ghi DB. Job nền gộp định kỳ vào bảng daily_activity (một dòng mỗi ngày).
+ */
+@Service
+public class ActivityTelemetryService {
+
+    private static final int MINUTE_BUCKETS = 60;
+    private static final int MINUTE_PRECISION = 10; // 1024 thanh ghi, sai số ~3%
+    private static final int DAY_PRECISION = 12;    // 4096 thanh ghi, sai số ~1.6%
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    private final DailyActivityRepository dailyActivityRepository;
+
+    @Value("${app.activity.online-window-minutes:5}")
+    private int onlineWindowMinutes;
+
+    private final AtomicReferenceArray<MinuteBucket> minutes = new AtomicReferenceArray<>(MINUTE_BUCKETS);
+    private final AtomicReference<DayBucket> today = new AtomicReference<>();
+    // Ngày vừa kết thúc - ghi lần cuối ở lượt rollup kế tiếp
+    private final AtomicReference<DayBucket> finishedDay = new AtomicReference<>();
+
+    public ActivityTelemetryService(DailyActivityRepository dailyActivityRepository) {
+        this.dailyActivityRepository = dailyActivityRepository;
+    }
+
+    /**
+     * Ghi nhận một request. userId = null: request chưa đăng nhập (chỉ tính vào số request)
+     */
+    public void record(Integer userId) {
+        long now = System.currentTimeMillis();
+        MinuteBucket minute = minuteBucket(now / MINUTE_MILLIS);
+        DayBucket day = dayBucket(now);
+
+        minute.requests.increment();
+        day.requests.increment();
+        if (userId != null) {
+            minute.authenticatedRequests.increment();
+            day.authenticatedRequests.increment();
+            minute.users.add(userId);
+            day.users.add(userId);
+        }
+    }
+
+    /**
+     * Số user khác nhau trong cửa sổ online (mặc định 5 phút gần nhất)
+     */
+    public long getOnlineUsers() {
+        long currentMinute = System.currentTimeMillis() / MINUTE_MILLIS;
+        HyperLogLog union = new HyperLogLog(MINUTE_PRECISION);
+        for (int i = 0; i < Math.min(onlineWindowMinutes, MINUTE_BUCKETS); i++) {
+            MinuteBucket bucket = minutes.get(index(currentMinute - i));
+            if (bucket != null && bucket.minute == currentMinute - i) {
+                union.merge(bucket.users);
+            }
+        }
+        return union.estimate();
+    }
+
+    /**
+     * Số request của phút vừa trọn vẹn
+     */
+    public long getRequestsLastMinute() {
+        long lastMinute = System.currentTimeMillis() / MINUTE_MILLIS - 1;
+        MinuteBucket bucket = minutes.get(index(lastMinute));
+        return bucket != null && bucket.minute == lastMinute ? bucket.requests.sum() : 0;
+    }
+
+    public long getDailyActiveUsers() {
+        return dayBucket(System.currentTimeMillis()).users.estimate();
+    }
+
+    public long getTodayRequests() {
+        return dayBucket(System.currentTimeMillis()).requests.sum();
+    }
+
+    /**
+     * Khởi động lại giữa ngày: gộp số liệu đã lưu của hôm nay vào bộ đếm trong bộ nhớ
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreToday() {
+        try {
+            DayBucket day = dayBucket(System.currentTimeMillis());
+            dailyActivityRepository.findById(day.date).ifPresent(saved -> {
+                day.requests.add(saved.getRequests());
+                day.authenticatedRequests.add(saved.getAuthenticatedRequests());
+                day.users.merge(saved.getUserSketch());
+                day.peakOnlineUsers.accumulateAndGet(saved.getPeakOnlineUsers(), Math::max);
+                day.peakRequestsPerMinute.accumulateAndGet(saved.getPeakRequestsPerMinute(), Math::max);
+                System.out.println("✅ Restored activity counters for " + day.date);
+            });
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not restore activity counters: " + e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.activity.rollup-interval-ms:60000}", initialDelay = 60000)
+    public void rollup() {
+        try {
+            DayBucket day = dayBucket(System.currentTimeMillis());
+            day.peakOnlineUsers.accumulateAndGet(getOnlineUsers(), Math::max);
+            day.peakRequestsPerMinute.accumulateAndGet(getRequestsLastMinute(), Math::max);
+
+            DayBucket finished = finishedDay.getAndSet(null);
+            if (finished != null) {
+                persist(finished);
+            }
+            persist(day);
+        } catch (Exception e) {
+            System.err.println("❌ Error rolling up activity counters: " + e.getMessage());
+        }
+    }
+
+    private void persist(DayBucket day) {
+        DailyActivity activity = dailyActivityRepository.findById(day.date).orElseGet(DailyActivity::new);
+        activity.setActivityDate(day.date);
+        activity.setActiveUsers(day.users.estimate());
+        activity.setRequests(day.requests.sum());
+        activity.setAuthenticatedRequests(day.authenticatedRequests.sum());
+        activity.setPeakOnlineUsers(day.peakOnlineUsers.get());
+        activity.setPeakRequestsPerMinute(day.peakRequestsPerMinute.get());
+        activity.setUserSketch(day.users.toBytes());
+        activity.setUpdatedAt(LocalDateTime.now());
+        dailyActivityRepository.save(activity);
+    }
+
+    public Map<String, Object> getStats() {
+        DayBucket day = dayBucket(System.currentTimeMillis());
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("onlineUsers", getOnlineUsers());
+        stats.put("onlineWindowMinutes", onlineWindowMinutes);
+        stats.put("requestsLastMinute", getRequestsLastMinute());
+        stats.put("dailyActiveUsers", day.users.estimate());
+        stats.put("todayRequests", day.requests.sum());
+        stats.put("todayAuthenticatedRequests", day.authenticatedRequests.sum());
+        stats.put("peakOnlineUsersToday", day.peakOnlineUsers.get());
+        stats.put("peakRequestsPerMinuteToday", day.peakRequestsPerMinute.get());
+        return stats;
+    }
+
+    /**
+     * Lịch sử theo ngày từ bảng daily_activity
+     */
+    public List<Map<String, Object>> getDailyHistory(int days) {
+        LocalDate to = LocalDate.now();
+        List<Map<String, Object>> history = new ArrayList<>();
+        for (DailyActivity activity : dailyActivityRepository
+                .findByActivityDateBetweenOrderByActivityDateAsc(to.minusDays(Math.max(days, 1) - 1), to)) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("date", activity.getActivityDate());
+            row.put("activeUsers", activity.getActiveUsers());
+            row.put("requests", activity.getRequests());
+            row.put("authenticatedRequests", activity.getAuthenticatedRequests());
+            row.put("peakOnlineUsers", activity.getPeakOnlineUsers());
+            row.put("peakRequestsPerMinute", activity.getPeakRequestsPerMinute());
+            history.add(row);
+        }
+        return history;
+    }
+
+    private MinuteBucket minuteBucket(long epochMinute) {
+        int index = index(epochMinute);
+        while (true) {
+            MinuteBucket bucket = minutes.get(index);
+            // bucket.minute > epochMinute: thread bị trễ qua ranh giới phút - tính vào phút mới, không tạo lại
+            if (bucket != null && bucket.minute >= epochMinute) {
+                return bucket;
+            }
+            MinuteBucket fresh = new MinuteBucket(epochMinute);
+            if (minutes.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private DayBucket dayBucket(long nowMillis) {
+        while (true) {
+            DayBucket current = today.get();
+            if (current != null && nowMillis >= current.startMillis && nowMillis < current.endMillis) {
+                return current;
+            }
+            if (current != null && nowMillis < current.startMillis) {
+                return current; // đồng hồ lùi nhẹ - giữ ngày hiện tại
+            }
+            DayBucket fresh = new DayBucket(LocalDate.now());
+            if (today.compareAndSet(current, fresh)) {
+                if (current != null) {
+                    finishedDay.set(current);
+                }
+                return fresh;
+            }
+        }
+    }
+
+    private static int index(long epochMinute) {
+        return (int) Math.floorMod(epochMinute, (long) MINUTE_BUCKETS);
+    }
+
+    private static final class MinuteBucket {
+        private final long minute;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder authenticatedRequests = new LongAdder();
+        private final HyperLogLog users = new HyperLogLog(MINUTE_PRECISION);
+
+        MinuteBucket(long minute) {
+            this.minute = minute;
+        }
+    }
+
+    private static final class DayBucket {
+        private final LocalDate date;
+        private final long startMillis;
+        private final long endMillis;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder authenticatedRequests = new LongAdder();
+        private final HyperLogLog users = new HyperLogLog(DAY_PRECISION);
+        private final AtomicLong peakOnlineUsers = new AtomicLong();
+        private final AtomicLong peakRequestsPerMinute = new AtomicLong();
+
+        DayBucket(LocalDate date) {
+            ZoneId zone = ZoneId.systemDefault();
+            this.date = date;
+            this.startMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            this.endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+}
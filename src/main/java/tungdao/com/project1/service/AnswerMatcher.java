@@ -0,0 +1,331 @@
+package tungdao.com.project1.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Đáp án của một câu hỏi đã "biên dịch" sẵn: đáp án chính và các đáp án thay thế được chuẩn hoá một lần
+ * và giữ trong mảng đã sắp xếp. Khi chấm, câu trả lời được chuẩn hoá vào buffer dùng lại của từng thread
+ * rồi tìm nhị phân - không tạo String mới cho mỗi câu trả lời.
+ */
+public final class AnswerMatcher {
+
+    /**
+     * Các bước chuẩn hoá thêm. Mặc định (không bật gì) giống cách chấm cũ: trim + chữ thường.
+     */
+    public enum Normalization {
+        WHITESPACE,   // gộp nhiều khoảng trắng thành một
+        PUNCTUATION,  // bỏ dấu câu ("don't" -> "dont", "north-east" -> "north east")
+        ARTICLES,     // bỏ mạo từ a / an / the
+        NUMBERS       // "twenty-one" -> "21", "1,000" -> "1000"
+    }
+
+    private static final String[] NUMBER_WORDS = {
+            "zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine", "ten",
+            "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen", "eighteen", "nineteen",
+            "twenty", "thirty", "forty", "fifty", "sixty", "seventy", "eighty", "ninety"
+    };
+    private static final String[] NUMBER_DIGITS = {
+            "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19",
+            "20", "30", "40", "50", "60", "70", "80", "90"
+    };
+    private static final int FIRST_TENS_WORD = 20; // vị trí "twenty" trong NUMBER_WORDS
+
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[256]);
+
+    private final char[][] keys;
+    private final Set<Normalization> normalization;
+    private final boolean tokenMode;
+    private final String correctAnswerText;
+    private final String alternativeAnswers;
+
+    private AnswerMatcher(char[][] keys, Set<Normalization> normalization,
+                          String correctAnswerText, String alternativeAnswers) {
+        this.keys = keys;
+        this.normalization = normalization;
+        this.tokenMode = !normalization.isEmpty();
+        this.correctAnswerText = correctAnswerText;
+        this.alternativeAnswers = alternativeAnswers;
+    }
+
+    /**
+     * Biên dịch đáp án chính và danh sách đáp án thay thế (phân cách bằng dấu phẩy)
+     */
+    public static AnswerMatcher compile(String correctAnswerText, String alternativeAnswers,
+                                        Set<Normalization> normalization) {
+        Set<Normalization> options = normalization.isEmpty()
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(normalization));
+        boolean tokenMode = !options.isEmpty();
+
+        List<char[]> keys = new ArrayList<>();
+        addKey(keys, correctAnswerText, options, tokenMode);
+        if (alternativeAnswers != null) {
+            for (String alternative : alternativeAnswers.split(",")) {
+                addKey(keys, alternative, options, tokenMode);
+            }
+        }
+
+        char[][] sorted = keys.toArray(new char[0][]);
+        Arrays.sort(sorted, Arrays::compare);
+        return new AnswerMatcher(dedupe(sorted), options, correctAnswerText, alternativeAnswers);
+    }
+
+    /**
+     * Câu trả lời có khớp đáp án chính hoặc một đáp án thay thế không
+     */
+    public boolean matches(CharSequence response) {
+        if (response == null || keys.length == 0) {
+            return false;
+        }
+
+        char[] buffer = SCRATCH.get();
+        if (buffer.length < response.length()) {
+            buffer = new char[Math.max(response.length(), buffer.length * 2)];
+            SCRATCH.set(buffer);
+        }
+
+        int length = normalize(response, buffer, normalization, tokenMode);
+        if (length == 0) {
+            return false; // câu trả lời rỗng không bao giờ đúng
+        }
+
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Arrays.compare(keys[mid], 0, keys[mid].length, buffer, 0, length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matcher này có được biên dịch từ đúng nội dung đáp án hiện tại không (đáp án có thể đã bị sửa)
+     */
+    public boolean isCompiledFrom(String correctAnswerText, String alternativeAnswers) {
+        return Objects.equals(this.correctAnswerText, correctAnswerText)
+                && Objects.equals(this.alternativeAnswers, alternativeAnswers);
+    }
+
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    /**
+     * Đọc cấu hình dạng "whitespace,punctuation,articles,numbers" (bỏ qua giá trị không hợp lệ)
+     */
+    public static Set<Normalization> parseNormalization(String value) {
+        Set<Normalization> options = EnumSet.noneOf(Normalization.class);
+        if (value == null) {
+            return options;
+        }
+        for (String part : value.split(",")) {
+            String name = part.trim().toUpperCase(Locale.ROOT);
+            if (name.isEmpty()) {
+                continue;
+            }
+            try {
+                options.add(Normalization.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                System.err.println("⚠️ Unknown answer normalization option: " + part.trim());
+            }
+        }
+        return options;
+    }
+
+    private static void addKey(List<char[]> keys, String text, Set<Normalization> options, boolean tokenMode) {
+        if (text == null) {
+            return;
+        }
+        char[] buffer = new char[text.length()];
+        int length = normalize(text, buffer, options, tokenMode);
+        if (length > 0) {
+            keys.add(Arrays.copyOf(buffer, length));
+        }
+    }
+
+    private static char[][] dedupe(char[][] sorted) {
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (count == 0 || !Arrays.equals(sorted[count - 1], sorted[i])) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Chuẩn hoá text vào out (out.length >= text.length() - kết quả không bao giờ dài hơn đầu vào), trả về độ dài
+     */
+    static int normalize(CharSequence text, char[] out, Set<Normalization> options, boolean tokenMode) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        if (!tokenMode) {
+            // Cách chấm cũ: trim + chữ thường, giữ nguyên khoảng trắng bên trong
+            for (int i = start; i < end; i++) {
+                out[i - start] = Character.toLowerCase(text.charAt(i));
+            }
+            return end - start;
+        }
+
+        boolean punctuation = options.contains(Normalization.PUNCTUATION);
+        boolean articles = options.contains(Normalization.ARTICLES);
+        boolean numbers = options.contains(Normalization.NUMBERS);
+
+        int length = 0;
+        int previousTens = -1; // vị trí trong out của token hàng chục ("20".."90") vừa ghi
+        int i = start;
+        while (i < end) {
+            // Bỏ qua dấu phân cách giữa các từ
+            while (i < end && isSeparator(text, i, end, punctuation)) {
+                i++;
+            }
+            if (i >= end) {
+                break;
+            }
+
+            int tokenStart = length == 0 ? 0 : length + 1;
+            int pos = tokenStart;
+            while (i < end && !isSeparator(text, i, end, punctuation)) {
+                char c = text.charAt(i);
+                boolean dropped = (punctuation && isApostrophe(c))
+                        || (numbers && c == ',' && isBetweenDigits(text, i, end));
+                if (!dropped) {
+                    out[pos++] = Character.toLowerCase(c);
+                }
+                i++;
+            }
+            if (pos == tokenStart) {
+                continue; // token chỉ gồm ký tự bị bỏ
+            }
+
+            if (articles && isArticle(out, tokenStart, pos)) {
+                continue;
+            }
+
+            if (numbers) {
+                int word = findNumberWord(out, tokenStart, pos);
+                int compound = word < 0 ? findHyphenatedNumber(out, tokenStart, pos) : -1;
+                if (compound >= 0) {
+                    // "twenty-one" khi không bật PUNCTUATION (dấu gạch nối vẫn nằm trong token) -> "21"
+                    out[tokenStart] = (char) ('0' + compound / 10);
+                    out[tokenStart + 1] = (char) ('0' + compound % 10);
+                    pos = tokenStart + 2;
+                    if (length > 0) {
+                        out[length] = ' ';
+                    }
+                    length = pos;
+                    previousTens = -1;
+                    continue;
+                }
+                if (word >= 0) {
+                    String digits = NUMBER_DIGITS[word];
+                    if (previousTens >= 0 && word >= 1 && word <= 9) {
+                        // "twenty one" / "twenty-one" -> "21"
+                        out[previousTens + 1] = digits.charAt(0);
+                        previousTens = -1;
+                        continue;
+                    }
+                    digits.getChars(0, digits.length(), out, tokenStart);
+                    pos = tokenStart + digits.length();
+                    if (length > 0) {
+                        out[length] = ' ';
+                    }
+                    length = pos;
+                    previousTens = word >= FIRST_TENS_WORD ? tokenStart : -1;
+                    continue;
+                }
+            }
+
+            if (length > 0) {
+                out[length] = ' ';
+            }
+            length = pos;
+            previousTens = -1;
+        }
+        return length;
+    }
+
+    private static boolean isSeparator(CharSequence text, int i, int end, boolean punctuation) {
+        char c = text.charAt(i);
+        if (c <= ' ' || Character.isWhitespace(c)) {
+            return true;
+        }
+        if (!punctuation || isApostrophe(c) || Character.isLetterOrDigit(c)) {
+            return false;
+        }
+        // "1,000" và "2.5": dấu phẩy/chấm giữa hai chữ số là một phần của số
+        return !((c == ',' || c == '.') && isBetweenDigits(text, i, end));
+    }
+
+    private static boolean isBetweenDigits(CharSequence text, int i, int end) {
+        return i > 0 && i + 1 < end
+                && Character.isDigit(text.charAt(i - 1)) && Character.isDigit(text.charAt(i + 1));
+    }
+
+    private static boolean isApostrophe(char c) {
+        return c == '\'' || c == '’';
+    }
+
+    private static boolean isArticle(char[] out, int from, int to) {
+        return regionEquals(out, from, to, "a") || regionEquals(out, from, to, "an") || regionEquals(out, from, to, "the");
+    }
+
+    private static int findNumberWord(char[] out, int from, int to) {
+        for (int w = 0; w < NUMBER_WORDS.length; w++) {
+            if (regionEquals(out, from, to, NUMBER_WORDS[w])) {
+                return w;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Số ghép có gạch nối ("twenty-one" .. "ninety-nine") trong một token, trả về giá trị hoặc -1
+     */
+    private static int findHyphenatedNumber(char[] out, int from, int to) {
+        for (int h = from + 1; h < to - 1; h++) {
+            if (out[h] == '-') {
+                int tens = findNumberWord(out, from, h);
+                int unit = findNumberWord(out, h + 1, to);
+                return tens >= FIRST_TENS_WORD && unit >= 1 && unit <= 9
+                        ? (tens - FIRST_TENS_WORD + 2) * 10 + unit
+                        : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(char[] out, int from, int to, String word) {
+        if (to - from != word.length()) {
+            return false;
+        }
+        for (int k = 0; k < word.length(); k++) {
+            if (out[from + k] != word.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.entity.CorrectAnswer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chấm câu trả lời khách quan - dùng chung cho nộp bài, lưu bài và xem kết quả.
+ * Mỗi CorrectAnswer chỉ được biên dịch thành AnswerMatcher một lần; khi đáp án bị sửa thì biên dịch lại.
+ */
+@Service
+public class AnswerMatcherService {
+
+    private final Set<AnswerMatcher.Normalization> normalization;
+    private final Map<Integer, AnswerMatcher> matchers = new ConcurrentHashMap<>();
+
+    public AnswerMatcherService(@Value("${app.grading.normalization:}") String normalization) {
+        this.normalization = AnswerMatcher.parseNormalization(normalization);
+        System.out.println("✅ Answer normalization: " + (this.normalization.isEmpty() ? "trim + lowercase" : this.normalization));
+    }
+
+    /**
+     * Câu trả lời có khớp đáp án chính hoặc một đáp án thay thế không
+     */
+    public boolean matches(CorrectAnswer correctAnswer, String userResponse) {
+        if (correctAnswer == null) {
+            return false;
+        }
+        return getMatcher(correctAnswer).matches(userResponse);
+    }
+
+    public AnswerMatcher getMatcher(CorrectAnswer correctAnswer) {
+        if (correctAnswer.getId() == null) {
+            return compile(correctAnswer); // đáp án chưa lưu - không cache
+        }
+
+        AnswerMatcher matcher = matchers.get(correctAnswer.getId());
+        if (matcher == null || !matcher.isCompiledFrom(correctAnswer.getCorrectAnswerText(),
+                correctAnswer.getAlternativeAnswers())) {
+            matcher = compile(correctAnswer);
+            matchers.put(correctAnswer.getId(), matcher);
+        }
+        return matcher;
+    }
+
+    private AnswerMatcher compile(CorrectAnswer correctAnswer) {
+        return AnswerMatcher.compile(correctAnswer.getCorrectAnswerText(),
+                correctAnswer.getAlternativeAnswers(), normalization);
+    }
+}
@@ -0,0 +1,79 @@
+package tungdao.com.project1.service;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+
+/**
+ * Nhận diện định dạng audio từ vài byte đầu file (magic number), không tin vào Content-Type của client.
+ */
+public enum AudioContainer {
+    WAV("audio/wav"),
+    MP3("audio/mpeg"),
+    AAC("audio/aac"),
+    OGG("audio/ogg"),
+    WEBM("audio/webm"),
+    MP4("audio/mp4"),
+    FLAC("audio/flac"),
+    UNKNOWN("application/octet-stream");
+
+    /** Số byte cần đọc để nhận diện định dạng */
+    public static final int HEADER_SIZE = 12;
+
+    private final String mimeType;
+
+    AudioContainer(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Đọc header rồi trả lại vào stream để phần lưu trữ vẫn nhận đủ dữ liệu
+     */
+    public static AudioContainer sniff(PushbackInputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = in.readNBytes(header, 0, HEADER_SIZE);
+        if (length > 0) {
+            in.unread(header, 0, length);
+        }
+        return sniff(header, length);
+    }
+
+    public static AudioContainer sniff(byte[] header, int length) {
+        if (length >= 12 && startsWith(header, 0, "RIFF") && startsWith(header, 8, "WAVE")) {
+            return WAV;
+        }
+        if (length >= 4 && startsWith(header, 0, "OggS")) {
+            return OGG;
+        }
+        if (length >= 4 && startsWith(header, 0, "fLaC")) {
+            return FLAC;
+        }
+        if (length >= 4 && (header[0] & 0xFF) == 0x1A && (header[1] & 0xFF) == 0x45
+                && (header[2] & 0xFF) == 0xDF && (header[3] & 0xFF) == 0xA3) {
+            return WEBM;
+        }
+        if (length >= 8 && startsWith(header, 4, "ftyp")) {
+            return MP4;
+        }
+        if (length >= 3 && startsWith(header, 0, "ID3")) {
+            return MP3;
+        }
+        if (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0) {
+            // Frame sync: layer bits = 00 là ADTS (AAC), còn lại là MPEG audio
+            return (header[1] & 0x06) == 0 ? AAC : MP3;
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String magic) {
+        for (int i = 0; i < magic.length(); i++) {
+            if (data[offset + i] != (byte) magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
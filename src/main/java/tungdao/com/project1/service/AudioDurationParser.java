@@ -0,0 +1,517 @@
+package tungdao.com.project1.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Đọc thời lượng thật từ header của file audio (WAV, Ogg/Opus/Vorbis, MP3, WebM/Matroska)
+ * mà không cần giải mã. Chỉ đọc vài KB đầu và cuối file qua SeekableByteChannel.
+ * Trả về null khi không xác định được - khi đó phía gọi tự ước lượng.
+ */
+public final class AudioDurationParser {
+
+    private static final int HEAD_SIZE = 16 * 1024;
+    private static final int TAIL_SIZE = 64 * 1024; // đủ chứa trọn một Ogg page (tối đa ~65KB)
+
+    private AudioDurationParser() {
+    }
+
+    public static Double parseSeconds(SeekableByteChannel channel) throws IOException {
+        ByteBuffer header = readAt(channel, 0, AudioContainer.HEADER_SIZE);
+        byte[] magic = new byte[header.remaining()];
+        header.get(magic);
+
+        try {
+            switch (AudioContainer.sniff(magic, magic.length)) {
+                case WAV:
+                    return parseWav(channel);
+                case OGG:
+                    return parseOgg(channel);
+                case MP3:
+                    return parseMp3(channel);
+                case WEBM:
+                    return parseMatroska(channel);
+                default:
+                    return null;
+            }
+        } catch (IndexOutOfBoundsException | IllegalStateException e) {
+            // Header hỏng hoặc bị cắt cụt
+            return null;
+        }
+    }
+
+    // ===== WAV (RIFF) =====
+
+    private static Double parseWav(SeekableByteChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long offset = 12;
+        long byteRate = 0;
+
+        // Duyệt các chunk, chỉ đọc 8 byte header của mỗi chunk (và nội dung chunk "fmt ")
+        while (offset + 8 <= fileSize) {
+            ByteBuffer chunk = readAt(channel, offset, 8).order(ByteOrder.LITTLE_ENDIAN);
+            if (chunk.remaining() < 8) {
+                return null;
+            }
+            String id = ascii(chunk, 0, 4);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+
+            if ("fmt ".equals(id)) {
+                ByteBuffer fmt = readAt(channel, offset + 8, 16).order(ByteOrder.LITTLE_ENDIAN);
+                if (fmt.remaining() < 12) {
+                    return null;
+                }
+                byteRate = fmt.getInt(8) & 0xFFFFFFFFL;
+            } else if ("data".equals(id)) {
+                if (byteRate == 0) {
+                    return null;
+                }
+                // Trình ghi dạng stream thường để size = 0 hoặc 0xFFFFFFFF
+                long available = fileSize - offset - 8;
+                long dataSize = size == 0 || size > available ? available : size;
+                return (double) dataSize / byteRate;
+            }
+
+            offset += 8 + size + (size & 1); // chunk được pad về số chẵn
+        }
+        return null;
+    }
+
+    // ===== Ogg (Opus / Vorbis) =====
+
+    private static Double parseOgg(SeekableByteChannel channel) throws IOException {
+        ByteBuffer head = readAt(channel, 0, HEAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (head.remaining() < 28) {
+            return null;
+        }
+
+        int serial = head.getInt(14);
+        int segments = head.get(26) & 0xFF;
+        int packetStart = 27 + segments;
+        if (head.remaining() < packetStart + 19) {
+            return null;
+        }
+
+        long sampleRate;
+        long preSkip = 0;
+        if ("OpusHead".equals(ascii(head, packetStart, 8))) {
+            sampleRate = 48000; // granule của Opus luôn tính theo 48kHz
+            preSkip = head.getShort(packetStart + 10) & 0xFFFF;
+        } else if (head.get(packetStart) == 1 && "vorbis".equals(ascii(head, packetStart + 1, 6))) {
+            sampleRate = head.getInt(packetStart + 12) & 0xFFFFFFFFL;
+        } else {
+            return null;
+        }
+        if (sampleRate == 0) {
+            return null;
+        }
+
+        // Tìm page cuối cùng của cùng stream, granule position = tổng số sample
+        long fileSize = channel.size();
+        long tailStart = Math.max(0, fileSize - TAIL_SIZE);
+        ByteBuffer tail = readAt(channel, tailStart, (int) (fileSize - tailStart)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.remaining() - 27; i >= 0; i--) {
+            if (tail.get(i) == 'O' && "OggS".equals(ascii(tail, i, 4)) && tail.get(i + 4) == 0
+                    && tail.getInt(i + 14) == serial) {
+                long granule = tail.getLong(i + 6);
+                if (granule > 0) {
+                    return (double) Math.max(0, granule - preSkip) / sampleRate;
+                }
+            }
+        }
+        return null;
+    }
+
+    // ===== MP3 (Xing/Info, VBRI hoặc quét frame) =====
+
+    private static final int[][] MP3_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // MPEG1 Layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // MPEG1 Layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},     // MPEG1 Layer III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // MPEG2/2.5 Layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}          // MPEG2/2.5 Layer II, III
+    };
+
+    private static final int[][] MP3_SAMPLE_RATES = {
+            {11025, 12000, 8000},  // MPEG2.5
+            null,                  // reserved
+            {22050, 24000, 16000}, // MPEG2
+            {44100, 48000, 32000}  // MPEG1
+    };
+
+    private static final int MP3_SCAN_FRAMES = 16;
+
+    private static Double parseMp3(SeekableByteChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        // Bỏ qua tag ID3v2 (kích thước dạng syncsafe integer)
+        long audioStart = 0;
+        ByteBuffer id3 = readAt(channel, 0, 10);
+        if (id3.remaining() == 10 && "ID3".equals(ascii(id3, 0, 3))) {
+            long tagSize = ((id3.get(6) & 0x7F) << 21) | ((id3.get(7) & 0x7F) << 14)
+                    | ((id3.get(8) & 0x7F) << 7) | (id3.get(9) & 0x7F);
+            audioStart = 10 + tagSize + ((id3.get(5) & 0x10) != 0 ? 10 : 0);
+        }
+
+        long audioEnd = fileSize;
+        if (fileSize >= 128 && "TAG".equals(ascii(readAt(channel, fileSize - 128, 3), 0, 3))) {
+            audioEnd -= 128; // ID3v1 ở cuối file
+        }
+
+        ByteBuffer head = readAt(channel, audioStart, HEAD_SIZE);
+        int first = findFrame(head, 0);
+        if (first < 0) {
+            return null;
+        }
+
+        Mp3Frame frame = Mp3Frame.parse(head, first);
+
+        // Xing/Info nằm ngay sau side information của frame đầu tiên
+        int sideInfo = frame.version == 3 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17);
+        int xing = first + 4 + sideInfo;
+        if (xing + 12 <= head.remaining()) {
+            String tag = ascii(head, xing, 4);
+            if (("Xing".equals(tag) || "Info".equals(tag)) && (head.getInt(xing + 4) & 1) != 0) {
+                long frames = head.getInt(xing + 8) & 0xFFFFFFFFL;
+                return (double) frames * frame.samplesPerFrame / frame.sampleRate;
+            }
+        }
+
+        // VBRI (Fraunhofer) luôn nằm ở offset 32 sau header
+        int vbri = first + 4 + 32;
+        if (vbri + 18 <= head.remaining() && "VBRI".equals(ascii(head, vbri, 4))) {
+            long frames = head.getInt(vbri + 14) & 0xFFFFFFFFL;
+            return (double) frames * frame.samplesPerFrame / frame.sampleRate;
+        }
+
+        // Không có header VBR: quét vài frame đầu để lấy bitrate trung bình rồi ngoại suy
+        long bitrateSum = 0;
+        int scanned = 0;
+        int position = first;
+        while (scanned < MP3_SCAN_FRAMES && position + 4 <= head.remaining()) {
+            Mp3Frame current = Mp3Frame.parse(head, position);
+            if (current == null || current.length <= 0) {
+                break;
+            }
+            bitrateSum += current.bitrate;
+            scanned++;
+            position += current.length;
+        }
+        if (scanned == 0 || bitrateSum == 0) {
+            return null;
+        }
+
+        double averageBitrate = (double) bitrateSum / scanned * 1000;
+        long audioBytes = audioEnd - audioStart - first;
+        return audioBytes * 8 / averageBitrate;
+    }
+
+    private static int findFrame(ByteBuffer buffer, int from) {
+        for (int i = from; i + 4 <= buffer.remaining(); i++) {
+            Mp3Frame frame = Mp3Frame.parse(buffer, i);
+            if (frame == null) {
+                continue;
+            }
+            // Xác nhận bằng frame kế tiếp để tránh nhận nhầm byte 0xFF trong dữ liệu
+            int next = i + frame.length;
+            if (next + 4 > buffer.remaining() || Mp3Frame.parse(buffer, next) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Mp3Frame {
+        int version;      // 0 = MPEG2.5, 2 = MPEG2, 3 = MPEG1
+        boolean mono;
+        int bitrate;      // kbps
+        int sampleRate;
+        int samplesPerFrame;
+        int length;
+
+        static Mp3Frame parse(ByteBuffer buffer, int offset) {
+            int b1 = buffer.get(offset) & 0xFF;
+            int b2 = buffer.get(offset + 1) & 0xFF;
+            int b3 = buffer.get(offset + 2) & 0xFF;
+            int b4 = buffer.get(offset + 3) & 0xFF;
+            if (b1 != 0xFF || (b2 & 0xE0) != 0xE0) {
+                return null;
+            }
+
+            int version = (b2 >> 3) & 0x03;
+            int layer = (b2 >> 1) & 0x03; // 1 = Layer III, 2 = Layer II, 3 = Layer I
+            int bitrateIndex = (b3 >> 4) & 0x0F;
+            int sampleRateIndex = (b3 >> 2) & 0x03;
+            int padding = (b3 >> 1) & 0x01;
+            if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null;
+            }
+
+            Mp3Frame frame = new Mp3Frame();
+            frame.version = version;
+            frame.mono = ((b4 >> 6) & 0x03) == 3;
+            frame.sampleRate = MP3_SAMPLE_RATES[version][sampleRateIndex];
+
+            int table;
+            if (version == 3) {
+                table = 3 - layer;
+            } else {
+                table = layer == 3 ? 3 : 4;
+            }
+            frame.bitrate = MP3_BITRATES[table][bitrateIndex];
+
+            if (layer == 3) {
+                frame.samplesPerFrame = 384;
+                frame.length = (12 * frame.bitrate * 1000 / frame.sampleRate + padding) * 4;
+            } else {
+                frame.samplesPerFrame = (layer == 1 && version != 3) ? 576 : 1152;
+                frame.length = frame.samplesPerFrame / 8 * frame.bitrate * 1000 / frame.sampleRate + padding;
+            }
+            return frame;
+        }
+    }
+
+    // ===== WebM / Matroska (EBML) =====
+
+    private static final long EBML_SEGMENT = 0x18538067L;
+    private static final long EBML_INFO = 0x1549A966L;
+    private static final long EBML_TIMECODE_SCALE = 0x2AD7B1L;
+    private static final long EBML_DURATION = 0x4489L;
+    private static final long EBML_CLUSTER = 0x1F43B675L;
+    private static final long EBML_CLUSTER_TIMECODE = 0xE7L;
+    private static final long EBML_SIMPLE_BLOCK = 0xA3L;
+    private static final long EBML_BLOCK_GROUP = 0xA0L;
+    private static final long EBML_BLOCK = 0xA1L;
+    private static final long EBML_UNKNOWN_SIZE = -1;
+
+    private static Double parseMatroska(SeekableByteChannel channel) throws IOException {
+        ByteBuffer head = readAt(channel, 0, HEAD_SIZE);
+        EbmlReader reader = new EbmlReader(head);
+
+        // EBML header
+        reader.readId();
+        long headerSize = reader.readSize();
+        if (headerSize == EBML_UNKNOWN_SIZE) {
+            return null;
+        }
+        reader.skip(headerSize);
+
+        if (reader.readId() != EBML_SEGMENT) {
+            return null;
+        }
+        reader.readSize(); // MediaRecorder ghi size = unknown, không dùng tới
+
+        long timecodeScale = 1_000_000; // mặc định 1ms
+        Double duration = null;
+
+        while (reader.hasMore()) {
+            long id = reader.readId();
+            long size = reader.readSize();
+            if (id == EBML_CLUSTER || size == EBML_UNKNOWN_SIZE) {
+                break;
+            }
+            if (id != EBML_INFO) {
+                reader.skip(size);
+                continue;
+            }
+
+            int end = (int) Math.min(reader.position() + size, head.remaining());
+            while (reader.position() < end) {
+                long childId = reader.readId();
+                long childSize = reader.readSize();
+                if (childId == EBML_TIMECODE_SCALE) {
+                    timecodeScale = reader.readUnsigned((int) childSize);
+                } else if (childId == EBML_DURATION) {
+                    duration = reader.readFloat((int) childSize);
+                } else {
+                    reader.skip(childSize);
+                }
+            }
+            break;
+        }
+
+        if (duration != null && duration > 0) {
+            return duration * timecodeScale / 1_000_000_000.0;
+        }
+
+        // Chrome MediaRecorder không ghi Duration: lấy timecode của block cuối cùng ở cuối file
+        Long lastTimecode = lastBlockTimecode(channel);
+        return lastTimecode != null ? lastTimecode * timecodeScale / 1_000_000_000.0 : null;
+    }
+
+    private static Long lastBlockTimecode(SeekableByteChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long tailStart = Math.max(0, fileSize - TAIL_SIZE);
+        ByteBuffer tail = readAt(channel, tailStart, (int) (fileSize - tailStart));
+
+        for (int i = tail.remaining() - 4; i >= 0; i--) {
+            if ((tail.get(i) & 0xFF) != 0x1F || (tail.get(i + 1) & 0xFF) != 0x43
+                    || (tail.get(i + 2) & 0xFF) != 0xB6 || (tail.get(i + 3) & 0xFF) != 0x75) {
+                continue;
+            }
+            try {
+                Long timecode = readClusterEnd(new EbmlReader(tail, i));
+                if (timecode != null) {
+                    return timecode;
+                }
+            } catch (IndexOutOfBoundsException | IllegalStateException e) {
+                // Trùng byte ngẫu nhiên trong dữ liệu audio - thử vị trí trước đó
+            }
+        }
+        return null;
+    }
+
+    private static Long readClusterEnd(EbmlReader reader) {
+        reader.readId();
+        reader.readSize();
+
+        Long clusterTimecode = null;
+        long lastBlock = 0;
+        try {
+            while (reader.hasMore()) {
+                long id = reader.readId();
+                long size = reader.readSize();
+                if (size == EBML_UNKNOWN_SIZE || !reader.fits(size)) {
+                    break;
+                }
+
+                if (id == EBML_CLUSTER_TIMECODE) {
+                    clusterTimecode = reader.readUnsigned((int) size);
+                } else if (id == EBML_SIMPLE_BLOCK) {
+                    lastBlock = Math.max(lastBlock, reader.peekBlockTimecode());
+                    reader.skip(size);
+                } else if (id == EBML_BLOCK_GROUP) {
+                    int end = reader.position() + (int) size;
+                    while (reader.position() < end) {
+                        long childId = reader.readId();
+                        long childSize = reader.readSize();
+                        if (childId == EBML_BLOCK) {
+                            lastBlock = Math.max(lastBlock, reader.peekBlockTimecode());
+                        }
+                        reader.skip(childSize);
+                    }
+                } else if (id == EBML_CLUSTER) {
+                    break;
+                } else {
+                    reader.skip(size);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Hết buffer giữa chừng - dùng các block đã đọc được
+        }
+        return clusterTimecode != null ? clusterTimecode + lastBlock : null;
+    }
+
+    /**
+     * Đọc EBML variable-length integer trên buffer đã nạp sẵn
+     */
+    private static class EbmlReader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        EbmlReader(ByteBuffer buffer) {
+            this(buffer, 0);
+        }
+
+        EbmlReader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int position() {
+            return position;
+        }
+
+        boolean hasMore() {
+            return position < buffer.remaining();
+        }
+
+        boolean fits(long size) {
+            return position + size <= buffer.remaining();
+        }
+
+        /** ID giữ nguyên bit đánh dấu độ dài */
+        long readId() {
+            int first = buffer.get(position) & 0xFF;
+            int length = Integer.numberOfLeadingZeros(first) - 23;
+            if (length < 1 || length > 4) {
+                throw new IllegalStateException("Invalid EBML id");
+            }
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                value = (value << 8) | (buffer.get(position++) & 0xFF);
+            }
+            return value;
+        }
+
+        /** Size bỏ bit đánh dấu; toàn bit 1 nghĩa là unknown size */
+        long readSize() {
+            int first = buffer.get(position) & 0xFF;
+            int length = Integer.numberOfLeadingZeros(first) - 23;
+            if (length < 1 || length > 8) {
+                throw new IllegalStateException("Invalid EBML size");
+            }
+            long value = first & (0xFF >> length);
+            boolean allOnes = value == (0xFF >> length);
+            position++;
+            for (int i = 1; i < length; i++) {
+                int b = buffer.get(position++) & 0xFF;
+                allOnes &= b == 0xFF;
+                value = (value << 8) | b;
+            }
+            return allOnes ? EBML_UNKNOWN_SIZE : value;
+        }
+
+        long readUnsigned(int size) {
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | (buffer.get(position++) & 0xFF);
+            }
+            return value;
+        }
+
+        double readFloat(int size) {
+            double value = size == 4 ? buffer.getFloat(position) : buffer.getDouble(position);
+            position += size;
+            return value;
+        }
+
+        /** Timecode tương đối (int16) của Block/SimpleBlock, nằm sau track number */
+        long peekBlockTimecode() {
+            int saved = position;
+            readSize(); // track number dạng vint
+            short relative = buffer.getShort(position);
+            position = saved;
+            return relative;
+        }
+
+        void skip(long size) {
+            position += (int) size;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private static ByteBuffer readAt(SeekableByteChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(offset);
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // đọc cho tới khi đủ hoặc hết file
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String ascii(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || offset + length > buffer.remaining()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) (buffer.get(offset + i) & 0xFF));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chuẩn hoá một file audio trong kho: bản nhẹ (Opus 32kbps mono), thời lượng và peaks cho waveform.
+ * Transcode và giải mã dùng ffmpeg nếu có; không có ffmpeg thì chỉ tính peaks cho WAV (PCM).
+ */
+@Service
+public class AudioNormalizer {
+
+    public static final String RENDITION_MIME_TYPE = "audio/ogg";
+
+    private static final int PEAK_COUNT = 200;
+    private static final int PEAK_SAMPLE_RATE = 8000;
+    private static final int BUCKETS_PER_SECOND = 10;
+
+    private final AudioStorageService audioStorageService;
+
+    @Value("${app.audio.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${app.audio.ffmpeg.timeout-seconds:120}")
+    private long ffmpegTimeoutSeconds;
+
+    @Value("${app.audio.rendition.bitrate:32k}")
+    private String renditionBitrate;
+
+    private volatile Boolean ffmpegAvailable;
+
+    public AudioNormalizer(AudioStorageService audioStorageService) {
+        this.audioStorageService = audioStorageService;
+    }
+
+    public NormalizedAudio normalize(String hash) throws IOException, InterruptedException {
+        Path source = audioStorageService.resolve(hash);
+        if (!Files.isRegularFile(source)) {
+            throw new IOException("Audio blob not found: " + hash);
+        }
+
+        NormalizedAudio result = new NormalizedAudio();
+        result.durationSeconds = audioStorageService.readDurationSeconds(hash);
+
+        if (isFfmpegAvailable()) {
+            result.peaks = peaksWithFfmpeg(source);
+            result.rendition = transcode(source, Files.size(source));
+        } else {
+            result.peaks = peaksFromPcm(source);
+        }
+
+        System.out.println("✅ Normalized audio " + hash + ": duration=" + result.durationSeconds + "s, " +
+                "rendition=" + (result.rendition != null ? result.rendition.hash : "none"));
+        return result;
+    }
+
+    public boolean isFfmpegAvailable() {
+        if (ffmpegAvailable == null) {
+            try {
+                Process process = new ProcessBuilder(ffmpegPath, "-version")
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                ffmpegAvailable = process.waitFor(10, TimeUnit.SECONDS) && process.exitValue() == 0;
+            } catch (IOException e) {
+                ffmpegAvailable = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            System.out.println(ffmpegAvailable ? "✅ ffmpeg found: " + ffmpegPath
+                    : "⚠️ ffmpeg not found - audio renditions disabled, peaks only for WAV");
+        }
+        return ffmpegAvailable;
+    }
+
+    /**
+     * Transcode sang Opus mono; chỉ giữ lại nếu nhỏ hơn bản gốc
+     */
+    private AudioStorageService.StoredAudio transcode(Path source, long sourceSize)
+            throws IOException, InterruptedException {
+        Path tmpFile = Files.createTempFile("rendition-", ".ogg");
+        try {
+            Process process = new ProcessBuilder(ffmpegPath, "-nostdin", "-v", "error", "-y",
+                    "-i", source.toString(), "-vn", "-ac", "1", "-ar", "24000",
+                    "-c:a", "libopus", "-b:a", renditionBitrate, "-f", "ogg", tmpFile.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            waitFor(process, "transcode");
+
+            long renditionSize = Files.size(tmpFile);
+            if (renditionSize == 0 || renditionSize >= sourceSize) {
+                return null; // bản gốc đã đủ gọn
+            }
+            try (InputStream in = Files.newInputStream(tmpFile)) {
+                return audioStorageService.store(in);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Giải mã về PCM 16-bit mono 8kHz qua stdout của ffmpeg và tính peaks trong lúc đọc
+     */
+    private String peaksWithFfmpeg(Path source) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(ffmpegPath, "-nostdin", "-v", "error",
+                "-i", source.toString(), "-vn", "-ac", "1", "-ar", String.valueOf(PEAK_SAMPLE_RATE),
+                "-f", "s16le", "-")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        String peaks;
+        try (InputStream pcm = new BufferedInputStream(process.getInputStream(), 64 * 1024)) {
+            peaks = readPeaks(pcm, 1, PEAK_SAMPLE_RATE / BUCKETS_PER_SECOND);
+        }
+        waitFor(process, "decode");
+        return peaks;
+    }
+
+    /**
+     * Không có ffmpeg: dùng javax.sound cho các định dạng PCM mà JDK đọc được (WAV)
+     */
+    private String peaksFromPcm(Path source) throws IOException {
+        try (AudioInputStream original = AudioSystem.getAudioInputStream(source.toFile())) {
+            AudioFormat format = original.getFormat();
+            AudioFormat pcm16 = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                    format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+
+            try (AudioInputStream converted = AudioSystem.getAudioInputStream(pcm16, original);
+                 InputStream pcm = new BufferedInputStream(converted, 64 * 1024)) {
+                int samplesPerBucket = Math.max(1, (int) (format.getSampleRate() / BUCKETS_PER_SECOND));
+                return readPeaks(pcm, format.getChannels(), samplesPerBucket);
+            }
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            return null; // định dạng nén - cần ffmpeg
+        }
+    }
+
+    /**
+     * Đọc PCM 16-bit little-endian (các kênh xen kẽ)
+     */
+    private String readPeaks(InputStream pcm, int channels, int samplesPerBucket) throws IOException {
+        PeakAccumulator accumulator = new PeakAccumulator(channels, samplesPerBucket);
+        byte[] buffer = new byte[8192];
+        int pending = 0; // số byte lẻ còn lại từ lần đọc trước (nửa sample)
+
+        int read;
+        while ((read = pcm.read(buffer, pending, buffer.length - pending)) > 0) {
+            int available = pending + read;
+            int i = 0;
+            for (; i + 1 < available; i += 2) {
+                accumulator.accept((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)));
+            }
+            pending = available - i;
+            if (pending > 0) {
+                buffer[0] = buffer[i];
+            }
+        }
+        return accumulator.toPeaks();
+    }
+
+    private void waitFor(Process process, String step) throws IOException, InterruptedException {
+        if (!process.waitFor(ffmpegTimeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("ffmpeg " + step + " timed out after " + ffmpegTimeoutSeconds + "s");
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("ffmpeg " + step + " failed with exit code " + process.exitValue());
+        }
+    }
+
+    /**
+     * Biên độ lớn nhất mỗi 0.1s, gộp lại còn tối đa PEAK_COUNT giá trị 0-100
+     */
+    private static class PeakAccumulator {
+        private final int channels;
+        private final int samplesPerBucket;
+        private final List<Integer> buckets = new ArrayList<>();
+        private int bucketPeak = 0;
+        private int samplesInBucket = 0;
+        private int channel = 0;
+
+        PeakAccumulator(int channels, int samplesPerBucket) {
+            this.channels = channels;
+            this.samplesPerBucket = samplesPerBucket;
+        }
+
+        void accept(short sample) {
+            bucketPeak = Math.max(bucketPeak, Math.abs((int) sample));
+            if (++channel < channels) {
+                return;
+            }
+            channel = 0;
+            if (++samplesInBucket == samplesPerBucket) {
+                buckets.add(bucketPeak);
+                bucketPeak = 0;
+                samplesInBucket = 0;
+            }
+        }
+
+        String toPeaks() {
+            if (samplesInBucket > 0) {
+                buckets.add(bucketPeak);
+            }
+            if (buckets.isEmpty()) {
+                return null;
+            }
+
+            int groups = Math.min(PEAK_COUNT, buckets.size());
+            StringBuilder peaks = new StringBuilder(groups * 4);
+            for (int g = 0; g < groups; g++) {
+                int from = (int) ((long) g * buckets.size() / groups);
+                int to = (int) ((long) (g + 1) * buckets.size() / groups);
+                int peak = 0;
+                for (int b = from; b < to; b++) {
+                    peak = Math.max(peak, buckets.get(b));
+                }
+                if (g > 0) {
+                    peaks.append(',');
+                }
+                peaks.append(Math.min(100, peak * 100 / 32768));
+            }
+            return peaks.toString();
+        }
+    }
+
+    /**
+     * Kết quả chuẩn hoá
+     */
+    public static class NormalizedAudio {
+        public Integer durationSeconds;
+        public String peaks;
+        public AudioStorageService.StoredAudio rendition; // null nếu không tạo được bản nhẹ hơn
+    }
+}
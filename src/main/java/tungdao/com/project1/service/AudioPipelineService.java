@@ -0,0 +1,292 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tungdao.com.project1.entity.AudioJob;
+import tungdao.com.project1.entity.AudioJobSource;
+import tungdao.com.project1.entity.AudioJobStatus;
+import tungdao.com.project1.entity.AudioRendition;
+import tungdao.com.project1.repository.AudioJobRepository;
+import tungdao.com.project1.repository.AudioRenditionRepository;
+import tungdao.com.project1.repository.ListeningAudioRepository;
+import tungdao.com.project1.repository.StudentResponseRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline chuẩn hoá audio chạy nền sau khi upload.
+ * Job được ghi vào bảng audio_jobs trong cùng transaction với dữ liệu, rồi đẩy vào thread pool có giới hạn
+ * sau khi commit. Job không vào được pool (hàng đợi đầy, server khởi động lại) sẽ được bộ quét định kỳ lấy lại.
+ */
+@Service
+public class AudioPipelineService {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int POLL_BATCH_SIZE = 50;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final AudioJobRepository audioJobRepository;
+    private final AudioRenditionRepository audioRenditionRepository;
+    private final ListeningAudioRepository listeningAudioRepository;
+    private final StudentResponseRepository studentResponseRepository;
+    private final AudioNormalizer audioNormalizer;
+    private final AudioStorageService audioStorageService;
+    private final TestPaperCache testPaperCache;
+    private final ThreadPoolExecutor executor;
+
+    @Value("${app.audio.pipeline.stale-after-minutes:15}")
+    private long staleAfterMinutes;
+
+    // Job đã đẩy vào pool nhưng chưa chạy xong - tránh bộ quét đẩy trùng
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+    // ✅ Metrics
+    private final LongAdder completedJobs = new LongAdder();
+    private final LongAdder failedJobs = new LongAdder();
+    private final LongAdder rejectedDispatches = new LongAdder();
+    private final LongAdder processedRuns = new LongAdder();
+    private final AtomicLong totalProcessingMillis = new AtomicLong();
+    private final AtomicLong maxProcessingMillis = new AtomicLong();
+    private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+
+    public AudioPipelineService(AudioJobRepository audioJobRepository,
+                                AudioRenditionRepository audioRenditionRepository,
+                                ListeningAudioRepository listeningAudioRepository,
+                                StudentResponseRepository studentResponseRepository,
+                                AudioNormalizer audioNormalizer,
+                                AudioStorageService audioStorageService,
+                                TestPaperCache testPaperCache,
+                                @Qualifier("audioPipelineExecutor") ThreadPoolExecutor executor) {
+        this.audioJobRepository = audioJobRepository;
+        this.audioRenditionRepository = audioRenditionRepository;
+        this.listeningAudioRepository = listeningAudioRepository;
+        this.studentResponseRepository = studentResponseRepository;
+        this.audioNormalizer = audioNormalizer;
+        this.audioStorageService = audioStorageService;
+        this.testPaperCache = testPaperCache;
+        this.executor = executor;
+    }
+
+    /**
+     * Tạo job cho một dòng audio - gọi ngay sau khi lưu ListeningAudio/StudentResponse có audioHash
+     */
+    public void enqueue(AudioJobSource sourceType, Integer sourceId, String audioHash) {
+        if (sourceId == null || !AudioStorageService.isValidHash(audioHash)) {
+            return;
+        }
+
+        try {
+            if (audioJobRepository.existsBySourceTypeAndSourceIdAndAudioHash(sourceType, sourceId, audioHash)) {
+                return;
+            }
+
+            AudioJob job = new AudioJob();
+            job.setSourceType(sourceType);
+            job.setSourceId(sourceId);
+            job.setAudioHash(audioHash);
+            job.setStatus(AudioJobStatus.PENDING);
+            Integer jobId = audioJobRepository.save(job).getId();
+
+            // Chỉ chạy sau khi transaction của request commit, để worker thấy được dữ liệu
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        dispatch(jobId);
+                    }
+                });
+            } else {
+                dispatch(jobId);
+            }
+        } catch (Exception e) {
+            // Không làm hỏng request chính chỉ vì không tạo được job nền
+            System.err.println("⚠️ Could not enqueue audio job for " + sourceType + " " + sourceId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bộ quét: trả lại job bị treo và đẩy job PENDING vào pool theo số chỗ còn trống
+     */
+    @Scheduled(fixedDelayString = "${app.audio.pipeline.poll-interval-ms:30000}", initialDelay = 15000)
+    public void pollPendingJobs() {
+        try {
+            int released = audioJobRepository.releaseStale(LocalDateTime.now().minusMinutes(staleAfterMinutes));
+            if (released > 0) {
+                System.out.println("🔄 Released " + released + " stale audio job(s)");
+            }
+
+            int capacity = Math.min(POLL_BATCH_SIZE, executor.getQueue().remainingCapacity());
+            if (capacity <= 0) {
+                return;
+            }
+
+            List<Integer> jobIds = audioJobRepository.findIdsByStatus(AudioJobStatus.PENDING, PageRequest.of(0, capacity));
+            for (Integer jobId : jobIds) {
+                dispatch(jobId);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error polling audio jobs: " + e.getMessage());
+        }
+    }
+
+    private void dispatch(Integer jobId) {
+        if (!inFlight.add(jobId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> runJob(jobId));
+        } catch (RejectedExecutionException e) {
+            // Hàng đợi đầy - job vẫn PENDING, bộ quét sẽ lấy lại
+            inFlight.remove(jobId);
+            rejectedDispatches.increment();
+        }
+    }
+
+    private void runJob(Integer jobId) {
+        try {
+            if (audioJobRepository.claim(jobId, LocalDateTime.now()) == 0) {
+                return; // đã có worker khác nhận hoặc job không còn PENDING
+            }
+            AudioJob job = audioJobRepository.findById(jobId).orElse(null);
+            if (job == null) {
+                return;
+            }
+
+            long queueWait = Duration.between(job.getCreatedAt(), job.getStartedAt()).toMillis();
+            long start = System.nanoTime();
+            try {
+                AudioRendition rendition = audioRenditionRepository.findById(job.getAudioHash())
+                        .orElseGet(() -> createRendition(job.getAudioHash()));
+                applyDuration(job, rendition);
+
+                job.setStatus(AudioJobStatus.COMPLETED);
+                job.setErrorMessage(null);
+                job.setCompletedAt(LocalDateTime.now());
+                audioJobRepository.save(job);
+                completedJobs.increment();
+            } catch (Exception e) {
+                boolean retry = job.getAttempts() < MAX_ATTEMPTS;
+                job.setStatus(retry ? AudioJobStatus.PENDING : AudioJobStatus.FAILED);
+                String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                job.setErrorMessage(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+                audioJobRepository.save(job);
+                if (!retry) {
+                    failedJobs.increment();
+                }
+                System.err.println("❌ Audio job " + jobId + " failed (attempt " + job.getAttempts() + "): " + message);
+            } finally {
+                record(queueWait, (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error running audio job " + jobId + ": " + e.getMessage());
+        } finally {
+            inFlight.remove(jobId);
+        }
+    }
+
+    private AudioRendition createRendition(String audioHash) {
+        try {
+            AudioNormalizer.NormalizedAudio normalized = audioNormalizer.normalize(audioHash);
+
+            AudioRendition rendition = new AudioRendition();
+            rendition.setSourceHash(audioHash);
+            rendition.setDurationSeconds(normalized.durationSeconds);
+            rendition.setPeaks(normalized.peaks);
+            if (normalized.rendition != null) {
+                rendition.setRenditionHash(normalized.rendition.hash);
+                rendition.setRenditionSize(normalized.rendition.size);
+                rendition.setRenditionMimeType(AudioNormalizer.RENDITION_MIME_TYPE);
+            }
+            return audioRenditionRepository.save(rendition);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Audio normalization interrupted", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Audio normalization failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void applyDuration(AudioJob job, AudioRendition rendition) {
+        if (rendition.getDurationSeconds() == null) {
+            return;
+        }
+        if (job.getSourceType() == AudioJobSource.LISTENING_AUDIO) {
+            int updated = listeningAudioRepository.updateDuration(job.getSourceId(), job.getAudioHash(),
+                    rendition.getDurationSeconds());
+            if (updated > 0) {
+                // durationSeconds nằm trong snapshot đề thi
+                testPaperCache.invalidate(listeningAudioRepository.findTestIdById(job.getSourceId()));
+            }
+        } else {
+            studentResponseRepository.updateAudioDuration(job.getSourceId(), job.getAudioHash(), rendition.getDurationSeconds());
+        }
+    }
+
+    private void record(long queueWaitMillis, long processingMillis) {
+        processedRuns.increment();
+        totalQueueWaitMillis.addAndGet(queueWaitMillis);
+        maxQueueWaitMillis.accumulateAndGet(queueWaitMillis, Math::max);
+        totalProcessingMillis.addAndGet(processingMillis);
+        maxProcessingMillis.accumulateAndGet(processingMillis, Math::max);
+    }
+
+    /**
+     * Bản nhẹ đã tạo cho file gốc (nếu có và file vẫn còn trong kho)
+     */
+    public AudioRendition findRendition(String audioHash) {
+        if (!AudioStorageService.isValidHash(audioHash)) {
+            return null;
+        }
+        return audioRenditionRepository.findById(audioHash)
+                .filter(rendition -> rendition.hasRendition() && audioStorageService.exists(rendition.getRenditionHash()))
+                .orElse(null);
+    }
+
+    public AudioRendition findSummary(String audioHash) {
+        if (!AudioStorageService.isValidHash(audioHash)) {
+            return null;
+        }
+        return audioRenditionRepository.findById(audioHash).orElse(null);
+    }
+
+    /**
+     * Độ sâu hàng đợi và độ trễ xử lý
+     */
+    public Map<String, Object> getStats() {
+        long processed = processedRuns.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", executor.getMaximumPoolSize());
+        stats.put("activeWorkers", executor.getActiveCount());
+        stats.put("executorQueueDepth", executor.getQueue().size());
+        stats.put("executorQueueRemaining", executor.getQueue().remainingCapacity());
+        stats.put("pendingJobs", audioJobRepository.countByStatus(AudioJobStatus.PENDING));
+        stats.put("processingJobs", audioJobRepository.countByStatus(AudioJobStatus.PROCESSING));
+        stats.put("failedJobs", audioJobRepository.countByStatus(AudioJobStatus.FAILED));
+        stats.put("completedSinceStartup", completedJobs.sum());
+        stats.put("failedSinceStartup", failedJobs.sum());
+        stats.put("rejectedDispatches", rejectedDispatches.sum());
+        stats.put("avgProcessingMillis", processed > 0 ? totalProcessingMillis.get() / processed : 0);
+        stats.put("maxProcessingMillis", maxProcessingMillis.get());
+        stats.put("avgQueueWaitMillis", processed > 0 ? totalQueueWaitMillis.get() / processed : 0);
+        stats.put("maxQueueWaitMillis", maxQueueWaitMillis.get());
+        stats.put("ffmpegAvailable", audioNormalizer.isFfmpegAvailable());
+        return stats;
+    }
+}
@@ -4,6 +4,9 @@ import org.springframework.stereotype.Service;
 import tungdao.com.project1.dto.StudentResponseDTO;
 import tungdao.com.project1.entity.StudentResponse;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
@@ -15,14 +18,50 @@ import java.util.Map;
 @Service
 public class AudioProcessingService {
 
+    private static final long MAX_AUDIO_SIZE = 50L * 1024 * 1024; // 50MB
+    private static final int DECODE_BLOCK_CHARS = 64 * 1024; // multiple of 4
+
+    // Loại ký tự trong chuỗi base64: ngoài bảng chữ cái, '=' và khoảng trắng thì bị từ chối
+    private static final byte INVALID = 0, ALPHABET = 1, PADDING = 2, WHITESPACE = 3;
+    private static final byte[] BASE64_CHAR_KINDS = new byte[128];
+
+    static {
+        for (char c : "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray()) {
+            BASE64_CHAR_KINDS[c] = ALPHABET;
+        }
+        BASE64_CHAR_KINDS['='] = PADDING;
+        for (char c : "\r\n \t".toCharArray()) {
+            BASE64_CHAR_KINDS[c] = WHITESPACE;
+        }
+    }
+
+    private final AudioStorageService audioStorageService;
+
+    public AudioProcessingService(AudioStorageService audioStorageService) {
+        this.audioStorageService = audioStorageService;
+    }
+
     /**
-     * Process and validate audio response from frontend
+     * Process and validate audio response from frontend, decoding it straight into the audio store
      */
     public AudioProcessingResult processAudioResponse(StudentResponseDTO responseDTO) {
+        return processAudioResponse(responseDTO, true);
+    }
+
+    /**
+     * Validate audio response without storing it (decoded in memory only, nothing is written to disk)
+     */
+    public AudioProcessingResult validateAudioResponse(StudentResponseDTO responseDTO) {
+        return processAudioResponse(responseDTO, false);
+    }
+
+    private AudioProcessingResult processAudioResponse(StudentResponseDTO responseDTO, boolean store) {
         System.out.println("=== PROCESSING AUDIO RESPONSE ===");
         System.out.println("Question ID: " + responseDTO.getQuestionId());
 
         AudioProcessingResult result = new AudioProcessingResult();
+        AudioStorageService.PendingAudio pending = null;
+        AudioStorageService.AudioProbe probe = null;
 
         try {
             // ✅ VALIDATE INPUT
@@ -35,57 +74,61 @@ public class AudioProcessingService {
             String audioData = responseDTO.getAudioResponse();
             System.out.println("Raw audio data length: " + audioData.length());
 
-            // ✅ CLEAN BASE64 DATA
-            String cleanBase64 = cleanAudioBase64(audioData);
-            System.out.println("Clean base64 length: " + cleanBase64.length());
+            // ✅ SINGLE PASS: validate + decode + count + checksum, written straight to a temp blob
+            // (validation only keeps the header bytes in memory)
+            OutputStream sink;
+            if (store) {
+                sink = pending = audioStorageService.newPendingAudio(MAX_AUDIO_SIZE);
+            } else {
+                sink = probe = audioStorageService.newAudioProbe(MAX_AUDIO_SIZE);
+            }
 
-            // ✅ VALIDATE BASE64 FORMAT
-            if (!isValidBase64(cleanBase64)) {
+            long actualFileSize;
+            try {
+                actualFileSize = decodeBase64(audioData, sink);
+            } catch (AudioStorageService.AudioTooLargeException e) {
+                result.success = false;
+                result.error = "Audio file too large (maximum 50MB allowed)";
+                return result;
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Invalid base64: " + e.getMessage());
                 result.success = false;
                 result.error = "Invalid base64 audio format";
                 return result;
             }
-
-            // ✅ DECODE TO GET ACTUAL SIZE
-            byte[] audioBytes = Base64.getDecoder().decode(cleanBase64);
-            long actualFileSize = audioBytes.length;
             System.out.println("Decoded audio size: " + actualFileSize + " bytes");
 
             // ✅ VALIDATE FILE SIZE
-            if (actualFileSize < 1000) { // Less than 1KB
+            String sizeError = validateFileSize(actualFileSize);
+            if (sizeError != null) {
                 result.success = false;
-                result.error = "Audio file too small (minimum 1KB required)";
+                result.error = sizeError;
                 return result;
             }
 
-            if (actualFileSize > 50 * 1024 * 1024) { // More than 50MB
-                result.success = false;
-                result.error = "Audio file too large (maximum 50MB allowed)";
-                return result;
-            }
+            // ✅ VALIDATE DURATION - read from the container header, not trusted from the client
+            Integer headerDuration = store ? pending.readDurationSeconds() : probe.readDurationSeconds();
+            Integer duration = resolveDuration(headerDuration, responseDTO.getAudioDuration(),
+                    actualFileSize, responseDTO.getAudioFileType());
 
-            // ✅ VALIDATE DURATION
-            Integer duration = responseDTO.getAudioDuration();
-            if (duration == null || duration < 1) {
-                System.out.println("⚠️ No duration provided, estimating...");
-                duration = estimateAudioDuration(actualFileSize, responseDTO.getAudioFileType());
-            }
-
-            if (duration < 2) { // Less than 2 seconds
+            String durationError = validateDuration(duration);
+            if (durationError != null) {
                 result.success = false;
-                result.error = "Audio too short (minimum 2 seconds required)";
+                result.error = durationError;
                 return result;
             }
 
-            if (duration > 600) { // More than 10 minutes
-                result.success = false;
-                result.error = "Audio too long (maximum 10 minutes allowed)";
-                return result;
+            // ✅ SET PROCESSED DATA
+            if (store) {
+                AudioStorageService.StoredAudio stored = pending.commit();
+                pending = null;
+                result.audioHash = stored.hash;
+                result.checksum = stored.hash;
+            } else {
+                result.checksum = probe.checksum();
             }
 
-            // ✅ SET PROCESSED DATA
             result.success = true;
-            result.cleanBase64 = cleanBase64;
             result.actualFileSize = actualFileSize;
             result.duration = duration;
             result.fileType = responseDTO.getAudioFileType() != null ?
@@ -96,16 +139,58 @@ public class AudioProcessingService {
             System.out.println("  - File size: " + formatFileSize(actualFileSize));
             System.out.println("  - Duration: " + formatDuration(duration));
             System.out.println("  - File type: " + result.fileType);
+            System.out.println("  - SHA-256: " + result.checksum);
 
         } catch (Exception e) {
             System.err.println("❌ Error processing audio: " + e.getMessage());
             result.success = false;
             result.error = "Audio processing failed: " + e.getMessage();
+        } finally {
+            if (pending != null) {
+                pending.abort();
+            }
         }
 
         return result;
     }
 
+    /**
+     * Validate audio that was already spooled into the audio store during deserialization
+     */
+    public AudioProcessingResult processStoredAudio(String audioHash, Long fileSize,
+                                                    Integer audioDuration, String audioFileType) {
+        System.out.println("=== PROCESSING STORED AUDIO RESPONSE ===");
+        System.out.println("Audio hash: " + audioHash);
+
+        AudioProcessingResult result = new AudioProcessingResult();
+
+        long actualFileSize = fileSize != null ? fileSize : 0;
+        String sizeError = validateFileSize(actualFileSize);
+        if (sizeError != null) {
+            result.error = sizeError;
+            return result;
+        }
+
+        Integer duration = resolveDuration(audioStorageService.readDurationSeconds(audioHash), audioDuration,
+                actualFileSize, audioFileType);
+
+        String durationError = validateDuration(duration);
+        if (durationError != null) {
+            result.error = durationError;
+            return result;
+        }
+
+        result.success = true;
+        result.audioHash = audioHash;
+        result.actualFileSize = actualFileSize;
+        result.duration = duration;
+        result.fileType = audioFileType != null ? audioFileType : "webm";
+        result.mimeType = determineMimeType(result.fileType);
+
+        System.out.println("✅ Stored audio validated: " + formatFileSize(actualFileSize) + ", " + formatDuration(duration));
+        return result;
+    }
+
     /**
      * Apply processed audio data to StudentResponse
      */
@@ -114,7 +199,12 @@ public class AudioProcessingService {
             throw new RuntimeException("Cannot apply invalid audio data: " + processingResult.error);
         }
 
-        response.setAudioBase64(processingResult.cleanBase64);
+        if (processingResult.audioHash != null) {
+            response.setAudioHash(processingResult.audioHash);
+            response.setAudioBase64(null);
+        } else {
+            response.setAudioBase64(processingResult.cleanBase64);
+        }
         response.setAudioFileSize(processingResult.actualFileSize);
         response.setAudioDurationSeconds(processingResult.duration);
         response.setAudioFileType(processingResult.fileType);
@@ -128,7 +218,7 @@ public class AudioProcessingService {
      */
     public Map<String, Object> getAudioStatistics(List<StudentResponse> responses) {
         List<StudentResponse> audioResponses = responses.stream()
-                .filter(r -> r.getAudioBase64() != null && !r.getAudioBase64().trim().isEmpty())
+                .filter(StudentResponse::hasAudioResponse)
                 .toList();
 
         Map<String, Object> stats = new HashMap<>();
@@ -170,42 +260,100 @@ public class AudioProcessingService {
     }
 
     /**
-     * Clean base64 audio data
+     * Decode base64 (optionally a data URL) into the sink without copying the whole string.
+     * The string is copied out 64K chars at a time, checked and packed into blocks that are each decoded in one
+     * call and written to the sink in bulk - Base64.getMimeDecoder().wrap() pulls its source one byte at a time,
+     * which dominated the cost.
+     * Returns the number of decoded bytes; throws on characters outside the base64 alphabet.
      */
-    private String cleanAudioBase64(String audioData) {
-        if (audioData == null) return null;
-
-        String cleaned = audioData.trim();
+    private long decodeBase64(String audioData, OutputStream sink) throws IOException {
+        int start = 0;
+        if (audioData.startsWith("data:")) {
+            int commaIndex = audioData.indexOf(',');
+            if (commaIndex == -1) {
+                throw new IllegalArgumentException("Invalid data URL format");
+            }
+            start = commaIndex + 1;
+        }
 
-        // Remove data URL prefix if present
-        if (cleaned.startsWith("data:")) {
-            int commaIndex = cleaned.indexOf(",");
-            if (commaIndex != -1) {
-                cleaned = cleaned.substring(commaIndex + 1);
+        Base64.Decoder decoder = Base64.getDecoder();
+        char[] chars = new char[DECODE_BLOCK_CHARS];
+        byte[] block = new byte[DECODE_BLOCK_CHARS];
+        byte[] decoded = new byte[DECODE_BLOCK_CHARS / 4 * 3];
+        int filled = 0;
+        boolean padded = false;
+        long size = 0;
+
+        for (int offset = start, length = audioData.length(); offset < length; ) {
+            int count = Math.min(chars.length, length - offset);
+            audioData.getChars(offset, offset + count, chars, 0);
+
+            for (int i = 0; i < count; i++) {
+                char c = chars[i];
+                int kind = c < BASE64_CHAR_KINDS.length ? BASE64_CHAR_KINDS[c] : INVALID;
+                if (kind == WHITESPACE) {
+                    continue;
+                }
+                if (kind == INVALID || (kind == ALPHABET && padded)) {
+                    throw new IllegalArgumentException("Illegal base64 character at index " + (offset + i));
+                }
+                padded |= kind == PADDING;
+                block[filled++] = (byte) c;
+
+                if (filled == block.length) {
+                    int decodedCount = decoder.decode(block, decoded);
+                    sink.write(decoded, 0, decodedCount);
+                    size += decodedCount;
+                    filled = 0;
+                }
             }
+            offset += count;
         }
 
-        // Remove any whitespace
-        cleaned = cleaned.replaceAll("\\s", "");
+        if (filled > 0) {
+            int count = decoder.decode(Arrays.copyOf(block, filled), decoded);
+            sink.write(decoded, 0, count);
+            size += count;
+        }
+        sink.flush();
+        return size;
+    }
 
-        return cleaned;
+    private String validateFileSize(long actualFileSize) {
+        if (actualFileSize < 1000) { // Less than 1KB
+            return "Audio file too small (minimum 1KB required)";
+        }
+        if (actualFileSize > 50 * 1024 * 1024) { // More than 50MB
+            return "Audio file too large (maximum 50MB allowed)";
+        }
+        return null;
+    }
+
+    private String validateDuration(int duration) {
+        if (duration < 2) { // Less than 2 seconds
+            return "Audio too short (minimum 2 seconds required)";
+        }
+        if (duration > 600) { // More than 10 minutes
+            return "Audio too long (maximum 10 minutes allowed)";
+        }
+        return null;
     }
 
     /**
-     * Validate base64 format
+     * Prefer the duration parsed from the container header; fall back to the client value, then to a bitrate estimate
      */
-    private boolean isValidBase64(String base64String) {
-        if (base64String == null || base64String.trim().isEmpty()) {
-            return false;
+    private int resolveDuration(Integer parsedDuration, Integer clientDuration, long fileSizeBytes, String fileType) {
+        if (parsedDuration != null) {
+            if (clientDuration != null && !clientDuration.equals(parsedDuration)) {
+                System.out.println("⚠️ Client duration " + clientDuration + "s differs from header duration " + parsedDuration + "s");
+            }
+            return parsedDuration;
         }
-
-        try {
-            Base64.getDecoder().decode(base64String);
-            return true;
-        } catch (Exception e) {
-            System.err.println("Invalid base64: " + e.getMessage());
-            return false;
+        if (clientDuration != null && clientDuration >= 1) {
+            return clientDuration;
         }
+        System.out.println("⚠️ No duration in header or request, estimating...");
+        return estimateAudioDuration(fileSizeBytes, fileType);
     }
 
     /**
@@ -288,13 +436,15 @@ public class AudioProcessingService {
         public boolean success = false;
         public String error = null;
         public String cleanBase64 = null;
+        public String audioHash = null;
+        public String checksum = null; // SHA-256 of decoded audio
         public long actualFileSize = 0;
         public int duration = 0;
         public String fileType = "webm";
         public String mimeType = "audio/webm";
 
         public boolean isValid() {
-            return success && cleanBase64 != null && actualFileSize > 0 && duration > 0;
+            return success && (cleanBase64 != null || audioHash != null || checksum != null) && actualFileSize > 0 && duration > 0;
         }
 
         @Override
@@ -0,0 +1,483 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.entity.AudioUploadStatus;
+import tungdao.com.project1.repository.AudioBlobOwnerRepository;
+import tungdao.com.project1.repository.AudioUploadRepository;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Kho lưu trữ audio dạng nhị phân, định danh theo nội dung (SHA-256).
+ * File được lưu tại {app.audio.dir}/ab/abcdef... nên cùng một file chỉ lưu một lần.
+ */
+@Service
+public class AudioStorageService {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024; // 1MB mỗi lần ghi
+
+    @Value("${app.audio.dir:${user.home}/audio}")
+    private String audioDir;
+
+    @Value("${app.upload.dir:${user.home}/uploads/audio}")
+    private String uploadDir;
+
+    private final AudioBlobOwnerRepository audioBlobOwnerRepository;
+    private final AudioUploadRepository audioUploadRepository;
+
+    public AudioStorageService(AudioBlobOwnerRepository audioBlobOwnerRepository,
+                               AudioUploadRepository audioUploadRepository) {
+        this.audioBlobOwnerRepository = audioBlobOwnerRepository;
+        this.audioUploadRepository = audioUploadRepository;
+    }
+
+    /**
+     * Lưu dữ liệu từ InputStream vào kho, trả về hash và kích thước thực tế
+     */
+    public StoredAudio store(InputStream inputStream) throws IOException {
+        Path root = getRoot();
+        Path tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+
+        Path tmpFile = Files.createTempFile(tmpDir, "audio-", ".part");
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            // ✅ Ghi từng đoạn cố định qua FileChannel - không giữ toàn bộ file trên heap
+            try (ReadableByteChannel source = Channels.newChannel(new DigestInputStream(inputStream, digest));
+                 FileChannel target = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                long transferred;
+                while ((transferred = target.transferFrom(source, size, TRANSFER_CHUNK_SIZE)) > 0) {
+                    size += transferred;
+                }
+            }
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(hash);
+            if (Files.exists(target)) {
+                // ✅ Đã có file cùng nội dung - không cần lưu lại
+                Files.deleteIfExists(tmpFile);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            System.out.println("✅ Stored audio blob " + hash + " (" + size + " bytes)");
+            return new StoredAudio(hash, size);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Mở một file tạm để ghi dần dữ liệu (push) - gọi commit() để đưa vào kho hoặc abort() để huỷ
+     */
+    public PendingAudio newPendingAudio(long maxBytes) throws IOException {
+        Path tmpDir = getRoot().resolve("tmp");
+        Files.createDirectories(tmpDir);
+        return new PendingAudio(Files.createTempFile(tmpDir, "audio-", ".part"), maxBytes);
+    }
+
+    /**
+     * Như newPendingAudio nhưng không ghi ra đĩa - dùng khi chỉ cần kiểm tra (kích thước, SHA-256, thời lượng)
+     */
+    public AudioProbe newAudioProbe(long maxBytes) {
+        return new AudioProbe(maxBytes);
+    }
+
+    /**
+     * Lưu dữ liệu base64 (có hoặc không có tiền tố data URL) vào kho
+     */
+    public StoredAudio storeBase64(String base64Data) throws IOException {
+        if (base64Data == null || base64Data.trim().isEmpty()) {
+            throw new IllegalArgumentException("Audio data is empty");
+        }
+
+        int start = 0;
+        if (base64Data.startsWith("data:")) {
+            int commaIndex = base64Data.indexOf(',');
+            if (commaIndex < 0) {
+                throw new IllegalArgumentException("Invalid data URL format");
+            }
+            start = commaIndex + 1;
+        }
+
+        byte[] ascii = base64Data.getBytes(StandardCharsets.ISO_8859_1);
+        InputStream decoded = Base64.getMimeDecoder()
+                .wrap(new ByteArrayInputStream(ascii, start, ascii.length - start));
+        return store(decoded);
+    }
+
+    /**
+     * Nhập file đã upload qua /api/test/upload (filePath dạng /uploads/audio/xxx.mp3) vào kho
+     */
+    public StoredAudio storeUploadedFile(String filePath) throws IOException {
+        String fileName = Paths.get(filePath).getFileName().toString();
+        Path uploadRoot = Paths.get(uploadDir).toAbsolutePath().normalize();
+        Path source = uploadRoot.resolve(fileName).normalize();
+
+        if (!source.startsWith(uploadRoot) || !Files.isRegularFile(source)) {
+            throw new IOException("Uploaded file not found: " + filePath);
+        }
+
+        try (InputStream in = Files.newInputStream(source)) {
+            return store(in);
+        }
+    }
+
+    /**
+     * Thời lượng thật (giây) đọc từ header của file trong kho, null nếu không xác định được
+     */
+    public Integer readDurationSeconds(String hash) {
+        if (!exists(hash)) {
+            return null;
+        }
+        try (SeekableByteChannel channel = Files.newByteChannel(resolve(hash), StandardOpenOption.READ)) {
+            return toSeconds(AudioDurationParser.parseSeconds(channel));
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not read duration of audio " + hash + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static Integer toSeconds(Double seconds) {
+        return seconds != null && seconds > 0 ? (int) Math.round(seconds) : null;
+    }
+
+    public Path resolve(String hash) {
+        if (!isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid audio hash: " + hash);
+        }
+        return getRoot().resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    public boolean exists(String hash) {
+        return isValidHash(hash) && Files.isRegularFile(resolve(hash));
+    }
+
+    /**
+     * Ghi nhận người dùng đã gửi file này lên (audioResponse base64 trong bài nộp / bản nháp)
+     */
+    public void recordOwner(String hash, Integer userId) {
+        audioBlobOwnerRepository.insertIfAbsent(hash, userId, LocalDateTime.now());
+    }
+
+    /**
+     * File có trong kho và do chính người dùng này gửi lên (base64 hoặc phiên upload theo chunk đã hoàn tất) -
+     * kiểm tra trước khi gắn hash vào câu trả lời để không ai gắn được bản ghi âm của người khác
+     */
+    public boolean isOwnedBy(String hash, Integer userId) {
+        if (userId == null || !exists(hash)) {
+            return false;
+        }
+        return audioBlobOwnerRepository.existsByAudioHashAndUserId(hash, userId)
+                || audioUploadRepository.existsByAudioHashAndUserIdAndStatus(hash, userId, AudioUploadStatus.COMPLETED);
+    }
+
+    public static boolean isValidHash(String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+    private Path getRoot() {
+        return Paths.get(audioDir).toAbsolutePath().normalize();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Audio đang được ghi dần vào file tạm, tính SHA-256 trong lúc ghi
+     */
+    public class PendingAudio extends OutputStream {
+        private final Path tmpFile;
+        private final MessageDigest digest = newDigest();
+        private final OutputStream out;
+        private final long maxBytes;
+        private long size = 0;
+        private boolean closed = false;
+        private String hash;
+
+        private PendingAudio(Path tmpFile, long maxBytes) throws IOException {
+            this.tmpFile = tmpFile;
+            this.maxBytes = maxBytes;
+            this.out = new BufferedOutputStream(
+                    new DigestOutputStream(Files.newOutputStream(tmpFile), digest), 64 * 1024);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkLimit(1);
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkLimit(len);
+            out.write(b, off, len);
+            size += len;
+        }
+
+        private void checkLimit(int len) throws IOException {
+            if (size + len > maxBytes) {
+                throw new AudioTooLargeException("Audio exceeds maximum size of " + maxBytes + " bytes");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.close();
+            }
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Thời lượng thật (giây) của dữ liệu đã ghi, đọc từ header trước khi commit
+         */
+        public Integer readDurationSeconds() throws IOException {
+            out.flush();
+            try (SeekableByteChannel channel = Files.newByteChannel(tmpFile, StandardOpenOption.READ)) {
+                return toSeconds(AudioDurationParser.parseSeconds(channel));
+            }
+        }
+
+        /**
+         * SHA-256 của dữ liệu đã ghi - sau khi gọi thì không ghi thêm được nữa
+         */
+        public String checksum() throws IOException {
+            close();
+            if (hash == null) {
+                hash = HexFormat.of().formatHex(digest.digest());
+            }
+            return hash;
+        }
+
+        public StoredAudio commit() throws IOException {
+            String hash = checksum();
+            try {
+                Path target = resolve(hash);
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+
+                System.out.println("✅ Stored audio blob " + hash + " (" + size + " bytes)");
+                return new StoredAudio(hash, size);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+
+        public void abort() {
+            try {
+                close();
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException e) {
+                System.err.println("⚠️ Could not delete temp audio file " + tmpFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Audio chỉ được đếm và băm khi ghi qua, giữ lại phần đầu và phần cuối trong bộ nhớ (tối đa ~192KB)
+     * để AudioDurationParser đọc header. Nếu parser cần đọc vùng giữa không được giữ lại thì coi như
+     * không xác định được thời lượng.
+     */
+    public static class AudioProbe extends OutputStream {
+        private static final int HEAD_SIZE = 128 * 1024;
+        private static final int TAIL_SIZE = 64 * 1024;
+
+        private final MessageDigest digest = newDigest();
+        private final byte[] head = new byte[HEAD_SIZE];
+        private final byte[] tail = new byte[TAIL_SIZE]; // vòng tròn, byte ở vị trí p nằm tại p % TAIL_SIZE
+        private final long maxBytes;
+        private long size = 0;
+        private String hash;
+
+        private AudioProbe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (hash != null) {
+                throw new IOException("Audio probe already finished");
+            }
+            if (size + len > maxBytes) {
+                throw new AudioTooLargeException("Audio exceeds maximum size of " + maxBytes + " bytes");
+            }
+            digest.update(b, off, len);
+
+            if (size < HEAD_SIZE) {
+                int count = (int) Math.min(len, HEAD_SIZE - size);
+                System.arraycopy(b, off, head, (int) size, count);
+            }
+            // Chỉ TAIL_SIZE byte cuối của lần ghi này có thể còn nằm trong phần đuôi
+            int skip = Math.max(0, len - TAIL_SIZE);
+            long position = size + skip;
+            for (int i = off + skip, end = off + len; i < end; ) {
+                int index = (int) (position % TAIL_SIZE);
+                int count = Math.min(end - i, TAIL_SIZE - index);
+                System.arraycopy(b, i, tail, index, count);
+                i += count;
+                position += count;
+            }
+            size += len;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Thời lượng thật (giây) đọc từ header đã giữ lại, null nếu không xác định được
+         */
+        public Integer readDurationSeconds() {
+            try {
+                return toSeconds(AudioDurationParser.parseSeconds(new ProbeChannel()));
+            } catch (IOException e) {
+                System.err.println("⚠️ Could not read duration from probed audio: " + e.getMessage());
+                return null;
+            }
+        }
+
+        public String checksum() {
+            if (hash == null) {
+                hash = HexFormat.of().formatHex(digest.digest());
+            }
+            return hash;
+        }
+
+        /**
+         * Kênh chỉ đọc trên phần đầu và phần cuối đã giữ lại; size() là kích thước thật của audio
+         */
+        private class ProbeChannel implements SeekableByteChannel {
+            private long position = 0;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (position >= size) {
+                    return -1;
+                }
+                int count;
+                if (position < HEAD_SIZE) {
+                    count = (int) Math.min(dst.remaining(), Math.min(size, HEAD_SIZE) - position);
+                    dst.put(head, (int) position, count);
+                } else if (position >= size - TAIL_SIZE) {
+                    int index = (int) (position % TAIL_SIZE);
+                    count = (int) Math.min(dst.remaining(), Math.min(size - position, TAIL_SIZE - index));
+                    dst.put(tail, index, count);
+                } else {
+                    throw new IOException("Byte " + position + " is outside the probed head and tail");
+                }
+                position += count;
+                return count;
+            }
+
+            @Override
+            public int write(ByteBuffer src) {
+                throw new NonWritableChannelException();
+            }
+
+            @Override
+            public long position() {
+                return position;
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) {
+                position = newPosition;
+                return this;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long newSize) {
+                throw new NonWritableChannelException();
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    /**
+     * Dữ liệu audio vượt quá giới hạn kích thước cho phép
+     */
+    public static class AudioTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public AudioTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Kết quả lưu audio vào kho
+     */
+    public static class StoredAudio {
+        public final String hash;
+        public final long size;
+
+        public StoredAudio(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return "StoredAudio{hash=" + hash + ", size=" + size + "}";
+        }
+    }
+}
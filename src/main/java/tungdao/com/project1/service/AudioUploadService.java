@@ -0,0 +1,298 @@
+package tungdao.com.project1.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.dto.AudioUploadInitRequest;
+import tungdao.com.project1.entity.AudioUpload;
+import tungdao.com.project1.entity.AudioUploadStatus;
+import tungdao.com.project1.entity.ResponseType;
+import tungdao.com.project1.entity.StudentResponse;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.repository.AudioUploadRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Upload bản ghi âm Speaking theo từng đoạn: init -> PUT chunk N -> complete.
+ * Mỗi chunk được lưu thành file riêng nên PUT lại cùng một chunk là an toàn (idempotent).
+ */
+@Service
+public class AudioUploadService {
+
+    private static final long MAX_RECORDING_SIZE = 50L * 1024 * 1024; // 50MB - cùng giới hạn với AudioProcessingService
+    private static final int EXPIRE_BATCH_SIZE = 100;
+
+    private final AudioUploadRepository audioUploadRepository;
+    private final AudioStorageService audioStorageService;
+
+    @Value("${app.audio.dir:${user.home}/audio}")
+    private String audioDir;
+
+    @Value("${app.audio.upload.chunk-size:1048576}")
+    private int chunkSize;
+
+    // Phiên upload chưa complete sau chừng này giờ coi như bỏ dở
+    @Value("${app.audio.upload.expire-hours:24}")
+    private long expireHours;
+
+    public AudioUploadService(AudioUploadRepository audioUploadRepository,
+                              AudioStorageService audioStorageService) {
+        this.audioUploadRepository = audioUploadRepository;
+        this.audioStorageService = audioStorageService;
+    }
+
+    public AudioUpload initUpload(User user, AudioUploadInitRequest request) {
+        if (request.getTotalSize() == null || request.getTotalSize() <= 0) {
+            throw new IllegalArgumentException("totalSize must be greater than 0");
+        }
+        if (request.getTotalSize() > MAX_RECORDING_SIZE) {
+            throw new IllegalArgumentException("Audio file too large (maximum 50MB allowed)");
+        }
+
+        AudioUpload upload = new AudioUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setUser(user);
+        upload.setQuestionId(request.getQuestionId());
+        upload.setTotalSize(request.getTotalSize());
+        upload.setChunkSize(chunkSize);
+        upload.setTotalChunks((int) ((request.getTotalSize() + chunkSize - 1) / chunkSize));
+        upload.setMimeType(request.getMimeType() != null ? request.getMimeType() : "audio/webm");
+        upload.setFileType(request.getFileType() != null ? request.getFileType() : "webm");
+        upload.setStatus(AudioUploadStatus.UPLOADING);
+
+        upload = audioUploadRepository.save(upload);
+        System.out.println("✅ Audio upload initialized: " + upload.getId() +
+                " (" + upload.getTotalChunks() + " chunks x " + chunkSize + " bytes)");
+        return upload;
+    }
+
+    public AudioUpload getUpload(String uploadId, Integer userId) {
+        AudioUpload upload = audioUploadRepository.findById(uploadId)
+                .orElseThrow(() -> new EntityNotFoundException("Upload not found: " + uploadId));
+        if (!upload.getUser().getId().equals(userId)) {
+            throw new SecurityException("Upload " + uploadId + " does not belong to current user");
+        }
+        return upload;
+    }
+
+    /**
+     * Ghi một chunk - ghi ra file tạm rồi đổi tên để không bao giờ có chunk ghi dở
+     */
+    public void writeChunk(String uploadId, Integer userId, int index, InputStream body) throws IOException {
+        AudioUpload upload = getUpload(uploadId, userId);
+        if (upload.getStatus() != AudioUploadStatus.UPLOADING) {
+            throw new IllegalStateException("Upload " + uploadId + " is already " + upload.getStatus());
+        }
+        if (index < 0 || index >= upload.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk index out of range: " + index);
+        }
+
+        long expectedSize = expectedChunkSize(upload, index);
+        Path dir = chunkDir(uploadId);
+        Files.createDirectories(dir);
+
+        Path tmpFile = Files.createTempFile(dir, "chunk-" + index + "-", ".tmp");
+        try {
+            long written = 0;
+            try (ReadableByteChannel source = Channels.newChannel(body);
+                 FileChannel target = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                long transferred;
+                // Đọc tối đa expectedSize + 1 để phát hiện chunk quá lớn
+                while (written <= expectedSize &&
+                        (transferred = target.transferFrom(source, written, expectedSize + 1 - written)) > 0) {
+                    written += transferred;
+                }
+            }
+
+            if (written != expectedSize) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + written +
+                        " bytes, expected " + expectedSize);
+            }
+
+            Files.move(tmpFile, chunkFile(uploadId, index),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Danh sách chunk đã nhận - client dùng để tiếp tục upload sau khi mất kết nối
+     */
+    public List<Integer> getReceivedChunks(AudioUpload upload) throws IOException {
+        Path dir = chunkDir(upload.getId());
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < upload.getTotalChunks(); i++) {
+            if (Files.isRegularFile(chunkFile(upload.getId(), i))) {
+                received.add(i);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Ghép các chunk theo thứ tự và đưa vào kho audio
+     */
+    public AudioUpload completeUpload(String uploadId, Integer userId) throws IOException {
+        AudioUpload upload = getUpload(uploadId, userId);
+        if (upload.isCompleted()) {
+            return upload; // complete lại nhiều lần vẫn trả về cùng kết quả
+        }
+        if (upload.getStatus() == AudioUploadStatus.EXPIRED) {
+            throw new IllegalStateException("Upload " + uploadId + " has expired");
+        }
+
+        List<Integer> received = getReceivedChunks(upload);
+        if (received.size() != upload.getTotalChunks()) {
+            throw new IllegalStateException("Upload " + uploadId + " is missing " +
+                    (upload.getTotalChunks() - received.size()) + " chunk(s)");
+        }
+
+        AudioStorageService.StoredAudio stored;
+        try (InputStream in = new SequenceInputStream(new ChunkEnumeration(uploadId, upload.getTotalChunks()))) {
+            stored = audioStorageService.store(in);
+        }
+
+        if (stored.size != upload.getTotalSize()) {
+            throw new IllegalStateException("Assembled size " + stored.size + " does not match " + upload.getTotalSize());
+        }
+
+        upload.setAudioHash(stored.hash);
+        upload.setStatus(AudioUploadStatus.COMPLETED);
+        upload.setCompletedAt(LocalDateTime.now());
+        upload = audioUploadRepository.save(upload);
+
+        deleteChunks(uploadId);
+        System.out.println("✅ Audio upload completed: " + uploadId + " -> " + stored.hash);
+        return upload;
+    }
+
+    /**
+     * Gắn bản ghi âm đã upload vào StudentResponse (chỉ lưu hash, không lưu base64)
+     */
+    public void attachToResponse(StudentResponse response, String uploadId, Integer userId, Integer durationSeconds) {
+        AudioUpload upload = getUpload(uploadId, userId);
+        if (!upload.isCompleted()) {
+            throw new IllegalStateException("Upload " + uploadId + " is not completed");
+        }
+
+        response.setAudioHash(upload.getAudioHash());
+        response.setAudioBase64(null);
+        response.setAudioFileSize(upload.getTotalSize());
+        response.setAudioFileType(upload.getFileType());
+        response.setAudioMimeType(upload.getMimeType());
+        Integer headerDuration = audioStorageService.readDurationSeconds(upload.getAudioHash());
+        response.setAudioDurationSeconds(headerDuration != null ? headerDuration : durationSeconds);
+        response.setResponseType(ResponseType.AUDIO);
+    }
+
+    /**
+     * Phiên upload bỏ dở quá app.audio.upload.expire-hours: đánh dấu EXPIRED và xoá các chunk trên đĩa
+     */
+    @Scheduled(fixedDelayString = "${app.audio.upload.cleanup-interval-ms:3600000}", initialDelay = 60000)
+    public void expireStaleUploads() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusHours(expireHours);
+            int expired = 0;
+            List<String> ids;
+            do {
+                ids = audioUploadRepository.findStaleUploadIds(cutoff, PageRequest.of(0, EXPIRE_BATCH_SIZE));
+                for (String uploadId : ids) {
+                    if (audioUploadRepository.markExpired(uploadId) == 1) {
+                        deleteChunks(uploadId);
+                        expired++;
+                    }
+                }
+            } while (ids.size() == EXPIRE_BATCH_SIZE);
+
+            if (expired > 0) {
+                System.out.println("🔄 Expired " + expired + " stale audio upload(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error expiring audio uploads: " + e.getMessage());
+        }
+    }
+
+    private long expectedChunkSize(AudioUpload upload, int index) {
+        long offset = (long) index * upload.getChunkSize();
+        return Math.min(upload.getChunkSize(), upload.getTotalSize() - offset);
+    }
+
+    private void deleteChunks(String uploadId) {
+        Path dir = chunkDir(uploadId);
+        if (!Files.isDirectory(dir)) {
+            return; // chưa nhận chunk nào
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not clean up chunks for upload " + uploadId + ": " + e.getMessage());
+        }
+    }
+
+    private Path chunkDir(String uploadId) {
+        return Paths.get(audioDir).toAbsolutePath().normalize()
+                .resolve("uploads")
+                .resolve(UUID.fromString(uploadId).toString());
+    }
+
+    private Path chunkFile(String uploadId, int index) {
+        return chunkDir(uploadId).resolve(index + ".part");
+    }
+
+    /**
+     * Mở lần lượt từng chunk khi SequenceInputStream cần - chỉ một file mở tại một thời điểm
+     */
+    private class ChunkEnumeration implements Enumeration<InputStream> {
+        private final String uploadId;
+        private final int totalChunks;
+        private int next = 0;
+
+        ChunkEnumeration(String uploadId, int totalChunks) {
+            this.uploadId = uploadId;
+            this.totalChunks = totalChunks;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return next < totalChunks;
+        }
+
+        @Override
+        public InputStream nextElement() {
+            try {
+                return Files.newInputStream(chunkFile(uploadId, next++));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read chunk " + (next - 1) + " of upload " + uploadId, e);
+            }
+        }
+    }
+}
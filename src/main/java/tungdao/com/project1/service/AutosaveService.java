@@ -0,0 +1,446 @@
+package tungdao.com.project1.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.dto.TestAttemptRequest;
+import tungdao.com.project1.entity.AudioUpload;
+import tungdao.com.project1.entity.ResponseType;
+import tungdao.com.project1.entity.StudentResponse;
+import tungdao.com.project1.entity.Test;
+import tungdao.com.project1.entity.TestAttempt;
+import tungdao.com.project1.repository.QuestionRepository;
+import tungdao.com.project1.repository.StudentResponseRepository;
+import tungdao.com.project1.repository.TestAttemptRepository;
+import tungdao.com.project1.repository.TestRepository;
+import tungdao.com.project1.repository.UserRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lưu nháp câu trả lời của bài làm đang mở theo kiểu write-behind.
+ * Mỗi lần autosave chỉ ghi vào bộ đệm trong bộ nhớ của bài làm (câu trả lời mới nhất của mỗi câu hỏi đè lên bản cũ);
+ * bộ đệm được ghi xuống student_responses theo lô mỗi app.autosave.flush-interval-ms, hoặc ngay khi nộp bài.
+ * Server tắt đột ngột chỉ mất tối đa một chu kỳ flush.
+ */
+@Service
+public class AutosaveService {
+
+    private static final int MAX_ANSWER_LENGTH = 20_000;
+
+    private final StudentResponseRepository studentResponseRepository;
+    private final TestAttemptRepository testAttemptRepository;
+    private final TestRepository testRepository;
+    private final QuestionRepository questionRepository;
+    private final UserRepository userRepository;
+    private final AudioUploadService audioUploadService;
+    private final AudioStorageService audioStorageService;
+    private final TestStatsService testStatsService;
+    private final TransactionTemplate transactionTemplate;
+
+    // Quá số câu trả lời này trong bộ đệm thì flush ngay trên request thread thay vì đợi chu kỳ sau
+    @Value("${app.autosave.max-buffered-answers:20000}")
+    private int maxBufferedAnswers;
+
+    @Value("${app.autosave.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final Map<Integer, AttemptDraft> drafts = new ConcurrentHashMap<>();
+    private final AtomicInteger bufferedAnswers = new AtomicInteger();
+
+    // ✅ Metrics
+    private final LongAdder updatesReceived = new LongAdder();
+    private final LongAdder updatesCoalesced = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder answersRejected = new LongAdder();
+    private final AtomicLong totalFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+
+    /**
+     * Bộ đệm của một bài làm. pending chỉ được đọc/ghi khi giữ monitor của draft;
+     * flushLock đảm bảo mỗi bài làm chỉ có một lô đang ghi xuống DB.
+     */
+    private static class AttemptDraft {
+        final Integer attemptId;
+        final Integer userId;
+        final Set<Integer> questionIds;
+        final ReentrantLock flushLock = new ReentrantLock();
+        Map<Integer, TestAttemptRequest.ResponseData> pending = new HashMap<>();
+        volatile long lastTouched = System.currentTimeMillis();
+        boolean closed;
+        // Đã bị bỏ khỏi drafts vì để lâu không dùng - người ghi sau phải lấy draft mới
+        boolean evicted;
+
+        AttemptDraft(Integer attemptId, Integer userId, Set<Integer> questionIds) {
+            this.attemptId = attemptId;
+            this.userId = userId;
+            this.questionIds = questionIds;
+        }
+    }
+
+    public AutosaveService(StudentResponseRepository studentResponseRepository,
+                           TestAttemptRepository testAttemptRepository,
+                           TestRepository testRepository,
+                           QuestionRepository questionRepository,
+                           UserRepository userRepository,
+                           AudioUploadService audioUploadService,
+                           AudioStorageService audioStorageService,
+                           TestStatsService testStatsService,
+                           PlatformTransactionManager transactionManager) {
+        this.studentResponseRepository = studentResponseRepository;
+        this.testAttemptRepository = testAttemptRepository;
+        this.testRepository = testRepository;
+        this.questionRepository = questionRepository;
+        this.userRepository = userRepository;
+        this.audioUploadService = audioUploadService;
+        this.audioStorageService = audioStorageService;
+        this.testStatsService = testStatsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Mở bài làm để autosave - nếu học viên đã có bài đang mở cho đề này thì trả về bài đó (tiếp tục làm)
+     */
+    public TestAttempt startAttempt(Integer userId, Integer testId) {
+        return testAttemptRepository.findFirstByStudentIdAndTestIdAndIsCompletedFalseOrderByIdDesc(userId, testId)
+                .orElseGet(() -> {
+                    Test test = testRepository.findById(testId)
+                            .orElseThrow(() -> new IllegalArgumentException("Test not found with ID: " + testId));
+                    TestAttempt attempt = new TestAttempt();
+                    attempt.setStudent(userRepository.findById(userId)
+                            .orElseThrow(() -> new IllegalArgumentException("User not found with ID: " + userId)));
+                    attempt.setTest(test);
+                    attempt.setStartTime(LocalDateTime.now());
+                    attempt.setIsCompleted(false);
+                    attempt = testAttemptRepository.save(attempt);
+                    testStatsService.markDirty(testId);
+                    System.out.println("✅ Opened attempt " + attempt.getId() + " for autosave (user " + userId +
+                            ", test " + testId + ")");
+                    return attempt;
+                });
+    }
+
+    /**
+     * Ghi câu trả lời vào bộ đệm - không chạm DB trừ lần đầu gặp bài làm. Trả về số câu đang chờ ghi.
+     */
+    public int buffer(Integer attemptId, Integer userId, List<TestAttemptRequest.ResponseData> answers) {
+        // Audio phải hợp lệ ngay lúc nhận - để đến lúc flush mới lỗi thì cả lô của bài làm bị kẹt
+        for (TestAttemptRequest.ResponseData answer : answers) {
+            if (answer != null && answer.getQuestionId() != null) {
+                checkAudio(answer, userId);
+            }
+        }
+
+        AttemptDraft draft;
+        int added = 0;
+        int pendingCount;
+        while (true) {
+            draft = getDraft(attemptId, userId);
+            synchronized (draft) {
+                if (draft.evicted) {
+                    continue; // flushAll vừa bỏ draft này - ghi vào đây thì không ai flush nữa, lấy draft mới
+                }
+                if (draft.closed) {
+                    throw new IllegalStateException("Attempt " + attemptId + " is being submitted");
+                }
+                for (TestAttemptRequest.ResponseData answer : answers) {
+                    if (answer == null || answer.getQuestionId() == null) {
+                        continue;
+                    }
+                    if (!draft.questionIds.contains(answer.getQuestionId())) {
+                        throw new IllegalArgumentException("Question " + answer.getQuestionId() + " is not part of this test");
+                    }
+                    if (answer.getResponseText() != null && answer.getResponseText().length() > MAX_ANSWER_LENGTH) {
+                        throw new IllegalArgumentException("Answer for question " + answer.getQuestionId() + " is too long");
+                    }
+                }
+                for (TestAttemptRequest.ResponseData answer : answers) {
+                    if (answer == null || answer.getQuestionId() == null) {
+                        continue;
+                    }
+                    if (draft.pending.put(answer.getQuestionId(), answer) == null) {
+                        added++;
+                    } else {
+                        updatesCoalesced.increment();
+                    }
+                    updatesReceived.increment();
+                }
+                draft.lastTouched = System.currentTimeMillis();
+                pendingCount = draft.pending.size();
+                break;
+            }
+        }
+
+        if (bufferedAnswers.addAndGet(added) > maxBufferedAnswers) {
+            try {
+                flush(draft); // bộ đệm quá lớn - tự ghi phần của mình ngay
+            } catch (Exception e) {
+                System.err.println("⚠️ Early autosave flush failed for attempt " + attemptId + ": " + e.getMessage());
+            }
+        }
+        return pendingCount;
+    }
+
+    /**
+     * Câu trả lời nháp hiện tại: bản đã ghi trong DB, đè bằng bản còn trong bộ đệm
+     */
+    public List<TestAttemptRequest.ResponseData> getDraftAnswers(Integer attemptId, Integer userId) {
+        AttemptDraft draft = getDraft(attemptId, userId);
+
+        Map<Integer, TestAttemptRequest.ResponseData> answers = new HashMap<>();
+        for (StudentResponse response : studentResponseRepository.findWithQuestionByAttemptId(attemptId)) {
+            TestAttemptRequest.ResponseData data = new TestAttemptRequest.ResponseData();
+            data.setQuestionId(response.getQuestion().getId());
+            data.setResponseText(response.getResponseText());
+            data.setAudioHash(response.getAudioHash());
+            data.setAudioDuration(response.getAudioDurationSeconds());
+            data.setAudioFileType(response.getAudioFileType());
+            data.setAudioFileSize(response.getAudioFileSize());
+            data.setAudioMimeType(response.getAudioMimeType());
+            answers.put(data.getQuestionId(), data);
+        }
+        synchronized (draft) {
+            answers.putAll(draft.pending);
+        }
+        return new ArrayList<>(answers.values());
+    }
+
+    /**
+     * Ghi hết bộ đệm của bài làm và không nhận autosave nữa - gọi trước khi chấm bài (ngoài transaction chấm bài,
+     * để transaction đó đọc được các dòng vừa ghi)
+     */
+    public void close(Integer attemptId) {
+        AttemptDraft draft = drafts.get(attemptId);
+        if (draft == null) {
+            return;
+        }
+        synchronized (draft) {
+            if (draft.evicted) {
+                close(attemptId); // draft cũ đã trống và bị bỏ - đóng draft mới (nếu có)
+                return;
+            }
+            draft.closed = true;
+        }
+        try {
+            flush(draft);
+        } catch (RuntimeException e) {
+            synchronized (draft) {
+                draft.closed = false; // ghi lỗi - mở lại để autosave và nộp bài thử lại được
+            }
+            throw e;
+        }
+        drafts.remove(attemptId, draft);
+    }
+
+    @Scheduled(fixedDelayString = "${app.autosave.flush-interval-ms:5000}", initialDelay = 5000)
+    public void flushAll() {
+        long idleCutoff = System.currentTimeMillis() - idleMinutes * 60_000;
+        for (AttemptDraft draft : drafts.values()) {
+            try {
+                flush(draft);
+                if (draft.lastTouched < idleCutoff) {
+                    synchronized (draft) {
+                        if (draft.pending.isEmpty() && draft.lastTouched < idleCutoff) {
+                            draft.evicted = true; // buffer() đang chờ monitor sẽ lấy draft mới
+                            drafts.remove(draft.attemptId, draft); // bài làm bị bỏ dở - lần sau sẽ nạp lại
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("❌ Error flushing autosave for attempt " + draft.attemptId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tắt server bình thường thì ghi nốt bộ đệm
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        System.out.println("🔄 Flushing " + bufferedAnswers.get() + " autosaved answer(s) before shutdown");
+        flushAll();
+    }
+
+    private AttemptDraft getDraft(Integer attemptId, Integer userId) {
+        AttemptDraft draft = drafts.get(attemptId);
+        if (draft == null) {
+            TestAttempt attempt = testAttemptRepository.findById(attemptId)
+                    .orElseThrow(() -> new IllegalArgumentException("Attempt not found with ID: " + attemptId));
+            if (Boolean.TRUE.equals(attempt.getIsCompleted())) {
+                throw new IllegalStateException("Attempt " + attemptId + " has already been submitted");
+            }
+            Set<Integer> questionIds = new HashSet<>(questionRepository.findQuestionIdsByTestId(attempt.getTest().getId()));
+            draft = drafts.computeIfAbsent(attemptId,
+                    id -> new AttemptDraft(id, attempt.getStudent().getId(), questionIds));
+        }
+        if (!draft.userId.equals(userId)) {
+            throw new SecurityException("Attempt " + attemptId + " does not belong to user " + userId);
+        }
+        return draft;
+    }
+
+    private void flush(AttemptDraft draft) {
+        draft.flushLock.lock();
+        try {
+            Map<Integer, TestAttemptRequest.ResponseData> batch;
+            synchronized (draft) {
+                if (draft.pending.isEmpty()) {
+                    return;
+                }
+                batch = draft.pending;
+                draft.pending = new HashMap<>();
+            }
+            bufferedAnswers.addAndGet(-batch.size());
+
+            long start = System.nanoTime();
+            try {
+                Integer written = transactionTemplate.execute(status -> write(draft, batch));
+                rowsWritten.add(written != null ? written : 0);
+                flushes.increment();
+            } catch (RuntimeException e) {
+                // Trả lô lại bộ đệm, không đè câu trả lời mới hơn đến trong lúc ghi
+                int restored = 0;
+                synchronized (draft) {
+                    for (Map.Entry<Integer, TestAttemptRequest.ResponseData> entry : batch.entrySet()) {
+                        if (draft.pending.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                            restored++;
+                        }
+                    }
+                }
+                bufferedAnswers.addAndGet(restored);
+                failedFlushes.increment();
+                throw e;
+            } finally {
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                totalFlushMillis.addAndGet(millis);
+                maxFlushMillis.accumulateAndGet(millis, Math::max);
+            }
+        } finally {
+            draft.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Ghi một lô: cập nhật dòng nháp đã có, thêm dòng mới bằng một saveAll (batch insert)
+     */
+    private int write(AttemptDraft draft, Map<Integer, TestAttemptRequest.ResponseData> batch) {
+        if (!Boolean.FALSE.equals(testAttemptRepository.findIsCompletedById(draft.attemptId))) {
+            System.out.println("⚠️ Dropping " + batch.size() + " autosaved answer(s) for closed attempt " + draft.attemptId);
+            return 0;
+        }
+
+        Map<Integer, StudentResponse> existing = new HashMap<>();
+        for (StudentResponse response : studentResponseRepository.findWithQuestionByAttemptId(draft.attemptId)) {
+            existing.put(response.getQuestion().getId(), response);
+        }
+
+        List<StudentResponse> changed = new ArrayList<>();
+        for (TestAttemptRequest.ResponseData answer : batch.values()) {
+            StudentResponse response = existing.get(answer.getQuestionId());
+            if (response == null) {
+                response = new StudentResponse();
+                response.setAttempt(testAttemptRepository.getReferenceById(draft.attemptId));
+                response.setStudent(userRepository.getReferenceById(draft.userId));
+                response.setQuestion(questionRepository.getReferenceById(answer.getQuestionId()));
+            }
+            try {
+                apply(response, answer, draft.userId);
+            } catch (RuntimeException e) {
+                // Bỏ riêng câu này (vd. upload vừa bị xoá) - các câu khác của lô vẫn được ghi
+                answersRejected.increment();
+                System.err.println("⚠️ Dropping autosaved answer for question " + answer.getQuestionId() +
+                        " of attempt " + draft.attemptId + ": " + e.getMessage());
+                continue;
+            }
+            changed.add(response);
+        }
+
+        studentResponseRepository.saveAll(changed);
+        return changed.size();
+    }
+
+    /**
+     * Kiểm tra trước khi sửa entity: lỗi ở đây không để lại thay đổi dở dang trên dòng đã có
+     */
+    private void apply(StudentResponse response, TestAttemptRequest.ResponseData answer, Integer userId) {
+        if (answer.hasAudioUpload()) {
+            audioUploadService.attachToResponse(response, answer.getAudioUploadId(), userId, answer.getAudioDuration());
+            response.setResponseText(null);
+        } else if (answer.hasStoredAudio()) {
+            if (!audioStorageService.isOwnedBy(answer.getAudioHash(), userId)) {
+                throw new SecurityException("Audio " + answer.getAudioHash() + " does not belong to current user");
+            }
+            response.setAudioHash(answer.getAudioHash());
+            response.setAudioBase64(null);
+            response.setAudioDurationSeconds(answer.getAudioDuration());
+            response.setAudioFileType(answer.getAudioFileType());
+            response.setAudioFileSize(answer.getAudioFileSize());
+            response.setAudioMimeType(answer.getAudioMimeType());
+            response.setResponseType(ResponseType.AUDIO);
+            response.setResponseText(null);
+        } else {
+            response.setResponseText(answer.getResponseText());
+            response.setResponseType(ResponseType.TEXT);
+            response.setAudioHash(null);
+            response.setAudioBase64(null);
+        }
+        response.setSubmittedAt(LocalDateTime.now());
+        response.setIsCorrect(null); // chấm khi nộp bài
+    }
+
+    /**
+     * Upload phải đã complete và thuộc học viên; audio theo hash phải do chính học viên tải lên
+     */
+    private void checkAudio(TestAttemptRequest.ResponseData answer, Integer userId) {
+        if (answer.hasAudioUpload()) {
+            AudioUpload upload;
+            try {
+                upload = audioUploadService.getUpload(answer.getAudioUploadId(), userId);
+            } catch (EntityNotFoundException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            if (!upload.isCompleted()) {
+                throw new IllegalArgumentException("Upload " + answer.getAudioUploadId() + " is not completed");
+            }
+        } else if (answer.hasStoredAudio() && !audioStorageService.isOwnedBy(answer.getAudioHash(), userId)) {
+            throw new SecurityException("Audio " + answer.getAudioHash() + " does not belong to current user");
+        }
+    }
+
+    /**
+     * Kích thước bộ đệm và độ trễ flush
+     */
+    public Map<String, Object> getStats() {
+        long flushCount = flushes.sum() + failedFlushes.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("bufferedAttempts", drafts.size());
+        stats.put("bufferedAnswers", bufferedAnswers.get());
+        stats.put("updatesReceived", updatesReceived.sum());
+        stats.put("updatesCoalesced", updatesCoalesced.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("failedFlushes", failedFlushes.sum());
+        stats.put("rowsWritten", rowsWritten.sum());
+        stats.put("answersRejected", answersRejected.sum());
+        stats.put("avgFlushMillis", flushCount > 0 ? totalFlushMillis.get() / flushCount : 0);
+        stats.put("maxFlushMillis", maxFlushMillis.get());
+        return stats;
+    }
+}
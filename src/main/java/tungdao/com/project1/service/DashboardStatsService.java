@@ -0,0 +1,252 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.dto.DashboardStats;
+import tungdao.com.project1.repository.FlashcardRepository;
+import tungdao.com.project1.repository.TestAttemptRepository;
+import tungdao.com.project1.repository.TestRepository;
+import tungdao.com.project1.repository.UserRepository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot số liệu dashboard admin dùng chung cho mọi người xem.
+ * Mỗi bảng chỉ một câu truy vấn tổng hợp (đếm "hôm nay" bằng khoảng [đầu ngày, đầu ngày mai) thay cho DATE(...)),
+ * làm mới định kỳ ở nền. Request gặp snapshot quá max-age vẫn nhận bản cũ trong khi bản mới được tính
+ * (stale-while-revalidate); chỉ khi quá cả cửa sổ đó mới tính lại đồng bộ.
+ */
+@Service
+public class DashboardStatsService {
+
+    private final UserRepository userRepository;
+    private final TestRepository testRepository;
+    private final FlashcardRepository flashcardRepository;
+    private final TestAttemptRepository testAttemptRepository;
+    private final ActivityTelemetryService activityTelemetryService;
+    private final ThreadPoolExecutor refreshExecutor;
+
+    @Value("${app.dashboard.max-age-seconds:30}")
+    private long maxAgeSeconds;
+
+    @Value("${app.dashboard.stale-while-revalidate-seconds:300}")
+    private long staleWhileRevalidateSeconds;
+
+    private volatile Snapshot snapshot;
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failedRefreshes = new LongAdder();
+    private final LongAdder freshHits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder blockingRefreshes = new LongAdder();
+    private final AtomicLong totalRefreshMillis = new AtomicLong();
+    private final AtomicLong maxRefreshMillis = new AtomicLong();
+    private volatile long lastRefreshMillis;
+
+    public DashboardStatsService(UserRepository userRepository,
+                                 TestRepository testRepository,
+                                 FlashcardRepository flashcardRepository,
+                                 TestAttemptRepository testAttemptRepository,
+                                 ActivityTelemetryService activityTelemetryService,
+                                 @Qualifier("dashboardRefreshExecutor") ThreadPoolExecutor refreshExecutor) {
+        this.userRepository = userRepository;
+        this.testRepository = testRepository;
+        this.flashcardRepository = flashcardRepository;
+        this.testAttemptRepository = testAttemptRepository;
+        this.activityTelemetryService = activityTelemetryService;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public DashboardStats getStats() {
+        long now = System.currentTimeMillis();
+        Snapshot current = snapshot;
+        long age = current == null ? Long.MAX_VALUE : now - current.computedAt;
+
+        if (age <= maxAgeSeconds * 1000) {
+            freshHits.increment();
+            return current.stats;
+        }
+        if (age <= (maxAgeSeconds + staleWhileRevalidateSeconds) * 1000) {
+            // Trả bản cũ ngay, một thread nền tính bản mới
+            staleHits.increment();
+            if (revalidating.compareAndSet(false, true)) {
+                refreshExecutor.execute(() -> {
+                    try {
+                        refreshNow(System.currentTimeMillis());
+                    } catch (Exception e) {
+                        System.err.println("❌ Error revalidating dashboard stats: " + e.getMessage());
+                    } finally {
+                        revalidating.set(false);
+                    }
+                });
+            }
+            return current.stats;
+        }
+
+        // Chưa có snapshot hoặc đã quá cũ: tính đồng bộ (các request đồng thời chờ chung một lần tính)
+        blockingRefreshes.increment();
+        try {
+            return refreshNow(now).stats;
+        } catch (RuntimeException e) {
+            if (current != null) {
+                System.err.println("⚠️ Dashboard refresh failed, serving snapshot from "
+                        + (age / 1000) + "s ago: " + e.getMessage());
+                return current.stats;
+            }
+            throw e;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.dashboard.refresh-interval-ms:30000}", initialDelay = 5000)
+    public void refreshSnapshot() {
+        try {
+            refreshNow(System.currentTimeMillis());
+        } catch (Exception e) {
+            System.err.println("❌ Error refreshing dashboard stats: " + e.getMessage());
+        }
+    }
+
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public long getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    private Snapshot refreshNow(long requestedAt) {
+        synchronized (refreshLock) {
+            Snapshot current = snapshot;
+            if (current != null && current.computedAt >= requestedAt) {
+                return current; // request khác vừa tính xong trong lúc chờ khoá
+            }
+
+            long startedAt = System.currentTimeMillis();
+            long start = System.nanoTime();
+            try {
+                DashboardStats stats = computeStats();
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                refreshes.increment();
+                lastRefreshMillis = elapsed;
+                totalRefreshMillis.addAndGet(elapsed);
+                maxRefreshMillis.accumulateAndGet(elapsed, Math::max);
+
+                snapshot = new Snapshot(stats, startedAt);
+                return snapshot;
+            } catch (RuntimeException e) {
+                failedRefreshes.increment();
+                throw e;
+            }
+        }
+    }
+
+    private DashboardStats computeStats() {
+        LocalDateTime todayStart = LocalDate.now().atStartOfDay();
+        LocalDateTime tomorrowStart = todayStart.plusDays(1);
+
+        // ✅ Một câu tổng hợp cho mỗi bảng; số tạo hôm nay đếm riêng theo khoảng created_at để dùng index
+        Object[] users = userRepository.getDashboardCounts().get(0);
+        Object[] tests = testRepository.getDashboardCounts().get(0);
+
+        long totalUsers = toLong(users[0]);
+        long activeUsers = toLong(users[1]);
+        long todayUsers = userRepository.countCreatedBetween(todayStart, tomorrowStart);
+        long totalTests = toLong(tests[0]);
+        long todayTests = testRepository.countCreatedBetween(todayStart, tomorrowStart);
+        long totalFlashcards = flashcardRepository.count();
+        long todayFlashcards = flashcardRepository.countActiveCreatedBetween(todayStart, tomorrowStart);
+
+        DashboardStats stats = new DashboardStats();
+        stats.setTotalUsers(totalUsers);
+        stats.setTotalTests(totalTests);
+        stats.setTotalFlashcards(totalFlashcards);
+        stats.setActiveUsers(activeUsers);
+        stats.setPublishedTests(toLong(tests[1]));
+        stats.setDraftTests(toLong(tests[2]));
+        stats.setTotalTestAttempts(testAttemptRepository.count());
+
+        stats.setUserGrowthRate(calculateRealGrowthRate(todayUsers, totalUsers));
+        stats.setTestGrowthRate(calculateRealGrowthRate(todayTests, totalTests));
+        stats.setFlashcardGrowthRate(calculateRealGrowthRate(todayFlashcards, totalFlashcards));
+        stats.setActiveUserGrowthRate(calculateActiveUserGrowthRate(activeUsers, totalUsers));
+
+        // ✅ Số đo thật từ AuthTokenFilter thay cho ước lượng theo giờ trong ngày
+        stats.setTodayVisits(activityTelemetryService.getTodayRequests());
+        stats.setOnlineUsers(activityTelemetryService.getOnlineUsers());
+        return stats;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Snapshot current = snapshot;
+        long count = refreshes.sum();
+
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("snapshotAgeMs", current == null ? null : System.currentTimeMillis() - current.computedAt);
+        metrics.put("maxAgeSeconds", maxAgeSeconds);
+        metrics.put("staleWhileRevalidateSeconds", staleWhileRevalidateSeconds);
+        metrics.put("refreshes", count);
+        metrics.put("failedRefreshes", failedRefreshes.sum());
+        metrics.put("lastRefreshMs", lastRefreshMillis);
+        metrics.put("avgRefreshMs", count == 0 ? 0 : totalRefreshMillis.get() / count);
+        metrics.put("maxRefreshMs", maxRefreshMillis.get());
+        metrics.put("freshHits", freshHits.sum());
+        metrics.put("staleHits", staleHits.sum());
+        metrics.put("blockingRefreshes", blockingRefreshes.sum());
+        return metrics;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    /**
+     * ✅ Calculate real growth rate based on today's activity vs total
+     */
+    private double calculateRealGrowthRate(long todayCount, long totalCount) {
+        if (totalCount == 0) return 0.0;
+
+        // Calculate daily growth percentage
+        double dailyGrowthPercentage = (double) todayCount / Math.max(totalCount - todayCount, 1) * 100;
+
+        // Cap at reasonable values
+        return Math.min(dailyGrowthPercentage, 20.0);
+    }
+
+    /**
+     * ✅ Calculate active user growth rate based on ratio
+     */
+    private double calculateActiveUserGrowthRate(long activeUsers, long totalUsers) {
+        if (totalUsers == 0) return 0.0;
+
+        double activePercentage = (double) activeUsers / totalUsers;
+
+        // Convert active percentage to growth rate indicator
+        if (activePercentage > 0.9) return 8.5;      // Very high engagement
+        else if (activePercentage > 0.8) return 6.2; // High engagement
+        else if (activePercentage > 0.7) return 4.8; // Good engagement
+        else if (activePercentage > 0.6) return 3.1; // Moderate engagement
+        else if (activePercentage > 0.5) return 1.9; // Low engagement
+        else return 0.8;                            // Very low engagement
+    }
+
+    private static final class Snapshot {
+        private final DashboardStats stats;
+        private final long computedAt;
+
+        Snapshot(DashboardStats stats, long computedAt) {
+            this.stats = stats;
+            this.computedAt = computedAt;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tungdao.com.project1.dto.GradingQueueItemDTO;
+import tungdao.com.project1.entity.GradingQueueItem;
+import tungdao.com.project1.entity.GradingStatus;
+import tungdao.com.project1.entity.TestAttempt;
+import tungdao.com.project1.entity.TestType;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.entity.UserRole;
+import tungdao.com.project1.repository.GradingQueueRepository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hàng đợi chấm tay cho bài Writing/Speaking.
+ * Bài được thêm khi nộp (cùng transaction với TestAttempt), đọc theo trang bằng con trỏ queue_id,
+ * và được giáo viên nhận với lease có hạn - hết hạn thì bài tự quay lại hàng đợi.
+ */
+@Service
+public class GradingQueueService {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final GradingQueueRepository gradingQueueRepository;
+
+    @Value("${app.grading-queue.lease-minutes:15}")
+    private long leaseMinutes;
+
+    @Value("${app.grading-queue.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder claimConflicts = new LongAdder();
+    private final LongAdder expiredLeases = new LongAdder();
+
+    public GradingQueueService(GradingQueueRepository gradingQueueRepository) {
+        this.gradingQueueRepository = gradingQueueRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        try {
+            int added = gradingQueueRepository.backfillPending(now());
+            if (added > 0) {
+                System.out.println("✅ Added " + added + " ungraded attempt(s) to the grading queue");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not backfill grading queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Thêm bài làm vừa nộp vào hàng đợi nếu cần chấm tay. Gọi sau khi TestAttempt đã có ID.
+     */
+    public void enqueue(TestAttempt attempt) {
+        if (attempt == null || attempt.getId() == null || attempt.getTest() == null) {
+            return;
+        }
+        TestType testType = attempt.getTest().getTestType();
+        if (testType != TestType.WRITING && testType != TestType.SPEAKING) {
+            return;
+        }
+        if (attempt.getGradingStatus() == GradingStatus.COMPLETED) {
+            return;
+        }
+
+        Integer creatorId = attempt.getTest().getCreator() != null ? attempt.getTest().getCreator().getId() : null;
+        LocalDateTime submittedAt = attempt.getEndTime() != null ? attempt.getEndTime() : now();
+        gradingQueueRepository.insertIfAbsent(attempt.getId(), attempt.getTest().getId(), creatorId,
+                attempt.getStudent().getId(), testType.name(), submittedAt, now());
+    }
+
+    /**
+     * Một trang hàng đợi. mine = true: các bài người này đang giữ.
+     */
+    public Map<String, Object> getQueue(User grader, Integer testId, Long after, Integer size, boolean mine) {
+        int pageSize = size == null ? 20 : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        long afterId = after == null ? 0L : after;
+
+        List<GradingQueueItemDTO> items;
+        if (mine) {
+            items = gradingQueueRepository.findClaimedPage(grader.getId(), afterId, PageRequest.of(0, pageSize));
+        } else {
+            Integer creatorId = grader.getRole() == UserRole.ADMIN ? null : grader.getId();
+            PageRequest pageRequest = PageRequest.of(0, pageSize);
+            if (testId != null) {
+                items = gradingQueueRepository.findPendingPageByTest(testId, creatorId, afterId, pageRequest);
+            } else if (creatorId != null) {
+                items = gradingQueueRepository.findPendingPageByCreator(creatorId, afterId, pageRequest);
+            } else {
+                items = gradingQueueRepository.findPendingPage(afterId, pageRequest);
+            }
+        }
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("items", items);
+        page.put("size", pageSize);
+        page.put("nextCursor", items.size() == pageSize ? items.get(items.size() - 1).getQueueId() : null);
+        return page;
+    }
+
+    /**
+     * Nhận (hoặc gia hạn) lease chấm một bài
+     */
+    public Map<String, Object> claim(User grader, Integer attemptId) {
+        GradingQueueItem item = gradingQueueRepository.findByAttemptId(attemptId)
+                .orElseThrow(() -> new IllegalArgumentException("Attempt " + attemptId + " is not waiting for grading"));
+        if (grader.getRole() != UserRole.ADMIN && !grader.getId().equals(item.getCreatorId())) {
+            throw new SecurityException("Access denied for attempt: " + attemptId);
+        }
+
+        LocalDateTime now = now();
+        LocalDateTime leaseExpiresAt = now.plusMinutes(leaseMinutes);
+        if (gradingQueueRepository.claim(attemptId, grader.getId(), now, leaseExpiresAt) == 0) {
+            claimConflicts.increment();
+            throw new IllegalStateException("Attempt " + attemptId + " is being graded by another teacher");
+        }
+        claims.increment();
+
+        Map<String, Object> lease = new HashMap<>();
+        lease.put("attemptId", attemptId);
+        lease.put("claimedBy", grader.getId());
+        lease.put("leaseExpiresAt", leaseExpiresAt);
+        return lease;
+    }
+
+    public boolean release(User grader, Integer attemptId) {
+        return gradingQueueRepository.release(attemptId, grader.getId()) > 0;
+    }
+
+    /**
+     * Không cho chấm bài đang được người khác giữ lease
+     */
+    public void assertNotLeasedByOthers(Collection<Integer> attemptIds, Integer graderId) {
+        List<Integer> leased = gradingQueueRepository.findLeasedByOthers(attemptIds, graderId, now());
+        if (!leased.isEmpty()) {
+            claimConflicts.increment();
+            throw new IllegalStateException("Attempts being graded by another teacher: " + leased);
+        }
+    }
+
+    /**
+     * Bỏ các bài đã chấm khỏi hàng đợi - chạy trong transaction chấm điểm
+     */
+    public void markGraded(Collection<Integer> attemptIds) {
+        if (!attemptIds.isEmpty()) {
+            gradingQueueRepository.deleteByAttemptIdIn(attemptIds);
+        }
+    }
+
+    /**
+     * Số bài chờ chấm theo đề: một câu GROUP BY trên hàng đợi
+     */
+    public Map<Integer, Long> countPendingByTest(User grader) {
+        Integer creatorId = grader.getRole() == UserRole.ADMIN ? null : grader.getId();
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Object[] row : gradingQueueRepository.countByTest(creatorId)) {
+            counts.put((Integer) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    /**
+     * Số bài chờ chấm của một nhóm đề (trang danh sách đề của giáo viên)
+     */
+    public Map<Integer, Long> countPendingByTestIds(Collection<Integer> testIds) {
+        Map<Integer, Long> counts = new HashMap<>();
+        if (testIds.isEmpty()) {
+            return counts;
+        }
+        for (Object[] row : gradingQueueRepository.countByTestIdIn(testIds)) {
+            counts.put((Integer) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    @Scheduled(fixedDelayString = "${app.grading-queue.lease-check-interval-ms:30000}", initialDelay = 30000)
+    public void releaseExpiredLeases() {
+        try {
+            int released = gradingQueueRepository.releaseExpired(now());
+            if (released > 0) {
+                expiredLeases.add(released);
+                System.out.println("🔄 Released " + released + " expired grading lease(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error releasing grading leases: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queuedAttempts", gradingQueueRepository.count());
+        stats.put("claimedAttempts", gradingQueueRepository.countClaimed());
+        stats.put("leaseMinutes", leaseMinutes);
+        stats.put("claimsSinceStartup", claims.sum());
+        stats.put("claimConflictsSinceStartup", claimConflicts.sum());
+        stats.put("expiredLeasesSinceStartup", expiredLeases.sum());
+        return stats;
+    }
+
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+}
@@ -1,25 +1,37 @@
 package tungdao.com.project1.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import tungdao.com.project1.dto.GradingRequest;
+import tungdao.com.project1.entity.GradingStatus;
 import tungdao.com.project1.entity.SpeakingWritingCriteriaScore;
 import tungdao.com.project1.entity.StudentResponse;
 import tungdao.com.project1.entity.TestAttempt;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.entity.UserRole;
 import tungdao.com.project1.repository.SpeakingWritingCriteriaScoreRepository;
 import tungdao.com.project1.repository.StudentResponseRepository;
 import tungdao.com.project1.repository.TestAttemptRepository;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class GradingService {
+    private static final BigDecimal MAX_BAND = BigDecimal.valueOf(9);
+    private static final BigDecimal PASS_BAND = BigDecimal.valueOf(5.0);
+
     @Autowired
     private SpeakingWritingCriteriaScoreRepository criteriaScoreRepository;
 
@@ -29,119 +41,225 @@ public class GradingService {
     @Autowired
     private TestAttemptRepository testAttemptRepository;
 
+    @Autowired
+    private GradingQueueService gradingQueueService;
+
+    @Autowired
+    private TestStatsService testStatsService;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
+
+    @Value("${app.grading.bulk-max-attempts:200}")
+    private int bulkMaxAttempts;
+
     @Transactional
     public Map<String, Object> saveCriteriaGrading(GradingRequest request) {
-        System.out.println("=== SAVING CRITERIA GRADING ===");
-        System.out.println("Attempt ID: " + request.getAttemptId());
-        System.out.println("Overall Score: " + request.getOverallScore());
-        System.out.println("Test Type: " + request.getTestType());
+        Map<String, Object> bulkResult = saveBulkCriteriaGrading(List.of(request), null);
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> results = (List<Map<String, Object>>) bulkResult.get("results");
+        if (results.isEmpty()) {
+            throw new RuntimeException("No responses found for attempt: " + request.getAttemptId());
+        }
 
-        // 1. Get test attempt
-        TestAttempt attempt = testAttemptRepository.findById(request.getAttemptId())
-                .orElseThrow(() -> new RuntimeException("Test attempt not found: " + request.getAttemptId()));
+        Map<String, Object> result = new HashMap<>(results.get(0));
+        result.put("success", true);
+        result.put("message", "Criteria grading saved successfully");
+        return result;
+    }
 
-        // 2. Get all responses for this attempt
-        List<StudentResponse> responses = studentResponseRepository.findByAttemptId(request.getAttemptId());
+    /**
+     * Chấm điểm theo tiêu chí cho nhiều bài làm trong một transaction.
+     * Bài làm, câu trả lời và điểm tiêu chí đã có đều được nạp bằng truy vấn IN (mỗi loại một lần),
+     * sau đó ghi lại bằng saveAll để Hibernate gom thành batch JDBC - chấm cả lớp chỉ tốn vài round trip.
+     * grader = null: gọi nội bộ, bỏ qua kiểm tra quyền.
+     */
+    @Transactional
+    public Map<String, Object> saveBulkCriteriaGrading(List<GradingRequest> grades, User grader) {
+        System.out.println("=== SAVING BULK CRITERIA GRADING ===");
 
-        if (responses.isEmpty()) {
-            throw new RuntimeException("No responses found for attempt: " + request.getAttemptId());
+        if (grades == null || grades.isEmpty()) {
+            throw new IllegalArgumentException("No grades provided");
+        }
+        if (grades.size() > bulkMaxAttempts) {
+            throw new IllegalArgumentException("Too many attempts in one request (max " + bulkMaxAttempts + ")");
+        }
+
+        Map<Integer, GradingRequest> gradesByAttempt = new LinkedHashMap<>();
+        for (GradingRequest request : grades) {
+            validateRequest(request);
+            if (gradesByAttempt.put(request.getAttemptId(), request) != null) {
+                throw new IllegalArgumentException("Attempt " + request.getAttemptId() + " is graded twice in this request");
+            }
+        }
+        System.out.println("Attempts to grade: " + gradesByAttempt.size());
+
+        // 1. Bài làm (kèm đề + người tạo) - một truy vấn
+        Map<Integer, TestAttempt> attempts = testAttemptRepository.findWithTestByIdIn(gradesByAttempt.keySet())
+                .stream()
+                .collect(Collectors.toMap(TestAttempt::getId, Function.identity()));
+
+        boolean isAdmin = grader != null && grader.getRole() == UserRole.ADMIN;
+        for (Integer attemptId : gradesByAttempt.keySet()) {
+            TestAttempt attempt = attempts.get(attemptId);
+            if (attempt == null) {
+                throw new IllegalArgumentException("Test attempt not found: " + attemptId);
+            }
+            if (grader != null && !isAdmin && !isCreator(attempt, grader)) {
+                throw new SecurityException("Access denied for attempt: " + attemptId);
+            }
+        }
+
+        // Bài đang được giáo viên khác giữ lease trong hàng đợi chấm thì không ghi đè
+        if (grader != null) {
+            gradingQueueService.assertNotLeasedByOthers(gradesByAttempt.keySet(), grader.getId());
         }
 
-        System.out.println("Found " + responses.size() + " responses to grade");
+        // 2. Câu trả lời của tất cả bài làm - một truy vấn
+        Map<Integer, List<StudentResponse>> responsesByAttempt = studentResponseRepository
+                .findByAttemptIdIn(gradesByAttempt.keySet())
+                .stream()
+                .collect(Collectors.groupingBy(r -> r.getAttempt().getId()));
+
+        // 3. Điểm tiêu chí đã có - một truy vấn thay cho findByResponse từng câu
+        List<Integer> responseIds = responsesByAttempt.values().stream()
+                .flatMap(List::stream)
+                .map(StudentResponse::getId)
+                .collect(Collectors.toList());
+        Map<Integer, SpeakingWritingCriteriaScore> existingScores = responseIds.isEmpty()
+                ? Map.of()
+                : criteriaScoreRepository.findByResponseIdIn(responseIds).stream()
+                        .collect(Collectors.toMap(cs -> cs.getResponse().getId(), Function.identity(), (a, b) -> a));
 
-        int savedCount = 0;
+        LocalDateTime now = LocalDateTime.now();
+        List<SpeakingWritingCriteriaScore> criteriaToSave = new ArrayList<>();
+        List<StudentResponse> responsesToSave = new ArrayList<>();
+        List<TestAttempt> attemptsToSave = new ArrayList<>();
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<Integer> skippedAttemptIds = new ArrayList<>();
 
-        // 3. Save criteria scores for each response
-        for (StudentResponse response : responses) {
-            try {
-                // Check if criteria score already exists
-                Optional<SpeakingWritingCriteriaScore> existingScore =
-                        criteriaScoreRepository.findByResponse(response);
+        // 4. Áp điểm trong bộ nhớ, một lượt qua mỗi bài làm
+        for (Map.Entry<Integer, GradingRequest> entry : gradesByAttempt.entrySet()) {
+            GradingRequest request = entry.getValue();
+            List<StudentResponse> responses = responsesByAttempt.getOrDefault(entry.getKey(), List.of());
+
+            if (responses.isEmpty()) {
+                System.out.println("⚠️ No responses found for attempt: " + entry.getKey());
+                skippedAttemptIds.add(entry.getKey());
+                continue;
+            }
 
-                SpeakingWritingCriteriaScore criteriaScore;
-                if (existingScore.isPresent()) {
-                    criteriaScore = existingScore.get();
-                    System.out.println("Updating existing criteria score for response: " + response.getId());
-                } else {
+            for (StudentResponse response : responses) {
+                SpeakingWritingCriteriaScore criteriaScore = existingScores.get(response.getId());
+                if (criteriaScore == null) {
                     criteriaScore = new SpeakingWritingCriteriaScore();
                     criteriaScore.setResponse(response);
-                    System.out.println("Creating new criteria score for response: " + response.getId());
                 }
-
-                // Map criteria scores based on test type
-                GradingRequest.CriteriaScores criteria = request.getCriteriaScores();
-
-                if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
-                    // For speaking: map to speaking fields
-                    criteriaScore.setFluencyPronunciation(criteria.getFluency());
-                    criteriaScore.setLexicalResource(criteria.getLexical());
-                    criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
-                    // pronunciation score can be separate or same as fluency
-                    if (criteria.getPronunciation() != null) {
-                        criteriaScore.setFluencyPronunciation(
-                                averageScores(criteria.getFluency(), criteria.getPronunciation())
-                        );
-                    }
-                } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
-                    // For writing: map to writing fields
-                    criteriaScore.setTaskAchievement(criteria.getTask_achievement());
-                    criteriaScore.setCoherenceCohesion(criteria.getCoherence());
-                    criteriaScore.setLexicalResource(criteria.getLexical());
-                    criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
-                }
-
+                applyCriteria(criteriaScore, request);
                 criteriaScore.setMarkerComments(request.getFeedback());
-                criteriaScore.setGradedAt(LocalDateTime.now());
+                criteriaScore.setGradedAt(now);
+                criteriaToSave.add(criteriaScore);
 
-                // Save criteria score
-                criteriaScoreRepository.save(criteriaScore);
-
-                // Update response with overall score
                 response.setManualScore(request.getOverallScore());
                 response.setFeedback(request.getFeedback());
-                response.setFeedbackGivenAt(LocalDateTime.now());
-
-                studentResponseRepository.save(response);
-
-                savedCount++;
-                System.out.println("✅ Saved criteria score for response: " + response.getId());
+                if (grader != null) {
+                    response.setGrader(grader);
+                }
+                response.setFeedbackGivenAt(now);
+                response.setIsCorrect(request.getOverallScore().compareTo(PASS_BAND) >= 0);
+                responsesToSave.add(response);
+            }
 
-            } catch (Exception e) {
-                System.err.println("❌ Error saving criteria for response " + response.getId() + ": " + e.getMessage());
-                // Continue with other responses
+            TestAttempt attempt = attempts.get(entry.getKey());
+            attempt.setGradingStatus(GradingStatus.COMPLETED);
+            if (grader != null) {
+                attempt.setGrader(grader);
+            }
+            attempt.setGradedAt(now);
+            attempt.setOverallScore(request.getOverallScore());
+            attempt.setOverallFeedback(request.getFeedback());
+            if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
+                attempt.setSpeakingScore(request.getOverallScore());
+            } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
+                attempt.setWritingScore(request.getOverallScore());
             }
+            attemptsToSave.add(attempt);
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("attemptId", entry.getKey());
+            result.put("overallScore", request.getOverallScore());
+            result.put("savedResponses", responses.size());
+            result.put("totalResponses", responses.size());
+            results.add(result);
         }
 
-        // 4. Update test attempt overall score
-        attempt.setTotalScore(request.getOverallScore());
+        // 5. Ghi batch: INSERT điểm tiêu chí mới (table generator) + UPDATE theo thứ tự (order_updates)
+        criteriaScoreRepository.saveAll(criteriaToSave);
+        studentResponseRepository.saveAll(responsesToSave);
+        testAttemptRepository.saveAll(attemptsToSave);
+        gradingQueueService.markGraded(attemptsToSave.stream().map(TestAttempt::getId).collect(Collectors.toList()));
+        Set<Integer> testIds = attemptsToSave.stream().map(a -> a.getTest().getId())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        testIds.forEach(testStatsService::markDirty);
+        attemptsToSave.forEach(leaderboardService::recordAttempt);
+        // Band của bài làm vừa có/đổi: bài đã phân tích lúc còn chờ chấm tay vẫn bị tính là chưa có điểm
+        itemAnalysisService.requestRebuild(testIds);
 
-        // Set individual skill scores based on test type
-        if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
-            attempt.setSpeakingScore(request.getOverallScore());
-        } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
-            attempt.setWritingScore(request.getOverallScore());
-        }
+        System.out.println("✅ Bulk grading completed. Attempts: " + attemptsToSave.size()
+                + ", responses: " + responsesToSave.size() + ", skipped: " + skippedAttemptIds.size());
 
-        testAttemptRepository.save(attempt);
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("success", true);
+        summary.put("message", "Criteria grading saved successfully");
+        summary.put("gradedAttempts", attemptsToSave.size());
+        summary.put("savedResponses", responsesToSave.size());
+        summary.put("skippedAttemptIds", skippedAttemptIds);
+        summary.put("results", results);
+        return summary;
+    }
 
-        System.out.println("✅ Criteria grading completed. Saved: " + savedCount + " responses");
+    private void validateRequest(GradingRequest request) {
+        if (request == null || request.getAttemptId() == null) {
+            throw new IllegalArgumentException("Attempt ID is required");
+        }
+        if (request.getOverallScore() == null) {
+            throw new IllegalArgumentException("Overall score is required for attempt: " + request.getAttemptId());
+        }
+        if (request.getCriteriaScores() == null) {
+            throw new IllegalArgumentException("Criteria scores are required for attempt: " + request.getAttemptId());
+        }
+        if (request.getOverallScore().compareTo(BigDecimal.ZERO) < 0 ||
+                request.getOverallScore().compareTo(MAX_BAND) > 0) {
+            throw new IllegalArgumentException("Score must be between 0 and 9 (attempt " + request.getAttemptId() + ")");
+        }
+    }
 
-        return Map.of(
-                "success", true,
-                "message", "Criteria grading saved successfully",
-                "attemptId", request.getAttemptId(),
-                "overallScore", request.getOverallScore(),
-                "savedResponses", savedCount,
-                "totalResponses", responses.size()
-        );
+    private boolean isCreator(TestAttempt attempt, User grader) {
+        return attempt.getTest().getCreator() != null &&
+                attempt.getTest().getCreator().getId().equals(grader.getId());
     }
 
-    // Helper method to average two scores
-    private BigDecimal averageScores(BigDecimal score1, BigDecimal score2) {
-        if (score1 == null) return score2;
-        if (score2 == null) return score1;
+    // Map criteria scores based on test type
+    private void applyCriteria(SpeakingWritingCriteriaScore criteriaScore, GradingRequest request) {
+        GradingRequest.CriteriaScores criteria = request.getCriteriaScores();
 
-        return score1.add(score2)
-                .divide(BigDecimal.valueOf(2), 1, RoundingMode.HALF_UP);
+        if ("SPEAKING".equalsIgnoreCase(request.getTestType())) {
+            criteriaScore.setFluencyPronunciation(criteria.getFluency());
+            criteriaScore.setLexicalResource(criteria.getLexical());
+            criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
+            // Pronunciation riêng được lưu vào coherenceCohesion, nếu không có thì dùng task achievement
+            criteriaScore.setCoherenceCohesion(criteria.getPronunciation() != null
+                    ? criteria.getPronunciation()
+                    : criteria.getTask_achievement());
+        } else if ("WRITING".equalsIgnoreCase(request.getTestType())) {
+            criteriaScore.setTaskAchievement(criteria.getTask_achievement());
+            criteriaScore.setCoherenceCohesion(criteria.getCoherence());
+            criteriaScore.setLexicalResource(criteria.getLexical());
+            criteriaScore.setGrammaticalAccuracy(criteria.getGrammar());
+        }
     }
 }
@@ -0,0 +1,104 @@
+package tungdao.com.project1.service;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HyperLogLog đếm xấp xỉ số phần tử khác nhau (ở đây: user ID) với bộ nhớ cố định 2^precision thanh ghi.
+ * add() không khoá: thanh ghi chỉ tăng, cập nhật bằng CAS và bỏ qua ngay khi giá trị hiện tại đã lớn hơn
+ * (trường hợp phổ biến khi cùng một user gửi nhiều request). Sai số chuẩn khoảng 1.04 / sqrt(2^precision).
+ */
+public final class HyperLogLog {
+
+    private final int precision;
+    private final int registerCount;
+    private final AtomicIntegerArray registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.registers = new AtomicIntegerArray(registerCount);
+    }
+
+    public void add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        raise(index, rank);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches with different precision");
+        }
+        for (int i = 0; i < registerCount; i++) {
+            raise(i, other.registers.get(i));
+        }
+    }
+
+    /**
+     * Gộp sketch đã lưu (toBytes) - dùng khi khôi phục số liệu trong ngày sau khi khởi động lại
+     */
+    public void merge(byte[] serialized) {
+        if (serialized == null || serialized.length != registerCount) {
+            return;
+        }
+        for (int i = 0; i < registerCount; i++) {
+            raise(i, serialized[i]);
+        }
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[registerCount];
+        for (int i = 0; i < registerCount; i++) {
+            bytes[i] = (byte) registers.get(i);
+        }
+        return bytes;
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < registerCount; i++) {
+            int register = registers.get(i);
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = switch (registerCount) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / registerCount);
+        };
+        double estimate = alpha * registerCount * registerCount / sum;
+
+        // Ít phần tử: linear counting chính xác hơn
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private void raise(int index, int rank) {
+        int current = registers.get(index);
+        while (rank > current) {
+            if (registers.compareAndSet(index, current, rank)) {
+                return;
+            }
+            current = registers.get(index);
+        }
+    }
+
+    // Trộn bit (finalizer của MurmurHash3) để ID liên tiếp rải đều trên các thanh ghi
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,218 @@
+package tungdao.com.project1.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.entity.IdempotencyRecord;
+import tungdao.com.project1.entity.IdempotencyStatus;
+import tungdao.com.project1.repository.IdempotencyRecordRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Chống nộp bài trùng theo header Idempotency-Key.
+ * Request đầu tiên giữ key (INSERT IGNORE trên unique (user, key)), chạy bình thường rồi lưu lại response;
+ * request gửi lại cùng key nhận đúng response đó mà không tạo TestAttempt/StudentResponse mới.
+ * Key hết hạn sau app.idempotency.ttl-hours và được dọn định kỳ.
+ * Key được giữ trước khi mở transaction của bài nộp và nhả sau khi transaction đó kết thúc (controller không mở
+ * transaction riêng), nên một request không bao giờ giữ hai kết nối DB cùng lúc.
+ */
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 100;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate newTransaction;
+
+    @Value("${app.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    // Request giữ key lâu hơn mức này coi như đã chết (server tắt giữa chừng) - request sau được nhận lại key
+    @Value("${app.idempotency.in-progress-timeout-minutes:10}")
+    private long inProgressTimeoutMinutes;
+
+    private final LongAdder replayedRequests = new LongAdder();
+    private final LongAdder conflictingRequests = new LongAdder();
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              ObjectMapper objectMapper,
+                              PlatformTransactionManager transactionManager) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.objectMapper = objectMapper;
+        this.transaction = new TransactionTemplate(transactionManager);
+        // Giữ/nhả key luôn commit ngay, độc lập với transaction của bài nộp
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Chạy action một lần cho mỗi (user, key) trong một transaction. Không có key thì chạy bình thường.
+     */
+    public ResponseEntity<?> execute(Integer userId, String key, Object request,
+                                     Supplier<ResponseEntity<?>> action) {
+        if (key == null || key.isBlank() || userId == null) {
+            return runInTransaction(action, null, null);
+        }
+        key = key.trim();
+        if (key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(HEADER + " không được dài quá " + MAX_KEY_LENGTH + " ký tự");
+        }
+
+        String requestHash = hash(request);
+        String finalKey = key;
+        IdempotencyRecord existing = newTransaction.execute(status -> claim(userId, finalKey, requestHash));
+
+        if (existing != null) {
+            if (!existing.getRequestHash().equals(requestHash)) {
+                conflictingRequests.increment();
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                        .body(HEADER + " đã được dùng cho một bài nộp khác");
+            }
+            if (existing.getStatus() == IdempotencyStatus.IN_PROGRESS) {
+                conflictingRequests.increment();
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .header(HttpHeaders.RETRY_AFTER, "2")
+                        .body("Bài nộp với " + HEADER + " này đang được xử lý");
+            }
+
+            replayedRequests.increment();
+            System.out.println("🔄 Replaying submission for user " + userId + " key " + key);
+            return ResponseEntity.status(existing.getResponseStatus())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header("Idempotent-Replayed", "true")
+                    .body(existing.getResponseBody());
+        }
+
+        return runInTransaction(action, userId, key);
+    }
+
+    /**
+     * Bài nộp và việc đánh dấu key COMPLETED nằm chung một transaction, nên key chỉ COMPLETED khi bài nộp đã commit.
+     * Response lỗi hoặc không lưu được response thì rollback phần đã ghi. Key được nhả sau khi transaction kết thúc
+     * (đã trả kết nối) nếu transaction không commit, nên không bao giờ bị kẹt ở IN_PROGRESS.
+     * Phải gọi ngoài transaction: commit của template ở đây là commit thật của bài nộp.
+     */
+    private ResponseEntity<?> runInTransaction(Supplier<ResponseEntity<?>> action, Integer userId, String key) {
+        boolean[] completed = {false};
+        boolean committed = false;
+        try {
+            ResponseEntity<?> result = transaction.execute(status -> {
+                ResponseEntity<?> response = action.get();
+                if (response == null || !response.getStatusCode().is2xxSuccessful()) {
+                    status.setRollbackOnly();
+                    return response;
+                }
+                if (key != null) {
+                    int updated;
+                    try {
+                        updated = idempotencyRecordRepository.complete(userId, key, response.getStatusCode().value(),
+                                objectMapper.writeValueAsString(response.getBody()), now());
+                    } catch (Exception e) {
+                        System.err.println("❌ Could not store idempotent response for key " + key + ": " + e.getMessage());
+                        updated = 0;
+                    }
+                    if (updated != 1) {
+                        // Commit mà key không COMPLETED thì lần gửi lại sẽ nộp thêm một bài - huỷ bài nộp này
+                        status.setRollbackOnly();
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                                .body("Không lưu được kết quả bài nộp, vui lòng gửi lại");
+                    }
+                    completed[0] = true;
+                }
+                return response;
+            });
+            committed = completed[0]; // commit lỗi thì execute đã ném exception
+            return result;
+        } finally {
+            if (key != null && !committed) {
+                release(userId, key); // lỗi thì cho phép gửi lại
+            }
+        }
+    }
+
+    /**
+     * Giữ key cho request này (trả về null) hoặc trả về bản ghi đang có
+     */
+    private IdempotencyRecord claim(Integer userId, String key, String requestHash) {
+        LocalDateTime now = now();
+        LocalDateTime expiresAt = now.plusHours(ttlHours);
+
+        if (idempotencyRecordRepository.insertIfAbsent(userId, key, requestHash, now, expiresAt) == 1) {
+            return null;
+        }
+
+        IdempotencyRecord existing = idempotencyRecordRepository.findByUserIdAndIdempotencyKey(userId, key).orElse(null);
+        if (existing == null) {
+            return null; // vừa bị xoá giữa hai câu lệnh - hiếm, coi như key mới
+        }
+
+        boolean expired = existing.getExpiresAt().isBefore(now);
+        boolean abandoned = existing.getStatus() == IdempotencyStatus.IN_PROGRESS
+                && existing.getUpdatedAt().isBefore(now.minusMinutes(inProgressTimeoutMinutes));
+        if ((expired || abandoned) && idempotencyRecordRepository.takeOver(existing.getId(),
+                existing.getUpdatedAt(), requestHash, now, expiresAt) == 1) {
+            return null;
+        }
+        return existing;
+    }
+
+    private void release(Integer userId, String key) {
+        try {
+            newTransaction.executeWithoutResult(status -> idempotencyRecordRepository.release(userId, key));
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not release idempotency key " + key + ": " + e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval-ms:3600000}", initialDelay = 60000)
+    public void purgeExpired() {
+        try {
+            int deleted = idempotencyRecordRepository.deleteExpired(now());
+            if (deleted > 0) {
+                System.out.println("🔄 Purged " + deleted + " expired idempotency key(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error purging idempotency keys: " + e.getMessage());
+        }
+    }
+
+    public long getReplayedCount() {
+        return replayedRequests.sum();
+    }
+
+    public long getConflictCount() {
+        return conflictingRequests.sum();
+    }
+
+    private String hash(Object request) {
+        try {
+            // Audio đã được spool vào kho (hash theo nội dung) nên JSON của request nhỏ và ổn định
+            byte[] json = objectMapper.writeValueAsString(request).getBytes(StandardCharsets.UTF_8);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (Exception e) {
+            throw new RuntimeException("Could not hash request: " + e.getMessage(), e);
+        }
+    }
+
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS); // so sánh updatedAt sau khi qua MySQL
+    }
+}
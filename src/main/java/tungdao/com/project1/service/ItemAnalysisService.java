@@ -0,0 +1,797 @@
+package tungdao.com.project1.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.entity.ItemAnalysisState;
+import tungdao.com.project1.entity.QuestionItemStats;
+import tungdao.com.project1.repository.ItemAnalysisStateRepository;
+import tungdao.com.project1.repository.QuestionItemStatsRepository;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Phân tích câu hỏi trên student_responses: độ khó (p-value), chỉ số phân biệt và thống kê đáp án sai
+ * cho từng câu khách quan, để tìm câu hỏi lỗi trong ngân hàng Reading / Listening.
+ * Câu trả lời được đọc bằng một cursor stream (không nạp cả bảng vào heap), gom thành khối mảng nguyên thuỷ
+ * rồi cộng dồn song song theo đề bằng fork-join; bộ nhớ chỉ phụ thuộc kích thước khối và số câu hỏi.
+ * Lượt chạy tăng dần chỉ đọc các bài làm hoàn thành sau mốc (end_time, attempt_id) của lượt trước.
+ */
+@Service
+public class ItemAnalysisService {
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final int LEAF_ROWS = 4096;
+    private static final int ID_BATCH = 500;
+    private static final int MAX_ANSWER_LENGTH = 100;
+    private static final String BLANK_ANSWER = "(blank)";
+    private static final String OTHER_ANSWER = "(other)";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final double TOO_HARD_BELOW = 0.2;
+    private static final double TOO_EASY_ABOVE = 0.9;
+    private static final double LOW_DISCRIMINATION_BELOW = 0.2;
+
+    // Bài viết / nói cũng có is_correct (đạt / không đạt theo band) nên phải loại theo loại câu hỏi
+    private static final String ROW_SELECT = "SELECT q.test_id, r.question_id, r.is_correct, r.response_text, " +
+            "COALESCE(a.overall_score, a.total_score) AS score, a.end_time, a.attempt_id " +
+            "FROM test_attempts a " +
+            "JOIN student_responses r ON r.attempt_id = a.attempt_id " +
+            "JOIN questions q ON q.question_id = r.question_id " +
+            "WHERE a.is_completed = TRUE AND r.is_correct IS NOT NULL " +
+            "AND q.question_type NOT IN ('ESSAY', 'WRITING_TASK1_ACADEMIC', 'WRITING_TASK1_GENERAL', 'WRITING_TASK2', " +
+            "'SPEAKING_TASK', 'SPEAKING_PART1', 'SPEAKING_PART2', 'SPEAKING_PART3')";
+
+    private static final TypeReference<List<Map<String, Object>>> DISTRACTOR_LIST = new TypeReference<>() {
+    };
+
+    private final QuestionItemStatsRepository questionItemStatsRepository;
+    private final ItemAnalysisStateRepository itemAnalysisStateRepository;
+    private final ObjectMapper objectMapper;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool pool;
+
+    @Value("${app.item-analysis.chunk-size:50000}")
+    private int chunkSize;
+
+    // Bài vừa nộp có thể chưa commit khi lượt chạy đọc tới: chỉ lấy bài kết thúc trước (now - lag)
+    @Value("${app.item-analysis.lag-minutes:10}")
+    private long lagMinutes;
+
+    @Value("${app.item-analysis.max-distractors:20}")
+    private int maxDistractors;
+
+    @Value("${app.item-analysis.min-responses:30}")
+    private long minResponses;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder failedRuns = new LongAdder();
+    private final LongAdder rowsProcessed = new LongAdder();
+    private volatile Map<String, Object> lastRun;
+
+    public ItemAnalysisService(QuestionItemStatsRepository questionItemStatsRepository,
+                               ItemAnalysisStateRepository itemAnalysisStateRepository,
+                               ObjectMapper objectMapper,
+                               DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               @Qualifier("itemAnalysisExecutor") ThreadPoolExecutor executor,
+                               @Qualifier("itemAnalysisPool") ForkJoinPool pool) {
+        this.questionItemStatsRepository = questionItemStatsRepository;
+        this.itemAnalysisStateRepository = itemAnalysisStateRepository;
+        this.objectMapper = objectMapper;
+        // MySQL Connector/J chỉ stream từng dòng (result set forward-only) khi fetch size = Integer.MIN_VALUE;
+        // JdbcTemplate riêng để không đổi hành vi của JdbcTemplate dùng chung
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * Chạy một lượt ở nền. full = true: xoá kết quả cũ và phân tích lại toàn bộ bài làm
+     */
+    public Map<String, Object> startRun(boolean full) {
+        if (running.get()) {
+            throw new IllegalStateException("Item analysis is already running");
+        }
+        try {
+            executor.execute(() -> run(full));
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Item analysis is already queued");
+        }
+        System.out.println("🔄 Item analysis queued (" + (full ? "full" : "incremental") + ")");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "QUEUED");
+        response.put("full", full);
+        return response;
+    }
+
+    @Scheduled(cron = "${app.item-analysis.cron:0 0 3 * * *}")
+    public void scheduledRun() {
+        try {
+            executor.execute(() -> run(false));
+        } catch (RejectedExecutionException e) {
+            System.out.println("⚠️ Item analysis already queued, nightly run skipped");
+        }
+    }
+
+    /**
+     * Đáp án của các đề đã đổi (chấm lại): band của bài làm đổi theo nên mọi câu của đề được tính lại từ đầu
+     */
+    public void requestRebuild(Collection<Integer> testIds) {
+        if (testIds.isEmpty()) {
+            return;
+        }
+        int marked = questionItemStatsRepository.requestRebuildByTestIds(testIds, LocalDateTime.now());
+        if (marked > 0) {
+            System.out.println("🔄 Item analysis: " + marked + " question(s) marked for rebuild");
+        }
+    }
+
+    /**
+     * Đề bị xoá hoặc tạo lại câu hỏi: bỏ kết quả phân tích cũ
+     */
+    public void forgetTest(Integer testId) {
+        questionItemStatsRepository.deleteByTestId(testId);
+    }
+
+    private void run(boolean full) {
+        if (!running.compareAndSet(false, true)) {
+            System.out.println("⚠️ Item analysis already running, skipped");
+            return;
+        }
+        LocalDateTime startedAt = LocalDateTime.now();
+        long start = System.nanoTime();
+        Map<String, Object> report = new HashMap<>();
+        report.put("full", full);
+        report.put("startedAt", startedAt);
+        try {
+            ItemAnalysisState state = itemAnalysisStateRepository.findById(ItemAnalysisState.SINGLETON_ID)
+                    .orElseGet(ItemAnalysisState::new);
+            if (full) {
+                state.setLastEndTime(null);
+                state.setLastAttemptId(null);
+            }
+            Watermark previous = new Watermark(
+                    state.getLastEndTime() != null ? state.getLastEndTime() : EPOCH,
+                    state.getLastAttemptId() != null ? state.getLastAttemptId() : 0);
+            LocalDateTime cutoff = startedAt.minusMinutes(lagMinutes);
+
+            Map<Integer, TestAccumulator> accumulators = new HashMap<>();
+            long rows = 0;
+
+            // 1. Câu cần tính lại từ đầu: đọc lại các bài làm đến mốc cũ, chỉ của những câu này
+            Set<Integer> rebuildIds = full
+                    ? Collections.emptySet()
+                    : new HashSet<>(questionItemStatsRepository.findQuestionIdsNeedingRebuild());
+            List<Integer> rebuildList = new ArrayList<>(rebuildIds);
+            for (int i = 0; i < rebuildList.size(); i += ID_BATCH) {
+                List<Integer> batch = rebuildList.subList(i, Math.min(i + ID_BATCH, rebuildList.size()));
+                List<Object> args = new ArrayList<>(batch);
+                args.add(Timestamp.valueOf(previous.endTime));
+                args.add(Timestamp.valueOf(previous.endTime));
+                args.add(previous.attemptId);
+                rows += stream(ROW_SELECT + " AND r.question_id IN (" + placeholders(batch.size()) + ")" +
+                        " AND (a.end_time < ? OR (a.end_time = ? AND a.attempt_id <= ?))",
+                        args.toArray(), accumulators, null);
+            }
+
+            // 2. Bài làm hoàn thành sau mốc, theo thứ tự (end_time, attempt_id) để mốc mới là dòng cuối cùng đọc được
+            Watermark next = new Watermark(previous.endTime, previous.attemptId);
+            rows += stream(ROW_SELECT +
+                            " AND (a.end_time > ? OR (a.end_time = ? AND a.attempt_id > ?)) AND a.end_time < ?" +
+                            " ORDER BY a.end_time ASC, a.attempt_id ASC",
+                    new Object[]{Timestamp.valueOf(previous.endTime), Timestamp.valueOf(previous.endTime),
+                            previous.attemptId, Timestamp.valueOf(cutoff)},
+                    accumulators, next);
+
+            long readMillis = (System.nanoTime() - start) / 1_000_000;
+            long totalRows = rows;
+            Integer written = transactionTemplate.execute(status ->
+                    write(accumulators, rebuildIds, full, state, next, startedAt, totalRows, readMillis));
+
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            runs.increment();
+            rowsProcessed.add(rows);
+            report.put("status", "COMPLETED");
+            report.put("rows", rows);
+            report.put("questionsUpdated", written);
+            report.put("rebuiltQuestions", rebuildIds.size());
+            report.put("watermark", next.endTime);
+            report.put("durationMs", elapsed);
+            report.put("rowsPerSecond", elapsed > 0 ? rows * 1000 / elapsed : rows);
+            System.out.println("✅ Item analysis completed: " + rows + " response(s), " + written
+                    + " question(s) updated in " + elapsed + "ms");
+        } catch (Exception e) {
+            failedRuns.increment();
+            report.put("status", "FAILED");
+            report.put("error", e.getMessage());
+            System.err.println("❌ Item analysis failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            report.put("finishedAt", LocalDateTime.now());
+            lastRun = report;
+            running.set(false);
+        }
+    }
+
+    /**
+     * Đọc stream và cộng dồn theo khối; watermark != null: ghi lại (end_time, attempt_id) của dòng cuối
+     */
+    private long stream(String sql, Object[] args, Map<Integer, TestAccumulator> accumulators, Watermark watermark) {
+        RowChunk chunk = new RowChunk(chunkSize);
+        long[] total = new long[1];
+        streamingJdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            double score = rs.getDouble(5);
+            boolean scored = !rs.wasNull();
+            boolean correct = rs.getBoolean(3);
+            chunk.add(rs.getInt(1), rs.getInt(2), correct,
+                    correct ? null : normalizeAnswer(rs.getString(4)),
+                    scored ? score : Double.NaN);
+            if (watermark != null) {
+                watermark.endTime = rs.getTimestamp(6).toLocalDateTime();
+                watermark.attemptId = rs.getInt(7);
+            }
+            if (chunk.size == chunk.capacity) {
+                total[0] += chunk.size;
+                accumulate(chunk, accumulators);
+                chunk.size = 0;
+            }
+        }, args);
+        if (chunk.size > 0) {
+            total[0] += chunk.size;
+            accumulate(chunk, accumulators);
+        }
+        return total[0];
+    }
+
+    /**
+     * Chia khối theo đề (counting sort trên chỉ số dòng) rồi cộng dồn song song:
+     * mỗi đề là một phân vùng nên accumulator của nó chỉ do một task ghi, không cần khoá
+     */
+    private void accumulate(RowChunk chunk, Map<Integer, TestAccumulator> accumulators) {
+        Map<Integer, Integer> partitionOf = new HashMap<>();
+        List<TestAccumulator> partitions = new ArrayList<>();
+        int[] rowPartition = new int[chunk.size];
+        int[] counts = new int[16];
+        for (int i = 0; i < chunk.size; i++) {
+            int testId = chunk.testIds[i];
+            Integer partition = partitionOf.get(testId);
+            if (partition == null) {
+                partition = partitions.size();
+                partitionOf.put(testId, partition);
+                partitions.add(accumulators.computeIfAbsent(testId, TestAccumulator::new));
+                if (partition == counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            rowPartition[i] = partition;
+            counts[partition]++;
+        }
+
+        int partitionCount = partitions.size();
+        int[] offsets = new int[partitionCount + 1];
+        for (int p = 0; p < partitionCount; p++) {
+            offsets[p + 1] = offsets[p] + counts[p];
+        }
+        int[] order = new int[chunk.size];
+        int[] cursor = Arrays.copyOf(offsets, partitionCount);
+        for (int i = 0; i < chunk.size; i++) {
+            order[cursor[rowPartition[i]]++] = i;
+        }
+
+        pool.invoke(new AccumulateTask(chunk, order, offsets, partitions, 0, partitionCount, maxDistractors));
+    }
+
+    /**
+     * Cộng kết quả vào question_item_stats và dời mốc - một transaction để mốc và số liệu luôn khớp nhau
+     */
+    private int write(Map<Integer, TestAccumulator> accumulators, Set<Integer> rebuildIds, boolean full,
+                      ItemAnalysisState state, Watermark next, LocalDateTime startedAt, long rows, long readMillis) {
+        if (full) {
+            questionItemStatsRepository.deleteAllStats();
+        }
+
+        Map<Integer, TestAccumulator> owners = new HashMap<>();
+        Map<Integer, Integer> slots = new HashMap<>();
+        for (TestAccumulator accumulator : accumulators.values()) {
+            for (int slot = 0; slot < accumulator.size; slot++) {
+                owners.put(accumulator.questionIds[slot], accumulator);
+                slots.put(accumulator.questionIds[slot], slot);
+            }
+        }
+        Set<Integer> questionIds = new LinkedHashSet<>(owners.keySet());
+        questionIds.addAll(rebuildIds);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Integer> ids = new ArrayList<>(questionIds);
+        int written = 0;
+        for (int i = 0; i < ids.size(); i += ID_BATCH) {
+            List<Integer> batch = ids.subList(i, Math.min(i + ID_BATCH, ids.size()));
+            Map<Integer, QuestionItemStats> existing = new HashMap<>();
+            for (QuestionItemStats stats : questionItemStatsRepository.findAllById(batch)) {
+                existing.put(stats.getQuestionId(), stats);
+            }
+
+            List<QuestionItemStats> toSave = new ArrayList<>();
+            List<QuestionItemStats> toDelete = new ArrayList<>();
+            for (Integer questionId : batch) {
+                TestAccumulator owner = owners.get(questionId);
+                QuestionItemStats stats = existing.get(questionId);
+                boolean rebuild = rebuildIds.contains(questionId);
+                if (stats == null) {
+                    if (owner == null) {
+                        continue;
+                    }
+                    stats = new QuestionItemStats();
+                    stats.setQuestionId(questionId);
+                    stats.setTestId(owner.testId);
+                } else if (rebuild) {
+                    resetCounts(stats);
+                    // Bị đánh dấu lại trong lúc lượt này đang đọc: giữ dấu để lượt sau tính lại lần nữa
+                    if (stats.getRebuildRequestedAt() != null && !stats.getRebuildRequestedAt().isAfter(startedAt)) {
+                        stats.setRebuildRequestedAt(null);
+                    }
+                }
+
+                Map<String, Tally> distractors = rebuild ? new HashMap<>() : readDistractors(stats.getDistractors());
+                if (owner != null) {
+                    owner.addTo(stats, slots.get(questionId), distractors, maxDistractors);
+                }
+                if (stats.getResponseCount() == 0) {
+                    if (existing.containsKey(questionId)) {
+                        toDelete.add(stats);
+                    }
+                    continue;
+                }
+
+                derive(stats, distractors);
+                stats.setUpdatedAt(now);
+                toSave.add(stats);
+            }
+            questionItemStatsRepository.saveAll(toSave);
+            questionItemStatsRepository.deleteAll(toDelete);
+            written += toSave.size();
+        }
+
+        state.setId(ItemAnalysisState.SINGLETON_ID);
+        if (!EPOCH.equals(next.endTime)) {
+            state.setLastEndTime(next.endTime);
+            state.setLastAttemptId(next.attemptId);
+        }
+        state.setLastRunAt(startedAt);
+        state.setLastRunRows(rows);
+        state.setLastRunMillis(readMillis);
+        itemAnalysisStateRepository.save(state);
+        return written;
+    }
+
+    private static void resetCounts(QuestionItemStats stats) {
+        stats.setResponseCount(0L);
+        stats.setCorrectCount(0L);
+        stats.setScoredCount(0L);
+        stats.setScoredCorrectCount(0L);
+        stats.setScoreSum(0.0);
+        stats.setScoreSquareSum(0.0);
+        stats.setCorrectScoreSum(0.0);
+    }
+
+    private void derive(QuestionItemStats stats, Map<String, Tally> distractors) {
+        stats.setPValue((double) stats.getCorrectCount() / stats.getResponseCount());
+        stats.setDiscrimination(pointBiserial(stats.getScoredCount(), stats.getScoredCorrectCount(),
+                stats.getScoreSum(), stats.getScoreSquareSum(), stats.getCorrectScoreSum()));
+        stats.setDistractors(writeDistractors(distractors));
+        stats.setFlags(flagsOf(stats, distractors));
+    }
+
+    /**
+     * Tương quan point-biserial giữa đúng/sai (0/1) và band của bài làm, tính từ các tổng cộng dồn được.
+     * Khác với chỉ số nhóm 27% trên / dưới, không cần xếp hạng lại mọi bài làm nên lượt chạy tăng dần vẫn đúng
+     */
+    static Double pointBiserial(long n, long correct, double sum, double squareSum, double correctSum) {
+        if (n < 2) {
+            return null;
+        }
+        double covariance = n * correctSum - correct * sum;
+        double varianceCorrect = (double) n * correct - (double) correct * correct;
+        double varianceScore = n * squareSum - sum * sum;
+        if (varianceCorrect <= 0 || varianceScore <= 1e-9) {
+            return null; // mọi người cùng đúng / cùng sai hoặc cùng band: không phân biệt được
+        }
+        return covariance / Math.sqrt(varianceCorrect * varianceScore);
+    }
+
+    private String flagsOf(QuestionItemStats stats, Map<String, Tally> distractors) {
+        if (stats.getResponseCount() < minResponses) {
+            return null;
+        }
+        List<String> flags = new ArrayList<>();
+        if (stats.getPValue() < TOO_HARD_BELOW) {
+            flags.add("TOO_HARD");
+        } else if (stats.getPValue() > TOO_EASY_ABOVE) {
+            flags.add("TOO_EASY");
+        }
+        Double discrimination = stats.getDiscrimination();
+        if (discrimination != null && discrimination < 0) {
+            flags.add("NEGATIVE_DISCRIMINATION");
+        } else if (discrimination != null && discrimination < LOW_DISCRIMINATION_BELOW) {
+            flags.add("LOW_DISCRIMINATION");
+        }
+
+        // Đáp án sai được ít nhất 5% chọn, bởi người có band trung bình cao hơn người trả lời đúng: có thể nhập sai đáp án
+        if (stats.getScoredCorrectCount() > 0) {
+            double keyMean = stats.getCorrectScoreSum() / stats.getScoredCorrectCount();
+            for (Map.Entry<String, Tally> entry : distractors.entrySet()) {
+                Tally tally = entry.getValue();
+                if (!OTHER_ANSWER.equals(entry.getKey()) && tally.scored > 0
+                        && tally.count * 20 >= stats.getResponseCount()
+                        && tally.scoreSum / tally.scored > keyMean) {
+                    flags.add("DISTRACTOR_ABOVE_KEY");
+                    break;
+                }
+            }
+        }
+        return flags.isEmpty() ? null : String.join(",", flags);
+    }
+
+    private Map<String, Tally> readDistractors(String json) {
+        Map<String, Tally> distractors = new HashMap<>();
+        if (json == null || json.isEmpty()) {
+            return distractors;
+        }
+        try {
+            for (Map<String, Object> entry : objectMapper.readValue(json, DISTRACTOR_LIST)) {
+                Tally tally = new Tally();
+                tally.count = ((Number) entry.get("count")).longValue();
+                tally.scored = ((Number) entry.get("scored")).longValue();
+                tally.scoreSum = ((Number) entry.get("scoreSum")).doubleValue();
+                distractors.put((String) entry.get("answer"), tally);
+            }
+        } catch (JsonProcessingException e) {
+            System.err.println("⚠️ Ignoring unreadable distractor stats: " + e.getMessage());
+        }
+        return distractors;
+    }
+
+    private String writeDistractors(Map<String, Tally> distractors) {
+        List<Map.Entry<String, Tally>> entries = new ArrayList<>(distractors.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<String, Tally> entry : entries) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("answer", entry.getKey());
+            item.put("count", entry.getValue().count);
+            item.put("scored", entry.getValue().scored);
+            item.put("scoreSum", entry.getValue().scoreSum);
+            list.add(item);
+        }
+        try {
+            return objectMapper.writeValueAsString(list);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize distractor stats", e);
+        }
+    }
+
+    public Map<String, Object> getTestItemAnalysis(Integer testId) {
+        List<Map<String, Object>> questions = new ArrayList<>();
+        for (Object[] row : questionItemStatsRepository.findWithQuestionByTestId(testId)) {
+            Map<String, Object> item = toView((QuestionItemStats) row[0]);
+            item.put("orderInTest", row[1]);
+            item.put("questionType", row[2]);
+            questions.add(item);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("testId", testId);
+        result.put("questions", questions);
+        result.put("analyzedUpTo", itemAnalysisStateRepository.findById(ItemAnalysisState.SINGLETON_ID)
+                .map(ItemAnalysisState::getLastEndTime).orElse(null));
+        return result;
+    }
+
+    public List<Map<String, Object>> getFlaggedItems(int limit) {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (QuestionItemStats stats : questionItemStatsRepository.findFlagged(minResponses,
+                PageRequest.of(0, Math.max(1, Math.min(limit, 500))))) {
+            items.add(toView(stats));
+        }
+        return items;
+    }
+
+    private Map<String, Object> toView(QuestionItemStats stats) {
+        long responses = stats.getResponseCount();
+        long incorrectScored = stats.getScoredCount() - stats.getScoredCorrectCount();
+
+        List<Map<String, Object>> distractors = new ArrayList<>();
+        for (Map.Entry<String, Tally> entry : readDistractors(stats.getDistractors()).entrySet()) {
+            Tally tally = entry.getValue();
+            Map<String, Object> distractor = new HashMap<>();
+            distractor.put("answer", entry.getKey());
+            distractor.put("count", tally.count);
+            distractor.put("share", round(responses > 0 ? (double) tally.count / responses : null));
+            distractor.put("meanScore", round(tally.scored > 0 ? tally.scoreSum / tally.scored : null));
+            distractors.add(distractor);
+        }
+        distractors.sort((a, b) -> Long.compare((Long) b.get("count"), (Long) a.get("count")));
+
+        Map<String, Object> view = new HashMap<>();
+        view.put("questionId", stats.getQuestionId());
+        view.put("testId", stats.getTestId());
+        view.put("responseCount", responses);
+        view.put("correctCount", stats.getCorrectCount());
+        view.put("pValue", round(stats.getPValue()));
+        view.put("discrimination", round(stats.getDiscrimination()));
+        view.put("meanScoreCorrect", round(stats.getScoredCorrectCount() > 0
+                ? stats.getCorrectScoreSum() / stats.getScoredCorrectCount() : null));
+        view.put("meanScoreIncorrect", round(incorrectScored > 0
+                ? (stats.getScoreSum() - stats.getCorrectScoreSum()) / incorrectScored : null));
+        view.put("distractors", distractors);
+        view.put("flags", stats.getFlags() == null ? List.of() : Arrays.asList(stats.getFlags().split(",")));
+        view.put("reliable", responses >= minResponses);
+        view.put("needsRebuild", stats.getRebuildRequestedAt() != null);
+        view.put("updatedAt", stats.getUpdatedAt());
+        return view;
+    }
+
+    public Map<String, Object> getStats() {
+        Object[] summary = questionItemStatsRepository.summarize().get(0);
+        ItemAnalysisState state = itemAnalysisStateRepository.findById(ItemAnalysisState.SINGLETON_ID).orElse(null);
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running.get());
+        stats.put("runs", runs.sum());
+        stats.put("failedRuns", failedRuns.sum());
+        stats.put("rowsProcessed", rowsProcessed.sum());
+        stats.put("lastRun", lastRun);
+        stats.put("watermarkEndTime", state == null ? null : state.getLastEndTime());
+        stats.put("watermarkAttemptId", state == null ? null : state.getLastAttemptId());
+        stats.put("analyzedQuestions", ((Number) summary[0]).longValue());
+        stats.put("analyzedResponses", ((Number) summary[1]).longValue());
+        stats.put("flaggedQuestions", ((Number) summary[2]).longValue());
+        stats.put("pendingRebuild", ((Number) summary[3]).longValue());
+        stats.put("chunkSize", chunkSize);
+        stats.put("parallelism", pool.getParallelism());
+        return stats;
+    }
+
+    static String normalizeAnswer(String text) {
+        if (text == null) {
+            return null;
+        }
+        String answer = WHITESPACE.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+        if (answer.isEmpty()) {
+            return BLANK_ANSWER;
+        }
+        return answer.length() > MAX_ANSWER_LENGTH ? answer.substring(0, MAX_ANSWER_LENGTH) : answer;
+    }
+
+    /**
+     * Giới hạn số đáp án sai khác nhau mỗi câu (câu điền từ có thể có hàng nghìn cách viết) - phần còn lại gộp vào "(other)"
+     */
+    private static void tally(Map<String, Tally> distractors, String answer, long count, long scored,
+                              double scoreSum, int maxDistractors) {
+        Tally tally = distractors.get(answer);
+        if (tally == null) {
+            String key = distractors.size() >= maxDistractors - 1 ? OTHER_ANSWER : answer;
+            tally = distractors.computeIfAbsent(key, k -> new Tally());
+        }
+        tally.count += count;
+        tally.scored += scored;
+        tally.scoreSum += scoreSum;
+    }
+
+    private static Double round(Double value) {
+        return value == null ? null : Math.round(value * 1000) / 1000.0;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static final class Watermark {
+        private LocalDateTime endTime;
+        private int attemptId;
+
+        Watermark(LocalDateTime endTime, int attemptId) {
+            this.endTime = endTime;
+            this.attemptId = attemptId;
+        }
+    }
+
+    private static final class Tally {
+        private long count;
+        private long scored;
+        private double scoreSum;
+    }
+
+    /**
+     * Một khối dòng đọc từ cursor, lưu theo cột bằng mảng nguyên thuỷ; score = NaN khi bài làm chưa có band
+     */
+    private static final class RowChunk {
+        private final int capacity;
+        private final int[] testIds;
+        private final int[] questionIds;
+        private final boolean[] correct;
+        private final double[] scores;
+        private final String[] answers;
+        private int size;
+
+        RowChunk(int capacity) {
+            this.capacity = capacity;
+            this.testIds = new int[capacity];
+            this.questionIds = new int[capacity];
+            this.correct = new boolean[capacity];
+            this.scores = new double[capacity];
+            this.answers = new String[capacity];
+        }
+
+        void add(int testId, int questionId, boolean isCorrect, String answer, double score) {
+            testIds[size] = testId;
+            questionIds[size] = questionId;
+            correct[size] = isCorrect;
+            answers[size] = answer;
+            scores[size] = score;
+            size++;
+        }
+    }
+
+    /**
+     * Tổng cộng dồn của các câu trong một đề, mỗi câu một slot trong các mảng nguyên thuỷ
+     */
+    private static final class TestAccumulator {
+        private final int testId;
+        private final Map<Integer, Integer> slotOf = new HashMap<>();
+        private final List<Map<String, Tally>> distractors = new ArrayList<>();
+        private int[] questionIds = new int[8];
+        private long[] responses = new long[8];
+        private long[] correct = new long[8];
+        private long[] scored = new long[8];
+        private long[] scoredCorrect = new long[8];
+        private double[] scoreSum = new double[8];
+        private double[] scoreSquareSum = new double[8];
+        private double[] correctScoreSum = new double[8];
+        private int size;
+
+        TestAccumulator(int testId) {
+            this.testId = testId;
+        }
+
+        void add(RowChunk chunk, int row, int maxDistractors) {
+            int slot = slot(chunk.questionIds[row]);
+            boolean isCorrect = chunk.correct[row];
+            double score = chunk.scores[row];
+            boolean hasScore = !Double.isNaN(score);
+
+            responses[slot]++;
+            if (isCorrect) {
+                correct[slot]++;
+            }
+            if (hasScore) {
+                scored[slot]++;
+                scoreSum[slot] += score;
+                scoreSquareSum[slot] += score * score;
+                if (isCorrect) {
+                    scoredCorrect[slot]++;
+                    correctScoreSum[slot] += score;
+                }
+            }
+            if (!isCorrect && chunk.answers[row] != null) {
+                tally(distractors.get(slot), chunk.answers[row], 1, hasScore ? 1 : 0,
+                        hasScore ? score : 0, maxDistractors);
+            }
+        }
+
+        void addTo(QuestionItemStats stats, int slot, Map<String, Tally> target, int maxDistractors) {
+            stats.setResponseCount(stats.getResponseCount() + responses[slot]);
+            stats.setCorrectCount(stats.getCorrectCount() + correct[slot]);
+            stats.setScoredCount(stats.getScoredCount() + scored[slot]);
+            stats.setScoredCorrectCount(stats.getScoredCorrectCount() + scoredCorrect[slot]);
+            stats.setScoreSum(stats.getScoreSum() + scoreSum[slot]);
+            stats.setScoreSquareSum(stats.getScoreSquareSum() + scoreSquareSum[slot]);
+            stats.setCorrectScoreSum(stats.getCorrectScoreSum() + correctScoreSum[slot]);
+            for (Map.Entry<String, Tally> entry : distractors.get(slot).entrySet()) {
+                Tally tally = entry.getValue();
+                tally(target, entry.getKey(), tally.count, tally.scored, tally.scoreSum, maxDistractors);
+            }
+        }
+
+        private int slot(int questionId) {
+            Integer slot = slotOf.get(questionId);
+            if (slot != null) {
+                return slot;
+            }
+            if (size == questionIds.length) {
+                int capacity = size * 2;
+                questionIds = Arrays.copyOf(questionIds, capacity);
+                responses = Arrays.copyOf(responses, capacity);
+                correct = Arrays.copyOf(correct, capacity);
+                scored = Arrays.copyOf(scored, capacity);
+                scoredCorrect = Arrays.copyOf(scoredCorrect, capacity);
+                scoreSum = Arrays.copyOf(scoreSum, capacity);
+                scoreSquareSum = Arrays.copyOf(scoreSquareSum, capacity);
+                correctScoreSum = Arrays.copyOf(correctScoreSum, capacity);
+            }
+            questionIds[size] = questionId;
+            distractors.add(new HashMap<>());
+            slotOf.put(questionId, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Cộng dồn một khoảng phân vùng (đề); khoảng lớn được chia đôi cho các thread khác trong pool
+     */
+    private static final class AccumulateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowChunk chunk;
+        private final int[] order;
+        private final int[] offsets;
+        private final List<TestAccumulator> partitions;
+        private final int from;
+        private final int to;
+        private final int maxDistractors;
+
+        AccumulateTask(RowChunk chunk, int[] order, int[] offsets, List<TestAccumulator> partitions,
+                       int from, int to, int maxDistractors) {
+            this.chunk = chunk;
+            this.order = order;
+            this.offsets = offsets;
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+            this.maxDistractors = maxDistractors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1 || offsets[to] - offsets[from] <= LEAF_ROWS) {
+                for (int p = from; p < to; p++) {
+                    TestAccumulator accumulator = partitions.get(p);
+                    for (int k = offsets[p]; k < offsets[p + 1]; k++) {
+                        accumulator.add(chunk, order[k], maxDistractors);
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new AccumulateTask(chunk, order, offsets, partitions, from, middle, maxDistractors),
+                    new AccumulateTask(chunk, order, offsets, partitions, middle, to, maxDistractors));
+        }
+    }
+}
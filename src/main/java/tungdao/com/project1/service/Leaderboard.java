@@ -0,0 +1,148 @@
+package tungdao.com.project1.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bảng xếp hạng trong bộ nhớ: mỗi học viên một dòng (band tốt nhất), giữ top-K có thứ tự
+ * và histogram theo band (0.0 - 9.0, bước 0.5) để trả lời "hạng của tôi" bằng 19 phép cộng thay vì quét bảng.
+ * Khoá xếp hạng gói trong một long: band cao hơn đứng trước, cùng band thì bài làm sớm hơn (attempt_id nhỏ hơn) đứng trước.
+ * Ghi dưới khoá của đối tượng; đọc top đi qua snapshot bất biến nên không khoá.
+ */
+public final class Leaderboard {
+
+    public static final int BUCKETS = 19;
+    private static final long ATTEMPT_BITS = 1L << 31;
+
+    private final int capacity;
+    private final Map<Integer, Long> best = new HashMap<>();
+    private final long[] histogram = new long[BUCKETS];
+    // Tăng dần theo khoá: firstKey là người đứng cuối top-K
+    private final TreeMap<Long, Member> top = new TreeMap<>();
+    private volatile List<Map<String, Object>> snapshot = List.of();
+
+    public Leaderboard(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Ghi nhận band của một bài làm. Trả về false khi chính bài làm đang là kết quả tốt nhất bị hạ điểm
+     * (chấm lại) - không tính tăng dần được vì top-K không giữ người đứng sau, người gọi cần dựng lại từ DB.
+     */
+    public synchronized boolean offer(int studentId, String studentName, int attemptId, double band) {
+        long key = key(band, attemptId);
+        Long current = best.get(studentId);
+        if (current != null) {
+            if (current >= key) {
+                return current == key || attemptOf(current) != attemptId;
+            }
+            histogram[bucketOf(current)]--;
+        }
+        best.put(studentId, key);
+        histogram[bucketOf(key)]++;
+
+        boolean changed = current != null && top.remove(current) != null;
+        if (top.size() < capacity || key > top.firstKey()) {
+            top.put(key, new Member(studentId, studentName, attemptId, bucketOf(key) / 2.0));
+            if (top.size() > capacity) {
+                top.pollFirstEntry();
+            }
+            changed = true;
+        }
+        if (changed) {
+            publish();
+        }
+        return true;
+    }
+
+    /**
+     * Top theo thứ tự hạng - đọc snapshot, không khoá
+     */
+    public List<Map<String, Object>> top(int limit) {
+        List<Map<String, Object>> entries = snapshot;
+        return limit >= entries.size() ? entries : entries.subList(0, Math.max(limit, 0));
+    }
+
+    /**
+     * Hạng của một học viên (đồng hạng khi cùng band) - null nếu chưa có bài làm được chấm
+     */
+    public synchronized Map<String, Object> rankOf(int studentId) {
+        Long key = best.get(studentId);
+        if (key == null) {
+            return null;
+        }
+        int bucket = bucketOf(key);
+        long higher = 0;
+        for (int b = bucket + 1; b < BUCKETS; b++) {
+            higher += histogram[b];
+        }
+        long participants = best.size();
+
+        Map<String, Object> rank = new HashMap<>();
+        rank.put("studentId", studentId);
+        rank.put("band", bucket / 2.0);
+        rank.put("rank", higher + 1);
+        rank.put("participants", participants);
+        rank.put("percentile", Math.round((participants - higher) * 1000.0 / participants) / 10.0);
+        return rank;
+    }
+
+    public synchronized int participants() {
+        return best.size();
+    }
+
+    private void publish() {
+        List<Map<String, Object>> entries = new ArrayList<>(top.size());
+        long rank = 0;
+        int previousBucket = -1;
+        int position = 0;
+        for (Member member : top.descendingMap().values()) {
+            position++;
+            int bucket = (int) Math.round(member.band * 2);
+            // Mọi người có band cao hơn một người trong top đều nằm trong top, nên hạng = vị trí người đầu tiên cùng band
+            if (bucket != previousBucket) {
+                rank = position;
+                previousBucket = bucket;
+            }
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("rank", rank);
+            entry.put("studentId", member.studentId);
+            entry.put("studentName", member.studentName);
+            entry.put("attemptId", member.attemptId);
+            entry.put("band", member.band);
+            entries.add(Collections.unmodifiableMap(entry));
+        }
+        snapshot = Collections.unmodifiableList(entries);
+    }
+
+    private static long key(double band, int attemptId) {
+        int bucket = (int) Math.max(0, Math.min(BUCKETS - 1, Math.round(band * 2)));
+        return bucket * ATTEMPT_BITS + (Integer.MAX_VALUE - attemptId);
+    }
+
+    private static int bucketOf(long key) {
+        return (int) (key / ATTEMPT_BITS);
+    }
+
+    private static int attemptOf(long key) {
+        return Integer.MAX_VALUE - (int) (key % ATTEMPT_BITS);
+    }
+
+    private static final class Member {
+        private final int studentId;
+        private final String studentName;
+        private final int attemptId;
+        private final double band;
+
+        Member(int studentId, String studentName, int attemptId, double band) {
+            this.studentId = studentId;
+            this.studentName = studentName;
+            this.attemptId = attemptId;
+            this.band = band;
+        }
+    }
+}
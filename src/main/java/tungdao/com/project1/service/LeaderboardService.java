@@ -0,0 +1,283 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tungdao.com.project1.entity.TestAttempt;
+import tungdao.com.project1.entity.TestType;
+import tungdao.com.project1.repository.TestAttemptRepository;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bảng xếp hạng theo đề và theo kỹ năng, giữ trong bộ nhớ (thay cho findHighScoringAttempts quét và sắp xếp
+ * test_attempts mỗi lần xem). Dựng lại từ DB khi khởi động; sau đó mỗi bài làm được chấm cập nhật bảng
+ * sau khi transaction commit. Thay đổi làm điểm giảm (chấm lại, xoá bài làm / đề) đánh dấu dựng lại ở nền.
+ */
+@Service
+public class LeaderboardService {
+
+    private static final TestType[] SKILLS = TestType.values();
+
+    private final TestAttemptRepository testAttemptRepository;
+
+    @Value("${app.leaderboard.size:100}")
+    private int capacity;
+
+    @Value("${app.leaderboard.rebuild-page-size:5000}")
+    private int pageSize;
+
+    private volatile Boards boards;
+    private volatile boolean rebuilding;
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    // Bài làm chấm xong trong lúc đang dựng lại - áp lại vào bảng mới sau khi đổi
+    private final ConcurrentLinkedQueue<ScoredAttempt> pendingDuringRebuild = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder failedRebuilds = new LongAdder();
+    private volatile long lastRebuildMillis;
+    private volatile long lastRebuildAttempts;
+
+    public LeaderboardService(TestAttemptRepository testAttemptRepository) {
+        this.testAttemptRepository = testAttemptRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        rebuild();
+    }
+
+    /**
+     * Gọi sau khi lưu điểm của bài làm; áp vào bảng sau khi transaction commit (rollback thì bỏ qua)
+     */
+    public void recordAttempt(TestAttempt attempt) {
+        ScoredAttempt scored = ScoredAttempt.of(attempt);
+        if (scored == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(scored);
+                }
+            });
+        } else {
+            apply(scored);
+        }
+    }
+
+    /**
+     * Điểm có thể đã giảm hoặc bài làm bị xoá: dựng lại ở lượt kiểm tra kế tiếp
+     */
+    public void requestRebuild() {
+        rebuildRequested.set(true);
+    }
+
+    private void apply(ScoredAttempt scored) {
+        if (rebuilding) {
+            pendingDuringRebuild.add(scored);
+        }
+        Boards target = boards;
+        if (target == null) {
+            return; // chưa dựng xong lần đầu - lượt dựng đọc bài làm này từ DB hoặc từ hàng đợi
+        }
+        boolean consistent = target.apply(scored);
+        Boards current = boards;
+        if (current != target) {
+            consistent &= current.apply(scored); // bảng vừa được thay trong lúc áp
+        }
+        if (!consistent) {
+            requestRebuild();
+        }
+        updates.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${app.leaderboard.rebuild-check-interval-ms:60000}", initialDelay = 60000)
+    public void rebuildIfRequested() {
+        if (rebuildRequested.getAndSet(false)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Dựng lại mọi bảng từ test_attempts theo trang (keyset trên attempt_id) rồi thay bảng cũ một lần
+     */
+    public synchronized void rebuild() {
+        pendingDuringRebuild.clear();
+        rebuilding = true;
+        long start = System.nanoTime();
+        try {
+            Boards fresh = new Boards(capacity);
+            long attempts = 0;
+            Integer afterId = 0;
+            while (true) {
+                List<Object[]> rows = testAttemptRepository.findLeaderboardRows(afterId, PageRequest.of(0, pageSize));
+                for (Object[] row : rows) {
+                    ScoredAttempt scored = ScoredAttempt.of(row);
+                    if (scored != null) {
+                        fresh.apply(scored);
+                    }
+                }
+                attempts += rows.size();
+                if (rows.size() < pageSize) {
+                    break;
+                }
+                afterId = (Integer) rows.get(rows.size() - 1)[0];
+            }
+
+            boards = fresh;
+            ScoredAttempt pending;
+            while ((pending = pendingDuringRebuild.poll()) != null) {
+                if (!fresh.apply(pending)) {
+                    requestRebuild();
+                }
+            }
+
+            rebuilds.increment();
+            lastRebuildAttempts = attempts;
+            lastRebuildMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("✅ Leaderboards rebuilt from " + attempts + " attempt(s), "
+                    + fresh.byTest.size() + " test board(s) in " + lastRebuildMillis + "ms");
+        } catch (Exception e) {
+            failedRebuilds.increment();
+            requestRebuild();
+            System.err.println("❌ Error rebuilding leaderboards: " + e.getMessage());
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    public Map<String, Object> getTestLeaderboard(Integer testId, int limit, Integer studentId) {
+        Boards current = boards;
+        return view(current == null ? null : current.byTest.get(testId), limit, studentId);
+    }
+
+    public Map<String, Object> getSkillLeaderboard(TestType skill, int limit, Integer studentId) {
+        Boards current = boards;
+        return view(current == null ? null : current.bySkill.get(skill), limit, studentId);
+    }
+
+    private Map<String, Object> view(Leaderboard leaderboard, int limit, Integer studentId) {
+        reads.increment();
+        Map<String, Object> view = new HashMap<>();
+        view.put("ready", boards != null);
+        view.put("entries", leaderboard == null ? List.of() : leaderboard.top(Math.min(limit, capacity)));
+        view.put("participants", leaderboard == null ? 0 : leaderboard.participants());
+        view.put("me", leaderboard == null || studentId == null ? null : leaderboard.rankOf(studentId));
+        return view;
+    }
+
+    public Map<String, Object> getStats() {
+        Boards current = boards;
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ready", current != null);
+        stats.put("rebuilding", rebuilding);
+        stats.put("rebuildRequested", rebuildRequested.get());
+        stats.put("testBoards", current == null ? 0 : current.byTest.size());
+        stats.put("capacity", capacity);
+        stats.put("updates", updates.sum());
+        stats.put("reads", reads.sum());
+        stats.put("rebuilds", rebuilds.sum());
+        stats.put("failedRebuilds", failedRebuilds.sum());
+        stats.put("lastRebuildMs", lastRebuildMillis);
+        stats.put("lastRebuildAttempts", lastRebuildAttempts);
+        return stats;
+    }
+
+    private static final class Boards {
+        private final int capacity;
+        private final Map<Integer, Leaderboard> byTest = new ConcurrentHashMap<>();
+        private final Map<TestType, Leaderboard> bySkill = new EnumMap<>(TestType.class);
+
+        Boards(int capacity) {
+            this.capacity = capacity;
+            // Tạo sẵn mọi kỹ năng: map không đổi sau constructor nên đọc không cần khoá
+            for (TestType skill : SKILLS) {
+                bySkill.put(skill, new Leaderboard(capacity));
+            }
+        }
+
+        boolean apply(ScoredAttempt scored) {
+            boolean consistent = true;
+            if (scored.band > 0) {
+                consistent = byTest.computeIfAbsent(scored.testId, key -> new Leaderboard(capacity))
+                        .offer(scored.studentId, scored.studentName, scored.attemptId, scored.band);
+            }
+            for (TestType skill : SKILLS) {
+                double band = scored.skillBands[skill.ordinal()];
+                if (band > 0) {
+                    consistent &= bySkill.get(skill)
+                            .offer(scored.studentId, scored.studentName, scored.attemptId, band);
+                }
+            }
+            return consistent;
+        }
+    }
+
+    /**
+     * Điểm của một bài làm đã hoàn thành; band 0 (hoặc chưa có) không vào bảng - luồng nộp bài cũ ghi 0 cho bài chờ chấm tay
+     */
+    private static final class ScoredAttempt {
+        private final int attemptId;
+        private final int testId;
+        private final int studentId;
+        private final String studentName;
+        private final double band;
+        private final double[] skillBands = new double[SKILLS.length];
+
+        private ScoredAttempt(int attemptId, int testId, int studentId, String studentName, BigDecimal band) {
+            this.attemptId = attemptId;
+            this.testId = testId;
+            this.studentId = studentId;
+            this.studentName = studentName;
+            this.band = valueOf(band);
+        }
+
+        static ScoredAttempt of(TestAttempt attempt) {
+            if (!Boolean.TRUE.equals(attempt.getIsCompleted()) || attempt.getId() == null
+                    || attempt.getTest() == null || attempt.getStudent() == null) {
+                return null;
+            }
+            ScoredAttempt scored = new ScoredAttempt(attempt.getId(), attempt.getTest().getId(),
+                    attempt.getStudent().getId(), attempt.getStudent().getFullName(),
+                    attempt.getOverallScore() != null ? attempt.getOverallScore() : attempt.getTotalScore());
+            scored.skillBands[TestType.LISTENING.ordinal()] = valueOf(attempt.getListeningScore());
+            scored.skillBands[TestType.READING.ordinal()] = valueOf(attempt.getReadingScore());
+            scored.skillBands[TestType.WRITING.ordinal()] = valueOf(attempt.getWritingScore());
+            scored.skillBands[TestType.SPEAKING.ordinal()] = valueOf(attempt.getSpeakingScore());
+            return scored;
+        }
+
+        // [attemptId, testId, studentId, fullName, band, listening, reading, writing, speaking]
+        static ScoredAttempt of(Object[] row) {
+            ScoredAttempt scored = new ScoredAttempt((Integer) row[0], (Integer) row[1], (Integer) row[2],
+                    (String) row[3], (BigDecimal) row[4]);
+            scored.skillBands[TestType.LISTENING.ordinal()] = valueOf((BigDecimal) row[5]);
+            scored.skillBands[TestType.READING.ordinal()] = valueOf((BigDecimal) row[6]);
+            scored.skillBands[TestType.WRITING.ordinal()] = valueOf((BigDecimal) row[7]);
+            scored.skillBands[TestType.SPEAKING.ordinal()] = valueOf((BigDecimal) row[8]);
+            return scored;
+        }
+
+        private static double valueOf(BigDecimal band) {
+            return band == null ? 0 : band.doubleValue();
+        }
+    }
+}
@@ -1,12 +1,13 @@
-
 package tungdao.com.project1.service;
 
 import org.springframework.stereotype.Service;
+import tungdao.com.project1.entity.AudioJobSource;
 import tungdao.com.project1.entity.ListeningAudio;
 import tungdao.com.project1.entity.Test;
 import tungdao.com.project1.repository.ListeningAudioRepository;
 import tungdao.com.project1.repository.TestRepository;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
@@ -14,10 +15,15 @@ import java.util.List;
 public class ListeningAudioService {
     private final ListeningAudioRepository listeningAudioRepository;
     private final TestRepository testRepository;
+    private final AudioStorageService audioStorageService;
+    private final AudioPipelineService audioPipelineService;
 
-    public ListeningAudioService(ListeningAudioRepository listeningAudioRepository, TestRepository testRepository) {
+    public ListeningAudioService(ListeningAudioRepository listeningAudioRepository, TestRepository testRepository,
+                                 AudioStorageService audioStorageService, AudioPipelineService audioPipelineService) {
         this.listeningAudioRepository = listeningAudioRepository;
         this.testRepository = testRepository;
+        this.audioStorageService = audioStorageService;
+        this.audioPipelineService = audioPipelineService;
     }
 
     public List<ListeningAudio> getAudiosByTestId(Integer testId) {
@@ -34,6 +40,44 @@ public class ListeningAudioService {
     }
 
     public ListeningAudio saveAudio(ListeningAudio audio) {
-        return listeningAudioRepository.save(audio);
+        ListeningAudio saved = listeningAudioRepository.save(audio);
+        // Chuẩn hoá (bản nhẹ, peaks) chạy nền sau khi lưu
+        audioPipelineService.enqueue(AudioJobSource.LISTENING_AUDIO, saved.getId(), saved.getAudioHash());
+        return saved;
+    }
+
+    /**
+     * Lưu dữ liệu base64 vào kho audio và chỉ giữ lại hash trên entity
+     */
+    public void storeBase64Audio(ListeningAudio audio, String audioBase64) throws IOException {
+        AudioStorageService.StoredAudio stored = audioStorageService.storeBase64(audioBase64);
+        audio.setAudioHash(stored.hash);
+        audio.setFileSize(stored.size);
+        audio.setAudioBase64(null);
+
+        Integer headerDuration = audioStorageService.readDurationSeconds(stored.hash);
+        if (headerDuration != null) {
+            audio.setDurationSeconds(headerDuration);
+        }
+    }
+
+    /**
+     * Chuyển audio cũ (còn lưu base64 trong DB) sang kho audio khi được đọc lần đầu
+     */
+    public ListeningAudio ensureStored(ListeningAudio audio) {
+        if (audio.hasStoredAudio() || !audio.hasBase64Data()) {
+            return audio;
+        }
+
+        try {
+            System.out.println("🔄 Migrating base64 audio " + audio.getId() + " to audio store...");
+            storeBase64Audio(audio, audio.getAudioBase64());
+            ListeningAudio saved = saveAudio(audio);
+            System.out.println("✅ Audio " + audio.getId() + " migrated: " + saved.getAudioHash());
+            return saved;
+        } catch (Exception e) {
+            System.err.println("❌ Failed to migrate audio " + audio.getId() + ": " + e.getMessage());
+            return audio;
+        }
     }
-}
\ No newline at end of file
+}
@@ -6,7 +6,9 @@ import tungdao.com.project1.dto.QuestionCreateDTO;
 import tungdao.com.project1.entity.Question;
 import tungdao.com.project1.repository.QuestionRepository;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class QuestionService {
@@ -24,6 +26,17 @@ public class QuestionService {
         return questionRepository.findById(id).orElse(null);
     }
 
+    /**
+     * Tất cả câu hỏi của đề kèm CorrectAnswer (một query fetch-join), theo questionId - dùng khi chấm bài nộp
+     */
+    public Map<Integer, Question> getQuestionsWithAnswers(Integer testId) {
+        Map<Integer, Question> questions = new HashMap<>();
+        for (Question question : questionRepository.findWithCorrectAnswerByTestId(testId)) {
+            questions.put(question.getId(), question);
+        }
+        return questions;
+    }
+
     public List<Question> getQuestionsByPassageId(Integer passageId) {
         return questionRepository.findByPassageIdOrderByOrderInTest(passageId);
     }
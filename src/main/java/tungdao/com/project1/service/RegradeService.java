@@ -0,0 +1,416 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.dto.AnswerKeyUpdateRequest;
+import tungdao.com.project1.dto.RegradeRow;
+import tungdao.com.project1.entity.CorrectAnswer;
+import tungdao.com.project1.entity.Question;
+import tungdao.com.project1.entity.Test;
+import tungdao.com.project1.entity.TestType;
+import tungdao.com.project1.entity.User;
+import tungdao.com.project1.entity.UserRole;
+import tungdao.com.project1.repository.CorrectAnswerRepository;
+import tungdao.com.project1.repository.QuestionRepository;
+import tungdao.com.project1.repository.StudentResponseRepository;
+import tungdao.com.project1.repository.TestRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chấm lại các câu trả lời khi giáo viên sửa đáp án.
+ * Chỉ đọc câu trả lời của các câu hỏi bị đổi, theo từng trang (keyset trên response_id) nên bộ nhớ
+ * không phụ thuộc số dòng; mỗi trang được chấm song song bằng fork-join rồi ghi trong một transaction ngắn
+ * (UPDATE theo khoá chính, batch JDBC) và tính lại band của các bài làm bị ảnh hưởng.
+ */
+@Service
+public class RegradeService {
+
+    private static final int MAX_JOBS_KEPT = 50;
+    private static final int CHUNK_THRESHOLD = 128;
+
+    private final QuestionRepository questionRepository;
+    private final CorrectAnswerRepository correctAnswerRepository;
+    private final StudentResponseRepository studentResponseRepository;
+    private final TestRepository testRepository;
+    private final AnswerMatcherService answerMatcherService;
+    private final TestScoreMappingService testScoreMappingService;
+    private final TestPaperCache testPaperCache;
+    private final TestStatsService testStatsService;
+    private final ItemAnalysisService itemAnalysisService;
+    private final LeaderboardService leaderboardService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool pool;
+
+    @Value("${app.regrade.batch-size:1000}")
+    private int batchSize;
+
+    // Nghỉ giữa các batch để nhường DB cho request của người dùng khi chấm lại hàng triệu dòng
+    @Value("${app.regrade.batch-pause-ms:0}")
+    private long batchPauseMs;
+
+    private final Map<String, RegradeJob> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RegradeJob> eldest) {
+            return size() > MAX_JOBS_KEPT;
+        }
+    };
+
+    public RegradeService(QuestionRepository questionRepository,
+                          CorrectAnswerRepository correctAnswerRepository,
+                          StudentResponseRepository studentResponseRepository,
+                          TestRepository testRepository,
+                          AnswerMatcherService answerMatcherService,
+                          TestScoreMappingService testScoreMappingService,
+                          TestPaperCache testPaperCache,
+                          TestStatsService testStatsService,
+                          ItemAnalysisService itemAnalysisService,
+                          LeaderboardService leaderboardService,
+                          JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          @Qualifier("regradeExecutor") ThreadPoolExecutor executor,
+                          @Qualifier("regradePool") ForkJoinPool pool) {
+        this.questionRepository = questionRepository;
+        this.correctAnswerRepository = correctAnswerRepository;
+        this.studentResponseRepository = studentResponseRepository;
+        this.testRepository = testRepository;
+        this.answerMatcherService = answerMatcherService;
+        this.testScoreMappingService = testScoreMappingService;
+        this.testPaperCache = testPaperCache;
+        this.testStatsService = testStatsService;
+        this.itemAnalysisService = itemAnalysisService;
+        this.leaderboardService = leaderboardService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * Sửa đáp án của một câu hỏi (giữ nguyên câu hỏi và các câu trả lời đã nộp) rồi chấm lại
+     */
+    public Map<String, Object> updateAnswerKey(Integer questionId, AnswerKeyUpdateRequest request, User user) {
+        if (request.getCorrectAnswer() == null || request.getCorrectAnswer().trim().isEmpty()) {
+            throw new IllegalArgumentException("Correct answer is required");
+        }
+
+        Test test = transactionTemplate.execute(status -> {
+            Question question = questionRepository.findWithCorrectAnswerByIdIn(List.of(questionId)).stream()
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Question not found: " + questionId));
+            checkPermission(question.getTest(), user);
+
+            CorrectAnswer correctAnswer = question.getCorrectAnswer();
+            if (correctAnswer == null) {
+                correctAnswer = new CorrectAnswer();
+                correctAnswer.setQuestion(question);
+            }
+            correctAnswer.setCorrectAnswerText(request.getCorrectAnswer());
+            correctAnswer.setAlternativeAnswers(request.getAlternativeAnswers());
+            correctAnswer.setExplanation(request.getExplanation());
+            correctAnswerRepository.save(correctAnswer);
+            return question.getTest();
+        });
+
+        testPaperCache.invalidate(test.getId());
+        System.out.println("✅ Answer key updated for question " + questionId);
+        return startRegrade(List.of(questionId), "answer-key:" + questionId);
+    }
+
+    /**
+     * Chấm lại toàn bộ câu hỏi khách quan của một đề
+     */
+    public Map<String, Object> regradeTest(Integer testId, User user) {
+        Test test = testRepository.findById(testId)
+                .orElseThrow(() -> new IllegalArgumentException("Test not found: " + testId));
+        checkPermission(test, user);
+        return startRegrade(questionRepository.findQuestionIdsByTestId(testId), "test:" + testId);
+    }
+
+    public Map<String, Object> getJob(String jobId) {
+        RegradeJob job;
+        synchronized (jobs) {
+            job = jobs.get(jobId);
+        }
+        return job == null ? null : job.snapshot();
+    }
+
+    public List<Map<String, Object>> getRecentJobs() {
+        List<Map<String, Object>> snapshots = new ArrayList<>();
+        synchronized (jobs) {
+            for (RegradeJob job : jobs.values()) {
+                snapshots.add(job.snapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    private Map<String, Object> startRegrade(Collection<Integer> questionIds, String reason) {
+        RegradeJob job = new RegradeJob(UUID.randomUUID().toString(), reason, new LinkedHashSet<>(questionIds));
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+        }
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            job.fail("Too many regrade jobs queued");
+            throw new IllegalStateException("Too many regrade jobs queued, try again later");
+        }
+        System.out.println("🔄 Regrade job " + job.id + " queued (" + reason + ", " + questionIds.size() + " question(s))");
+        return job.snapshot();
+    }
+
+    private void run(RegradeJob job) {
+        job.status = "RUNNING";
+        job.startedAt = LocalDateTime.now();
+        try {
+            // Chỉ câu hỏi khách quan mới chấm tự động - bài viết/nói giữ nguyên điểm chấm tay
+            List<Question> questions = new ArrayList<>();
+            List<Question> changedQuestions = job.questionIds.isEmpty()
+                    ? List.of()
+                    : questionRepository.findWithCorrectAnswerByIdIn(job.questionIds);
+            for (Question question : changedQuestions) {
+                if (TestSubmissionService.isObjectiveQuestion(question)) {
+                    questions.add(question);
+                }
+            }
+            if (!questions.isEmpty()) {
+                job.totalResponses.set(studentResponseRepository.countRegradable(
+                        questions.stream().map(Question::getId).toList()));
+            }
+
+            for (Question question : questions) {
+                regradeQuestion(question, job);
+            }
+
+            // Band của bài làm đã đổi (có thể giảm): phân tích câu hỏi và bảng xếp hạng phải tính lại từ đầu
+            if (job.changedResponses.get() > 0) {
+                Set<Integer> testIds = new LinkedHashSet<>();
+                for (Question question : questions) {
+                    testIds.add(question.getTest().getId());
+                }
+                itemAnalysisService.requestRebuild(testIds);
+                leaderboardService.requestRebuild();
+            }
+
+            job.status = "COMPLETED";
+            job.finishedAt = LocalDateTime.now();
+            System.out.println("✅ Regrade job " + job.id + " completed: " + job.processedResponses.get() + " checked, "
+                    + job.changedResponses.get() + " changed, " + job.recomputedAttempts.get() + " attempt(s) rescored");
+        } catch (Exception e) {
+            System.err.println("❌ Regrade job " + job.id + " failed: " + e.getMessage());
+            e.printStackTrace();
+            job.fail(e.getMessage());
+        }
+    }
+
+    private void regradeQuestion(Question question, RegradeJob job) throws InterruptedException {
+        // Đáp án bị xoá: chấm như lúc nộp bài (không có đáp án thì sai)
+        AnswerMatcher matcher = question.getCorrectAnswer() != null
+                ? answerMatcherService.getMatcher(question.getCorrectAnswer())
+                : null;
+
+        Integer afterId = 0;
+        while (true) {
+            List<RegradeRow> rows = studentResponseRepository.findRegradeRows(question.getId(), afterId,
+                    PageRequest.of(0, batchSize));
+            if (rows.isEmpty()) {
+                return;
+            }
+
+            List<RegradeRow> changes = pool.invoke(new GradeChunk(rows, 0, rows.size(), matcher));
+            if (!changes.isEmpty()) {
+                applyChanges(question.getTest().getId(), changes, job);
+            }
+
+            job.processedResponses.addAndGet(rows.size());
+            afterId = rows.get(rows.size() - 1).getResponseId();
+            if (rows.size() < batchSize) {
+                return;
+            }
+            if (batchPauseMs > 0) {
+                Thread.sleep(batchPauseMs);
+            }
+        }
+    }
+
+    /**
+     * Ghi kết quả chấm lại của một batch và tính lại band của các bài làm liên quan - một transaction ngắn
+     */
+    private void applyChanges(Integer testId, List<RegradeRow> changes, RegradeJob job) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // isCorrect trong RegradeRow đã là giá trị mới; UPDATE theo khoá chính nên chỉ khoá đúng các dòng này
+            List<Object[]> responseUpdates = new ArrayList<>(changes.size());
+            Set<Integer> attemptIds = new LinkedHashSet<>();
+            for (RegradeRow change : changes) {
+                responseUpdates.add(new Object[]{change.getIsCorrect(), change.getResponseId()});
+                attemptIds.add(change.getAttemptId());
+            }
+            jdbcTemplate.batchUpdate("UPDATE student_responses SET is_correct = ? WHERE response_id = ?", responseUpdates);
+
+            List<Object[]> listeningUpdates = new ArrayList<>();
+            List<Object[]> readingUpdates = new ArrayList<>();
+            List<Object[]> pendingUpdates = new ArrayList<>();
+            for (Object[] row : studentResponseRepository.summarizeAttempts(attemptIds)) {
+                Integer attemptId = (Integer) row[0];
+                TestType testType = (TestType) row[1];
+                int correct = ((Number) row[2]).intValue();
+                long manualPending = ((Number) row[3]).longValue();
+
+                // Cùng quy tắc với TestSubmissionService.calculateTestScores
+                if (testType != TestType.LISTENING && testType != TestType.READING) {
+                    continue;
+                }
+                if (manualPending > 0) {
+                    pendingUpdates.add(new Object[]{attemptId});
+                    continue;
+                }
+                BigDecimal band = testScoreMappingService.getIELTSScore(testType.toString(), correct);
+                (testType == TestType.LISTENING ? listeningUpdates : readingUpdates)
+                        .add(new Object[]{band, band, attemptId});
+            }
+            if (!listeningUpdates.isEmpty()) {
+                jdbcTemplate.batchUpdate(
+                        "UPDATE test_attempts SET listening_score = ?, total_score = ? WHERE attempt_id = ?",
+                        listeningUpdates);
+            }
+            if (!readingUpdates.isEmpty()) {
+                jdbcTemplate.batchUpdate(
+                        "UPDATE test_attempts SET reading_score = ?, total_score = ? WHERE attempt_id = ?",
+                        readingUpdates);
+            }
+            if (!pendingUpdates.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE test_attempts SET total_score = NULL WHERE attempt_id = ?",
+                        pendingUpdates);
+            }
+
+            testStatsService.markDirty(testId);
+
+            job.changedResponses.addAndGet(changes.size());
+            job.recomputedAttempts.addAndGet(listeningUpdates.size() + readingUpdates.size() + pendingUpdates.size());
+        });
+    }
+
+    private void checkPermission(Test test, User user) {
+        boolean isAdmin = user.getRole() == UserRole.ADMIN;
+        boolean isCreator = test.getCreator() != null && test.getCreator().getId().equals(user.getId());
+        if (!isAdmin && !isCreator) {
+            throw new SecurityException("Access denied for test: " + test.getId());
+        }
+    }
+
+    /**
+     * Chấm một đoạn của batch; đoạn lớn được chia đôi cho các thread khác trong pool.
+     * Trả về các dòng có kết quả thay đổi, isCorrect đã được gán giá trị mới.
+     */
+    private static final class GradeChunk extends RecursiveTask<List<RegradeRow>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<RegradeRow> rows;
+        private final int from;
+        private final int to;
+        private final AnswerMatcher matcher;
+
+        GradeChunk(List<RegradeRow> rows, int from, int to, AnswerMatcher matcher) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.matcher = matcher;
+        }
+
+        @Override
+        protected List<RegradeRow> compute() {
+            if (to - from <= CHUNK_THRESHOLD) {
+                List<RegradeRow> changed = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    RegradeRow row = rows.get(i);
+                    boolean isCorrect = matcher != null && matcher.matches(row.getResponseText());
+                    if (!Objects.equals(row.getIsCorrect(), isCorrect)) {
+                        changed.add(new RegradeRow(row.getResponseId(), row.getAttemptId(), null, isCorrect));
+                    }
+                }
+                return changed;
+            }
+
+            int middle = (from + to) >>> 1;
+            GradeChunk left = new GradeChunk(rows, from, middle, matcher);
+            left.fork();
+            List<RegradeRow> changed = new GradeChunk(rows, middle, to, matcher).compute();
+            List<RegradeRow> leftChanged = left.join();
+            leftChanged.addAll(changed);
+            return leftChanged;
+        }
+    }
+
+    private static final class RegradeJob {
+        private final String id;
+        private final String reason;
+        private final Set<Integer> questionIds;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private final AtomicLong totalResponses = new AtomicLong();
+        private final AtomicLong processedResponses = new AtomicLong();
+        private final AtomicLong changedResponses = new AtomicLong();
+        private final AtomicLong recomputedAttempts = new AtomicLong();
+        private volatile String status = "QUEUED";
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+
+        RegradeJob(String id, String reason, Set<Integer> questionIds) {
+            this.id = id;
+            this.reason = reason;
+            this.questionIds = questionIds;
+        }
+
+        void fail(String message) {
+            error = message;
+            status = "FAILED";
+            finishedAt = LocalDateTime.now();
+        }
+
+        Map<String, Object> snapshot() {
+            long total = totalResponses.get();
+            long processed = processedResponses.get();
+
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("jobId", id);
+            snapshot.put("reason", reason);
+            snapshot.put("questionCount", questionIds.size());
+            snapshot.put("status", status);
+            snapshot.put("totalResponses", total);
+            snapshot.put("processedResponses", processed);
+            snapshot.put("changedResponses", changedResponses.get());
+            snapshot.put("recomputedAttempts", recomputedAttempts.get());
+            snapshot.put("progressPercent", total > 0 ? Math.min(100, processed * 100 / total)
+                    : ("COMPLETED".equals(status) ? 100 : 0));
+            snapshot.put("createdAt", createdAt);
+            snapshot.put("startedAt", startedAt);
+            snapshot.put("finishedAt", finishedAt);
+            snapshot.put("error", error);
+            return snapshot;
+        }
+    }
+}
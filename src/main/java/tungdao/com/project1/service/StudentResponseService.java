@@ -1,6 +1,7 @@
 package tungdao.com.project1.service;
 
 import org.springframework.stereotype.Service;
+import tungdao.com.project1.entity.AudioJobSource;
 import tungdao.com.project1.entity.ResponseType;
 import tungdao.com.project1.entity.StudentResponse;
 import tungdao.com.project1.repository.StudentResponseRepository;
@@ -13,9 +14,12 @@ import java.util.stream.Collectors;
 @Service
 public class StudentResponseService {
     private final StudentResponseRepository studentResponseRepository;
+    private final AudioPipelineService audioPipelineService;
 
-    public StudentResponseService(StudentResponseRepository studentResponseRepository) {
+    public StudentResponseService(StudentResponseRepository studentResponseRepository,
+                                  AudioPipelineService audioPipelineService) {
         this.studentResponseRepository = studentResponseRepository;
+        this.audioPipelineService = audioPipelineService;
     }
 
     public List<StudentResponse> getResponsesByAttemptId(Integer attemptId) {
@@ -50,6 +54,11 @@ public class StudentResponseService {
                 System.out.println("✅ Audio data verified: " + saved.getAudioBase64().length() + " characters");
             }
 
+            // ✅ Chuẩn hoá audio chạy nền
+            if (saved.hasStoredAudio()) {
+                audioPipelineService.enqueue(AudioJobSource.STUDENT_RESPONSE, saved.getId(), saved.getAudioHash());
+            }
+
             return saved;
 
         } catch (Exception e) {
@@ -59,6 +68,37 @@ public class StudentResponseService {
         }
     }
 
+    /**
+     * Lưu cả bài nộp một lần - với table generator, Hibernate gom các INSERT thành batch JDBC
+     */
+    public List<StudentResponse> saveStudentResponses(List<StudentResponse> responses) {
+        try {
+            for (StudentResponse response : responses) {
+                validateStudentResponse(response);
+                if (response.getResponseType() == null) {
+                    response.setResponseType(determineResponseType(response));
+                }
+            }
+
+            List<StudentResponse> saved = studentResponseRepository.saveAll(responses);
+            System.out.println("✅ Batch saved " + saved.size() + " responses");
+
+            // ✅ Chuẩn hoá audio chạy nền
+            for (StudentResponse response : saved) {
+                if (response.hasStoredAudio()) {
+                    audioPipelineService.enqueue(AudioJobSource.STUDENT_RESPONSE, response.getId(), response.getAudioHash());
+                }
+            }
+
+            return saved;
+
+        } catch (Exception e) {
+            System.err.println("❌ Error saving StudentResponses: " + e.getMessage());
+            e.printStackTrace();
+            throw new RuntimeException("Failed to save student responses", e);
+        }
+    }
+
     /**
      * Validate student response data
      */
@@ -81,7 +121,7 @@ public class StudentResponseService {
 
         // ✅ VALIDATE that at least one response type exists
         boolean hasText = response.getResponseText() != null && !response.getResponseText().trim().isEmpty();
-        boolean hasAudio = response.getAudioBase64() != null && !response.getAudioBase64().trim().isEmpty();
+        boolean hasAudio = response.hasAudioResponse();
 
         if (!hasText && !hasAudio) {
             throw new IllegalArgumentException("Response must have either text or audio content");
@@ -99,19 +139,22 @@ public class StudentResponseService {
     private void validateAudioResponse(StudentResponse response) {
         String audioData = response.getAudioBase64();
 
-        if (audioData.length() < 100) {
-            throw new IllegalArgumentException("Audio data too small");
-        }
+        // Audio trong kho đã được kiểm tra khi upload - chỉ validate base64 kiểu cũ
+        if (audioData != null && !response.hasStoredAudio()) {
+            if (audioData.length() < 100) {
+                throw new IllegalArgumentException("Audio data too small");
+            }
 
-        if (audioData.length() > 100_000_000) { // 100MB limit for base64
-            throw new IllegalArgumentException("Audio data too large");
-        }
+            if (audioData.length() > 100_000_000) { // 100MB limit for base64
+                throw new IllegalArgumentException("Audio data too large");
+            }
 
-        // ✅ VALIDATE BASE64 FORMAT
-        try {
-            java.util.Base64.getDecoder().decode(audioData);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid base64 audio data", e);
+            // ✅ VALIDATE BASE64 FORMAT
+            try {
+                java.util.Base64.getDecoder().decode(audioData);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid base64 audio data", e);
+            }
         }
 
         // ✅ VALIDATE AUDIO METADATA
@@ -129,7 +172,7 @@ public class StudentResponseService {
      */
     private ResponseType determineResponseType(StudentResponse response) {
         boolean hasText = response.getResponseText() != null && !response.getResponseText().trim().isEmpty();
-        boolean hasAudio = response.getAudioBase64() != null && !response.getAudioBase64().trim().isEmpty();
+        boolean hasAudio = response.hasAudioResponse();
 
         if (hasAudio) {
             return ResponseType.AUDIO;
@@ -154,6 +197,10 @@ public class StudentResponseService {
             System.out.println("Text Response: '" + response.getResponseText() + "'");
         }
 
+        if (response.hasStoredAudio()) {
+            System.out.println("Audio Hash: " + response.getAudioHash());
+        }
+
         if (response.getAudioBase64() != null) {
             System.out.println("Audio Response: " + response.getAudioBase64().length() + " characters");
             System.out.println("Audio Duration: " + response.getAudioDurationSeconds() + " seconds");
@@ -168,8 +215,7 @@ public class StudentResponseService {
     public List<StudentResponse> getAudioResponsesByAttemptId(Integer attemptId) {
         return studentResponseRepository.findByAttemptId(attemptId)
                 .stream()
-                .filter(response -> response.getAudioBase64() != null &&
-                        !response.getAudioBase64().trim().isEmpty())
+                .filter(StudentResponse::hasAudioResponse)
                 .collect(Collectors.toList());
     }
 
@@ -0,0 +1,285 @@
+package tungdao.com.project1.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.dto.SubmissionStatusDTO;
+import tungdao.com.project1.dto.TestAttemptRequest;
+import tungdao.com.project1.entity.SubmissionJournal;
+import tungdao.com.project1.entity.SubmissionStatus;
+import tungdao.com.project1.entity.TestAttempt;
+import tungdao.com.project1.repository.SubmissionJournalRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nhận bài nộp bất đồng bộ: request chỉ ghi payload vào submission_journal (một INSERT) rồi trả về ticket,
+ * việc chấm và lưu TestAttempt do thread pool có giới hạn làm sau. Nhờ vậy cả lớp nộp bài cùng lúc cũng không
+ * giữ hết kết nối DB trong suốt thời gian chấm. Bài nộp chưa chấm được (hàng đợi đầy, server khởi động lại)
+ * vẫn nằm trong bảng và được bộ quét định kỳ lấy lại.
+ */
+@Service
+public class SubmissionIntakeService {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int POLL_BATCH_SIZE = 50;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final SubmissionJournalRepository submissionJournalRepository;
+    private final TestSubmissionService testSubmissionService;
+    // Mapper riêng cho journal, không có AudioSpoolingModule: audioHash/audioFileSize chỉ được đọc lại
+    // từ payload do chính server ghi, ObjectMapper công khai bỏ qua các trường này trong input của client
+    private final ObjectMapper journalMapper = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+
+    @Value("${app.submission.stale-after-minutes:10}")
+    private long staleAfterMinutes;
+
+    // true: mọi bài nộp đều vào hàng đợi; false: chỉ khi client gửi "Prefer: respond-async"
+    @Value("${app.submission.async-intake:false}")
+    private boolean asyncIntake;
+
+    // Bài nộp đã đẩy vào pool nhưng chưa chạy xong - tránh bộ quét đẩy trùng
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+    // ✅ Metrics
+    private final LongAdder acceptedSubmissions = new LongAdder();
+    private final LongAdder completedSubmissions = new LongAdder();
+    private final LongAdder failedSubmissions = new LongAdder();
+    private final LongAdder rejectedDispatches = new LongAdder();
+    private final AtomicLong totalIntakeMicros = new AtomicLong();
+    private final AtomicLong maxIntakeMicros = new AtomicLong();
+    private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+    private final AtomicLong totalGradingMillis = new AtomicLong();
+    private final AtomicLong maxGradingMillis = new AtomicLong();
+
+    public SubmissionIntakeService(SubmissionJournalRepository submissionJournalRepository,
+                                   TestSubmissionService testSubmissionService,
+                                   PlatformTransactionManager transactionManager,
+                                   @Qualifier("submissionExecutor") ThreadPoolExecutor executor) {
+        this.submissionJournalRepository = submissionJournalRepository;
+        this.testSubmissionService = testSubmissionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+    }
+
+    /**
+     * Bài nộp này có đi qua hàng đợi không (cấu hình hoặc header Prefer của client)
+     */
+    public boolean shouldQueue(String preferHeader) {
+        return asyncIntake || (preferHeader != null && preferHeader.toLowerCase().contains("respond-async"));
+    }
+
+    /**
+     * Ghi bài nộp vào journal và trả về ticket - chưa chấm gì trên request thread
+     */
+    public SubmissionStatusDTO accept(Integer userId, TestAttemptRequest request) {
+        if (request.getTestId() == null) {
+            throw new IllegalArgumentException("Test ID cannot be null");
+        }
+        if (request.getResponses() == null || request.getResponses().isEmpty()) {
+            throw new IllegalArgumentException("Responses cannot be empty");
+        }
+
+        long start = System.nanoTime();
+
+        SubmissionJournal journal = new SubmissionJournal();
+        journal.setTicket(UUID.randomUUID().toString());
+        journal.setUserId(userId);
+        journal.setTestId(request.getTestId());
+        journal.setStatus(SubmissionStatus.QUEUED);
+        try {
+            // Audio base64 đã được spool vào kho khi deserialize - payload chỉ còn text và audioHash
+            journal.setPayload(journalMapper.writeValueAsString(request));
+        } catch (Exception e) {
+            throw new RuntimeException("Could not serialize submission: " + e.getMessage(), e);
+        }
+        journal = submissionJournalRepository.save(journal);
+
+        Integer journalId = journal.getId();
+        // Chỉ chấm sau khi transaction của request (nếu có) commit, để worker thấy được dòng journal
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(journalId);
+                }
+            });
+        } else {
+            dispatch(journalId);
+        }
+
+        long micros = (System.nanoTime() - start) / 1_000;
+        acceptedSubmissions.increment();
+        totalIntakeMicros.addAndGet(micros);
+        maxIntakeMicros.accumulateAndGet(micros, Math::max);
+
+        System.out.println("✅ Submission queued: ticket " + journal.getTicket() + " (user " + userId +
+                ", test " + request.getTestId() + ", " + request.getResponses().size() + " responses)");
+
+        return new SubmissionStatusDTO(journal.getTicket(), userId, request.getTestId(), SubmissionStatus.QUEUED,
+                null, null, journal.getCreatedAt(), null, null);
+    }
+
+    public SubmissionStatusDTO getStatus(String ticket) {
+        return submissionJournalRepository.findStatusByTicket(ticket).orElse(null);
+    }
+
+    /**
+     * Bộ quét: trả lại bài nộp bị treo và đẩy bài QUEUED vào pool theo số chỗ còn trống
+     */
+    @Scheduled(fixedDelayString = "${app.submission.poll-interval-ms:5000}", initialDelay = 10000)
+    public void pollQueuedSubmissions() {
+        try {
+            int released = submissionJournalRepository.releaseStale(LocalDateTime.now().minusMinutes(staleAfterMinutes));
+            if (released > 0) {
+                System.out.println("🔄 Released " + released + " stale submission(s)");
+            }
+
+            int capacity = Math.min(POLL_BATCH_SIZE, executor.getQueue().remainingCapacity());
+            if (capacity <= 0) {
+                return;
+            }
+
+            List<Integer> journalIds = submissionJournalRepository.findIdsByStatus(SubmissionStatus.QUEUED,
+                    PageRequest.of(0, capacity));
+            for (Integer journalId : journalIds) {
+                dispatch(journalId);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error polling submissions: " + e.getMessage());
+        }
+    }
+
+    private void dispatch(Integer journalId) {
+        if (!inFlight.add(journalId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> grade(journalId));
+        } catch (RejectedExecutionException e) {
+            // Hàng đợi đầy - bài nộp vẫn QUEUED, bộ quét sẽ lấy lại
+            inFlight.remove(journalId);
+            rejectedDispatches.increment();
+        }
+    }
+
+    private void grade(Integer journalId) {
+        try {
+            LocalDateTime claimedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            if (submissionJournalRepository.claim(journalId, claimedAt) == 0) {
+                return; // đã có worker khác nhận hoặc bài nộp không còn QUEUED
+            }
+            SubmissionJournal journal = submissionJournalRepository.findById(journalId).orElse(null);
+            if (journal == null) {
+                return;
+            }
+
+            long queueWait = Duration.between(journal.getCreatedAt(), claimedAt).toMillis();
+            long start = System.nanoTime();
+            try {
+                TestAttemptRequest request = journalMapper.readValue(journal.getPayload(), TestAttemptRequest.class);
+
+                // Lưu TestAttempt và đánh dấu COMPLETED trong cùng một transaction - không bao giờ lưu trùng
+                Integer attemptId = transactionTemplate.execute(status -> {
+                    TestAttempt attempt = testSubmissionService.submitTest(journal.getUserId(), request);
+                    if (submissionJournalRepository.markCompleted(journalId, claimedAt, attempt.getId(),
+                            LocalDateTime.now()) == 0) {
+                        throw new IllegalStateException("Submission " + journal.getTicket() + " was reclaimed");
+                    }
+                    return attempt.getId();
+                });
+
+                completedSubmissions.increment();
+                System.out.println("✅ Graded submission " + journal.getTicket() + " -> attempt " + attemptId);
+            } catch (Exception e) {
+                boolean retry = journal.getAttempts() < MAX_ATTEMPTS;
+                String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                int updated = submissionJournalRepository.markFailedAttempt(journalId, claimedAt,
+                        retry ? SubmissionStatus.QUEUED : SubmissionStatus.FAILED,
+                        message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message,
+                        retry ? null : LocalDateTime.now());
+                if (updated == 0) {
+                    // Lượt nhận đã hết hiệu lực (bộ quét trả lại hàng đợi / worker khác đã chấm) - bỏ qua
+                    System.out.println("⚠️ Submission " + journal.getTicket() + " was reclaimed, ignoring failure: " + message);
+                    return;
+                }
+                if (!retry) {
+                    failedSubmissions.increment();
+                }
+                System.err.println("❌ Submission " + journal.getTicket() + " failed (attempt " +
+                        journal.getAttempts() + "): " + message);
+            } finally {
+                record(queueWait, (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error grading submission " + journalId + ": " + e.getMessage());
+        } finally {
+            inFlight.remove(journalId);
+        }
+    }
+
+    private void record(long queueWaitMillis, long gradingMillis) {
+        totalQueueWaitMillis.addAndGet(queueWaitMillis);
+        maxQueueWaitMillis.accumulateAndGet(queueWaitMillis, Math::max);
+        totalGradingMillis.addAndGet(gradingMillis);
+        maxGradingMillis.accumulateAndGet(gradingMillis, Math::max);
+    }
+
+    /**
+     * Độ sâu hàng đợi, độ trễ nhận bài và thời gian chấm
+     */
+    public Map<String, Object> getStats() {
+        long accepted = acceptedSubmissions.sum();
+        long graded = completedSubmissions.sum() + failedSubmissions.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", executor.getMaximumPoolSize());
+        stats.put("activeWorkers", executor.getActiveCount());
+        stats.put("executorQueueDepth", executor.getQueue().size());
+        stats.put("executorQueueRemaining", executor.getQueue().remainingCapacity());
+        stats.put("queuedSubmissions", submissionJournalRepository.countByStatus(SubmissionStatus.QUEUED));
+        stats.put("processingSubmissions", submissionJournalRepository.countByStatus(SubmissionStatus.PROCESSING));
+        stats.put("failedSubmissions", submissionJournalRepository.countByStatus(SubmissionStatus.FAILED));
+        stats.put("acceptedSinceStartup", accepted);
+        stats.put("completedSinceStartup", completedSubmissions.sum());
+        stats.put("failedSinceStartup", failedSubmissions.sum());
+        stats.put("rejectedDispatches", rejectedDispatches.sum());
+        stats.put("avgIntakeMicros", accepted > 0 ? totalIntakeMicros.get() / accepted : 0);
+        stats.put("maxIntakeMicros", maxIntakeMicros.get());
+        stats.put("avgQueueWaitMillis", graded > 0 ? totalQueueWaitMillis.get() / graded : 0);
+        stats.put("maxQueueWaitMillis", maxQueueWaitMillis.get());
+        stats.put("avgGradingMillis", graded > 0 ? totalGradingMillis.get() / graded : 0);
+        stats.put("maxGradingMillis", maxGradingMillis.get());
+        return stats;
+    }
+}
@@ -2,6 +2,7 @@ package tungdao.com.project1.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import tungdao.com.project1.dto.TestAttemptDTO;
 import tungdao.com.project1.entity.StudentResponse;
 import tungdao.com.project1.entity.TestAttempt;
@@ -17,11 +18,16 @@ import java.util.stream.Collectors;
 public class TestAttemptService {
     private final TestAttemptRepository testAttemptRepository;
     private final TestAttemptMapper testAttemptMapper;
+    private final LeaderboardService leaderboardService;
+    private final TestStatsService testStatsService;
 
     @Autowired
-    public TestAttemptService(TestAttemptRepository tar, TestAttemptMapper mapper) {
+    public TestAttemptService(TestAttemptRepository tar, TestAttemptMapper mapper, LeaderboardService leaderboardService,
+                              TestStatsService testStatsService) {
         this.testAttemptRepository = tar;
         this.testAttemptMapper = mapper;
+        this.leaderboardService = leaderboardService;
+        this.testStatsService = testStatsService;
     }
 
     public TestAttempt saveTestAttempt(TestAttempt attempt) {
@@ -145,8 +151,12 @@ public class TestAttemptService {
         return testAttemptRepository.findByTestIdOrderByStartTimeDesc(testId);
     }
 
+    @Transactional
     public void deleteTestAttempt(Integer id) {
+        testAttemptRepository.findById(id)
+                .ifPresent(attempt -> testStatsService.markDirty(attempt.getTest().getId()));
         testAttemptRepository.deleteById(id);
+        leaderboardService.requestRebuild();
     }
 
     public Map<String, Object> getUserTestStatistics(User user) {
@@ -0,0 +1,200 @@
+package tungdao.com.project1.service;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache đề thi đã serialize sẵn (JSON UTF-8 + gzip) cho GET /api/test/{id}.
+ * Đề thi giống nhau với mọi học viên nên cả lớp bắt đầu cùng lúc chỉ tốn một lần load DB:
+ * request đầu tiên build snapshot, các request đồng thời khác chờ cùng kết quả đó.
+ */
+@Service
+public class TestPaperCache {
+
+    // audioUrl chứa host của request nên snapshot được tách theo base URL; giới hạn để Host header giả không làm phình cache
+    private static final int MAX_VARIANTS_PER_TEST = 4;
+
+    private final Map<Integer, Map<String, CompletableFuture<PaperSnapshot>>> snapshots = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface PaperWriter {
+        /** Ghi JSON đề thi vào out, trả về false nếu đề không tồn tại */
+        boolean write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Lấy snapshot từ cache hoặc build mới (một lần cho mọi request đồng thời). Trả về null nếu đề không tồn tại.
+     */
+    public PaperSnapshot get(Integer testId, String baseUrl, PaperWriter writer) throws Exception {
+        Map<String, CompletableFuture<PaperSnapshot>> variants =
+                snapshots.computeIfAbsent(testId, key -> new ConcurrentHashMap<>());
+
+        CompletableFuture<PaperSnapshot> existing = variants.get(baseUrl);
+        if (existing != null) {
+            return join(existing);
+        }
+        if (variants.size() >= MAX_VARIANTS_PER_TEST) {
+            return render(writer); // không cache
+        }
+
+        CompletableFuture<PaperSnapshot> created = new CompletableFuture<>();
+        existing = variants.putIfAbsent(baseUrl, created);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        long generation = generation(testId).get();
+        try {
+            System.out.println("🔄 Building test paper snapshot for test " + testId);
+            PaperSnapshot snapshot = render(writer);
+            created.complete(snapshot);
+
+            // Không giữ snapshot rỗng, hoặc snapshot build trong lúc đề đang bị sửa
+            if (snapshot == null || generation(testId).get() != generation) {
+                variants.remove(baseUrl, created);
+            }
+            return snapshot;
+        } catch (Exception e) {
+            variants.remove(baseUrl, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Xoá snapshot của đề - gọi lại sau khi transaction commit để request đọc dữ liệu cũ trong lúc sửa không cache lại nó
+     */
+    public void invalidate(Integer testId) {
+        if (testId == null) {
+            return;
+        }
+        evict(testId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(testId);
+                }
+            });
+        }
+    }
+
+    private void evict(Integer testId) {
+        generation(testId).incrementAndGet();
+        if (snapshots.remove(testId) != null) {
+            System.out.println("🔄 Invalidated test paper snapshot for test " + testId);
+        }
+    }
+
+    /**
+     * Client có nhận gzip không, theo q-value của Accept-Encoding: "gzip;q=0" là từ chối,
+     * "*" chỉ áp dụng khi gzip không được nêu riêng
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double anyQuality = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0; // q không hợp lệ - không coi là chấp nhận
+                    }
+                }
+            }
+            if (coding.equals("*")) {
+                anyQuality = anyQuality == null ? quality : Math.max(anyQuality, quality);
+            } else {
+                gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+            }
+        }
+        Double quality = gzipQuality != null ? gzipQuality : anyQuality;
+        return quality != null && quality > 0;
+    }
+
+    private AtomicLong generation(Integer testId) {
+        return generations.computeIfAbsent(testId, key -> new AtomicLong());
+    }
+
+    private PaperSnapshot join(CompletableFuture<PaperSnapshot> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private PaperSnapshot render(PaperWriter writer) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+        if (!writer.write(buffer)) {
+            return null;
+        }
+
+        byte[] json = buffer.toByteArray();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(json);
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            String tag = HexFormat.of().formatHex(digest, 0, 16);
+            return new PaperSnapshot(json, compressed.toByteArray(), "\"" + tag + "\"", "\"" + tag + "-gz\"");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Đề thi đã serialize - ETag mạnh riêng cho bản thường và bản gzip
+     */
+    public static class PaperSnapshot {
+        public final byte[] json;
+        public final byte[] gzip;
+        public final String etag;
+        public final String gzipEtag;
+
+        public PaperSnapshot(byte[] json, byte[] gzip, String etag, String gzipEtag) {
+            this.json = json;
+            this.gzip = gzip;
+            this.etag = etag;
+            this.gzipEtag = gzipEtag;
+        }
+
+        public boolean matches(String ifNoneMatch) {
+            return ifNoneMatch != null && (ifNoneMatch.trim().equals("*")
+                    || ifNoneMatch.contains(etag) || ifNoneMatch.contains(gzipEtag));
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package tungdao.com.project1.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.conf.PropertySet;
+import com.mysql.cj.conf.RuntimeProperty;
+import com.mysql.cj.jdbc.JdbcConnection;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import tungdao.com.project1.dto.QuestionDTO;
+import tungdao.com.project1.dto.StudentResponseDTO;
+import tungdao.com.project1.dto.TestAttemptDTO;
+import tungdao.com.project1.entity.ListeningAudio;
+import tungdao.com.project1.entity.Question;
+import tungdao.com.project1.entity.ReadingPassage;
+import tungdao.com.project1.entity.StudentResponse;
+import tungdao.com.project1.entity.Test;
+import tungdao.com.project1.repository.QuestionRepository;
+import tungdao.com.project1.repository.ReadingPassageRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Ghi đề thi và kết quả làm bài ra JSON theo từng field qua JsonGenerator, không dựng Map/DTO cho cả đề.
+ * Passages và questions được đọc bằng con trỏ phía server (Stream), passage detach ngay sau khi ghi,
+ * nên bộ nhớ mỗi request chỉ giữ khoảng một câu hỏi.
+ */
+@Service
+public class TestPaperWriter {
+
+    private final ObjectMapper objectMapper;
+    private final TestService testService;
+    private final ListeningAudioService listeningAudioService;
+    private final ReadingPassageRepository readingPassageRepository;
+    private final QuestionRepository questionRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public TestPaperWriter(ObjectMapper objectMapper,
+                           TestService testService,
+                           ListeningAudioService listeningAudioService,
+                           ReadingPassageRepository readingPassageRepository,
+                           QuestionRepository questionRepository,
+                           EntityManager entityManager,
+                           PlatformTransactionManager transactionManager) {
+        this.objectMapper = objectMapper;
+        this.testService = testService;
+        this.listeningAudioService = listeningAudioService;
+        this.readingPassageRepository = readingPassageRepository;
+        this.questionRepository = questionRepository;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Ghi đề thi (test, passages, audio, questions) cho GET /api/test/{id}. Trả về false nếu đề không tồn tại.
+     */
+    public boolean writeTestPaper(Integer id, String baseUrl, OutputStream out) throws IOException {
+        System.out.println("=== STREAMING TEST PAPER ===");
+        System.out.println("Đang lấy thông tin đề thi với ID: " + id);
+        Test test = testService.getTestById(id);
+        if (test == null) {
+            return false;
+        }
+
+        System.out.println("Đã tìm thấy bài thi: " + test.getTestName());
+        System.out.println("Test Type: " + test.getTestType());
+
+        int[] counts = new int[3];
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartObject();
+            writeTestInfo(generator, test);
+
+            // ensureStored có thể ghi DB (chuyển base64 cũ vào kho) nên chạy ngoài transaction chỉ đọc
+            counts[1] = writeAudio(generator, test, baseUrl);
+
+            inReadOnlyTransaction(() -> {
+                counts[0] = writePassages(generator, id);
+                counts[2] = writeQuestions(generator, test);
+            });
+
+            generator.writeEndObject();
+        }
+
+        System.out.println("=== RESPONSE SUMMARY ===");
+        System.out.println("Test Type: " + test.getTestType());
+        System.out.println("Passages: " + counts[0]);
+        System.out.println("Audio: " + counts[1]);
+        System.out.println("Questions: " + counts[2]);
+        System.out.println("Trả về thông tin đề thi thành công");
+        return true;
+    }
+
+    /**
+     * Ghi kết quả làm bài cho GET /api/test-attempts/{id}: các field của attemptDTO, rồi "responses"
+     * gồm mọi câu hỏi của đề (kể cả câu bỏ trống) theo thứ tự orderInTest. Trả về số câu đã ghi.
+     */
+    public int writeAttemptResult(TestAttemptDTO attemptDTO, Integer testId, Integer attemptId,
+                                  BiFunction<Question, StudentResponse, StudentResponseDTO> responseMapper,
+                                  OutputStream out) throws IOException {
+        int[] count = new int[1];
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartObject();
+            writeFieldsExcept(generator, attemptDTO, "responses");
+
+            generator.writeArrayFieldStart("responses");
+            inReadOnlyTransaction(() -> {
+                try (Stream<Object[]> rows = questionRepository.streamWithResponses(testId, attemptId)) {
+                    Question pendingQuestion = null;
+                    StudentResponse pendingResponse = null;
+
+                    for (Iterator<Object[]> it = rows.iterator(); it.hasNext(); ) {
+                        Object[] row = it.next();
+                        Question question = (Question) row[0];
+                        StudentResponse response = (StudentResponse) row[1];
+
+                        if (pendingQuestion != null && !pendingQuestion.getId().equals(question.getId())) {
+                            generator.writePOJO(responseMapper.apply(pendingQuestion, pendingResponse));
+                            release(pendingQuestion, pendingResponse);
+                            pendingResponse = null;
+                            count[0]++;
+                        } else if (pendingResponse != null && pendingResponse != response) {
+                            // Nhiều câu trả lời cho cùng một câu hỏi: giữ câu trả lời cuối như trước đây
+                            entityManager.detach(pendingResponse);
+                        }
+                        pendingQuestion = question;
+                        pendingResponse = response;
+                    }
+
+                    if (pendingQuestion != null) {
+                        generator.writePOJO(responseMapper.apply(pendingQuestion, pendingResponse));
+                        release(pendingQuestion, pendingResponse);
+                        count[0]++;
+                    }
+                }
+            });
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+        return count[0];
+    }
+
+    private void writeTestInfo(JsonGenerator generator, Test test) throws IOException {
+        generator.writeObjectFieldStart("test");
+        generator.writePOJOField("id", test.getId());
+        generator.writeStringField("testName", test.getTestName());
+        generator.writeStringField("testType", test.getTestType() != null ? test.getTestType().toString() : "READING");
+        generator.writeStringField("description", test.getDescription());
+        generator.writeStringField("instructions", test.getInstructions());
+        generator.writePOJOField("durationMinutes", test.getDurationMinutes());
+        generator.writePOJOField("passingScore", test.getPassingScore());
+        generator.writePOJOField("isPractice", test.getIsPractice());
+        generator.writePOJOField("isPublished", test.getIsPublished());
+        generator.writeEndObject();
+    }
+
+    private int writePassages(JsonGenerator generator, Integer testId) throws IOException {
+        int count = 0;
+        generator.writeArrayFieldStart("passages");
+        try (Stream<ReadingPassage> passages = readingPassageRepository.streamByTestId(testId)) {
+            for (Iterator<ReadingPassage> it = passages.iterator(); it.hasNext(); ) {
+                ReadingPassage passage = it.next();
+                generator.writeStartObject();
+                generator.writePOJOField("id", passage.getId());
+                generator.writeStringField("title", passage.getTitle());
+                generator.writeStringField("content", passage.getContent());
+                generator.writePOJOField("orderInTest", passage.getOrderInTest());
+                generator.writeEndObject();
+
+                entityManager.detach(passage);
+                count++;
+            }
+        }
+        generator.writeEndArray();
+        return count;
+    }
+
+    private int writeAudio(JsonGenerator generator, Test test, String baseUrl) throws IOException {
+        List<ListeningAudio> audioList = listeningAudioService.getAudiosByTestId(test.getId());
+        System.out.println("Audio files found: " + audioList.size());
+
+        generator.writeArrayFieldStart("audio");
+        for (ListeningAudio audio : audioList) {
+            generator.writeStartObject();
+            generator.writePOJOField("id", audio.getId());
+            generator.writeStringField("title", audio.getTitle());
+            generator.writePOJOField("section", audio.getSection());
+            generator.writePOJOField("orderInTest", audio.getOrderInTest());
+            generator.writeStringField("transcript", audio.getTranscript() != null ? audio.getTranscript() : "");
+            generator.writePOJOField("durationSeconds", audio.getDurationSeconds());
+            generator.writePOJOField("fileType", audio.getFileType());
+
+            // ✅ Audio được phát qua /api/audio/{id} - không nhúng base64 vào JSON
+            ListeningAudio storedAudio = listeningAudioService.ensureStored(audio);
+            if (storedAudio.hasStoredAudio()) {
+                String audioUrl = UriComponentsBuilder.fromUriString(baseUrl)
+                        .path("/api/audio/{id}")
+                        .buildAndExpand(audio.getId())
+                        .toUriString();
+
+                generator.writeStringField("audioUrl", audioUrl);
+                generator.writeStringField("fileUrl", audioUrl); // ✅ Frontend compatibility
+                generator.writeStringField("audioHash", storedAudio.getAudioHash());
+                generator.writeStringField("mimeType", storedAudio.getEffectiveMimeType());
+                generator.writePOJOField("fileSize", storedAudio.getFileSize());
+                generator.writeStringField("originalFileName", storedAudio.getOriginalFileName());
+                generator.writeStringField("storageType", "blob");
+            } else {
+                System.err.println("❌ Audio " + audio.getId() + " has NO AUDIO DATA!");
+                generator.writeStringField("storageType", "none");
+                generator.writeStringField("error", "No audio data available");
+                generator.writeNullField("fileUrl");
+                generator.writeNullField("audioUrl");
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        return audioList.size();
+    }
+
+    private int writeQuestions(JsonGenerator generator, Test test) throws IOException {
+        boolean listeningTest = test.getTestType() != null && "LISTENING".equals(test.getTestType().toString());
+        int count = 0;
+
+        generator.writeArrayFieldStart("questions");
+        try (Stream<QuestionDTO> questions = questionRepository.streamByTestId(test.getId())) {
+            for (Iterator<QuestionDTO> it = questions.iterator(); it.hasNext(); ) {
+                QuestionDTO question = it.next();
+                String questionType = mapQuestionType(question, listeningTest);
+
+                generator.writeStartObject();
+                generator.writePOJOField("id", question.getId());
+                generator.writeStringField("questionText", question.getQuestionText());
+                generator.writeStringField("questionType", questionType);
+                generator.writeStringField("question_type", questionType); // ✅ Backward compatibility
+                generator.writeStringField("section", question.getSection());
+                generator.writePOJOField("orderInTest", question.getOrderInTest());
+                generator.writePOJOField("order_in_test", question.getOrderInTest()); // ✅ Backward compatibility
+                generator.writeStringField("options", question.getOptions());
+                generator.writeStringField("questionSetInstructions", question.getQuestionSetInstructions());
+                generator.writeStringField("context", question.getContext());
+
+                if (question.getPassageId() != null) {
+                    generator.writePOJOField("passageId", question.getPassageId());
+                }
+                if (question.getAudioId() != null) {
+                    generator.writePOJOField("audioId", question.getAudioId());
+                }
+                generator.writeEndObject();
+                count++;
+            }
+        }
+        generator.writeEndArray();
+        return count;
+    }
+
+    // ✅ Cùng cách map loại câu hỏi như TestAttemptController
+    private String mapQuestionType(QuestionDTO question, boolean listeningTest) {
+        String questionType = question.getQuestionType() != null ? question.getQuestionType() : "MCQ";
+
+        if (listeningTest) {
+            switch (questionType) {
+                case "FILL_IN_THE_BLANK":
+                    return "LISTENING_FILL_IN_THE_BLANK";
+                case "MCQ":
+                    return "LISTENING_MCQ";
+                case "SHORT_ANSWER":
+                    return "LISTENING_SHORT_ANSWER";
+                default:
+                    return "NOTE_COMPLETION";
+            }
+        } else if (question.getAudioId() != null) {
+            // Has audio relationship - make it listening type
+            return "NOTE_COMPLETION";
+        }
+        return questionType;
+    }
+
+    /**
+     * Ghi các field của một bean qua serializer của ObjectMapper (giữ nguyên định dạng ngày, BigDecimal...),
+     * bỏ qua field được stream riêng
+     */
+    private void writeFieldsExcept(JsonGenerator generator, Object bean, String skippedField) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+        objectMapper.writeValue(buffer, bean);
+
+        try (JsonParser parser = buffer.asParser()) {
+            parser.nextToken(); // START_OBJECT
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (skippedField.equals(name)) {
+                    parser.skipChildren();
+                } else {
+                    generator.writeFieldName(name);
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+        }
+    }
+
+    private void release(Question question, StudentResponse response) {
+        entityManager.detach(question);
+        if (response != null) {
+            entityManager.detach(response);
+        }
+    }
+
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        // Không đóng stream đích - cache hoặc servlet container tự quản lý
+        return objectMapper.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private void inReadOnlyTransaction(StreamingWork work) throws IOException {
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try {
+                    withCursorFetch(work);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Bật cursor phía server của MySQL (useCursorFetch, kéo theo server-side prepared statement) chỉ trên kết nối
+     * của transaction đang stream, rồi trả lại như cũ trước khi kết nối về pool - bật trong cấu hình datasource
+     * thì mọi câu lệnh trên mọi kết nối đều thành server-side prepared statement.
+     * Với cursor, câu lệnh có fetch size đọc từng đợt 50 dòng mà vẫn chạy được câu lệnh khác trên cùng kết nối.
+     */
+    private void withCursorFetch(StreamingWork work) throws IOException {
+        PropertySet[] properties = new PropertySet[1];
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            if (connection.isWrapperFor(JdbcConnection.class)) {
+                properties[0] = connection.unwrap(JdbcConnection.class).getPropertySet();
+            }
+        });
+        if (properties[0] == null) {
+            work.run(); // không phải MySQL - driver tự quyết định cách đọc theo fetch size
+            return;
+        }
+
+        RuntimeProperty<Boolean> cursorFetch = properties[0].getBooleanProperty(PropertyKey.useCursorFetch);
+        RuntimeProperty<Boolean> serverPrepStmts = properties[0].getBooleanProperty(PropertyKey.useServerPrepStmts);
+        boolean previousCursorFetch = cursorFetch.getValue();
+        boolean previousServerPrepStmts = serverPrepStmts.getValue();
+        cursorFetch.setValue(true);
+        serverPrepStmts.setValue(true);
+        try {
+            work.run();
+        } finally {
+            cursorFetch.setValue(previousCursorFetch);
+            serverPrepStmts.setValue(previousServerPrepStmts);
+        }
+    }
+
+    @FunctionalInterface
+    private interface StreamingWork {
+        void run() throws IOException;
+    }
+}
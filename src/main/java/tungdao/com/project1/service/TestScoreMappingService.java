@@ -1,115 +1,143 @@
 package tungdao.com.project1.service;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import tungdao.com.project1.entity.TestScoreMapping;
 import tungdao.com.project1.entity.TestScoreMappingType;
 import tungdao.com.project1.repository.TestScoreMappingRepository;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Quy đổi số câu đúng sang band IELTS.
+ * Bảng quy đổi được dựng sẵn trong bộ nhớ: mỗi loại đề một mảng BigDecimal[] đánh chỉ số theo số câu đúng,
+ * nên chấm điểm chỉ là một lần đọc mảng. Khi mapping trong DB thay đổi thì gọi reload() để thay cả bảng cùng lúc.
+ */
 @Service
 public class TestScoreMappingService {
+
+    private static final BigDecimal MAX_BAND = BigDecimal.valueOf(9.0);
+    private static final int DEFAULT_TABLE_SIZE = 41; // 0..40 câu
+    private static final int MAX_TABLE_SIZE = 1000;   // chặn range lỗi trong DB làm mảng quá lớn
+
+    // ✅ Bảng mặc định: {số câu đúng tối thiểu, band} - dùng khi DB không có range phù hợp
+    private static final double[][] READING_BANDS = {
+            {39, 9.0}, {37, 8.5}, {35, 8.0}, {33, 7.5}, {30, 7.0}, {27, 6.5}, {23, 6.0}, {19, 5.5},
+            {15, 5.0}, {13, 4.5}, {10, 4.0}, {8, 3.5}, {6, 3.0}, {4, 2.5}, {2, 2.0}, {1, 1.0}
+    };
+    private static final double[][] LISTENING_BANDS = {
+            {39, 9.0}, {37, 8.5}, {35, 8.0}, {32, 7.5}, {30, 7.0}, {26, 6.5}, {23, 6.0}, {18, 5.5},
+            {16, 5.0}, {13, 4.5}, {10, 4.0}, {8, 3.5}, {6, 3.0}, {4, 2.5}, {2, 2.0}, {1, 1.0}
+    };
+
     private final TestScoreMappingRepository testScoreMappingRepository;
 
+    // Thay cả map một lần (volatile) - request đang chấm luôn thấy một bảng hoàn chỉnh
+    private volatile Map<TestScoreMappingType, BigDecimal[]> bandTables;
+
     public TestScoreMappingService(TestScoreMappingRepository testScoreMappingRepository) {
         this.testScoreMappingRepository = testScoreMappingRepository;
+        this.bandTables = buildTables(Collections.emptyList()); // chưa có DB: chỉ bảng mặc định
     }
 
-    // ✅ FIXED: Remove duplicate logic
-    public BigDecimal getIELTSScore(String testType, Integer correctCount) {
-        System.out.println("=== 🎯 IELTS SCORE MAPPING ===");
-        System.out.println("Test Type: " + testType + ", Correct Count: " + correctCount);
-
-        if (correctCount == null || correctCount <= 0) {
-            System.out.println("❌ Zero/null correct count, returning 0.0");
-            return BigDecimal.ZERO;
-        }
-
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
         try {
-            // ✅ Database lookup first
-            TestScoreMappingType mappingType = TestScoreMappingType.valueOf(testType.toUpperCase());
-            TestScoreMapping mapping = testScoreMappingRepository.findByTestTypeAndCorrectAnswersRange(
-                    mappingType, correctCount);
-
-            if (mapping != null) {
-                BigDecimal score = mapping.getIeltsScore();
-                System.out.println("✅ Database mapping found: " + correctCount + " correct → " + score + " IELTS");
-                return score;
-            } else {
-                System.out.println("⚠️ No database mapping found, using fallback logic");
-            }
+            reload();
         } catch (Exception e) {
-            System.out.println("⚠️ Database mapping failed: " + e.getMessage());
+            System.err.println("⚠️ Could not load score mappings, using built-in bands: " + e.getMessage());
         }
+    }
 
-        // ✅ Fallback logic
-        BigDecimal score;
-        if ("READING".equalsIgnoreCase(testType)) {
-            score = getReadingScore(correctCount);
-            System.out.println("✅ Fallback READING mapping: " + correctCount + " correct → " + score + " IELTS");
-        } else if ("LISTENING".equalsIgnoreCase(testType)) {
-            score = getListeningScore(correctCount);
-            System.out.println("✅ Fallback LISTENING mapping: " + correctCount + " correct → " + score + " IELTS");
-        } else {
-            System.out.println("❌ Unknown test type: " + testType);
-            score = BigDecimal.ZERO;
+    /**
+     * Đọc lại test_score_mapping và thay bảng quy đổi đang dùng
+     */
+    public synchronized Map<String, Object> reload() {
+        List<TestScoreMapping> mappings = testScoreMappingRepository.findAll();
+        Map<TestScoreMappingType, BigDecimal[]> tables = buildTables(mappings);
+        this.bandTables = tables;
+
+        System.out.println("✅ Loaded " + mappings.size() + " score mapping rows into band tables");
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("databaseRows", mappings.size());
+        for (Map.Entry<TestScoreMappingType, BigDecimal[]> entry : tables.entrySet()) {
+            result.put(entry.getKey().name().toLowerCase() + "TableSize", entry.getValue().length);
+        }
+        return result;
+    }
+
+    public BigDecimal getIELTSScore(String testType, Integer correctCount) {
+        if (correctCount == null || correctCount <= 0 || testType == null) {
+            return BigDecimal.ZERO;
         }
 
-        // ✅ SANITY CHECK
-        if (score.compareTo(BigDecimal.valueOf(9.0)) > 0) {
-            System.err.println("🚨 ERROR: IELTS score > 9.0! Score: " + score);
-            System.err.println("🚨 This suggests incorrect logic - returning correct count instead of IELTS score");
+        TestScoreMappingType mappingType;
+        try {
+            mappingType = TestScoreMappingType.valueOf(testType.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ Unknown test type: " + testType);
             return BigDecimal.ZERO;
         }
 
-        return score;
+        BigDecimal[] table = bandTables.get(mappingType);
+        if (correctCount < table.length) {
+            return table[correctCount];
+        }
+        return defaultBand(mappingType, correctCount); // vượt mọi range trong DB
     }
 
-    // ✅ FIXED: READING mapping - Remove duplicate and dead code
-    private BigDecimal getReadingScore(Integer correctCount) {
-        System.out.println("🎯 Calculating READING IELTS score for " + correctCount + " correct answers");
-
-        BigDecimal score;
-        if (correctCount >= 39) score = BigDecimal.valueOf(9.0);
-        else if (correctCount >= 37) score = BigDecimal.valueOf(8.5);
-        else if (correctCount >= 35) score = BigDecimal.valueOf(8.0);
-        else if (correctCount >= 33) score = BigDecimal.valueOf(7.5);
-        else if (correctCount >= 30) score = BigDecimal.valueOf(7.0);
-        else if (correctCount >= 27) score = BigDecimal.valueOf(6.5);
-        else if (correctCount >= 23) score = BigDecimal.valueOf(6.0);
-        else if (correctCount >= 19) score = BigDecimal.valueOf(5.5);
-        else if (correctCount >= 15) score = BigDecimal.valueOf(5.0);
-        else if (correctCount >= 13) score = BigDecimal.valueOf(4.5);
-        else if (correctCount >= 10) score = BigDecimal.valueOf(4.0);
-        else if (correctCount >= 8) score = BigDecimal.valueOf(3.5);  // 8-9 correct
-        else if (correctCount >= 6) score = BigDecimal.valueOf(3.0);  // 6-7 correct ← 7 câu đúng = 3.0
-        else if (correctCount >= 4) score = BigDecimal.valueOf(2.5);
-        else if (correctCount >= 2) score = BigDecimal.valueOf(2.0);
-        else if (correctCount >= 1) score = BigDecimal.valueOf(1.0);
-        else score = BigDecimal.ZERO;
-
-        System.out.println("📊 READING: " + correctCount + " correct → " + score + " IELTS band score");
-        return score;
+    private static Map<TestScoreMappingType, BigDecimal[]> buildTables(List<TestScoreMapping> mappings) {
+        Map<TestScoreMappingType, BigDecimal[]> tables = new EnumMap<>(TestScoreMappingType.class);
+
+        for (TestScoreMappingType type : TestScoreMappingType.values()) {
+            int size = DEFAULT_TABLE_SIZE;
+            for (TestScoreMapping mapping : mappings) {
+                if (mapping.getTestType() == type && mapping.getCorrectAnswersMax() != null) {
+                    size = Math.max(size, Math.min(MAX_TABLE_SIZE, mapping.getCorrectAnswersMax() + 1));
+                }
+            }
+
+            BigDecimal[] table = new BigDecimal[size];
+            for (int count = 0; count < size; count++) {
+                table[count] = defaultBand(type, count);
+            }
+
+            // ✅ Range trong DB được ưu tiên hơn bảng mặc định
+            for (TestScoreMapping mapping : mappings) {
+                if (mapping.getTestType() != type || mapping.getCorrectAnswersMin() == null
+                        || mapping.getCorrectAnswersMax() == null || mapping.getIeltsScore() == null) {
+                    continue;
+                }
+                if (mapping.getIeltsScore().compareTo(MAX_BAND) > 0) {
+                    System.err.println("🚨 Ignoring score mapping above 9.0: " + mapping);
+                    continue;
+                }
+                int from = Math.max(1, mapping.getCorrectAnswersMin());
+                int to = Math.min(size - 1, mapping.getCorrectAnswersMax());
+                for (int count = from; count <= to; count++) {
+                    table[count] = mapping.getIeltsScore();
+                }
+            }
+
+            tables.put(type, table);
+        }
+        return tables;
     }
 
-    // ✅ LISTENING mapping (unchanged but cleaned up)
-    private BigDecimal getListeningScore(Integer correctCount) {
-        if (correctCount >= 39) return BigDecimal.valueOf(9.0);
-        if (correctCount >= 37) return BigDecimal.valueOf(8.5);
-        if (correctCount >= 35) return BigDecimal.valueOf(8.0);
-        if (correctCount >= 32) return BigDecimal.valueOf(7.5);
-        if (correctCount >= 30) return BigDecimal.valueOf(7.0);
-        if (correctCount >= 26) return BigDecimal.valueOf(6.5);
-        if (correctCount >= 23) return BigDecimal.valueOf(6.0);
-        if (correctCount >= 18) return BigDecimal.valueOf(5.5);
-        if (correctCount >= 16) return BigDecimal.valueOf(5.0);
-        if (correctCount >= 13) return BigDecimal.valueOf(4.5);
-        if (correctCount >= 10) return BigDecimal.valueOf(4.0);
-        if (correctCount >= 8) return BigDecimal.valueOf(3.5);
-        if (correctCount >= 6) return BigDecimal.valueOf(3.0);
-        if (correctCount >= 4) return BigDecimal.valueOf(2.5);
-        if (correctCount >= 2) return BigDecimal.valueOf(2.0);
-        if (correctCount >= 1) return BigDecimal.valueOf(1.0);
+    private static BigDecimal defaultBand(TestScoreMappingType type, int correctCount) {
+        double[][] bands = type == TestScoreMappingType.READING ? READING_BANDS : LISTENING_BANDS;
+        for (double[] band : bands) {
+            if (correctCount >= band[0]) {
+                return BigDecimal.valueOf(band[1]);
+            }
+        }
         return BigDecimal.ZERO;
     }
-}
\ No newline at end of file
+}
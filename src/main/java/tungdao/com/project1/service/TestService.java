@@ -1,16 +1,26 @@
 package tungdao.com.project1.service;
 
 import jakarta.transaction.Transactional;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import tungdao.com.project1.dto.TestDTO;
 import tungdao.com.project1.entity.Test;
 import tungdao.com.project1.entity.User;
 import tungdao.com.project1.repository.*;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
 
 @Service
 public class TestService {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final TestRepository testRepository;
     private final QuestionRepository questionRepository;
     private final ReadingPassageRepository readingPassageRepository;
@@ -18,6 +28,9 @@ public class TestService {
     private final CorrectAnswerRepository correctAnswerRepository;
     private final TestAttemptRepository testAttemptRepository;
     private final StudentResponseRepository studentResponseRepository;
+    private final TestStatsService testStatsService;
+    private final ItemAnalysisService itemAnalysisService;
+    private final LeaderboardService leaderboardService;
 
     public TestService(
             TestRepository testRepository,
@@ -26,7 +39,10 @@ public class TestService {
             ListeningAudioRepository listeningAudioRepository,
             CorrectAnswerRepository correctAnswerRepository,
             TestAttemptRepository testAttemptRepository,
-            StudentResponseRepository studentResponseRepository) {
+            StudentResponseRepository studentResponseRepository,
+            TestStatsService testStatsService,
+            ItemAnalysisService itemAnalysisService,
+            LeaderboardService leaderboardService) {
         this.testRepository = testRepository;
         this.questionRepository = questionRepository;
         this.readingPassageRepository = readingPassageRepository;
@@ -34,6 +50,9 @@ public class TestService {
         this.correctAnswerRepository = correctAnswerRepository;
         this.testAttemptRepository = testAttemptRepository;
         this.studentResponseRepository = studentResponseRepository;
+        this.testStatsService = testStatsService;
+        this.itemAnalysisService = itemAnalysisService;
+        this.leaderboardService = leaderboardService;
     }
 
     // ✅ EXISTING METHODS (keep as is)
@@ -48,6 +67,86 @@ public class TestService {
         return tests;
     }
 
+    // ✅ DANH SÁCH ĐỀ: projection TestDTO + keyset pagination theo id giảm dần.
+    // Không truyền cursor/size thì trả toàn bộ (tương thích frontend cũ nhận mảng).
+
+    public static boolean isPaged(Integer cursor, Integer size) {
+        return cursor != null || size != null;
+    }
+
+    public List<TestDTO> listPublishedTests(Integer cursor, Integer size) {
+        return testRepository.findPublishedPage(cursorOf(cursor), pageableOf(cursor, size));
+    }
+
+    public List<TestDTO> searchPublishedTests(String query, Integer cursor, Integer size) {
+        return testRepository.searchPublishedPage(escapeLike(query), cursorOf(cursor), pageableOf(cursor, size));
+    }
+
+    public long countPublishedTests(String query) {
+        return testRepository.countPublishedByTestName(escapeLike(query));
+    }
+
+    /**
+     * Escape từ khoá cho LIKE ... ESCAPE '!' để "%" và "_" người dùng gõ được tìm đúng nghĩa đen
+     */
+    static String escapeLike(String query) {
+        if (query == null) {
+            return null;
+        }
+        return query.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    public List<TestDTO> listTestsByCreatorId(Integer creatorId, Integer cursor, Integer size) {
+        return testRepository.findPageByCreatorId(creatorId, cursorOf(cursor), pageableOf(cursor, size));
+    }
+
+    public List<TestDTO> listAllTests(Integer cursor, Integer size) {
+        return testRepository.findAllPage(cursorOf(cursor), pageableOf(cursor, size));
+    }
+
+    /**
+     * Đóng gói một trang: nextCursor = id cuối nếu trang đầy.
+     * totalCount chỉ tính ở trang đầu, bằng câu COUNT riêng (không đếm lại ở mỗi trang sau)
+     */
+    public Map<String, Object> buildPage(List<?> items, List<TestDTO> rows, Integer cursor, Integer size,
+                                         LongSupplier totalCount) {
+        int pageSize = pageSizeOf(size);
+        Map<String, Object> page = new HashMap<>();
+        page.put("items", items);
+        page.put("size", pageSize);
+        page.put("nextCursor", rows.size() == pageSize ? rows.get(rows.size() - 1).getId() : null);
+        if (cursor == null) {
+            page.put("totalCount", totalCount.getAsLong());
+        }
+        return page;
+    }
+
+    /**
+     * Số lượt làm bài của các đề trong trang - một câu GROUP BY thay cho nạp attempts từng đề
+     */
+    public Map<Integer, Long> countAttemptsByTest(Collection<Integer> testIds) {
+        Map<Integer, Long> counts = new HashMap<>();
+        if (testIds.isEmpty()) {
+            return counts;
+        }
+        for (Object[] row : testAttemptRepository.countByTestIdIn(testIds)) {
+            counts.put((Integer) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    private static int cursorOf(Integer cursor) {
+        return cursor == null ? Integer.MAX_VALUE : cursor;
+    }
+
+    private static int pageSizeOf(Integer size) {
+        return size == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+    }
+
+    private static Pageable pageableOf(Integer cursor, Integer size) {
+        return isPaged(cursor, size) ? PageRequest.of(0, pageSizeOf(size)) : Pageable.unpaged();
+    }
+
     public Test getTestById(Integer id) {
         return testRepository.findById(id).orElse(null);
     }
@@ -205,7 +304,8 @@ public class TestService {
             stats.setTotalTests(testRepository.countByCreator(user));
             stats.setPublishedTests(testRepository.countByCreatorAndIsPublishedTrue(user));
             stats.setDraftTests(testRepository.countByCreatorAndIsPublishedFalse(user));
-            stats.setTotalAttempts(testAttemptRepository.countByTestCreator(user));
+            // Đọc từ test_stats thay vì COUNT trên test_attempts
+            stats.setTotalAttempts((Long) testStatsService.getCreatorSummary(user.getId()).get("totalAttempts"));
             System.out.println("✅ Teacher statistics calculated");
 
         } else {
@@ -236,6 +336,9 @@ public class TestService {
 
         // Xóa các lần làm bài
         testAttemptRepository.deleteByTestId(id);
+        testStatsService.markDirty(id);
+        itemAnalysisService.forgetTest(id);
+        leaderboardService.requestRebuild();
 
         // Xóa các câu hỏi
         questionRepository.deleteByTestId(id);
@@ -263,6 +366,9 @@ public class TestService {
 
         // Xóa các lần làm bài
         testAttemptRepository.deleteByTestId(testId);
+        testStatsService.markDirty(testId);
+        itemAnalysisService.forgetTest(testId);
+        leaderboardService.requestRebuild();
 
         // Xóa các câu hỏi
         questionRepository.deleteByTestId(testId);
@@ -0,0 +1,349 @@
+package tungdao.com.project1.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tungdao.com.project1.entity.TestStats;
+import tungdao.com.project1.entity.TestStatsBand;
+import tungdao.com.project1.entity.TestStatsOutbox;
+import tungdao.com.project1.repository.TestRepository;
+import tungdao.com.project1.repository.TestStatsBandRepository;
+import tungdao.com.project1.repository.TestStatsOutboxRepository;
+import tungdao.com.project1.repository.TestStatsRepository;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thống kê theo đề (số lượt làm, số bài hoàn thành, tổng / tổng bình phương band, phân bố band).
+ * Mọi chỗ chấm hoặc chấm lại bài làm gọi markDirty trong cùng transaction; một job nền đọc outbox
+ * và tính lại đúng các đề bị đánh dấu, nên dashboard chỉ đọc một dòng theo khoá chính.
+ */
+@Service
+public class TestStatsService {
+
+    private static final int MAX_MISMATCHES_REPORTED = 100;
+
+    private final TestStatsRepository testStatsRepository;
+    private final TestStatsBandRepository testStatsBandRepository;
+    private final TestStatsOutboxRepository testStatsOutboxRepository;
+    private final TestRepository testRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.test-stats.drain-batch-size:100}")
+    private int drainBatchSize;
+
+    @Value("${app.test-stats.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    private final LongAdder recomputedTests = new LongAdder();
+    private final LongAdder failedRecomputes = new LongAdder();
+    private final LongAdder mismatchesFound = new LongAdder();
+    private volatile Map<String, Object> lastCheck;
+
+    public TestStatsService(TestStatsRepository testStatsRepository,
+                            TestStatsBandRepository testStatsBandRepository,
+                            TestStatsOutboxRepository testStatsOutboxRepository,
+                            TestRepository testRepository,
+                            PlatformTransactionManager transactionManager) {
+        this.testStatsRepository = testStatsRepository;
+        this.testStatsBandRepository = testStatsBandRepository;
+        this.testStatsOutboxRepository = testStatsOutboxRepository;
+        this.testRepository = testRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Lần đầu chạy (bảng thống kê còn trống): đánh dấu mọi đề để job nền tính dần
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        try {
+            if (testStatsRepository.count() == 0) {
+                backfill();
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not backfill test stats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Đánh dấu đề cần tính lại - gọi trong transaction ghi bài làm để không mất thay đổi nào
+     */
+    public void markDirty(Integer testId) {
+        if (testId != null) {
+            testStatsOutboxRepository.markDirty(testId, now());
+        }
+    }
+
+    /**
+     * Backfill một lần: đưa mọi đề vào outbox, job nền tính lại theo từng batch
+     */
+    public int backfill() {
+        int marked = testStatsOutboxRepository.markAllDirty(now());
+        System.out.println("🔄 Test stats backfill queued for " + marked + " test(s)");
+        return marked;
+    }
+
+    /**
+     * Một lượt quét có giới hạn mỗi chu kỳ: chỉ các dòng có trước lúc bắt đầu, mỗi dòng một lần.
+     * Dòng tính lỗi hoặc bị đánh dấu lại để cho chu kỳ sau, không giữ thread lập lịch mãi.
+     */
+    @Scheduled(fixedDelayString = "${app.test-stats.drain-interval-ms:5000}", initialDelay = 10000)
+    public void drainOutbox() {
+        try {
+            LocalDateTime cutoff = now();
+            LocalDateTime afterAt = LocalDateTime.of(1970, 1, 1, 0, 0);
+            Integer afterTestId = 0;
+            List<TestStatsOutbox> batch;
+            do {
+                batch = testStatsOutboxRepository.findPageBefore(cutoff, afterAt, afterTestId,
+                        PageRequest.of(0, drainBatchSize));
+                for (TestStatsOutbox entry : batch) {
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            recompute(entry.getTestId());
+                            testStatsOutboxRepository.deleteIfUnchanged(entry.getTestId(), entry.getRevision());
+                        });
+                        recomputedTests.increment();
+                    } catch (Exception e) {
+                        failedRecomputes.increment();
+                        System.err.println("❌ Error recomputing stats for test " + entry.getTestId() + ": " + e.getMessage());
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    TestStatsOutbox last = batch.get(batch.size() - 1);
+                    afterAt = last.getEnqueuedAt();
+                    afterTestId = last.getTestId();
+                }
+            } while (batch.size() == drainBatchSize);
+        } catch (Exception e) {
+            System.err.println("❌ Error draining test stats outbox: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tính lại thống kê của một đề từ test_attempts (chỉ các dòng của đề này)
+     */
+    private void recompute(Integer testId) {
+        List<Object[]> owner = testRepository.findIdAndCreatorIdById(testId);
+        if (owner.isEmpty()) {
+            // Đề đã bị xoá
+            testStatsRepository.findById(testId).ifPresent(testStatsRepository::delete);
+            testStatsBandRepository.deleteByTestId(testId);
+            return;
+        }
+
+        Object[] row = testStatsRepository.aggregateAttempts(testId).get(0);
+        TestStats stats = testStatsRepository.findById(testId).orElseGet(TestStats::new);
+        stats.setTestId(testId);
+        stats.setCreatorId((Integer) owner.get(0)[1]);
+        stats.setAttemptCount(toLong(row[0]));
+        stats.setCompletedCount(toLong(row[1]));
+        stats.setScoredCount(toLong(row[2]));
+        stats.setScoreSum(toDecimal(row[3]));
+        stats.setScoreSquareSum(toDecimal(row[4]));
+        stats.setLastAttemptAt(toDateTime(row[5]));
+        stats.setUpdatedAt(now());
+        testStatsRepository.save(stats);
+
+        testStatsBandRepository.deleteByTestId(testId);
+        List<TestStatsBand> bands = new ArrayList<>();
+        for (Object[] band : testStatsRepository.aggregateBands(testId)) {
+            bands.add(new TestStatsBand(testId, toDecimal(band[0]), toLong(band[1])));
+        }
+        testStatsBandRepository.saveAll(bands);
+    }
+
+    /**
+     * Thống kê của một đề - một lần đọc theo khoá chính (tính ngay nếu đề chưa có dòng thống kê)
+     */
+    public Map<String, Object> getTestStats(Integer testId) {
+        TestStats stats = testStatsRepository.findById(testId).orElse(null);
+        if (stats == null) {
+            transactionTemplate.executeWithoutResult(status -> recompute(testId));
+            stats = testStatsRepository.findById(testId).orElse(null);
+            if (stats == null) {
+                return null;
+            }
+        }
+
+        Map<BigDecimal, Long> histogram = new LinkedHashMap<>();
+        for (TestStatsBand band : testStatsBandRepository.findByTestIdOrderByBandAsc(testId)) {
+            histogram.put(band.getBand(), band.getAttemptCount());
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("testId", testId);
+        result.put("attemptCount", stats.getAttemptCount());
+        result.put("completedCount", stats.getCompletedCount());
+        result.put("scoredCount", stats.getScoredCount());
+        result.put("averageScore", average(stats.getScoreSum(), stats.getScoredCount()));
+        result.put("standardDeviation", standardDeviation(stats));
+        result.put("bandHistogram", histogram);
+        result.put("lastAttemptAt", stats.getLastAttemptAt());
+        result.put("updatedAt", stats.getUpdatedAt());
+        result.put("pendingRecompute", testStatsOutboxRepository.existsById(testId));
+        return result;
+    }
+
+    /**
+     * Cộng dồn các đề của một giáo viên từ test_stats (không quét test_attempts)
+     */
+    public Map<String, Object> getCreatorSummary(Integer creatorId) {
+        Object[] row = testStatsRepository.sumByCreator(creatorId).get(0);
+        long scored = toLong(row[2]);
+
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("totalAttempts", toLong(row[0]));
+        summary.put("completedAttempts", toLong(row[1]));
+        summary.put("scoredAttempts", scored);
+        summary.put("averageScore", average(toDecimal(row[3]), scored));
+        return summary;
+    }
+
+    /**
+     * So sánh test_stats với số liệu tính lại từ test_attempts (một lần quét GROUP BY).
+     * Đề đang nằm trong outbox được bỏ qua vì sắp được tính lại. repair = true: đánh dấu lại các đề lệch.
+     */
+    public Map<String, Object> checkConsistency(boolean repair) {
+        System.out.println("=== CHECKING TEST STATS CONSISTENCY ===");
+        Map<Integer, TestStats> stored = new HashMap<>();
+        for (TestStats stats : testStatsRepository.findAll()) {
+            stored.put(stats.getTestId(), stats);
+        }
+        Set<Integer> pending = new HashSet<>();
+        for (TestStatsOutbox entry : testStatsOutboxRepository.findAll()) {
+            pending.add(entry.getTestId());
+        }
+
+        Set<Integer> checked = new HashSet<>();
+        List<Integer> mismatched = new ArrayList<>();
+        for (Object[] row : testStatsRepository.aggregateAllAttempts()) {
+            Integer testId = (Integer) row[0];
+            checked.add(testId);
+            if (pending.contains(testId)) {
+                continue;
+            }
+            TestStats stats = stored.get(testId);
+            boolean matches = stats != null
+                    && stats.getAttemptCount() == toLong(row[1])
+                    && stats.getCompletedCount() == toLong(row[2])
+                    && stats.getScoredCount() == toLong(row[3])
+                    && stats.getScoreSum().compareTo(toDecimal(row[4])) == 0;
+            if (!matches) {
+                mismatched.add(testId);
+            }
+        }
+        // Đề có dòng thống kê khác 0 nhưng không còn bài làm nào
+        for (TestStats stats : stored.values()) {
+            if (!checked.contains(stats.getTestId()) && !pending.contains(stats.getTestId())
+                    && stats.getAttemptCount() != 0) {
+                mismatched.add(stats.getTestId());
+            }
+        }
+
+        mismatchesFound.add(mismatched.size());
+        if (repair) {
+            mismatched.forEach(this::markDirty);
+        }
+        if (!mismatched.isEmpty()) {
+            System.out.println("⚠️ Test stats out of sync for " + mismatched.size() + " test(s)"
+                    + (repair ? " - queued for recompute" : ""));
+        } else {
+            System.out.println("✅ Test stats consistent (" + checked.size() + " test(s) checked)");
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("checkedTests", checked.size());
+        result.put("storedTests", stored.size());
+        result.put("mismatchCount", mismatched.size());
+        result.put("mismatchedTestIds", mismatched.subList(0, Math.min(mismatched.size(), MAX_MISMATCHES_REPORTED)));
+        result.put("repaired", repair);
+        result.put("checkedAt", LocalDateTime.now());
+        lastCheck = result;
+        return result;
+    }
+
+    @Scheduled(cron = "${app.test-stats.check-cron:0 30 3 * * *}")
+    public void scheduledConsistencyCheck() {
+        try {
+            checkConsistency(true);
+        } catch (Exception e) {
+            System.err.println("❌ Error checking test stats: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("statsRows", testStatsRepository.count());
+        stats.put("outboxDepth", testStatsOutboxRepository.count());
+        stats.put("recomputedSinceStartup", recomputedTests.sum());
+        stats.put("failedRecomputesSinceStartup", failedRecomputes.sum());
+        stats.put("mismatchesFoundSinceStartup", mismatchesFound.sum());
+        stats.put("lastConsistencyCheck", lastCheck);
+        return stats;
+    }
+
+    private static BigDecimal average(BigDecimal sum, long count) {
+        return count == 0 ? null : sum.divide(BigDecimal.valueOf(count), 2, RoundingMode.HALF_UP);
+    }
+
+    // Độ lệch chuẩn (tổng thể) từ tổng và tổng bình phương: sqrt(E[x²] - E[x]²)
+    private static BigDecimal standardDeviation(TestStats stats) {
+        long n = stats.getScoredCount();
+        if (n == 0) {
+            return null;
+        }
+        MathContext mc = MathContext.DECIMAL64;
+        BigDecimal count = BigDecimal.valueOf(n);
+        BigDecimal mean = stats.getScoreSum().divide(count, mc);
+        BigDecimal variance = stats.getScoreSquareSum().divide(count, mc).subtract(mean.multiply(mean, mc));
+        if (variance.signum() <= 0) {
+            return BigDecimal.ZERO.setScale(2);
+        }
+        return variance.sqrt(mc).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    private static BigDecimal toDecimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
+        }
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
+    private static LocalDateTime toDateTime(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+}
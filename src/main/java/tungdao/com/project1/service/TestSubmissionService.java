@@ -18,23 +18,44 @@ public class TestSubmissionService {
     private final UserRepository userRepository;
     private final QuestionRepository questionRepository;
     private final StudentResponseRepository studentResponseRepository;
-    private final CorrectAnswerService correctAnswerService;
+    private final QuestionService questionService;
+    private final AnswerMatcherService answerMatcherService;
     private final TestScoreMappingService testScoreMappingService;
+    private final AudioUploadService audioUploadService;
+    private final AudioStorageService audioStorageService;
+    private final AudioPipelineService audioPipelineService;
+    private final GradingQueueService gradingQueueService;
+    private final TestStatsService testStatsService;
+    private final LeaderboardService leaderboardService;
 
     public TestSubmissionService(TestAttemptRepository testAttemptRepository,
                                  TestRepository testRepository,
                                  UserRepository userRepository,
                                  QuestionRepository questionRepository,
                                  StudentResponseRepository studentResponseRepository,
-                                 CorrectAnswerService correctAnswerService,
-                                 TestScoreMappingService testScoreMappingService) {
+                                 QuestionService questionService,
+                                 AnswerMatcherService answerMatcherService,
+                                 TestScoreMappingService testScoreMappingService,
+                                 AudioUploadService audioUploadService,
+                                 AudioStorageService audioStorageService,
+                                 AudioPipelineService audioPipelineService,
+                                 GradingQueueService gradingQueueService,
+                                 TestStatsService testStatsService,
+                                 LeaderboardService leaderboardService) {
         this.testAttemptRepository = testAttemptRepository;
         this.testRepository = testRepository;
         this.userRepository = userRepository;
         this.questionRepository = questionRepository;
         this.studentResponseRepository = studentResponseRepository;
-        this.correctAnswerService = correctAnswerService;
+        this.questionService = questionService;
+        this.answerMatcherService = answerMatcherService;
         this.testScoreMappingService = testScoreMappingService;
+        this.audioUploadService = audioUploadService;
+        this.audioStorageService = audioStorageService;
+        this.audioPipelineService = audioPipelineService;
+        this.gradingQueueService = gradingQueueService;
+        this.testStatsService = testStatsService;
+        this.leaderboardService = leaderboardService;
     }
 
     @Transactional
@@ -77,15 +98,21 @@ public class TestSubmissionService {
             attempt = testAttemptRepository.save(attempt);
             System.out.println("✅ TestAttempt saved with ID: " + attempt.getId());
 
-            // Save responses with attempt reference
-            Set<StudentResponse> savedResponses = new HashSet<>();
+            // Save responses with attempt reference - một saveAll để Hibernate gửi INSERT theo batch
             for (StudentResponse response : responses) {
                 response.setAttempt(attempt);
-                StudentResponse savedResponse = studentResponseRepository.save(response);
+            }
+            Set<StudentResponse> savedResponses = new HashSet<>();
+            for (StudentResponse savedResponse : studentResponseRepository.saveAll(responses)) {
                 savedResponses.add(savedResponse);
 
-                System.out.println("✅ Saved response for Q" + response.getQuestion().getId() +
-                        " (Type: " + response.getResponseType() + ")");
+                if (savedResponse.hasStoredAudio()) {
+                    audioPipelineService.enqueue(AudioJobSource.STUDENT_RESPONSE,
+                            savedResponse.getId(), savedResponse.getAudioHash());
+                }
+
+                System.out.println("✅ Saved response for Q" + savedResponse.getQuestion().getId() +
+                        " (Type: " + savedResponse.getResponseType() + ")");
             }
 
             attempt.setResponses(savedResponses);
@@ -95,6 +122,9 @@ public class TestSubmissionService {
 
             // Save final attempt with scores
             attempt = testAttemptRepository.save(attempt);
+            gradingQueueService.enqueue(attempt);
+            testStatsService.markDirty(test.getId());
+            leaderboardService.recordAttempt(attempt);
 
             System.out.println("=== SUBMISSION COMPLETED ===");
             System.out.println("Total Score: " + attempt.getTotalScore());
@@ -109,6 +139,65 @@ public class TestSubmissionService {
         }
     }
 
+    /**
+     * Nộp bài đã autosave: câu trả lời đã nằm trong student_responses, chỉ cần chấm và đóng bài làm.
+     * Gọi AutosaveService.close(attemptId) trước để bộ đệm đã được ghi xuống.
+     */
+    @Transactional
+    public TestAttempt finalizeAttempt(Integer userId, Integer attemptId) {
+        TestAttempt attempt = testAttemptRepository.findById(attemptId)
+                .orElseThrow(() -> new IllegalArgumentException("Attempt not found with ID: " + attemptId));
+        if (!attempt.getStudent().getId().equals(userId)) {
+            throw new SecurityException("Attempt " + attemptId + " does not belong to user " + userId);
+        }
+        if (Boolean.TRUE.equals(attempt.getIsCompleted())) {
+            System.out.println("⚠️ Attempt " + attemptId + " already submitted - returning existing result");
+            return attempt;
+        }
+
+        System.out.println("=== FINALIZING AUTOSAVED ATTEMPT " + attemptId + " ===");
+        Test test = attempt.getTest();
+        Map<Integer, Question> questionsById = questionService.getQuestionsWithAnswers(test.getId());
+
+        List<StudentResponse> responses = new ArrayList<>();
+        List<StudentResponse> empty = new ArrayList<>();
+        for (StudentResponse response : studentResponseRepository.findWithQuestionByAttemptId(attemptId)) {
+            Question question = questionsById.getOrDefault(response.getQuestion().getId(), response.getQuestion());
+            response.setSubmittedAt(LocalDateTime.now());
+
+            if (response.hasStoredAudio() || response.hasAudioResponse()) {
+                response.setIsCorrect(null); // Will be graded manually
+                if (response.hasStoredAudio()) {
+                    audioPipelineService.enqueue(AudioJobSource.STUDENT_RESPONSE, response.getId(), response.getAudioHash());
+                }
+            } else if (response.getResponseText() != null && !response.getResponseText().trim().isEmpty()) {
+                response.setResponseText(response.getResponseText().trim());
+                gradeTextResponse(response, question);
+            } else {
+                empty.add(response); // câu đã xoá trắng - coi như không trả lời
+                continue;
+            }
+            responses.add(response);
+        }
+        if (!empty.isEmpty()) {
+            attempt.getResponses().removeAll(empty);
+            studentResponseRepository.deleteAll(empty);
+        }
+
+        attempt.setEndTime(LocalDateTime.now());
+        attempt.setIsCompleted(true);
+        calculateTestScores(attempt, responses, test);
+        attempt = testAttemptRepository.save(attempt);
+        gradingQueueService.enqueue(attempt);
+        testStatsService.markDirty(test.getId());
+        leaderboardService.recordAttempt(attempt);
+
+        System.out.println("=== FINALIZE COMPLETED ===");
+        System.out.println("Responses graded: " + responses.size() + ", empty removed: " + empty.size());
+        System.out.println("Total Score: " + attempt.getTotalScore());
+        return attempt;
+    }
+
     private List<StudentResponse> processEnhancedResponses(List<TestAttemptRequest.ResponseData> responsesData,
                                                            TestAttempt attempt, Test test) {
         List<StudentResponse> responses = new ArrayList<>();
@@ -117,10 +206,17 @@ public class TestSubmissionService {
         int audioResponses = 0;
         int textResponses = 0;
 
+        // ✅ Một query cho cả đề (kèm đáp án) thay vì findById + getByQuestionId cho từng câu trả lời
+        Map<Integer, Question> questionsById = questionService.getQuestionsWithAnswers(test.getId());
+
         for (TestAttemptRequest.ResponseData responseData : responsesData) {
             try {
-                Question question = questionRepository.findById(responseData.getQuestionId())
-                        .orElseThrow(() -> new RuntimeException("Question not found: " + responseData.getQuestionId()));
+                Question question = questionsById.get(responseData.getQuestionId());
+                if (question == null) {
+                    // Câu hỏi không thuộc đề này - tra riêng như trước
+                    question = questionRepository.findById(responseData.getQuestionId())
+                            .orElseThrow(() -> new RuntimeException("Question not found: " + responseData.getQuestionId()));
+                }
 
                 StudentResponse response = new StudentResponse();
                 response.setQuestion(question);
@@ -128,7 +224,39 @@ public class TestSubmissionService {
                 response.setSubmittedAt(LocalDateTime.now());
 
                 // ✅ ENHANCED: Handle both text and audio responses
-                if (responseData.hasAudioResponse()) {
+                if (responseData.hasAudioUpload()) {
+                    // Audio đã upload theo chunk - chỉ gắn hash vào response
+                    audioUploadService.attachToResponse(response, responseData.getAudioUploadId(),
+                            attempt.getStudent().getId(), responseData.getAudioDuration());
+                    response.setResponseText(null);
+                    response.setIsCorrect(null); // Will be graded manually
+
+                    audioResponses++;
+                    System.out.println("📻 Uploaded audio for Q" + question.getId() +
+                            " - Upload: " + responseData.getAudioUploadId() + ", Hash: " + response.getAudioHash());
+
+                } else if (responseData.hasStoredAudio()) {
+                    // audioResponse đã được spool vào kho audio khi deserialize - chỉ lưu hash
+                    if (!audioStorageService.isOwnedBy(responseData.getAudioHash(), attempt.getStudent().getId())) {
+                        throw new SecurityException("Audio " + responseData.getAudioHash() +
+                                " does not belong to current user");
+                    }
+                    Integer headerDuration = audioStorageService.readDurationSeconds(responseData.getAudioHash());
+                    response.setAudioHash(responseData.getAudioHash());
+                    response.setAudioDurationSeconds(headerDuration != null ? headerDuration : responseData.getAudioDuration());
+                    response.setAudioFileType(responseData.getAudioFileType());
+                    response.setAudioFileSize(responseData.getAudioFileSize());
+                    response.setAudioMimeType(responseData.getAudioMimeType());
+                    response.setResponseType(ResponseType.AUDIO);
+                    response.setResponseText(null);
+                    response.setIsCorrect(null); // Will be graded manually
+
+                    audioResponses++;
+                    System.out.println("📻 Stored audio for Q" + question.getId() +
+                            " - Hash: " + responseData.getAudioHash() + ", " +
+                            "Size: " + formatFileSize(responseData.getAudioFileSize()));
+
+                } else if (responseData.hasAudioResponse()) {
                     // Audio response (Speaking test)
                     response.setAudioBase64(responseData.getAudioResponse());
                     response.setAudioDurationSeconds(responseData.getAudioDuration());
@@ -153,23 +281,7 @@ public class TestSubmissionService {
                     response.setAudioBase64(null); // Clear audio for text responses
 
                     // Auto-grade text responses if possible
-                    if (isObjectiveQuestion(question)) {
-                        CorrectAnswer correctAnswer = correctAnswerService.getByQuestionId(question.getId());
-                        if (correctAnswer != null) {
-                            boolean isCorrect = checkAnswer(response.getResponseText(), correctAnswer);
-                            response.setIsCorrect(isCorrect);
-                            System.out.println("📝 Text response for Q" + question.getId() +
-                                    " - Answer: '" + response.getResponseText() + "' -> " +
-                                    (isCorrect ? "CORRECT" : "INCORRECT"));
-                        } else {
-                            response.setIsCorrect(false);
-                            System.out.println("📝 Text response for Q" + question.getId() + " - No answer key");
-                        }
-                    } else {
-                        // Subjective text questions (essays) need manual grading
-                        response.setIsCorrect(null);
-                        System.out.println("📝 Subjective text response for Q" + question.getId() + " - Manual grading required");
-                    }
+                    gradeTextResponse(response, question);
 
                     textResponses++;
                 } else {
@@ -194,7 +306,27 @@ public class TestSubmissionService {
         return responses;
     }
 
-    private boolean isObjectiveQuestion(Question question) {
+    private void gradeTextResponse(StudentResponse response, Question question) {
+        if (isObjectiveQuestion(question)) {
+            CorrectAnswer correctAnswer = question.getCorrectAnswer();
+            if (correctAnswer != null) {
+                boolean isCorrect = answerMatcherService.matches(correctAnswer, response.getResponseText());
+                response.setIsCorrect(isCorrect);
+                System.out.println("📝 Text response for Q" + question.getId() +
+                        " - Answer: '" + response.getResponseText() + "' -> " +
+                        (isCorrect ? "CORRECT" : "INCORRECT"));
+            } else {
+                response.setIsCorrect(false);
+                System.out.println("📝 Text response for Q" + question.getId() + " - No answer key");
+            }
+        } else {
+            // Subjective text questions (essays) need manual grading
+            response.setIsCorrect(null);
+            System.out.println("📝 Subjective text response for Q" + question.getId() + " - Manual grading required");
+        }
+    }
+
+    static boolean isObjectiveQuestion(Question question) {
         if (question.getQuestionType() == null) {
             return true; // Default to objective
         }
@@ -210,37 +342,11 @@ public class TestSubmissionService {
                 type != QuestionType.SPEAKING_PART3;
     }
 
-    private boolean checkAnswer(String userResponse, CorrectAnswer correctAnswer) {
-        if (userResponse == null || userResponse.trim().isEmpty()) {
-            return false;
-        }
-
-        String normalizedUser = userResponse.toLowerCase().trim();
-        String normalizedCorrect = correctAnswer.getCorrectAnswerText().toLowerCase().trim();
-
-        // Check main answer
-        if (normalizedUser.equals(normalizedCorrect)) {
-            return true;
-        }
-
-        // Check alternatives
-        if (correctAnswer.getAlternativeAnswers() != null) {
-            String[] alternatives = correctAnswer.getAlternativeAnswers().split(",");
-            for (String alt : alternatives) {
-                if (normalizedUser.equals(alt.trim().toLowerCase())) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
     private void calculateTestScores(TestAttempt attempt, List<StudentResponse> responses, Test test) {
         System.out.println("=== CALCULATING SCORES WITH AUDIO SUPPORT ===");
 
         // Count responses by type and correctness
-        long audioResponses = responses.stream().filter(r -> r.getAudioBase64() != null).count();
+        long audioResponses = responses.stream().filter(StudentResponse::hasAudioResponse).count();
         long textCorrect = responses.stream().filter(r -> Boolean.TRUE.equals(r.getIsCorrect())).count();
         long manualGradingRequired = responses.stream().filter(r -> r.getIsCorrect() == null).count();
 
@@ -0,0 +1,135 @@
+package tungdao.com.project1.service;
+
+import tungdao.com.project1.entity.CorrectAnswer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Harness đo AnswerMatcher so với cách chấm cũ (lower-case + trim + split alternativeAnswers mỗi câu trả lời)
+ * trên 10k câu trả lời và 40 đáp án. Không chạy cùng test - chạy tay bằng main() trên classpath test,
+ * ví dụ từ IDE hoặc: java -cp target/test-classes:target/classes:... tungdao.com.project1.service.AnswerMatcherBenchmark
+ */
+public class AnswerMatcherBenchmark {
+
+    private static final int KEYS = 40;
+    private static final int RESPONSES = 10_000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 50;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<CorrectAnswer> answers = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            CorrectAnswer answer = new CorrectAnswer();
+            answer.setCorrectAnswerText("Answer " + i);
+            answer.setAlternativeAnswers("answer-" + i + ", ans " + i + ", A" + i + ", option " + (char) ('a' + i % 26));
+            answers.add(answer);
+        }
+
+        int[] keyOf = new int[RESPONSES];
+        String[] responses = new String[RESPONSES];
+        for (int i = 0; i < RESPONSES; i++) {
+            keyOf[i] = random.nextInt(KEYS);
+            int shape = random.nextInt(4);
+            responses[i] = switch (shape) {
+                case 0 -> "  ANSWER " + keyOf[i] + " ";
+                case 1 -> "ans " + keyOf[i];
+                case 2 -> "option " + (char) ('a' + random.nextInt(26));
+                default -> "wrong " + random.nextInt(1000);
+            };
+        }
+
+        AnswerMatcher[] defaults = compileAll(answers, EnumSet.noneOf(AnswerMatcher.Normalization.class));
+        AnswerMatcher[] allOptions = compileAll(answers, EnumSet.allOf(AnswerMatcher.Normalization.class));
+
+        int mismatches = 0;
+        for (int i = 0; i < RESPONSES; i++) {
+            if (legacyCheck(responses[i], answers.get(keyOf[i])) != defaults[keyOf[i]].matches(responses[i])) {
+                mismatches++;
+            }
+        }
+        System.out.println("Mismatches vs legacy (default normalisation): " + mismatches + " / " + RESPONSES);
+
+        run("legacy", () -> {
+            int correct = 0;
+            for (int i = 0; i < RESPONSES; i++) {
+                correct += legacyCheck(responses[i], answers.get(keyOf[i])) ? 1 : 0;
+            }
+            return correct;
+        });
+        run("compiled (default)", () -> {
+            int correct = 0;
+            for (int i = 0; i < RESPONSES; i++) {
+                correct += defaults[keyOf[i]].matches(responses[i]) ? 1 : 0;
+            }
+            return correct;
+        });
+        run("compiled (all options)", () -> {
+            int correct = 0;
+            for (int i = 0; i < RESPONSES; i++) {
+                correct += allOptions[keyOf[i]].matches(responses[i]) ? 1 : 0;
+            }
+            return correct;
+        });
+    }
+
+    private static AnswerMatcher[] compileAll(List<CorrectAnswer> answers, Set<AnswerMatcher.Normalization> options) {
+        AnswerMatcher[] matchers = new AnswerMatcher[answers.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = AnswerMatcher.compile(answers.get(i).getCorrectAnswerText(),
+                    answers.get(i).getAlternativeAnswers(), options);
+        }
+        return matchers;
+    }
+
+    private static void run(String name, Round round) {
+        long sink = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            sink += round.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int r = 0; r < MEASURED_ROUNDS; r++) {
+            sink += round.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        long checks = (long) MEASURED_ROUNDS * RESPONSES;
+        System.out.printf("%-24s %8.1f ns/response %8.1f B/response (checksum %d)%n",
+                name, (double) elapsed / checks, (double) allocated / checks, sink);
+    }
+
+    /**
+     * Bản sao cách chấm cũ trong TestController / TestSubmissionService / TestAttemptController
+     */
+    private static boolean legacyCheck(String userResponse, CorrectAnswer correctAnswer) {
+        if (userResponse == null || userResponse.trim().isEmpty()) {
+            return false;
+        }
+        String normalizedUser = userResponse.toLowerCase().trim();
+        if (normalizedUser.equals(correctAnswer.getCorrectAnswerText().toLowerCase().trim())) {
+            return true;
+        }
+        if (correctAnswer.getAlternativeAnswers() != null) {
+            for (String alt : correctAnswer.getAlternativeAnswers().split(",")) {
+                if (normalizedUser.equals(alt.trim().toLowerCase())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private interface Round {
+        int run();
+    }
+}
@@ -0,0 +1,125 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnswerMatcherTest {
+
+    private static final Set<AnswerMatcher.Normalization> NONE = EnumSet.noneOf(AnswerMatcher.Normalization.class);
+    private static final Set<AnswerMatcher.Normalization> ALL = EnumSet.allOf(AnswerMatcher.Normalization.class);
+
+    @Test
+    void defaultModeTrimsAndLowerCasesLikeTheLegacyCheck() {
+        AnswerMatcher matcher = AnswerMatcher.compile("Paris", " London , Rome", NONE);
+
+        assertThat(matcher.matches("  PARIS ")).isTrue();
+        assertThat(matcher.matches("london")).isTrue();
+        assertThat(matcher.matches("Rome")).isTrue();
+        assertThat(matcher.matches("Berlin")).isFalse();
+        // Khoảng trắng bên trong vẫn phải khớp chính xác như cách chấm cũ
+        assertThat(AnswerMatcher.compile("New York", null, NONE).matches("new  york")).isFalse();
+    }
+
+    @Test
+    void emptyOrNullResponseNeverMatches() {
+        AnswerMatcher matcher = AnswerMatcher.compile("yes", null, NONE);
+
+        assertThat(matcher.matches(null)).isFalse();
+        assertThat(matcher.matches("   ")).isFalse();
+        assertThat(AnswerMatcher.compile("", ",  ,", NONE).matches("")).isFalse();
+    }
+
+    @Test
+    void alternativesAreDeduplicated() {
+        AnswerMatcher matcher = AnswerMatcher.compile("Colour", "colour, COLOR, color", NONE);
+
+        assertThat(matcher.getKeyCount()).isEqualTo(2);
+        assertThat(matcher.matches("color")).isTrue();
+    }
+
+    @Test
+    void whitespaceCollapsesInnerRuns() {
+        AnswerMatcher matcher = AnswerMatcher.compile("New York", null, EnumSet.of(AnswerMatcher.Normalization.WHITESPACE));
+
+        assertThat(matcher.matches(" new \t york ")).isTrue();
+        assertThat(matcher.matches("newyork")).isFalse();
+    }
+
+    @Test
+    void punctuationDropsApostrophesAndSplitsOnSymbols() {
+        AnswerMatcher matcher = AnswerMatcher.compile("north east", "dont", EnumSet.of(AnswerMatcher.Normalization.PUNCTUATION));
+
+        assertThat(matcher.matches("North-East.")).isTrue();
+        assertThat(matcher.matches("don't")).isTrue();
+        assertThat(matcher.matches("don’t!")).isTrue();
+    }
+
+    @Test
+    void articlesAreIgnored() {
+        AnswerMatcher matcher = AnswerMatcher.compile("the library", null, EnumSet.of(AnswerMatcher.Normalization.ARTICLES));
+
+        assertThat(matcher.matches("library")).isTrue();
+        assertThat(matcher.matches("a library")).isTrue();
+        assertThat(matcher.matches("the the library")).isTrue();
+        assertThat(matcher.matches("theatre library")).isFalse();
+    }
+
+    @Test
+    void numbersConvertWordsAndThousandsSeparators() {
+        Set<AnswerMatcher.Normalization> numbers = EnumSet.of(AnswerMatcher.Normalization.NUMBERS);
+
+        assertThat(AnswerMatcher.compile("21", null, numbers).matches("twenty one")).isTrue();
+        assertThat(AnswerMatcher.compile("1000", null, numbers).matches("1,000")).isTrue();
+        assertThat(AnswerMatcher.compile("3 rooms", null, numbers).matches("Three rooms")).isTrue();
+        assertThat(AnswerMatcher.compile("20 1", null, numbers).matches("twenty one")).isFalse();
+    }
+
+    @Test
+    void numbersHandleHyphenatedWordsWithoutPunctuation() {
+        Set<AnswerMatcher.Normalization> numbers = EnumSet.of(AnswerMatcher.Normalization.NUMBERS);
+
+        assertThat(AnswerMatcher.compile("21", null, numbers).matches("twenty-one")).isTrue();
+        assertThat(AnswerMatcher.compile("99 days", null, numbers).matches("Ninety-Nine days")).isTrue();
+        assertThat(AnswerMatcher.compile("twenty-one", null, numbers).matches("21")).isTrue();
+        // Không phải số ghép hợp lệ thì giữ nguyên token
+        assertThat(AnswerMatcher.compile("21", null, numbers).matches("one-twenty")).isFalse();
+        assertThat(AnswerMatcher.compile("well-known", null, numbers).matches("well-known")).isTrue();
+    }
+
+    @Test
+    void allOptionsCombine() {
+        AnswerMatcher matcher = AnswerMatcher.compile("21 apples", "a dozen eggs", ALL);
+
+        assertThat(matcher.matches("  The twenty-one   apples! ")).isTrue();
+        assertThat(matcher.matches("Dozen eggs.")).isTrue();
+        assertThat(matcher.matches("22 apples")).isFalse();
+    }
+
+    @Test
+    void longResponsesGrowTheScratchBuffer() {
+        String longAnswer = "x".repeat(1000);
+        AnswerMatcher matcher = AnswerMatcher.compile(longAnswer, null, NONE);
+
+        assertThat(matcher.matches(longAnswer.toUpperCase())).isTrue();
+        assertThat(matcher.matches(longAnswer + "y")).isFalse();
+    }
+
+    @Test
+    void recognisesTheAnswerItWasCompiledFrom() {
+        AnswerMatcher matcher = AnswerMatcher.compile("Paris", "London", NONE);
+
+        assertThat(matcher.isCompiledFrom("Paris", "London")).isTrue();
+        assertThat(matcher.isCompiledFrom("Paris", null)).isFalse();
+    }
+
+    @Test
+    void parseNormalizationIgnoresUnknownOptions() {
+        assertThat(AnswerMatcher.parseNormalization(" Punctuation, numbers ,bogus,"))
+                .containsExactlyInAnyOrder(AnswerMatcher.Normalization.PUNCTUATION, AnswerMatcher.Normalization.NUMBERS);
+        assertThat(AnswerMatcher.parseNormalization(null)).isEmpty();
+    }
+}
@@ -0,0 +1,119 @@
+package tungdao.com.project1.service;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import tungdao.com.project1.dto.StudentResponseDTO;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Harness đo kiểm tra audio base64 một lượt (AudioProcessingService.validateAudioResponse) so với cách cũ:
+ * replaceAll("\\s", "") rồi decode toàn bộ hai lần (isValidBase64 + đo kích thước). Hai bên làm cùng một việc:
+ * decode, đếm kích thước và tính SHA-256. Không chạy cùng test - chạy tay bằng main() trên classpath test
+ * với -Xmx2g (đủ cho cách cũ ở 50MB). Tham số: kích thước MB (mặc định 5 50).
+ * JMH không có trong build nên dùng vòng warm-up + đo thời gian và số byte cấp phát của thread.
+ */
+public class AudioBase64Benchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizesMb = args.length > 0 ? new int[args.length] : new int[]{5, 50};
+        for (int i = 0; i < args.length; i++) {
+            sizesMb[i] = Integer.parseInt(args[i]);
+        }
+
+        Path audioDir = Files.createTempDirectory("audio-bench");
+        AudioStorageService storage = new AudioStorageService(null, null);
+        ReflectionTestUtils.setField(storage, "audioDir", audioDir.toString());
+        AudioProcessingService service = new AudioProcessingService(storage);
+
+        for (int sizeMb : sizesMb) {
+            byte[] audio = new byte[sizeMb * 1024 * 1024];
+            new Random(sizeMb).nextBytes(audio);
+            // Trình duyệt gửi base64 MIME (xuống dòng mỗi 76 ký tự) kèm tiền tố data URL
+            String payload = "data:audio/webm;base64," + Base64.getMimeEncoder().encodeToString(audio);
+
+            StudentResponseDTO dto = new StudentResponseDTO();
+            dto.setQuestionId(1);
+            dto.setAudioResponse(payload);
+            dto.setAudioDuration(30);
+            dto.setAudioFileType("webm");
+
+            System.out.println("=== " + sizeMb + " MB audio, " + payload.length() + " base64 chars ===");
+            run("legacy", () -> legacyDecodedSize(payload));
+            run("single pass", () -> quietly(() -> {
+                AudioProcessingService.AudioProcessingResult result = service.validateAudioResponse(dto);
+                if (!result.success) {
+                    throw new IllegalStateException(result.error);
+                }
+                return result.actualFileSize;
+            }));
+        }
+    }
+
+    private static void run(String name, Round round) {
+        long size = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            size = round.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int r = 0; r < MEASURED_ROUNDS; r++) {
+            size = round.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-12s %8.1f ms/response %8.1f MB allocated/response (decoded %d bytes)%n",
+                name, elapsed / 1e6 / MEASURED_ROUNDS, allocated / 1048576.0 / MEASURED_ROUNDS, size);
+    }
+
+    /**
+     * Bản sao cách cũ trong processAudioResponse: làm sạch bằng regex, decode để kiểm tra rồi decode lại để đo
+     */
+    private static long legacyDecodedSize(String audioData) {
+        String cleanBase64 = audioData.substring(audioData.indexOf(',') + 1).replaceAll("\\s", "");
+        Base64.getDecoder().decode(cleanBase64); // isValidBase64
+        byte[] audio = Base64.getDecoder().decode(cleanBase64);
+        sha256(audio); // checksum
+        return audio.length;
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * AudioProcessingService ghi log ra stdout cho mỗi câu trả lời - tắt trong lúc đo
+     */
+    private static long quietly(Round round) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return round.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private interface Round {
+        long run();
+    }
+}
@@ -0,0 +1,303 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AudioDurationParserTest {
+
+    // ===== WAV =====
+
+    @Test
+    void wavDurationIsDataSizeOverByteRate() throws IOException {
+        // 8kHz mono 16-bit = 16000 byte/s, 48000 byte data = 3s; chunk LIST lẻ byte phải được pad
+        assertThat(parse(wav(48000, 48000, 3))).isCloseTo(3.0, within(0.001));
+    }
+
+    @Test
+    void wavWithStreamingDataSizeUsesRestOfFile() throws IOException {
+        assertThat(parse(wav(0, 32000, 0))).isCloseTo(2.0, within(0.001));
+    }
+
+    // ===== Ogg =====
+
+    @Test
+    void opusDurationSubtractsPreSkip() throws IOException {
+        byte[] head = opusHead(312);
+        byte[] data = concat(
+                oggPage(0x1234, 0, head),
+                new byte[100_000],
+                oggPage(0x1234, 5 * 48000 + 312, new byte[50]),
+                oggPage(0x9999, 99 * 48000, new byte[50])); // page của stream khác không được tính
+        assertThat(parse(data)).isCloseTo(5.0, within(0.001));
+    }
+
+    @Test
+    void vorbisDurationUsesSampleRateFromIdentificationHeader() throws IOException {
+        ByteBuffer id = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        id.put((byte) 1).put(ascii("vorbis")).putInt(0).put((byte) 2).putInt(44100);
+        byte[] data = concat(oggPage(7, 0, id.array()), oggPage(7, 44100 * 4, new byte[20]));
+        assertThat(parse(data)).isCloseTo(4.0, within(0.001));
+    }
+
+    // ===== MP3 =====
+
+    // MPEG1 Layer III, 128kbps, 44.1kHz, stereo - mỗi frame 417 byte, 1152 sample
+    private static final byte[] MP3_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+    private static final int MP3_FRAME_LENGTH = 417;
+
+    @Test
+    void cbrMp3IsExtrapolatedFromScannedFrames() throws IOException {
+        byte[] id3v2 = concat(ascii("ID3"), new byte[]{3, 0, 0, 0, 0, 0x02, 0x00}, new byte[256]);
+        byte[] id3v1 = concat(ascii("TAG"), new byte[125]);
+        byte[] data = concat(id3v2, mp3Frames(100), id3v1);
+
+        double expected = 100.0 * MP3_FRAME_LENGTH * 8 / 128_000;
+        assertThat(parse(data)).isCloseTo(expected, within(0.001));
+    }
+
+    @Test
+    void xingHeaderGivesFrameCount() throws IOException {
+        byte[] first = mp3Frames(1);
+        // Side info của MPEG1 stereo dài 32 byte, Xing nằm ngay sau
+        ByteBuffer xing = ByteBuffer.wrap(first, 4 + 32, 12);
+        xing.put(ascii("Xing")).putInt(1).putInt(1000);
+
+        assertThat(parse(concat(first, mp3Frames(3)))).isCloseTo(1000 * 1152 / 44100.0, within(0.001));
+    }
+
+    @Test
+    void vbriHeaderGivesFrameCount() throws IOException {
+        byte[] first = mp3Frames(1);
+        ByteBuffer vbri = ByteBuffer.wrap(first, 4 + 32, 18);
+        vbri.put(ascii("VBRI")).putShort((short) 1).putShort((short) 0).putShort((short) 75)
+                .putInt(123_456).putInt(500);
+
+        assertThat(parse(concat(first, mp3Frames(3)))).isCloseTo(500 * 1152 / 44100.0, within(0.001));
+    }
+
+    // ===== WebM =====
+
+    @Test
+    void webmFloat32DurationIsScaledByTimecodeScale() throws IOException {
+        byte[] duration = ByteBuffer.allocate(4).putFloat(8000f).array();
+        // 8000 tick x 500000ns = 4s
+        assertThat(parse(webm(500_000, duration, new byte[0]))).isCloseTo(4.0, within(0.001));
+    }
+
+    @Test
+    void webmFloat64DurationUsesDefaultTimecodeScale() throws IOException {
+        byte[] duration = ByteBuffer.allocate(8).putDouble(12_345.0).array();
+        assertThat(parse(webm(null, duration, new byte[0]))).isCloseTo(12.345, within(0.001));
+    }
+
+    @Test
+    void webmWithoutDurationUsesLastBlockOfLastCluster() throws IOException {
+        // Cluster timecode 3000 + SimpleBlock tương đối 500 = 3500ms (kiểu Chrome MediaRecorder)
+        byte[] cluster = concat(
+                new byte[]{0x1F, 0x43, (byte) 0xB6, 0x75, (byte) 0x92},
+                new byte[]{(byte) 0xE7, (byte) 0x82, 0x0B, (byte) 0xB8},
+                new byte[]{(byte) 0xA3, (byte) 0x85, (byte) 0x81, 0x00, 0x64, (byte) 0x80, 0x00},
+                new byte[]{(byte) 0xA3, (byte) 0x85, (byte) 0x81, 0x01, (byte) 0xF4, (byte) 0x80, 0x00});
+        assertThat(parse(webm(null, null, cluster))).isCloseTo(3.5, within(0.001));
+    }
+
+    // ===== Dữ liệu hỏng =====
+
+    @Test
+    void truncatedHeadersReturnNull() throws IOException {
+        byte[] wav = wav(48000, 48000, 3);
+        assertThat(parse(Arrays.copyOf(wav, 12))).isNull();
+        assertThat(parse(Arrays.copyOf(wav, 30))).isNull();
+
+        byte[] ogg = oggPage(1, 0, opusHead(312));
+        assertThat(parse(Arrays.copyOf(ogg, 20))).isNull();
+        assertThat(parse(Arrays.copyOf(ogg, 40))).isNull();
+        assertThat(parse(ogg)).isNull(); // không có page nào có granule > 0
+
+        byte[] duration = ByteBuffer.allocate(8).putDouble(1000.0).array();
+        byte[] webm = webm(null, duration, new byte[0]);
+        assertThat(parse(Arrays.copyOf(webm, 10))).isNull();
+        assertThat(parse(Arrays.copyOf(webm, 30))).isNull();
+
+        assertThat(parse(Arrays.copyOf(mp3Frames(1), 3))).isNull();
+    }
+
+    @Test
+    void everyPrefixOfAValidFileIsParsedWithoutThrowing() throws IOException {
+        List<byte[]> files = List.of(
+                wav(48000, 48000, 3),
+                concat(oggPage(1, 0, opusHead(312)), oggPage(1, 48000 * 3, new byte[10])),
+                mp3Frames(20),
+                webm(500_000, ByteBuffer.allocate(4).putFloat(8000f).array(), new byte[0]));
+        for (byte[] file : files) {
+            for (int length = 0; length <= file.length; length++) {
+                Double seconds = parse(Arrays.copyOf(file, length));
+                assertThat(seconds == null || seconds >= 0).as("prefix length %d", length).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void garbageReturnsNullWithoutThrowing() throws IOException {
+        assertThat(parse(new byte[0])).isNull();
+        assertThat(parse(ascii("not an audio file at all"))).isNull();
+
+        Random random = new Random(42);
+        byte[][] magics = {
+                ascii("RIFF\0\0\0\0WAVE"), ascii("OggS"), {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3},
+                ascii("ID3"), MP3_HEADER, new byte[0]
+        };
+        for (byte[] magic : magics) {
+            for (int round = 0; round < 200; round++) {
+                byte[] noise = new byte[random.nextInt(4096)];
+                random.nextBytes(noise);
+                Double seconds = parse(concat(magic, noise));
+                assertThat(seconds == null || seconds >= 0).isTrue();
+            }
+        }
+    }
+
+    // ===== Fixtures =====
+
+    private static Double parse(byte[] data) throws IOException {
+        return AudioDurationParser.parseSeconds(new ByteArrayChannel(data));
+    }
+
+    private static byte[] wav(int declaredDataSize, int actualDataSize, int listSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + 24 + 8 + listSize + (listSize & 1) + 8 + actualDataSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(ascii("RIFF")).putInt(buffer.capacity() - 8).put(ascii("WAVE"));
+        buffer.put(ascii("fmt ")).putInt(16)
+                .putShort((short) 1).putShort((short) 1).putInt(8000).putInt(16000)
+                .putShort((short) 2).putShort((short) 16);
+        buffer.put(ascii("LIST")).putInt(listSize).put(new byte[listSize + (listSize & 1)]);
+        buffer.put(ascii("data")).putInt(declaredDataSize);
+        return buffer.array();
+    }
+
+    private static byte[] opusHead(int preSkip) {
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(ascii("OpusHead")).put((byte) 1).put((byte) 1).putShort((short) preSkip).putInt(48000)
+                .putShort((short) 0).put((byte) 0);
+        return head.array();
+    }
+
+    private static byte[] oggPage(int serial, long granule, byte[] packet) {
+        ByteBuffer page = ByteBuffer.allocate(27 + 1 + packet.length).order(ByteOrder.LITTLE_ENDIAN);
+        page.put(ascii("OggS")).put((byte) 0).put((byte) 0).putLong(granule).putInt(serial)
+                .putInt(0).putInt(0).put((byte) 1).put((byte) packet.length).put(packet);
+        return page.array();
+    }
+
+    private static byte[] mp3Frames(int count) {
+        byte[] frames = new byte[count * MP3_FRAME_LENGTH];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(MP3_HEADER, 0, frames, i * MP3_FRAME_LENGTH, MP3_HEADER.length);
+        }
+        return frames;
+    }
+
+    private static byte[] webm(Integer timecodeScale, byte[] duration, byte[] clusters) {
+        ByteArrayOutputStream info = new ByteArrayOutputStream();
+        if (timecodeScale != null) {
+            info.writeBytes(new byte[]{0x2A, (byte) 0xD7, (byte) 0xB1, (byte) 0x84});
+            info.writeBytes(ByteBuffer.allocate(4).putInt(timecodeScale).array());
+        }
+        info.writeBytes(new byte[]{0x4D, (byte) 0x80, (byte) 0x84}); // MuxingApp
+        info.writeBytes(ascii("test"));
+        if (duration != null) {
+            info.writeBytes(new byte[]{0x44, (byte) 0x89, (byte) (0x80 | duration.length)});
+            info.writeBytes(duration);
+        }
+
+        return concat(
+                new byte[]{0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, (byte) 0x84, 0x42, (byte) 0x86, (byte) 0x81, 0x01},
+                new byte[]{0x18, 0x53, (byte) 0x80, 0x67, 0x01, -1, -1, -1, -1, -1, -1, -1}, // Segment, unknown size
+                new byte[]{0x15, 0x49, (byte) 0xA9, 0x66, (byte) (0x80 | info.size())},
+                info.toByteArray(),
+                clusters);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * SeekableByteChannel chỉ đọc trên mảng byte
+     */
+    private static class ByteArrayChannel implements SeekableByteChannel {
+        private final byte[] data;
+        private long position = 0;
+
+        ByteArrayChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = (int) Math.min(dst.remaining(), data.length - position);
+            dst.put(data, (int) position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HyperLogLogTest {
+
+    private static final int PRECISION = 14; // sai số chuẩn ~0.8%
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertThat(new HyperLogLog(PRECISION).estimate()).isZero();
+    }
+
+    @Test
+    void smallCardinalitiesAreExactEnough() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for (int id = 1; id <= 100; id++) {
+            sketch.add(id);
+        }
+        assertThat(sketch.estimate()).isBetween(98L, 102L);
+    }
+
+    @Test
+    void duplicatesAreCountedOnce() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for (int round = 0; round < 50; round++) {
+            for (int id = 1; id <= 1_000; id++) {
+                sketch.add(id);
+            }
+        }
+        assertThat(sketch.estimate()).isBetween(970L, 1_030L);
+    }
+
+    @Test
+    void largeCardinalityStaysWithinThreeStandardErrors() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        int distinct = 200_000;
+        for (int id = 0; id < distinct; id++) {
+            sketch.add(id);
+        }
+        double error = Math.abs(sketch.estimate() - distinct) / (double) distinct;
+        assertThat(error).isLessThan(3 * 1.04 / Math.sqrt(1 << PRECISION));
+    }
+
+    @Test
+    void mergeEstimatesTheUnion() {
+        HyperLogLog first = new HyperLogLog(PRECISION);
+        HyperLogLog second = new HyperLogLog(PRECISION);
+        for (int id = 0; id < 30_000; id++) {
+            first.add(id);
+        }
+        for (int id = 20_000; id < 50_000; id++) {
+            second.add(id);
+        }
+
+        first.merge(second);
+        double error = Math.abs(first.estimate() - 50_000) / 50_000.0;
+        assertThat(error).isLessThan(0.03);
+    }
+
+    @Test
+    void bytesRoundTripPreservesTheEstimate() {
+        HyperLogLog original = new HyperLogLog(PRECISION);
+        for (int id = 0; id < 12_345; id++) {
+            original.add(id * 7L);
+        }
+
+        HyperLogLog restored = new HyperLogLog(PRECISION);
+        restored.merge(original.toBytes());
+
+        assertThat(restored.toBytes()).isEqualTo(original.toBytes());
+        assertThat(restored.estimate()).isEqualTo(original.estimate());
+    }
+
+    @Test
+    void mergingSerializedSketchKeepsLocalRegisters() {
+        HyperLogLog restored = new HyperLogLog(PRECISION);
+        for (int id = 0; id < 5_000; id++) {
+            restored.add(id);
+        }
+        HyperLogLog saved = new HyperLogLog(PRECISION);
+        for (int id = 5_000; id < 10_000; id++) {
+            saved.add(id);
+        }
+
+        restored.merge(saved.toBytes());
+        assertThat(Math.abs(restored.estimate() - 10_000) / 10_000.0).isLessThan(0.03);
+    }
+
+    @Test
+    void mismatchedInputIsRejectedOrIgnored() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        sketch.add(1);
+
+        assertThatThrownBy(() -> sketch.merge(new HyperLogLog(10))).isInstanceOf(IllegalArgumentException.class);
+        sketch.merge(new byte[10]); // sai kích thước: bỏ qua
+        sketch.merge((byte[]) null);
+        assertThat(sketch.estimate()).isEqualTo(1);
+        assertThatThrownBy(() -> new HyperLogLog(3)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HyperLogLog(17)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
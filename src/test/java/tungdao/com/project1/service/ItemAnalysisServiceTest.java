@@ -0,0 +1,96 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ItemAnalysisServiceTest {
+
+    @Test
+    void pointBiserialMatchesPearsonCorrelation() {
+        boolean[] correct = {true, true, false, true, false, false, true, false};
+        double[] bands = {7.5, 8.0, 5.0, 6.5, 6.0, 4.5, 7.0, 6.5};
+
+        assertThat(fromTotals(correct, bands)).isCloseTo(pearson(correct, bands), within(1e-9));
+    }
+
+    @Test
+    void pointBiserialIsNegativeWhenWeakerStudentsAnswerCorrectly() {
+        boolean[] correct = {false, false, true, true};
+        double[] bands = {8.0, 7.5, 5.0, 4.5};
+
+        assertThat(fromTotals(correct, bands)).isLessThan(-0.9);
+    }
+
+    @Test
+    void pointBiserialIsUndefinedWithoutVariance() {
+        // Quá ít bài làm
+        assertThat(ItemAnalysisService.pointBiserial(1, 1, 7.0, 49.0, 7.0)).isNull();
+        // Mọi người cùng đúng
+        assertThat(fromTotals(new boolean[]{true, true, true}, new double[]{5.0, 6.0, 7.0})).isNull();
+        // Mọi người cùng sai
+        assertThat(fromTotals(new boolean[]{false, false}, new double[]{5.0, 6.0})).isNull();
+        // Mọi người cùng band
+        assertThat(fromTotals(new boolean[]{true, false, true}, new double[]{6.5, 6.5, 6.5})).isNull();
+    }
+
+    @Test
+    void normalizeAnswerCollapsesWhitespaceAndCase() {
+        assertThat(ItemAnalysisService.normalizeAnswer("  The\tRiver   Thames ")).isEqualTo("the river thames");
+        assertThat(ItemAnalysisService.normalizeAnswer("B")).isEqualTo("b");
+    }
+
+    @Test
+    void normalizeAnswerMarksBlankAndKeepsNull() {
+        assertThat(ItemAnalysisService.normalizeAnswer("   ")).isEqualTo("(blank)");
+        assertThat(ItemAnalysisService.normalizeAnswer(null)).isNull();
+    }
+
+    @Test
+    void normalizeAnswerTruncatesLongAnswers() {
+        String normalized = ItemAnalysisService.normalizeAnswer("x".repeat(500));
+
+        assertThat(normalized).hasSize(100);
+    }
+
+    private static Double fromTotals(boolean[] correct, double[] bands) {
+        long correctCount = 0;
+        double sum = 0;
+        double squareSum = 0;
+        double correctSum = 0;
+        for (int i = 0; i < bands.length; i++) {
+            sum += bands[i];
+            squareSum += bands[i] * bands[i];
+            if (correct[i]) {
+                correctCount++;
+                correctSum += bands[i];
+            }
+        }
+        return ItemAnalysisService.pointBiserial(bands.length, correctCount, sum, squareSum, correctSum);
+    }
+
+    private static double pearson(boolean[] correct, double[] bands) {
+        int n = bands.length;
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < n; i++) {
+            meanX += correct[i] ? 1 : 0;
+            meanY += bands[i];
+        }
+        meanX /= n;
+        meanY /= n;
+
+        double covariance = 0;
+        double varianceX = 0;
+        double varianceY = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = (correct[i] ? 1 : 0) - meanX;
+            double dy = bands[i] - meanY;
+            covariance += dx * dy;
+            varianceX += dx * dx;
+            varianceY += dy * dy;
+        }
+        return covariance / Math.sqrt(varianceX * varianceY);
+    }
+}
@@ -0,0 +1,119 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeaderboardTest {
+
+    @Test
+    void topIsOrderedByBandThenEarlierAttempt() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        leaderboard.offer(1, "An", 30, 6.5);
+        leaderboard.offer(2, "Binh", 20, 8.0);
+        leaderboard.offer(3, "Chi", 10, 6.5);
+
+        List<Map<String, Object>> top = leaderboard.top(10);
+
+        assertThat(top).extracting(entry -> entry.get("studentId")).containsExactly(2, 3, 1);
+        assertThat(top).extracting(entry -> entry.get("rank")).containsExactly(1L, 2L, 2L);
+        assertThat(top.get(0)).containsEntry("studentName", "Binh").containsEntry("attemptId", 20)
+                .containsEntry("band", 8.0);
+    }
+
+    @Test
+    void tiedStudentsShareARank() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        leaderboard.offer(1, "An", 1, 7.0);
+        leaderboard.offer(2, "Binh", 2, 7.0);
+        leaderboard.offer(3, "Chi", 3, 5.5);
+
+        assertThat(leaderboard.rankOf(1)).containsEntry("rank", 1L);
+        assertThat(leaderboard.rankOf(2)).containsEntry("rank", 1L);
+        assertThat(leaderboard.rankOf(3)).containsEntry("rank", 3L).containsEntry("participants", 3L)
+                .containsEntry("percentile", 33.3);
+    }
+
+    @Test
+    void bandsAreRoundedToHalfBands() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        leaderboard.offer(1, "An", 1, 6.74);
+
+        assertThat(leaderboard.rankOf(1)).containsEntry("band", 6.5);
+        assertThat(leaderboard.top(1).get(0)).containsEntry("band", 6.5);
+    }
+
+    @Test
+    void keepsEachStudentsBestAttempt() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        assertThat(leaderboard.offer(1, "An", 1, 6.0)).isTrue();
+        assertThat(leaderboard.offer(1, "An", 2, 7.5)).isTrue();
+        assertThat(leaderboard.offer(1, "An", 3, 5.0)).isTrue(); // bài làm khác thấp hơn: bỏ qua
+
+        assertThat(leaderboard.participants()).isEqualTo(1);
+        assertThat(leaderboard.top(10)).singleElement().satisfies(entry -> {
+            assertThat(entry).containsEntry("attemptId", 2);
+            assertThat(entry).containsEntry("band", 7.5);
+        });
+    }
+
+    @Test
+    void loweredRegradeOfTheBestAttemptAsksForARebuild() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        leaderboard.offer(1, "An", 1, 8.0);
+        leaderboard.offer(2, "Binh", 2, 7.0);
+
+        assertThat(leaderboard.offer(1, "An", 1, 6.0)).isFalse();
+        // Không áp dụng tăng dần - bảng giữ nguyên cho đến khi dựng lại
+        assertThat(leaderboard.rankOf(1)).containsEntry("band", 8.0).containsEntry("rank", 1L);
+
+        // Chấm lại cùng điểm hoặc cao hơn vẫn áp dụng được
+        assertThat(leaderboard.offer(1, "An", 1, 8.0)).isTrue();
+        assertThat(leaderboard.offer(1, "An", 1, 8.5)).isTrue();
+        assertThat(leaderboard.rankOf(1)).containsEntry("band", 8.5);
+    }
+
+    @Test
+    void evictsTheLowestFromTopKButStillRanksEveryone() {
+        Leaderboard leaderboard = new Leaderboard(2);
+        leaderboard.offer(1, "An", 1, 5.0);
+        leaderboard.offer(2, "Binh", 2, 6.0);
+        leaderboard.offer(3, "Chi", 3, 7.0);
+
+        assertThat(leaderboard.top(10)).extracting(entry -> entry.get("studentId")).containsExactly(3, 2);
+        assertThat(leaderboard.participants()).isEqualTo(3);
+        assertThat(leaderboard.rankOf(1)).containsEntry("rank", 3L);
+
+        // Học viên bị đẩy ra cải thiện điểm thì quay lại top
+        leaderboard.offer(1, "An", 4, 9.0);
+        assertThat(leaderboard.top(10)).extracting(entry -> entry.get("studentId")).containsExactly(1, 3);
+        assertThat(leaderboard.rankOf(2)).containsEntry("rank", 3L);
+    }
+
+    @Test
+    void lowerScoreDoesNotEnterAFullTop() {
+        Leaderboard leaderboard = new Leaderboard(1);
+        leaderboard.offer(1, "An", 1, 7.0);
+        leaderboard.offer(2, "Binh", 2, 6.0);
+        leaderboard.offer(3, "Chi", 3, 7.0); // cùng band nhưng nộp sau
+
+        assertThat(leaderboard.top(10)).extracting(entry -> entry.get("studentId")).containsExactly(1);
+        assertThat(leaderboard.rankOf(3)).containsEntry("rank", 1L);
+    }
+
+    @Test
+    void topRespectsLimitAndUnknownStudentHasNoRank() {
+        Leaderboard leaderboard = new Leaderboard(10);
+        for (int student = 1; student <= 5; student++) {
+            leaderboard.offer(student, "S" + student, student, student);
+        }
+
+        assertThat(leaderboard.top(3)).hasSize(3);
+        assertThat(leaderboard.top(0)).isEmpty();
+        assertThat(leaderboard.rankOf(99)).isNull();
+        assertThat(new Leaderboard(10).top(5)).isEmpty();
+    }
+}
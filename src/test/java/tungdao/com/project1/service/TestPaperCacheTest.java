@@ -0,0 +1,40 @@
+package tungdao.com.project1.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestPaperCacheTest {
+
+    @Test
+    void plainGzipIsAccepted() {
+        assertThat(TestPaperCache.acceptsGzip("gzip")).isTrue();
+        assertThat(TestPaperCache.acceptsGzip("gzip, deflate, br")).isTrue();
+        assertThat(TestPaperCache.acceptsGzip("br;q=1.0, GZIP;q=0.5")).isTrue();
+        assertThat(TestPaperCache.acceptsGzip("x-gzip")).isTrue();
+    }
+
+    @Test
+    void zeroQualityRefusesGzip() {
+        assertThat(TestPaperCache.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("deflate, gzip ; q=0.000")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("gzip;q=abc")).isFalse();
+    }
+
+    @Test
+    void wildcardAppliesOnlyWhenGzipIsNotListed() {
+        assertThat(TestPaperCache.acceptsGzip("*")).isTrue();
+        assertThat(TestPaperCache.acceptsGzip("*;q=0")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("gzip, *;q=0")).isTrue();
+    }
+
+    @Test
+    void missingOrUnrelatedHeaderMeansNoGzip() {
+        assertThat(TestPaperCache.acceptsGzip(null)).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("identity")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("br, deflate")).isFalse();
+        assertThat(TestPaperCache.acceptsGzip("gzipx")).isFalse();
+    }
+}